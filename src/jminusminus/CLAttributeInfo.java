@@ -10,7 +10,8 @@ import static jminusminus.CLConstants.*;
 /**
  * The abstract base class for the representation of attribute_info} structure. Classes
  * representing individual attributes inherit this class. This file has representations for all
- * attributes specified in JVM Spec Second Edition, including the ones that were added for JDK 1.5.
+ * attributes specified in JVM Spec Second Edition, including the ones that were added for JDK 1.5,
+ * and for the StackMapTable attribute that was added for JDK 1.6.
  * <p>
  * Attributes are used in the CLFile, CLFieldInfo, CLMethodInfo, and CLCodeAttribute structures
  * of the class file. While there are many kinds of attributes, only some are mandatory; these
@@ -167,7 +168,7 @@ class CLCodeAttribute extends CLAttributeInfo {
     /**
      * Code_attribute.code item.
      */
-    public ArrayList<Integer> code;
+    public CLCodeBuffer code;
 
     /**
      * Code_attribute.exception_table_length item.
@@ -204,7 +205,7 @@ class CLCodeAttribute extends CLAttributeInfo {
      * @param attributes           Code_attribute.attributes item.
      */
     public CLCodeAttribute(int attributeNameIndex, long attributeLength, int maxStack,
-                           int maxLocals, long codeLength, ArrayList<Integer> code,
+                           int maxLocals, long codeLength, CLCodeBuffer code,
                            int exceptionTableLength, ArrayList<CLExceptionInfo> exceptionTable,
                            int attributesCount, ArrayList<CLAttributeInfo> attributes) {
         super(attributeNameIndex, attributeLength);
@@ -226,9 +227,7 @@ class CLCodeAttribute extends CLAttributeInfo {
         out.writeShort(maxStack);
         out.writeShort(maxLocals);
         out.writeInt(codeLength);
-        for (int info : code) {
-            out.writeByte(info);
-        }
+        code.write(out);
         out.writeShort(exceptionTableLength);
         for (CLExceptionInfo info : exceptionTable) {
             info.write(out);
@@ -1338,3 +1337,191 @@ class CLAnnotationDefaultAttribute extends CLAttributeInfo {
         defaultValue.write(out);
     }
 }
+
+/**
+ * Representation of verification_type_info structure.
+ */
+class CLVerificationTypeInfo {
+    /**
+     * verification_type_info.tag item.
+     */
+    public short tag;
+
+    /**
+     * Object_variable_info.cpool_index item; used only if tag is ITEM_Object.
+     */
+    public int cpoolIndex;
+
+    /**
+     * Uninitialized_variable_info.offset item; used only if tag is ITEM_Uninitialized.
+     */
+    public int offset;
+
+    /**
+     * Construct a CLVerificationTypeInfo object.
+     *
+     * @param tag        verification_type_info.tag item.
+     * @param cpoolIndex Object_variable_info.cpool_index item.
+     * @param offset     Uninitialized_variable_info.offset item.
+     */
+    public CLVerificationTypeInfo(short tag, int cpoolIndex, int offset) {
+        this.tag = tag;
+        this.cpoolIndex = cpoolIndex;
+        this.offset = offset;
+    }
+
+    /**
+     * Return the number of bytes this object takes up in the class file.
+     *
+     * @return the number of bytes this object takes up in the class file.
+     */
+    public int length() {
+        return (tag == ITEM_Object || tag == ITEM_Uninitialized) ? 3 : 1;
+    }
+
+    /**
+     * Write the contents of this object to the specified output stream.
+     *
+     * @param out output stream.
+     * @throws IOException if an error occurs while writing.
+     */
+    public void write(CLOutputStream out) throws IOException {
+        out.writeByte(tag);
+        if (tag == ITEM_Object) {
+            out.writeShort(cpoolIndex);
+        } else if (tag == ITEM_Uninitialized) {
+            out.writeShort(offset);
+        }
+    }
+}
+
+/**
+ * Representation of stack_map_frame structure. The frame type determines which of the items are
+ * written: same_frame and same_locals_1_stack_item_frame encode the offset delta in the frame
+ * type itself, chop_frame and append_frame the number of locals removed or added, and only
+ * full_frame has the number of locals and of stack items written out.
+ */
+class CLStackMapFrame {
+    /**
+     * stack_map_frame.frame_type item.
+     */
+    public int frameType;
+
+    /**
+     * stack_map_frame.offset_delta item.
+     */
+    public int offsetDelta;
+
+    /**
+     * stack_map_frame.locals item; the locals appended by an append_frame, or all the locals of
+     * a full_frame.
+     */
+    public ArrayList<CLVerificationTypeInfo> locals;
+
+    /**
+     * stack_map_frame.stack item.
+     */
+    public ArrayList<CLVerificationTypeInfo> stack;
+
+    /**
+     * Construct a CLStackMapFrame object.
+     *
+     * @param frameType   stack_map_frame.frame_type item.
+     * @param offsetDelta stack_map_frame.offset_delta item.
+     * @param locals      stack_map_frame.locals item.
+     * @param stack       stack_map_frame.stack item.
+     */
+    public CLStackMapFrame(int frameType, int offsetDelta,
+                           ArrayList<CLVerificationTypeInfo> locals,
+                           ArrayList<CLVerificationTypeInfo> stack) {
+        this.frameType = frameType;
+        this.offsetDelta = offsetDelta;
+        this.locals = locals;
+        this.stack = stack;
+    }
+
+    /**
+     * Return the number of bytes this object takes up in the class file.
+     *
+     * @return the number of bytes this object takes up in the class file.
+     */
+    public int length() {
+        int length = frameType < SAME_LOCALS_1_STACK_ITEM_EXTENDED ? 1 : 3;
+        if (frameType == FULL_FRAME) {
+            length += 4;
+        }
+        for (CLVerificationTypeInfo info : locals) {
+            length += info.length();
+        }
+        for (CLVerificationTypeInfo info : stack) {
+            length += info.length();
+        }
+        return length;
+    }
+
+    /**
+     * Write the contents of this object to the specified output stream.
+     *
+     * @param out output stream.
+     * @throws IOException if an error occurs while writing.
+     */
+    public void write(CLOutputStream out) throws IOException {
+        out.writeByte(frameType);
+        if (frameType >= SAME_LOCALS_1_STACK_ITEM_EXTENDED) {
+            out.writeShort(offsetDelta);
+        }
+        if (frameType == FULL_FRAME) {
+            out.writeShort(locals.size());
+        }
+        for (CLVerificationTypeInfo info : locals) {
+            info.write(out);
+        }
+        if (frameType == FULL_FRAME) {
+            out.writeShort(stack.size());
+        }
+        for (CLVerificationTypeInfo info : stack) {
+            info.write(out);
+        }
+    }
+}
+
+/**
+ * Representation of StackMapTable_attribute structure.
+ */
+class CLStackMapTableAttribute extends CLAttributeInfo {
+    /**
+     * StackMapTable_attribute.number_of_entries item.
+     */
+    public int numberOfEntries;
+
+    /**
+     * StackMapTable_attribute.entries item.
+     */
+    public ArrayList<CLStackMapFrame> entries;
+
+    /**
+     * Construct a CLStackMapTableAttribute object.
+     *
+     * @param attributeNameIndex StackMapTable_attribute.attribute_name_index item.
+     * @param attributeLength    StackMapTable_attribute.attribute_length item.
+     * @param numberOfEntries    StackMapTable_attribute.number_of_entries item.
+     * @param entries            StackMapTable_attribute.entries item.
+     */
+    public CLStackMapTableAttribute(int attributeNameIndex, long attributeLength,
+                                    int numberOfEntries, ArrayList<CLStackMapFrame> entries) {
+        super(attributeNameIndex, attributeLength);
+        this.numberOfEntries = numberOfEntries;
+        this.entries = entries;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void write(CLOutputStream out) throws IOException {
+        super.write(out);
+        out.writeShort(numberOfEntries);
+        for (CLStackMapFrame frame : entries) {
+            frame.write(out);
+        }
+    }
+}
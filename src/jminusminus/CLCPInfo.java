@@ -4,6 +4,7 @@ package jminusminus;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 
 import static jminusminus.CLConstants.*;
 
@@ -40,6 +41,13 @@ abstract class CLCPInfo {
     public boolean equals(Object other) {
         return false;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        return tag;
+    }
 }
 
 /**
@@ -81,6 +89,13 @@ class CLConstantClassInfo extends CLCPInfo {
         }
         return false;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        return 31 * tag + nameIndex;
+    }
 }
 
 /**
@@ -133,6 +148,13 @@ abstract class CLConstantMemberRefInfo extends CLCPInfo {
         }
         return false;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        return (31 * tag + classIndex) * 31 + nameAndTypeIndex;
+    }
 }
 
 /**
@@ -220,6 +242,13 @@ class CLConstantStringInfo extends CLCPInfo {
         }
         return false;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        return 31 * tag + stringIndex;
+    }
 }
 
 /**
@@ -279,6 +308,13 @@ class CLConstantIntegerInfo extends CLCPInfo {
         }
         return false;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        return 31 * tag + i;
+    }
 }
 
 /**
@@ -330,12 +366,19 @@ class CLConstantFloatInfo extends CLCPInfo {
     public boolean equals(Object other) {
         if (other instanceof CLConstantFloatInfo) {
             CLConstantFloatInfo c = (CLConstantFloatInfo) other;
-            if (c.f == f) {
+            if (Float.floatToIntBits(c.f) == Float.floatToIntBits(f)) {
                 return true;
             }
         }
         return false;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        return 31 * tag + Float.floatToIntBits(f);
+    }
 }
 
 /**
@@ -423,6 +466,13 @@ class CLConstantLongInfo extends CLCPInfo {
         }
         return false;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        return 31 * tag + Long.hashCode(l);
+    }
 }
 
 /**
@@ -504,12 +554,19 @@ class CLConstantDoubleInfo extends CLCPInfo {
     public boolean equals(Object other) {
         if (other instanceof CLConstantDoubleInfo) {
             CLConstantDoubleInfo c = (CLConstantDoubleInfo) other;
-            if (c.d == d) {
+            if (Double.doubleToLongBits(c.d) == Double.doubleToLongBits(d)) {
                 return true;
             }
         }
         return false;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        return 31 * tag + Long.hashCode(Double.doubleToLongBits(d));
+    }
 }
 
 /**
@@ -560,6 +617,13 @@ class CLConstantNameAndTypeInfo extends CLCPInfo {
         }
         return false;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        return (31 * tag + nameIndex) * 31 + descriptorIndex;
+    }
 }
 
 /**
@@ -604,10 +668,17 @@ class CLConstantUtf8Info extends CLCPInfo {
     public boolean equals(Object other) {
         if (other instanceof CLConstantUtf8Info) {
             CLConstantUtf8Info c = (CLConstantUtf8Info) other;
-            if ((new String(b)).equals(new String(c.b))) {
+            if (Arrays.equals(b, c.b)) {
                 return true;
             }
         }
         return false;
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int hashCode() {
+        return 31 * tag + Arrays.hashCode(b);
+    }
 }
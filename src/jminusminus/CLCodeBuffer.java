@@ -0,0 +1,136 @@
+// Copyright 2012- Bill Campbell, Swami Iyer and Bahar Akbal-Delibas
+
+package jminusminus;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A growable buffer of (unboxed) bytes holding the code array of a method. CLInstruction objects
+ * write their bytecode directly into the buffer, the Code attribute writes the buffer out to the
+ * class file, and the SPIM front-end reads the bytes back from it.
+ */
+class CLCodeBuffer {
+    // Default initial capacity of the buffer.
+    private static final int DEFAULT_CAPACITY = 64;
+
+    // The bytes in the buffer.
+    private byte[] bytes;
+
+    // Number of bytes in the buffer.
+    private int size;
+
+    /**
+     * Constructs an empty code buffer.
+     */
+    public CLCodeBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs an empty code buffer with the given initial capacity.
+     *
+     * @param capacity initial capacity of the buffer.
+     */
+    public CLCodeBuffer(int capacity) {
+        bytes = new byte[Math.max(capacity, 1)];
+        size = 0;
+    }
+
+    /**
+     * Returns the number of bytes in this buffer.
+     *
+     * @return the number of bytes in this buffer.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the (unsigned) byte at the specified index in this buffer.
+     *
+     * @param i index of the byte.
+     * @return the (unsigned) byte at the specified index.
+     */
+    public int get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        return bytes[i] & 0xFF;
+    }
+
+    /**
+     * Replaces the byte at the specified index in this buffer.
+     *
+     * @param i index of the byte.
+     * @param b the new byte (its low eight bits).
+     * @throws IndexOutOfBoundsException if the index is out of range.
+     */
+    public void set(int i, int b) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+        bytes[i] = (byte) b;
+    }
+
+    /**
+     * Appends the lower order byte of the specified value to this buffer.
+     *
+     * @param b the byte to append.
+     */
+    public void writeByte(int b) {
+        ensureCapacity(size + 1);
+        bytes[size++] = (byte) b;
+    }
+
+    /**
+     * Appends the lower order two bytes of the specified value to this buffer, higher order
+     * byte first.
+     *
+     * @param s the short to append.
+     */
+    public void writeShort(int s) {
+        ensureCapacity(size + 2);
+        bytes[size++] = (byte) (s >> 8);
+        bytes[size++] = (byte) s;
+    }
+
+    /**
+     * Appends the four bytes of the specified value to this buffer, higher order byte first.
+     *
+     * @param i the int to append.
+     */
+    public void writeInt(int i) {
+        ensureCapacity(size + 4);
+        bytes[size++] = (byte) (i >> 24);
+        bytes[size++] = (byte) (i >> 16);
+        bytes[size++] = (byte) (i >> 8);
+        bytes[size++] = (byte) i;
+    }
+
+    /**
+     * Returns a copy of the bytes in this buffer.
+     *
+     * @return a copy of the bytes in this buffer.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    /**
+     * Writes the contents of this buffer to the specified output stream.
+     *
+     * @param out output stream.
+     * @throws IOException if an error occurs while writing.
+     */
+    public void write(CLOutputStream out) throws IOException {
+        out.write(bytes, 0, size);
+    }
+
+    // Grows the buffer (by doubling its capacity) so it can hold at least minCapacity bytes.
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(minCapacity, bytes.length * 2));
+        }
+    }
+}
@@ -4,6 +4,7 @@ package jminusminus;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * Representation of a class' constant pool.
@@ -15,12 +16,16 @@ class CLConstantPool {
     // List of constant pool items.
     private ArrayList<CLCPInfo> cpItems;
 
+    // Maps each item (by its kind and payload) to its index in the constant pool.
+    private HashMap<CLCPInfo, Integer> cpIndices;
+
     /**
      * Constructs an empty constant pool.
      */
     public CLConstantPool() {
         cpIndex = 1;
         cpItems = new ArrayList<CLCPInfo>();
+        cpIndices = new HashMap<CLCPInfo, Integer>();
     }
 
     /**
@@ -39,8 +44,8 @@ class CLConstantPool {
      * @return the index of the specified item in the constant pool or -1.
      */
     public int find(CLCPInfo cpInfo) {
-        int index = cpItems.indexOf(cpInfo);
-        return (index != -1) ? cpItems.get(index).cpIndex : index;
+        Integer index = cpIndices.get(cpInfo);
+        return (index != null) ? index : -1;
     }
 
     /**
@@ -65,6 +70,7 @@ class CLConstantPool {
     public int addCPItem(CLCPInfo cpInfo) {
         cpInfo.cpIndex = cpIndex++;
         cpItems.add(cpInfo);
+        cpIndices.putIfAbsent(cpInfo, cpInfo.cpIndex);
 
         // long and double, with their lower and higher words, are treated by JVM as two items in
         // the constant pool. We have a single representation for each, so we add a null as
@@ -21,6 +21,18 @@ public class CLConstants {
      */
     public static final int MINOR_VERSION = 0;
 
+    /**
+     * Earliest major version of class files whose methods must carry a StackMapTable attribute
+     * for the type-checking verifier.
+     */
+    public static final int STACK_MAP_MAJOR_VERSION = 50;
+
+    /**
+     * Latest major version of class files that j-- compiles: that of Java SE 8, whose class file
+     * format CLEmitter follows.
+     */
+    public static final int MAX_MAJOR_VERSION = 52;
+
     /**
      * public access flag.
      */
@@ -258,6 +270,11 @@ public class CLConstants {
      */
     public static final String ATT_ANNOTATION_DEFAULT = "AnnotationDefault";
 
+    /**
+     * Identifies StackMapTable attribute.
+     */
+    public static final String ATT_STACK_MAP_TABLE = "StackMapTable";
+
     /**
      * Identifies boolean type of annotation element value.
      */
@@ -323,6 +340,81 @@ public class CLConstants {
      */
     public static final short ELT_e = 'e';
 
+    /**
+     * Identifies top verification type of stack map frame.
+     */
+    public static final short ITEM_Top = 0;
+
+    /**
+     * Identifies int verification type of stack map frame.
+     */
+    public static final short ITEM_Integer = 1;
+
+    /**
+     * Identifies float verification type of stack map frame.
+     */
+    public static final short ITEM_Float = 2;
+
+    /**
+     * Identifies double verification type of stack map frame.
+     */
+    public static final short ITEM_Double = 3;
+
+    /**
+     * Identifies long verification type of stack map frame.
+     */
+    public static final short ITEM_Long = 4;
+
+    /**
+     * Identifies null verification type of stack map frame.
+     */
+    public static final short ITEM_Null = 5;
+
+    /**
+     * Identifies uninitialized this verification type of stack map frame.
+     */
+    public static final short ITEM_UninitializedThis = 6;
+
+    /**
+     * Identifies object verification type of stack map frame.
+     */
+    public static final short ITEM_Object = 7;
+
+    /**
+     * Identifies uninitialized object verification type of stack map frame.
+     */
+    public static final short ITEM_Uninitialized = 8;
+
+    /**
+     * Identifies same_locals_1_stack_item_frame (first of the range 64-127) of stack map table.
+     */
+    public static final int SAME_LOCALS_1_STACK_ITEM = 64;
+
+    /**
+     * Identifies same_locals_1_stack_item_frame_extended of stack map table.
+     */
+    public static final int SAME_LOCALS_1_STACK_ITEM_EXTENDED = 247;
+
+    /**
+     * Identifies chop_frame (first of the range 248-250) of stack map table.
+     */
+    public static final int CHOP_FRAME = 248;
+
+    /**
+     * Identifies same_frame_extended of stack map table.
+     */
+    public static final int SAME_FRAME_EXTENDED = 251;
+
+    /**
+     * Identifies append_frame (first of the range 252-254) of stack map table.
+     */
+    public static final int APPEND_FRAME = 252;
+
+    /**
+     * Identifies full_frame of stack map table.
+     */
+    public static final int FULL_FRAME = 255;
+
     // JVM instructions begin here
 
     /**
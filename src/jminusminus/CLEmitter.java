@@ -3,7 +3,6 @@
 package jminusminus;
 
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -12,7 +11,11 @@ import java.io.IOException;
 import java.io.OutputStream;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
 import java.util.Stack;
 import java.util.StringTokenizer;
 import java.util.TreeMap;
@@ -85,6 +88,9 @@ public class CLEmitter {
     // Number of arguments for the method last added.
     private int mArgumentCount;
 
+    // Frame on entry to the method last added.
+    private CLFrame mInitialFrame;
+
     // Code attributes of the method last added.
     private ArrayList<CLAttributeInfo> mCodeAttributes;
 
@@ -109,6 +115,9 @@ public class CLEmitter {
     // added.
     private int mPC;
 
+    // Number of bytes of code the peephole optimizer saved in the class.
+    private int peepholeSavings;
+
     // Name of the method last added; used for error reporting.
     private String eCurrentMethod;
 
@@ -118,6 +127,14 @@ public class CLEmitter {
     // Class loader to use for creating in-memory representation of classes from byte streams.
     private static ByteClassLoader byteClassLoader;
 
+    /**
+     * Major version of the class files built, from MAJOR_VERSION (the default) to
+     * MAX_MAJOR_VERSION. The methods in class files of version STACK_MAP_MAJOR_VERSION and later
+     * carry StackMapTable attributes, so they are checked by the type-checking verifier of the
+     * JVM, which is faster than the type-inferencing one.
+     */
+    public static int majorVersion = MAJOR_VERSION;
+
     /**
      * Constructs a CLEmitter instance given a boolean on whether or not the class file will be
      * written to the file system.
@@ -171,9 +188,10 @@ public class CLEmitter {
         methods = new ArrayList<CLMethodInfo>();
         attributes = new ArrayList<CLAttributeInfo>();
         innerClasses = new ArrayList<CLInnerClassInfo>();
+        peepholeSavings = 0;
         errorHasOccurred = false;
         clFile.magic = MAGIC;
-        clFile.majorVersion = MAJOR_VERSION;
+        clFile.majorVersion = majorVersion;
         clFile.minorVersion = MINOR_VERSION;
         if (!validInternalForm(thisClass)) {
             reportEmitterError("'%s' is not in internal form", thisClass);
@@ -187,6 +205,7 @@ public class CLEmitter {
             }
         }
         name = thisClass;
+        CLFrame.declareClass(thisClass, superClass);
         clFile.thisClass = constantPool.constantClassInfo(thisClass);
         clFile.superClass = constantPool.constantClassInfo(superClass);
         if (superInterfaces != null) {
@@ -338,6 +357,8 @@ public class CLEmitter {
             }
         }
         mArgumentCount = argumentCount(descriptor) + (accessFlags.contains("static") ? 0 : 1);
+        mInitialFrame = CLFrame.initialFrame(this.name, name, descriptor,
+                accessFlags.contains("static"));
         mNameIndex = constantPool.constantUtf8Info(name);
         mDescriptorIndex = constantPool.constantUtf8Info(descriptor);
         if (exceptions != null && exceptions.size() > 0) {
@@ -978,12 +999,7 @@ public class CLEmitter {
         Class theClass = null;
         try {
             // Extract the bytes from the class representation in memory into an array of bytes.
-            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-            CLOutputStream out = new CLOutputStream(new BufferedOutputStream(byteStream));
-            clFile.write(out);
-            out.close();
-            byte[] classBytes = byteStream.toByteArray();
-            byteStream.close();
+            byte[] classBytes = clFile.toBytes();
 
             // Load a Java Class instance from its byte representation.
             byteClassLoader.setClassBytes(classBytes);
@@ -1002,7 +1018,15 @@ public class CLEmitter {
      */
     public void write() {
         endOpenMethodIfAny();
+        CompilerStats.Timer timer = CompilerStats.start("write");
+        timer.count("classes", 1);
+        timer.count("constant pool entries", constantPool.size());
+        if (CLPeepholeOptimizer.report) {
+            System.err.printf("%s: %d bytes of code saved by peephole optimization\n",
+                    name.replace('/', '.'), peepholeSavings);
+        }
         if (!toFile) {
+            timer.stop();
             return;
         }
         String outFile = destDir + File.separator + name + ".class";
@@ -1013,12 +1037,14 @@ public class CLEmitter {
             CLOutputStream out =
                     new CLOutputStream(new BufferedOutputStream(new FileOutputStream(outFile)));
             clFile.write(out);
+            timer.count("class file bytes", out.size());
             out.close();
         } catch (FileNotFoundException e) {
             reportEmitterError("File %s not found", outFile);
         } catch (IOException e) {
             reportEmitterError("Cannot write to file %s", outFile);
         }
+        timer.stop();
     }
 
     // Initializes all variables used for adding a method to the ClassFile structure to their
@@ -1048,6 +1074,18 @@ public class CLEmitter {
                 addNoArgInstruction(NOP);
             }
 
+            // Rewrite the instructions (and move the jump labels) through the peephole optimizer.
+            if (CLPeepholeOptimizer.enabled) {
+                CompilerStats.Timer timer = CompilerStats.start("peephole");
+                int size = new CLPeepholeOptimizer(mCode, mLabels).optimize();
+                timer.count("bytes saved", mPC - size);
+                timer.stop();
+                peepholeSavings += mPC - size;
+                mPC = size;
+            }
+            CompilerStats.count("methods", 1);
+            CompilerStats.count("bytecode bytes", mPC);
+
             // Resolve jump labels in exception handlers.
             ArrayList<CLExceptionInfo> exceptionTable = new ArrayList<CLExceptionInfo>();
             for (CLException e : mExceptionHandlers) {
@@ -1055,6 +1093,10 @@ public class CLEmitter {
                     reportEmitterError("%s: Unable to resolve exception handler label(s)",
                             eCurrentMethod);
                 }
+                if (e.startPC == e.endPC) {
+                    // The handler covers no code (the peephole optimizer removed all of it).
+                    continue;
+                }
 
                 // We allow catchType to be null (mapping to index 0), implying this exception
                 // handler is called for all exceptions. This is used to implement "finally"
@@ -1066,7 +1108,7 @@ public class CLEmitter {
             }
 
             // Convert Instruction objects to bytes.
-            ArrayList<Integer> byteCode = new ArrayList<Integer>();
+            CLCodeBuffer byteCode = new CLCodeBuffer(mPC);
             int maxLocals = mArgumentCount;
             for (CLInstruction instr : mCode) {
                 // Compute maxLocals.
@@ -1104,13 +1146,25 @@ public class CLEmitter {
                     }
                 }
 
-                byteCode.addAll(instr.toBytes());
+                instr.write(byteCode);
             }
 
             // Code attribute; add only if method is neither native nor abstract.
             if (!((mAccessFlags & ACC_NATIVE) == ACC_NATIVE ||
                     (mAccessFlags & ACC_ABSTRACT) == ACC_ABSTRACT)) {
-                addMethodAttribute(codeAttribute(byteCode, exceptionTable, stackDepth(),
+                int maxStack = stackDepth();
+                if (majorVersion >= STACK_MAP_MAJOR_VERSION) {
+                    boolean[] reached = new boolean[mCode.size()];
+                    TreeMap<Integer, CLFrame> frames = frames(byteCode, exceptionTable, reached);
+                    if (removeUnreachableCode(reached, frames, byteCode, exceptionTable)) {
+                        // The ATHROW that replaces unreachable code pops the exception.
+                        maxStack = Math.max(maxStack, 1);
+                    }
+                    if (!frames.isEmpty()) {
+                        addCodeAttribute(stackMapTableAttribute(frames));
+                    }
+                }
+                addMethodAttribute(codeAttribute(byteCode, exceptionTable, maxStack,
                         maxLocals));
             }
 
@@ -1422,6 +1476,16 @@ public class CLEmitter {
                     case RET:
                         instr = null;
                         break;
+                    case TABLESWITCH:
+                    case LOOKUPSWITCH:
+                        for (int offset : b.switchOffsets()) {
+                            instrAt = instruction(b.pc() + offset);
+                            if (instrAt != null) {
+                                branchTargets.push(instrAt, stackDepth);
+                            }
+                        }
+                        instr = null;
+                        break;
                     case GOTO:
                     case GOTO_W:
                         instr = null;
@@ -1452,6 +1516,250 @@ public class CLEmitter {
         return maxStackDepth;
     }
 
+    // Computes the frames of the method last added at its branch targets and exception
+    // handlers, and returns them mapped from their pcs. This runs the instructions over frames
+    // along the control flow that stackDepth() walks, except that a branch target is visited
+    // again whenever the frame merged into it changes. The instructions reached are marked in
+    // the specified array.
+    private TreeMap<Integer, CLFrame> frames(CLCodeBuffer byteCode,
+                                             ArrayList<CLExceptionInfo> exceptionTable,
+                                             boolean[] reached) {
+        TreeMap<Integer, CLFrame> frames = new TreeMap<Integer, CLFrame>();
+        HashMap<Integer, Integer> pcToIndex = new HashMap<Integer, Integer>();
+        for (int i = 0; i < mCode.size(); i++) {
+            pcToIndex.put(mCode.get(i).pc(), i);
+        }
+
+        // The points of the code that need frames.
+        HashSet<CLInstruction> targets = new HashSet<CLInstruction>();
+        for (CLExceptionInfo e : exceptionTable) {
+            targets.add(mCode.get(pcToIndex.get(e.handlerPC)));
+        }
+        for (CLInstruction instr : mCode) {
+            if (instr instanceof CLFlowControlInstruction) {
+                for (int offset : jumpOffsets((CLFlowControlInstruction) instr)) {
+                    targets.add(mCode.get(pcToIndex.get(instr.pc() + offset)));
+                }
+            }
+        }
+
+        CLBranchStack branchTargets = new CLBranchStack();
+        branchTargets.push(mCode.get(0), mInitialFrame);
+        try {
+            for (CLBranchTarget bt = branchTargets.pop(); bt != null; bt = branchTargets.pop()) {
+                CLFrame frame = bt.frame.copy();
+                for (int c = pcToIndex.get(bt.target.pc()); c < mCode.size(); c++) {
+                    CLInstruction instr = mCode.get(c);
+                    if (instr != bt.target && targets.contains(instr)) {
+                        // Falling through to a branch target is like jumping to it.
+                        branchTargets.push(instr, frame);
+                        break;
+                    }
+                    int opcode = instr.opcode();
+                    if (opcode == JSR || opcode == JSR_W || opcode == RET) {
+                        reportEmitterError("%s: JSR and RET are not allowed in class files of " +
+                                "version %d and later", eCurrentMethod, STACK_MAP_MAJOR_VERSION);
+                        return frames;
+                    }
+                    reached[c] = true;
+                    pushHandlers(branchTargets, instr, frame, exceptionTable, pcToIndex);
+                    frame.execute(instr, byteCode, constantPool, name);
+                    if (opcode == INVOKESPECIAL || (opcode >= ISTORE && opcode <= ASTORE_3)) {
+                        // The instruction changed the types of local variables, which the
+                        // exception handlers must be ready for as well.
+                        pushHandlers(branchTargets, instr, frame, exceptionTable, pcToIndex);
+                    }
+                    if (instr instanceof CLFlowControlInstruction) {
+                        for (int offset : jumpOffsets((CLFlowControlInstruction) instr)) {
+                            branchTargets.push(mCode.get(pcToIndex.get(instr.pc() + offset)),
+                                    frame);
+                        }
+                    }
+                    if (opcode == GOTO || opcode == GOTO_W || opcode == TABLESWITCH ||
+                            opcode == LOOKUPSWITCH || opcode == ATHROW ||
+                            (opcode >= IRETURN && opcode <= RETURN)) {
+                        break;
+                    }
+                }
+            }
+        } catch (IllegalStateException e) {
+            reportEmitterError("%s: Unable to compute stack map frames: %s", eCurrentMethod,
+                    e.getMessage());
+            return frames;
+        }
+        for (CLInstruction target : targets) {
+            if (reached[pcToIndex.get(target.pc())]) {
+                frames.put(target.pc(), branchTargets.frame(target));
+            }
+        }
+        return frames;
+    }
+
+    // Returns the offsets, relative to its pc, of the instructions that the specified flow
+    // control instruction may jump to.
+    private ArrayList<Integer> jumpOffsets(CLFlowControlInstruction instr) {
+        if (instr.opcode() == TABLESWITCH || instr.opcode() == LOOKUPSWITCH) {
+            return instr.switchOffsets();
+        }
+        ArrayList<Integer> offsets = new ArrayList<Integer>();
+        if (instr.opcode() != RET) {
+            offsets.add(instr.jumpToOffset());
+        }
+        return offsets;
+    }
+
+    // Merges the specified frame into the frames of the exception handlers that are active at the
+    // specified instruction.
+    private void pushHandlers(CLBranchStack branchTargets, CLInstruction instr, CLFrame frame,
+                              ArrayList<CLExceptionInfo> exceptionTable,
+                              HashMap<Integer, Integer> pcToIndex) {
+        for (CLExceptionInfo e : exceptionTable) {
+            if (e.startPC <= instr.pc() && instr.pc() < e.endPC) {
+                String catchType = (e.catchType == 0) ? "Ljava/lang/Throwable;" :
+                        CLFrame.type(CLFrame.className(constantPool, e.catchType));
+                branchTargets.push(mCode.get(pcToIndex.get(e.handlerPC)),
+                        frame.handlerFrame(catchType));
+            }
+        }
+    }
+
+    // Replaces each run of instructions that were not reached by NOPs followed by an ATHROW, which
+    // is all the type-checking verifier needs a frame for (the frame is added to the specified
+    // frames), and cuts the run out of the ranges of the exception handlers. Returns true if
+    // there was unreachable code, and false otherwise.
+    private boolean removeUnreachableCode(boolean[] reached, TreeMap<Integer, CLFrame> frames,
+                                          CLCodeBuffer byteCode,
+                                          ArrayList<CLExceptionInfo> exceptionTable) {
+        boolean removed = false;
+        int c = 0;
+        while (c < mCode.size()) {
+            if (reached[c]) {
+                c++;
+                continue;
+            }
+            int start = mCode.get(c).pc();
+            while (c < mCode.size() && !reached[c]) {
+                c++;
+            }
+            int end = (c < mCode.size()) ? mCode.get(c).pc() : byteCode.size();
+            for (int pc = start; pc < end - 1; pc++) {
+                byteCode.set(pc, NOP);
+            }
+            byteCode.set(end - 1, ATHROW);
+            frames.put(start, CLFrame.unreachableFrame());
+            ArrayList<CLExceptionInfo> cut = new ArrayList<CLExceptionInfo>();
+            for (CLExceptionInfo e : exceptionTable) {
+                if (e.startPC < start) {
+                    cut.add(new CLExceptionInfo(e.startPC, Math.min(e.endPC, start), e.handlerPC,
+                            e.catchType));
+                }
+                if (e.endPC > end) {
+                    cut.add(new CLExceptionInfo(Math.max(e.startPC, end), e.endPC, e.handlerPC,
+                            e.catchType));
+                }
+            }
+            exceptionTable.clear();
+            exceptionTable.addAll(cut);
+            removed = true;
+        }
+        return removed;
+    }
+
+    // Constructs and returns a StackMapTable attribute given the frames of the method last added,
+    // mapped from their pcs. Each frame is written in the most compact form that describes it in
+    // terms of the frame before it.
+    private CLStackMapTableAttribute stackMapTableAttribute(TreeMap<Integer, CLFrame> frames) {
+        ArrayList<CLStackMapFrame> entries = new ArrayList<CLStackMapFrame>();
+        ArrayList<String> previousLocals = mInitialFrame.localTypes();
+        int previousPC = -1;
+        long attributeLength = 2;
+        for (Map.Entry<Integer, CLFrame> entry : frames.entrySet()) {
+            int offsetDelta = entry.getKey() - previousPC - 1;
+            ArrayList<String> locals = entry.getValue().localTypes();
+            ArrayList<String> stack = entry.getValue().stackTypes();
+            int k = locals.size() - previousLocals.size();
+            boolean samePrefix = locals.subList(0, Math.min(locals.size(), previousLocals.size()))
+                    .equals(previousLocals.subList(0, Math.min(locals.size(),
+                            previousLocals.size())));
+            CLStackMapFrame frame;
+            if (k == 0 && samePrefix && stack.size() <= 1) {
+                int frameType = stack.isEmpty() ?
+                        (offsetDelta < SAME_LOCALS_1_STACK_ITEM ?
+                                offsetDelta : SAME_FRAME_EXTENDED) :
+                        (offsetDelta < SAME_LOCALS_1_STACK_ITEM ?
+                                SAME_LOCALS_1_STACK_ITEM + offsetDelta :
+                                SAME_LOCALS_1_STACK_ITEM_EXTENDED);
+                frame = new CLStackMapFrame(frameType, offsetDelta,
+                        new ArrayList<CLVerificationTypeInfo>(), verificationTypes(stack));
+            } else if (k < 0 && k >= -3 && samePrefix && stack.isEmpty()) {
+                frame = new CLStackMapFrame(SAME_FRAME_EXTENDED + k, offsetDelta,
+                        new ArrayList<CLVerificationTypeInfo>(),
+                        new ArrayList<CLVerificationTypeInfo>());
+            } else if (k > 0 && k <= 3 && samePrefix && stack.isEmpty()) {
+                frame = new CLStackMapFrame(APPEND_FRAME + k - 1, offsetDelta,
+                        verificationTypes(locals.subList(previousLocals.size(), locals.size())),
+                        new ArrayList<CLVerificationTypeInfo>());
+            } else {
+                frame = new CLStackMapFrame(FULL_FRAME, offsetDelta, verificationTypes(locals),
+                        verificationTypes(stack));
+            }
+            entries.add(frame);
+            attributeLength += frame.length();
+            previousLocals = locals;
+            previousPC = entry.getKey();
+        }
+        int attributeNameIndex = constantPool.constantUtf8Info(ATT_STACK_MAP_TABLE);
+        return new CLStackMapTableAttribute(attributeNameIndex, attributeLength, entries.size(),
+                entries);
+    }
+
+    // Returns the verification_type_info structures for the specified types (see CLFrame).
+    private ArrayList<CLVerificationTypeInfo> verificationTypes(List<String> types) {
+        ArrayList<CLVerificationTypeInfo> infos = new ArrayList<CLVerificationTypeInfo>();
+        for (String type : types) {
+            short tag;
+            int cpoolIndex = 0, offset = 0;
+            switch (type.charAt(0)) {
+                case 'I':
+                    tag = ITEM_Integer;
+                    break;
+                case 'F':
+                    tag = ITEM_Float;
+                    break;
+                case 'J':
+                    tag = ITEM_Long;
+                    break;
+                case 'D':
+                    tag = ITEM_Double;
+                    break;
+                case 'N':
+                    tag = ITEM_Null;
+                    break;
+                case 'T':
+                    tag = ITEM_Top;
+                    break;
+                case 'U':
+                    if (type.length() == 1) {
+                        tag = ITEM_UninitializedThis;
+                    } else {
+                        tag = ITEM_Uninitialized;
+                        offset = Integer.parseInt(type.substring(1));
+                    }
+                    break;
+                case 'L':
+                    tag = ITEM_Object;
+                    cpoolIndex = constantPool.constantClassInfo(type.substring(1,
+                            type.length() - 1));
+                    break;
+                default:
+                    tag = ITEM_Object;
+                    cpoolIndex = constantPool.constantClassInfo(type);
+            }
+            infos.add(new CLVerificationTypeInfo(tag, cpoolIndex, offset));
+        }
+        return infos;
+    }
+
     // Adds LDC (LDC_W if index is wide) instruction.
     private void ldcInstruction(int index) {
         CLLoadStoreInstruction instr = index <= 255 ?
@@ -1480,7 +1788,7 @@ public class CLEmitter {
     // Constructs and returns a Code attribute given the list of bytes that make up the
     // instructions and their operands, exception table, maximum depth of operand stack, and
     // maximum number of local variables.
-    private CLCodeAttribute codeAttribute(ArrayList<Integer> byteCode,
+    private CLCodeAttribute codeAttribute(CLCodeBuffer byteCode,
                                           ArrayList<CLExceptionInfo> exceptionTable, int stackDepth,
                                           int maxLocals) {
         int codeLength = byteCode.size();
@@ -1631,6 +1939,12 @@ class CLBranchTarget {
      */
     public int stackDepth;
 
+    /**
+     * Frame before the target instruction is executed; merged from all the paths to the target
+     * found so far.
+     */
+    public CLFrame frame;
+
     /**
      * Constructs a CLBranchTarget object.
      *
@@ -1641,6 +1955,17 @@ class CLBranchTarget {
         this.target = target;
         this.stackDepth = stackDepth;
     }
+
+    /**
+     * Constructs a CLBranchTarget object.
+     *
+     * @param target the target instruction.
+     * @param frame  frame before the target instruction is executed.
+     */
+    public CLBranchTarget(CLInstruction target, CLFrame frame) {
+        this.target = target;
+        this.frame = frame;
+    }
 }
 
 /**
@@ -1676,6 +2001,36 @@ class CLBranchStack {
         branchTargets.push(visit(target, stackDepth));
     }
 
+    /**
+     * Merges the specified frame into the frame recorded for the target instruction, and pushes
+     * the target into the stack if it has not been visited yet or if its frame changed (so that
+     * the instructions from the target on are run over the new frame).
+     *
+     * @param target the target instruction.
+     * @param frame  frame before the target instruction is executed.
+     */
+    public void push(CLInstruction target, CLFrame frame) {
+        CLBranchTarget bt = visitedTargets.get(target);
+        if (bt == null) {
+            bt = new CLBranchTarget(target, frame.copy());
+            visitedTargets.put(target, bt);
+            branchTargets.push(bt);
+        } else if (bt.frame.merge(frame) && !branchTargets.contains(bt)) {
+            branchTargets.push(bt);
+        }
+    }
+
+    /**
+     * Returns the frame recorded for the target instruction, or null.
+     *
+     * @param target the target instruction.
+     * @return the frame recorded for the target instruction, or null.
+     */
+    public CLFrame frame(CLInstruction target) {
+        CLBranchTarget bt = visitedTargets.get(target);
+        return (bt == null) ? null : bt.frame;
+    }
+
     /**
      * Pops and returns an element from the stack, or null.
      *
@@ -1710,8 +2065,11 @@ class ByteClassLoader extends ClassLoader {
     // Bytes representing the class.
     private byte[] bytes;
 
-    // Has a package been defined for this class loader?
-    private boolean pkgDefined = false;
+    // Bytes representing the classes added by addClass(), by binary name.
+    private HashMap<String, byte[]> classes = new HashMap<String, byte[]>();
+
+    // Packages defined for this class loader.
+    private HashSet<String> packages = new HashSet<String>();
 
     /**
      * Sets the bytes representing the class.
@@ -1722,6 +2080,18 @@ class ByteClassLoader extends ClassLoader {
         this.bytes = bytes;
     }
 
+    /**
+     * Adds the specified class to the ones this loader defines, when it (or a class referring to
+     * it) is first loaded. Unlike the class set by setClassBytes(), any number of classes may be
+     * added, and they may refer to one another.
+     *
+     * @param clFile the class.
+     * @throws IOException if an error occurs while extracting the bytes of the class.
+     */
+    public void addClass(CLFile clFile) throws IOException {
+        classes.put(clFile.name(), clFile.toBytes());
+    }
+
     /**
      * Loads the class with the specified fully qualified name.
      *
@@ -1730,7 +2100,7 @@ class ByteClassLoader extends ClassLoader {
      * @throws ClassNotFoundException if the class could not be found.
      */
     public Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
-        Class cls = findLoadedClass(name);
+        Class cls = findLoadedClass(name.replace("/", "."));
         if (cls == null) {
             try {
                 cls = findSystemClass(name);
@@ -1746,13 +2116,13 @@ class ByteClassLoader extends ClassLoader {
             name = name.replace("/", ".");
             String pkg = name.lastIndexOf('.') == -1 ? "" : name.substring(0,
                     name.lastIndexOf('.'));
-            if (!pkgDefined) {
+            if (packages.add(pkg)) {
                 // Packages must be created before the class is defined, and package names must
                 // be unique within a class loader and cannot be redefined or changed once created.
                 definePackage(pkg, "", "", "", "", "", "", null);
-                pkgDefined = true;
             }
-            cls = defineClass(name, bytes, 0, bytes.length);
+            byte[] b = classes.containsKey(name) ? classes.get(name) : bytes;
+            cls = defineClass(name, b, 0, b.length);
             if (resolve && cls != null) {
                 resolveClass(cls);
             }
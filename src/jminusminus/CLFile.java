@@ -2,6 +2,8 @@
 
 package jminusminus;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 
@@ -130,6 +132,31 @@ class CLFile {
         }
     }
 
+    /**
+     * Returns the contents of this class as the bytes of a class file.
+     *
+     * @return the bytes of the class file.
+     * @throws IOException if an error occurs while writing.
+     */
+    public byte[] toBytes() throws IOException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        CLOutputStream out = new CLOutputStream(new BufferedOutputStream(byteStream));
+        write(out);
+        out.close();
+        return byteStream.toByteArray();
+    }
+
+    /**
+     * Returns the binary name (for example, pass.Factorial) of this class.
+     *
+     * @return the binary name of this class.
+     */
+    public String name() {
+        int nameIndex = ((CLConstantClassInfo) constantPool.cpItem(thisClass)).nameIndex;
+        return new String(((CLConstantUtf8Info) constantPool.cpItem(nameIndex)).b).replace('/',
+                '.');
+    }
+
     /**
      * Returns a string identifying the inner class access permissions and properties contained in
      * the specified mask of flags.
@@ -0,0 +1,708 @@
+// Copyright 2012- Bill Campbell, Swami Iyer and Bahar Akbal-Delibas
+
+package jminusminus;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+
+import static jminusminus.CLConstants.*;
+
+/**
+ * The types of the local variables and of the operand stack at a point in the code of a method,
+ * as the type-checking verifier of the JVM sees them. CLEmitter computes a frame for every branch
+ * target and exception handler of a method by running the instructions of the method over frames
+ * (see execute()) and merging them where control flow joins (see merge()); the frames are then
+ * written out as the StackMapTable attribute of the method.
+ * <p>
+ * A type is represented by a string: "I", "J", "F" and "D" for int (and the smaller integral
+ * types), long, float and double, a type descriptor (for example, "Ljava/lang/String;" or "[I")
+ * for a reference type, "N" for null, "T" for top (an unusable value), "U" for the
+ * uninitialized this of a constructor, and "U" followed by a pc for the object created by the
+ * NEW instruction at that pc whose constructor has not been called yet. A long or a double takes
+ * up two slots, the second of which holds "T".
+ */
+class CLFrame {
+    /**
+     * Types of the local variables, one per slot.
+     */
+    public ArrayList<String> locals;
+
+    /**
+     * Types of the values on the operand stack, one per slot, with the top of the stack last.
+     */
+    public ArrayList<String> stack;
+
+    // Maps the classes that CLEmitter has built to their superclasses, all in internal form; the
+    // least common superclass of two of these can't be found through reflection.
+    private static Hashtable<String, String> superClasses = new Hashtable<String, String>();
+
+    /**
+     * Constructs a frame with the specified types.
+     *
+     * @param locals types of the local variables.
+     * @param stack  types of the values on the operand stack.
+     */
+    public CLFrame(ArrayList<String> locals, ArrayList<String> stack) {
+        this.locals = locals;
+        this.stack = stack;
+    }
+
+    /**
+     * Returns the frame on entry to a method.
+     *
+     * @param thisClass  the class declaring the method, in internal form.
+     * @param name       name of the method.
+     * @param descriptor descriptor of the method.
+     * @param isStatic   whether the method is static.
+     * @return the frame on entry to the method.
+     */
+    public static CLFrame initialFrame(String thisClass, String name, String descriptor,
+                                       boolean isStatic) {
+        CLFrame frame = new CLFrame(new ArrayList<String>(), new ArrayList<String>());
+        if (!isStatic) {
+            boolean isUninitialized = name.equals("<init>") &&
+                    !thisClass.equals("java/lang/Object");
+            frame.locals.add(isUninitialized ? "U" : type(thisClass));
+        }
+        int i = 0;
+        while (descriptor.charAt(++i) != ')') {
+            int end = descriptorEnd(descriptor, i);
+            add(frame.locals, verificationType(descriptor.substring(i, end)));
+            i = end - 1;
+        }
+        return frame;
+    }
+
+    /**
+     * Returns the frame at code that can't be reached: it has no local variables, and the
+     * exception that CLEmitter puts in place of the code throws on the operand stack.
+     *
+     * @return the frame at unreachable code.
+     */
+    public static CLFrame unreachableFrame() {
+        ArrayList<String> stack = new ArrayList<String>();
+        stack.add("Ljava/lang/Throwable;");
+        return new CLFrame(new ArrayList<String>(), stack);
+    }
+
+    /**
+     * Records the superclass of a class built by CLEmitter.
+     *
+     * @param thisClass  the class, in internal form.
+     * @param superClass its superclass, in internal form.
+     */
+    public static void declareClass(String thisClass, String superClass) {
+        superClasses.put(thisClass, superClass);
+    }
+
+    /**
+     * Forgets the superclasses of the classes built by CLEmitter, so that a later compilation
+     * (in the same JVM) doesn't find them.
+     */
+    public static void removeDeclaredClasses() {
+        superClasses.clear();
+    }
+
+    /**
+     * Returns the type of a value of the specified class.
+     *
+     * @param className the class in internal form, or an array type descriptor.
+     * @return the type of a value of the class.
+     */
+    public static String type(String className) {
+        return className.startsWith("[") ? className : "L" + className + ";";
+    }
+
+    /**
+     * Returns a copy of this frame.
+     *
+     * @return a copy of this frame.
+     */
+    public CLFrame copy() {
+        return new CLFrame(new ArrayList<String>(locals), new ArrayList<String>(stack));
+    }
+
+    /**
+     * Returns the frame at the handler of an exception thrown from this frame: the local
+     * variables are those of this frame, and the operand stack holds just the exception.
+     *
+     * @param catchType type of the exception.
+     * @return the frame at the exception handler.
+     */
+    public CLFrame handlerFrame(String catchType) {
+        ArrayList<String> stack = new ArrayList<String>();
+        stack.add(catchType);
+        return new CLFrame(new ArrayList<String>(locals), stack);
+    }
+
+    /**
+     * Merges the specified frame, for another path of control flow that reaches the point of this
+     * frame, into this frame. Each type becomes the most specific type that both of the merged
+     * types are assignable to.
+     *
+     * @param frame the frame to merge.
+     * @return true if this frame changed, and false otherwise.
+     * @throws IllegalStateException if the operand stacks of the frames differ in height.
+     */
+    public boolean merge(CLFrame frame) {
+        if (stack.size() != frame.stack.size()) {
+            throw new IllegalStateException("Inconsistent operand stack height");
+        }
+        boolean changed = false;
+        for (int i = 0; i < frame.locals.size() || i < locals.size(); i++) {
+            String a = i < locals.size() ? locals.get(i) : "T";
+            String b = i < frame.locals.size() ? frame.locals.get(i) : "T";
+            String type = mergeTypes(a, b);
+            if (i >= locals.size()) {
+                locals.add(type);
+                changed |= !type.equals("T");
+            } else if (!type.equals(a)) {
+                locals.set(i, type);
+                changed = true;
+            }
+        }
+        for (int i = 0; i < stack.size(); i++) {
+            String type = mergeTypes(stack.get(i), frame.stack.get(i));
+            if (!type.equals(stack.get(i))) {
+                stack.set(i, type);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the types of the local variables as the StackMapTable attribute lists them: a long
+     * or a double takes up one entry, and the trailing tops are left out.
+     *
+     * @return the types of the local variables.
+     */
+    public ArrayList<String> localTypes() {
+        ArrayList<String> types = entries(locals);
+        while (!types.isEmpty() && types.get(types.size() - 1).equals("T")) {
+            types.remove(types.size() - 1);
+        }
+        return types;
+    }
+
+    /**
+     * Returns the types of the values on the operand stack as the StackMapTable attribute lists
+     * them: a long or a double takes up one entry.
+     *
+     * @return the types of the values on the operand stack.
+     */
+    public ArrayList<String> stackTypes() {
+        return entries(stack);
+    }
+
+    /**
+     * Changes this frame to the frame after the specified instruction. The operands that refer to
+     * the constant pool are read from the code the instruction was written to.
+     *
+     * @param instr        the instruction.
+     * @param code         the code of the method.
+     * @param constantPool the constant pool of the class.
+     * @param thisClass    the class declaring the method, in internal form.
+     * @throws IllegalStateException if the instruction pops more than the operand stack holds.
+     */
+    public void execute(CLInstruction instr, CLCodeBuffer code, CLConstantPool constantPool,
+                        String thisClass) {
+        int opcode = instr.opcode();
+        int pc = instr.pc();
+        String descriptor;
+        String v1, v2, v3, v4;
+        switch (opcode) {
+            case ACONST_NULL:
+                push("N");
+                break;
+            case ICONST_M1:
+            case ICONST_0:
+            case ICONST_1:
+            case ICONST_2:
+            case ICONST_3:
+            case ICONST_4:
+            case ICONST_5:
+            case BIPUSH:
+            case SIPUSH:
+                push("I");
+                break;
+            case LCONST_0:
+            case LCONST_1:
+                push("J");
+                break;
+            case FCONST_0:
+            case FCONST_1:
+            case FCONST_2:
+                push("F");
+                break;
+            case DCONST_0:
+            case DCONST_1:
+                push("D");
+                break;
+            case LDC:
+                push(constantType(constantPool, code.get(pc + 1)));
+                break;
+            case LDC_W:
+            case LDC2_W:
+                push(constantType(constantPool, index(code, pc)));
+                break;
+            case ALOAD:
+            case ALOAD_0:
+            case ALOAD_1:
+            case ALOAD_2:
+            case ALOAD_3:
+                push(locals.get(instr.localVariableIndex()));
+                break;
+            case AALOAD:
+                pop(1);
+                v1 = pop();
+                push(v1.startsWith("[") ? v1.substring(1) : v1);
+                break;
+            case ASTORE:
+            case ASTORE_0:
+            case ASTORE_1:
+            case ASTORE_2:
+            case ASTORE_3:
+                store(instr.localVariableIndex(), pop());
+                break;
+            case IASTORE:
+            case FASTORE:
+            case AASTORE:
+            case BASTORE:
+            case CASTORE:
+            case SASTORE:
+                pop(3);
+                break;
+            case LASTORE:
+            case DASTORE:
+                pop(4);
+                break;
+            case POP:
+                pop(1);
+                break;
+            case POP2:
+                pop(2);
+                break;
+            case DUP:
+                v1 = pop();
+                push(v1, v1);
+                break;
+            case DUP_X1:
+                v1 = pop();
+                v2 = pop();
+                push(v1, v2, v1);
+                break;
+            case DUP_X2:
+                v1 = pop();
+                v2 = pop();
+                v3 = pop();
+                push(v1, v3, v2, v1);
+                break;
+            case DUP2:
+                v1 = pop();
+                v2 = pop();
+                push(v2, v1, v2, v1);
+                break;
+            case DUP2_X1:
+                v1 = pop();
+                v2 = pop();
+                v3 = pop();
+                push(v2, v1, v3, v2, v1);
+                break;
+            case DUP2_X2:
+                v1 = pop();
+                v2 = pop();
+                v3 = pop();
+                v4 = pop();
+                push(v2, v1, v4, v3, v2, v1);
+                break;
+            case SWAP:
+                v1 = pop();
+                v2 = pop();
+                push(v1, v2);
+                break;
+            case LCMP:
+            case DCMPL:
+            case DCMPG:
+                pop(4);
+                push("I");
+                break;
+            case FCMPL:
+            case FCMPG:
+                pop(2);
+                push("I");
+                break;
+            case IFEQ:
+            case IFNE:
+            case IFLT:
+            case IFGE:
+            case IFGT:
+            case IFLE:
+            case IFNULL:
+            case IFNONNULL:
+            case TABLESWITCH:
+            case LOOKUPSWITCH:
+            case MONITORENTER:
+            case MONITOREXIT:
+                pop(1);
+                break;
+            case IF_ICMPEQ:
+            case IF_ICMPNE:
+            case IF_ICMPLT:
+            case IF_ICMPGE:
+            case IF_ICMPGT:
+            case IF_ICMPLE:
+            case IF_ACMPEQ:
+            case IF_ACMPNE:
+                pop(2);
+                break;
+            case GETSTATIC:
+                push(verificationType(memberDescriptor(constantPool, index(code, pc))));
+                break;
+            case PUTSTATIC:
+                pop(size(memberDescriptor(constantPool, index(code, pc))));
+                break;
+            case GETFIELD:
+                pop(1);
+                push(verificationType(memberDescriptor(constantPool, index(code, pc))));
+                break;
+            case PUTFIELD:
+                pop(size(memberDescriptor(constantPool, index(code, pc))) + 1);
+                break;
+            case INVOKEVIRTUAL:
+            case INVOKESPECIAL:
+            case INVOKESTATIC:
+            case INVOKEINTERFACE:
+            case INVOKEDYNAMIC:
+                descriptor = memberDescriptor(constantPool, index(code, pc));
+                int i = 0;
+                while (descriptor.charAt(++i) != ')') {
+                    int end = descriptorEnd(descriptor, i);
+                    pop(size(descriptor.substring(i, end)));
+                    i = end - 1;
+                }
+                if (opcode != INVOKESTATIC && opcode != INVOKEDYNAMIC) {
+                    v1 = pop();
+                    if (opcode == INVOKESPECIAL && v1.startsWith("U") &&
+                            memberName(constantPool, index(code, pc)).equals("<init>")) {
+                        initialize(v1, v1.equals("U") ? type(thisClass) :
+                                type(className(constantPool,
+                                        index(code, Integer.parseInt(v1.substring(1))))));
+                    }
+                }
+                descriptor = descriptor.substring(i + 1);
+                if (!descriptor.equals("V")) {
+                    push(verificationType(descriptor));
+                }
+                break;
+            case NEW:
+                push("U" + pc);
+                break;
+            case NEWARRAY:
+                pop(1);
+                push("[" + "ZCFDBSIJ".charAt(code.get(pc + 1) - 4));
+                break;
+            case ANEWARRAY:
+                pop(1);
+                push("[" + type(className(constantPool, index(code, pc))));
+                break;
+            case ARRAYLENGTH:
+            case INSTANCEOF:
+                pop(1);
+                push("I");
+                break;
+            case CHECKCAST:
+                pop(1);
+                push(type(className(constantPool, index(code, pc))));
+                break;
+            case MULTIANEWARRAY:
+                pop(code.get(pc + 3));
+                push(className(constantPool, index(code, pc)));
+                break;
+            case NOP:
+            case IINC:
+            case WIDE:
+            case GOTO:
+            case GOTO_W:
+            case RETURN:
+            case IRETURN:
+            case LRETURN:
+            case FRETURN:
+            case DRETURN:
+            case ARETURN:
+            case ATHROW:
+            case JSR:
+            case JSR_W:
+            case RET:
+                // These leave the frame as it is, or end the flow of control, or (in the case of
+                // subroutines) aren't allowed in code that the type-checking verifier checks.
+                break;
+            default:
+                if (opcode >= ILOAD && opcode <= DLOAD_3) {
+                    // Loads of primitive values.
+                    int kind = opcode <= DLOAD ? opcode - ILOAD : (opcode - ILOAD_0) / 4;
+                    push(primitive(kind));
+                } else if (opcode >= IALOAD && opcode <= SALOAD) {
+                    pop(2);
+                    push(primitive(opcode <= DALOAD ? opcode - IALOAD : 0));
+                } else if (opcode >= ISTORE && opcode <= DSTORE_3) {
+                    // Stores of primitive values.
+                    int kind = opcode <= DSTORE ? opcode - ISTORE : (opcode - ISTORE_0) / 4;
+                    pop(size(primitive(kind)));
+                    store(instr.localVariableIndex(), primitive(kind));
+                } else if (opcode >= IADD && opcode <= DREM) {
+                    String type = primitive((opcode - IADD) % 4);
+                    pop(2 * size(type));
+                    push(type);
+                } else if (opcode >= INEG && opcode <= DNEG) {
+                    String type = primitive(opcode - INEG);
+                    pop(size(type));
+                    push(type);
+                } else if (opcode >= ISHL && opcode <= LUSHR) {
+                    String type = primitive((opcode - ISHL) % 2);
+                    pop(1 + size(type));
+                    push(type);
+                } else if (opcode >= IAND && opcode <= LXOR) {
+                    String type = primitive((opcode - IAND) % 2);
+                    pop(2 * size(type));
+                    push(type);
+                } else if (opcode >= I2L && opcode <= I2S) {
+                    pop(size("IIIJJJFFFDDDIII".substring(opcode - I2L, opcode - I2L + 1)));
+                    push("JFDIFDIJDIJFIII".substring(opcode - I2L, opcode - I2L + 1));
+                }
+        }
+    }
+
+    // Returns the type of values of the specified kind: 0 for int, 1 for long, 2 for float and
+    // 3 for double, which is the order the JVM instruction set has them in.
+    private static String primitive(int kind) {
+        return "IJFD".substring(kind, kind + 1);
+    }
+
+    // Returns the type that both of the specified types are assignable to.
+    private static String mergeTypes(String a, String b) {
+        if (a.equals(b)) {
+            return a;
+        }
+        if (isReference(a) && isReference(b)) {
+            return leastCommonSuperType(a, b);
+        }
+        return "T";
+    }
+
+    // Returns true if the specified type is an initialized reference type or null, and false
+    // otherwise.
+    private static boolean isReference(String type) {
+        return type.startsWith("L") || type.startsWith("[") || type.equals("N");
+    }
+
+    // Returns the most specific type that both of the specified (different) reference types are
+    // assignable to. The type-checking verifier treats interfaces as java.lang.Object, so
+    // interfaces need not be considered.
+    private static String leastCommonSuperType(String a, String b) {
+        if (a.equals("N")) {
+            return b;
+        }
+        if (b.equals("N")) {
+            return a;
+        }
+        if (a.startsWith("[") && b.startsWith("[")) {
+            String aComponent = a.substring(1);
+            String bComponent = b.substring(1);
+            if (!aComponent.equals("N") && isReference(aComponent) && isReference(bComponent)) {
+                return "[" + leastCommonSuperType(aComponent, bComponent);
+            }
+            return "Ljava/lang/Object;";
+        }
+        if (a.startsWith("[") || b.startsWith("[")) {
+            return "Ljava/lang/Object;";
+        }
+        ArrayList<String> aSuperClasses = new ArrayList<String>();
+        for (String c = a.substring(1, a.length() - 1); c != null; c = superClass(c)) {
+            aSuperClasses.add(c);
+        }
+        for (String c = b.substring(1, b.length() - 1); c != null; c = superClass(c)) {
+            if (aSuperClasses.contains(c)) {
+                return type(c);
+            }
+        }
+        return "Ljava/lang/Object;";
+    }
+
+    // Returns the superclass of the specified class (both in internal form), or null if the class
+    // is java.lang.Object or an interface, or is unknown.
+    private static String superClass(String className) {
+        String superClass = superClasses.get(className);
+        if (superClass != null) {
+            return superClass;
+        }
+        try {
+            Class<?> c = Class.forName(className.replace('/', '.'), false,
+                    CLFrame.class.getClassLoader());
+            Class<?> s = c.getSuperclass();
+            return (s == null || c.isInterface()) ? null : s.getName().replace('.', '/');
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    // Returns the specified slots with the second slot of each long and double left out.
+    private static ArrayList<String> entries(ArrayList<String> slots) {
+        ArrayList<String> entries = new ArrayList<String>();
+        for (int i = 0; i < slots.size(); i++) {
+            String type = slots.get(i);
+            entries.add(type);
+            if (type.equals("J") || type.equals("D")) {
+                i++;
+            }
+        }
+        return entries;
+    }
+
+    // Adds a value of the specified type to the specified slots.
+    private static void add(ArrayList<String> slots, String type) {
+        slots.add(type);
+        if (type.equals("J") || type.equals("D")) {
+            slots.add("T");
+        }
+    }
+
+    // Pushes the specified types onto the operand stack.
+    private void push(String... types) {
+        for (String type : types) {
+            add(stack, type);
+        }
+    }
+
+    // Pops a slot off the operand stack and returns its type. Used for copying slots around, so
+    // no account is taken of the two slots of longs and doubles.
+    private String pop() {
+        if (stack.isEmpty()) {
+            throw new IllegalStateException("Operand stack underflow");
+        }
+        return stack.remove(stack.size() - 1);
+    }
+
+    // Pops the specified number of slots off the operand stack.
+    private void pop(int slots) {
+        for (int i = 0; i < slots; i++) {
+            pop();
+        }
+    }
+
+    // Stores a value of the specified type (the first slot of it, for a long or a double) in the
+    // local variable at the specified index.
+    private void store(int index, String type) {
+        int slots = size(type);
+        while (locals.size() < index + slots) {
+            locals.add("T");
+        }
+        locals.set(index, type);
+        if (slots == 2) {
+            locals.set(index + 1, "T");
+        }
+        if (index > 0 && (locals.get(index - 1).equals("J") || locals.get(index - 1).equals("D"))) {
+            // The long or double before has lost its second slot.
+            locals.set(index - 1, "T");
+        }
+    }
+
+    // Replaces every occurrence of the specified uninitialized type with the specified type, as
+    // a constructor call does.
+    private void initialize(String uninitialized, String type) {
+        for (int i = 0; i < locals.size(); i++) {
+            if (locals.get(i).equals(uninitialized)) {
+                locals.set(i, type);
+            }
+        }
+        for (int i = 0; i < stack.size(); i++) {
+            if (stack.get(i).equals(uninitialized)) {
+                stack.set(i, type);
+            }
+        }
+    }
+
+    // Returns the number of slots a value of the specified type or type descriptor takes up.
+    private static int size(String type) {
+        return (type.equals("J") || type.equals("D")) ? 2 : 1;
+    }
+
+    // Returns the type of values of the specified field type descriptor.
+    private static String verificationType(String descriptor) {
+        switch (descriptor.charAt(0)) {
+            case 'B':
+            case 'C':
+            case 'S':
+            case 'Z':
+                return "I";
+            default:
+                return descriptor;
+        }
+    }
+
+    // Returns the index just past the end of the type descriptor that starts at the specified
+    // index of the specified method descriptor.
+    private static int descriptorEnd(String descriptor, int i) {
+        while (descriptor.charAt(i) == '[') {
+            i++;
+        }
+        return descriptor.charAt(i) == 'L' ? descriptor.indexOf(';', i) + 1 : i + 1;
+    }
+
+    // Returns the two-byte constant pool index that is the operand of the instruction at the
+    // specified pc.
+    private static int index(CLCodeBuffer code, int pc) {
+        return (code.get(pc + 1) << 8) | code.get(pc + 2);
+    }
+
+    // Returns the type of the constant at the specified index of the constant pool.
+    private static String constantType(CLConstantPool constantPool, int index) {
+        CLCPInfo item = constantPool.cpItem(index);
+        if (item instanceof CLConstantIntegerInfo) {
+            return "I";
+        } else if (item instanceof CLConstantFloatInfo) {
+            return "F";
+        } else if (item instanceof CLConstantLongInfo) {
+            return "J";
+        } else if (item instanceof CLConstantDoubleInfo) {
+            return "D";
+        } else if (item instanceof CLConstantStringInfo) {
+            return "Ljava/lang/String;";
+        }
+        return "Ljava/lang/Class;";
+    }
+
+    /**
+     * Returns the name of the class at the specified index of the specified constant pool.
+     *
+     * @param constantPool the constant pool.
+     * @param index        index of a CONSTANT_Class_info item.
+     * @return the name of the class, in internal form.
+     */
+    public static String className(CLConstantPool constantPool, int index) {
+        return utf8(constantPool, ((CLConstantClassInfo) constantPool.cpItem(index)).nameIndex);
+    }
+
+    // Returns the name of the member at the specified index of the constant pool.
+    private static String memberName(CLConstantPool constantPool, int index) {
+        return utf8(constantPool, nameAndType(constantPool, index).nameIndex);
+    }
+
+    // Returns the type descriptor of the member at the specified index of the constant pool.
+    private static String memberDescriptor(CLConstantPool constantPool, int index) {
+        return utf8(constantPool, nameAndType(constantPool, index).descriptorIndex);
+    }
+
+    // Returns the name and type of the member at the specified index of the constant pool.
+    private static CLConstantNameAndTypeInfo nameAndType(CLConstantPool constantPool, int index) {
+        CLConstantMemberRefInfo member = (CLConstantMemberRefInfo) constantPool.cpItem(index);
+        return (CLConstantNameAndTypeInfo) constantPool.cpItem(member.nameAndTypeIndex);
+    }
+
+    // Returns the string at the specified index of the constant pool.
+    private static String utf8(CLConstantPool constantPool, int index) {
+        return new String(((CLConstantUtf8Info) constantPool.cpItem(index)).b);
+    }
+}
@@ -307,6 +307,16 @@ abstract class CLInstruction {
         return pc;
     }
 
+    /**
+     * Moves this instruction to the specified pc; used when the instructions before it are
+     * rewritten.
+     *
+     * @param pc the new pc for this instruction.
+     */
+    public void setPC(int pc) {
+        this.pc = pc;
+    }
+
     /**
      * Returns the stack units for this instruction.
      *
@@ -326,11 +336,11 @@ abstract class CLInstruction {
     }
 
     /**
-     * Returns the bytecode for this instruction.
+     * Writes the bytecode for this instruction to the specified code buffer.
      *
-     * @return the bytecode for this instruction.
+     * @param code the code buffer.
      */
-    public abstract ArrayList<Integer> toBytes();
+    public abstract void write(CLCodeBuffer code);
 
     /**
      * Returns the byte from i at position byteNum.
@@ -386,12 +396,9 @@ class CLObjectInstruction extends CLInstruction {
     /**
      * {@inheritDoc}
      */
-    public ArrayList<Integer> toBytes() {
-        ArrayList<Integer> bytes = new ArrayList<Integer>();
-        bytes.add(opcode);
-        bytes.add(byteAt(index, 2));
-        bytes.add(byteAt(index, 1));
-        return bytes;
+    public void write(CLCodeBuffer code) {
+        code.writeByte(opcode);
+        code.writeShort(index);
     }
 }
 
@@ -425,12 +432,9 @@ class CLFieldInstruction extends CLInstruction {
     /**
      * {@inheritDoc}
      */
-    public ArrayList<Integer> toBytes() {
-        ArrayList<Integer> bytes = new ArrayList<Integer>();
-        bytes.add(opcode);
-        bytes.add(byteAt(index, 2));
-        bytes.add(byteAt(index, 1));
-        return bytes;
+    public void write(CLCodeBuffer code) {
+        code.writeByte(opcode);
+        code.writeShort(index);
     }
 }
 
@@ -491,21 +495,18 @@ class CLMethodInstruction extends CLInstruction {
     /**
      * {@inheritDoc}
      */
-    public ArrayList<Integer> toBytes() {
-        ArrayList<Integer> bytes = new ArrayList<Integer>();
-        bytes.add(opcode);
+    public void write(CLCodeBuffer code) {
+        code.writeByte(opcode);
         if (instructionInfo[opcode].category == METHOD1) {
-            bytes.add(byteAt(index, 2));
-            bytes.add(byteAt(index, 1));
+            code.writeShort(index);
 
             // INVOKEINTERFACE expects the number of arguments of the method as the third operand
             // and a fourth argument which must always be 0.
             if (opcode == INVOKEINTERFACE) {
-                bytes.add(byteAt(nArgs, 1));
-                bytes.add(0);
+                code.writeByte(nArgs);
+                code.writeByte(0);
             }
         }
-        return bytes;
     }
 }
 
@@ -574,24 +575,20 @@ class CLArrayInstruction extends CLInstruction {
     /**
      * {@inheritDoc}
      */
-    public ArrayList<Integer> toBytes() {
-        ArrayList<Integer> bytes = new ArrayList<Integer>();
-        bytes.add(opcode);
+    public void write(CLCodeBuffer code) {
+        code.writeByte(opcode);
         switch (opcode) {
             case NEWARRAY:
-                bytes.add(byteAt(type, 1));
+                code.writeByte(type);
                 break;
             case ANEWARRAY:
-                bytes.add(byteAt(type, 2));
-                bytes.add(byteAt(type, 1));
+                code.writeShort(type);
                 break;
             case MULTIANEWARRAY:
-                bytes.add(byteAt(type, 2));
-                bytes.add(byteAt(type, 1));
-                bytes.add(byteAt(dim, 1));
+                code.writeShort(type);
+                code.writeByte(dim);
                 break;
         }
-        return bytes;
     }
 }
 
@@ -645,21 +642,17 @@ class CLArithmeticInstruction extends CLInstruction {
     /**
      * {@inheritDoc}
      */
-    public ArrayList<Integer> toBytes() {
-        ArrayList<Integer> bytes = new ArrayList<Integer>();
-        bytes.add(opcode);
+    public void write(CLCodeBuffer code) {
+        code.writeByte(opcode);
         if (opcode == IINC) {
             if (isWidened) {
-                bytes.add(byteAt(localVariableIndex, 2));
-                bytes.add(byteAt(localVariableIndex, 1));
-                bytes.add(byteAt(constVal, 2));
-                bytes.add(byteAt(constVal, 1));
+                code.writeShort(localVariableIndex);
+                code.writeShort(constVal);
             } else {
-                bytes.add(byteAt(localVariableIndex, 1));
-                bytes.add(byteAt(constVal, 1));
+                code.writeByte(localVariableIndex);
+                code.writeByte(constVal);
             }
         }
-        return bytes;
     }
 }
 
@@ -685,10 +678,8 @@ class CLBitInstruction extends CLInstruction {
     /**
      * {@inheritDoc}
      */
-    public ArrayList<Integer> toBytes() {
-        ArrayList<Integer> bytes = new ArrayList<Integer>();
-        bytes.add(opcode);
-        return bytes;
+    public void write(CLCodeBuffer code) {
+        code.writeByte(opcode);
     }
 }
 
@@ -714,10 +705,8 @@ class CLComparisonInstruction extends CLInstruction {
     /**
      * {@inheritDoc}
      */
-    public ArrayList<Integer> toBytes() {
-        ArrayList<Integer> bytes = new ArrayList<Integer>();
-        bytes.add(opcode);
-        return bytes;
+    public void write(CLCodeBuffer code) {
+        code.writeByte(opcode);
     }
 }
 
@@ -743,10 +732,8 @@ class CLConversionInstruction extends CLInstruction {
     /**
      * {@inheritDoc}
      */
-    public ArrayList<Integer> toBytes() {
-        ArrayList<Integer> bytes = new ArrayList<Integer>();
-        bytes.add(opcode);
-        return bytes;
+    public void write(CLCodeBuffer code) {
+        code.writeByte(opcode);
     }
 }
 
@@ -948,6 +935,28 @@ class CLFlowControlInstruction extends CLInstruction {
         return allLabelsResolved;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void setPC(int pc) {
+        super.setPC(pc);
+        if (opcode == TABLESWITCH || opcode == LOOKUPSWITCH) {
+            // The padding before the operands depends on the pc.
+            int unpaddedCount = operandCount - pad;
+            pad = (4 - (pc + 1) % 4) % 4;
+            operandCount = unpaddedCount + pad;
+        }
+    }
+
+    /**
+     * Returns the label this FLOW_CONTROL1 instruction jumps to.
+     *
+     * @return the label to jump to.
+     */
+    public String jumpToLabel() {
+        return jumpToLabel;
+    }
+
     /**
      * Returns the pc of instruction to jump to.
      *
@@ -957,85 +966,71 @@ class CLFlowControlInstruction extends CLInstruction {
         return jumpToOffset;
     }
 
+    /**
+     * Returns the offsets of the instructions that this TABLESWITCH or LOOKUPSWITCH instruction
+     * may jump to, the one for the default value first.
+     *
+     * @return the offsets of the instructions to jump to.
+     */
+    public ArrayList<Integer> switchOffsets() {
+        ArrayList<Integer> switchOffsets = new ArrayList<Integer>();
+        switchOffsets.add(defaultOffset);
+        if (opcode == TABLESWITCH) {
+            switchOffsets.addAll(offsets);
+        } else {
+            switchOffsets.addAll(matchOffsetPairs.values());
+        }
+        return switchOffsets;
+    }
+
     /**
      * {@inheritDoc}
      */
-    public ArrayList<Integer> toBytes() {
-        ArrayList<Integer> bytes = new ArrayList<Integer>();
-        bytes.add(opcode);
+    public void write(CLCodeBuffer code) {
+        code.writeByte(opcode);
         switch (opcode) {
             case RET:
                 if (isWidened) {
-                    bytes.add(byteAt(index, 2));
-                    bytes.add(byteAt(index, 1));
+                    code.writeShort(index);
                 } else {
-                    bytes.add(byteAt(index, 1));
+                    code.writeByte(index);
                 }
                 break;
             case TABLESWITCH:
                 for (int i = 0; i < pad; i++) {
-                    bytes.add(0);
+                    code.writeByte(0);
                 }
-                bytes.add(byteAt(defaultOffset, 4));
-                bytes.add(byteAt(defaultOffset, 3));
-                bytes.add(byteAt(defaultOffset, 2));
-                bytes.add(byteAt(defaultOffset, 1));
-                bytes.add(byteAt(low, 4));
-                bytes.add(byteAt(low, 3));
-                bytes.add(byteAt(low, 2));
-                bytes.add(byteAt(low, 1));
-                bytes.add(byteAt(high, 4));
-                bytes.add(byteAt(high, 3));
-                bytes.add(byteAt(high, 2));
-                bytes.add(byteAt(high, 1));
+                code.writeInt(defaultOffset);
+                code.writeInt(low);
+                code.writeInt(high);
                 for (int i = 0; i < offsets.size(); i++) {
                     int jumpOffset = offsets.get(i);
-                    bytes.add(byteAt(jumpOffset, 4));
-                    bytes.add(byteAt(jumpOffset, 3));
-                    bytes.add(byteAt(jumpOffset, 2));
-                    bytes.add(byteAt(jumpOffset, 1));
+                    code.writeInt(jumpOffset);
                 }
                 break;
             case LOOKUPSWITCH:
                 for (int i = 0; i < pad; i++) {
-                    bytes.add(0);
+                    code.writeByte(0);
                 }
-                bytes.add(byteAt(defaultOffset, 4));
-                bytes.add(byteAt(defaultOffset, 3));
-                bytes.add(byteAt(defaultOffset, 2));
-                bytes.add(byteAt(defaultOffset, 1));
-                bytes.add(byteAt(numPairs, 4));
-                bytes.add(byteAt(numPairs, 3));
-                bytes.add(byteAt(numPairs, 2));
-                bytes.add(byteAt(numPairs, 1));
+                code.writeInt(defaultOffset);
+                code.writeInt(numPairs);
                 Set<Entry<Integer, Integer>> matches = matchOffsetPairs.entrySet();
                 Iterator<Entry<Integer, Integer>> iter = matches.iterator();
                 while (iter.hasNext()) {
                     Entry<Integer, Integer> entry = iter.next();
                     int match = entry.getKey();
                     int offset = entry.getValue();
-                    bytes.add(byteAt(match, 4));
-                    bytes.add(byteAt(match, 3));
-                    bytes.add(byteAt(match, 2));
-                    bytes.add(byteAt(match, 1));
-                    bytes.add(byteAt(offset, 4));
-                    bytes.add(byteAt(offset, 3));
-                    bytes.add(byteAt(offset, 2));
-                    bytes.add(byteAt(offset, 1));
+                    code.writeInt(match);
+                    code.writeInt(offset);
                 }
                 break;
             case GOTO_W:
             case JSR_W:
-                bytes.add(byteAt(jumpToOffset, 4));
-                bytes.add(byteAt(jumpToOffset, 3));
-                bytes.add(byteAt(jumpToOffset, 2));
-                bytes.add(byteAt(jumpToOffset, 1));
+                code.writeInt(jumpToOffset);
                 break;
             default:
-                bytes.add(byteAt(jumpToOffset, 2));
-                bytes.add(byteAt(jumpToOffset, 1));
+                code.writeShort(jumpToOffset);
         }
-        return bytes;
     }
 }
 
@@ -1104,33 +1099,40 @@ class CLLoadStoreInstruction extends CLInstruction {
         this.constVal = constVal;
     }
 
+    /**
+     * Returns the constant operand of this BIPUSH or SIPUSH instruction (or the constant pool
+     * index operand of this LDC, LDC_W or LDC2_W instruction).
+     *
+     * @return the constant operand of this instruction.
+     */
+    public int constVal() {
+        return constVal;
+    }
+
     /**
      * {@inheritDoc}
      */
-    public ArrayList<Integer> toBytes() {
-        ArrayList<Integer> bytes = new ArrayList<Integer>();
-        bytes.add(opcode);
+    public void write(CLCodeBuffer code) {
+        code.writeByte(opcode);
         if (instructionInfo[opcode].operandCount > 0) {
             if (localVariableIndex != IRRELEVANT) {
                 if (isWidened) {
-                    bytes.add(byteAt(localVariableIndex, 2));
+                    code.writeByte(byteAt(localVariableIndex, 2));
                 }
-                bytes.add(byteAt(localVariableIndex, 1));
+                code.writeByte(localVariableIndex);
             } else {
                 switch (opcode) {
                     case BIPUSH:
                     case LDC:
-                        bytes.add(byteAt(constVal, 1));
+                        code.writeByte(constVal);
                         break;
                     case SIPUSH:
                     case LDC_W:
                     case LDC2_W:
-                        bytes.add(byteAt(constVal, 2));
-                        bytes.add(byteAt(constVal, 1));
+                        code.writeShort(constVal);
                 }
             }
         }
-        return bytes;
     }
 }
 
@@ -1156,10 +1158,8 @@ class CLStackInstruction extends CLInstruction {
     /**
      * {@inheritDoc}
      */
-    public ArrayList<Integer> toBytes() {
-        ArrayList<Integer> bytes = new ArrayList<Integer>();
-        bytes.add(opcode);
-        return bytes;
+    public void write(CLCodeBuffer code) {
+        code.writeByte(opcode);
     }
 }
 
@@ -1185,10 +1185,8 @@ class CLMiscInstruction extends CLInstruction {
     /**
      * {@inheritDoc}
      */
-    public ArrayList<Integer> toBytes() {
-        ArrayList<Integer> bytes = new ArrayList<Integer>();
-        bytes.add(opcode);
-        return bytes;
+    public void write(CLCodeBuffer code) {
+        code.writeByte(opcode);
     }
 }
 
@@ -4,6 +4,8 @@ package jminusminus;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.StringTokenizer;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -11,11 +13,34 @@ import java.util.zip.ZipFile;
 /**
  * This class can be used to locate and load system, extension, and user-defined class files from
  * directories and zip (jar) files.
+ *
+ * <p>
+ * The first time a class is looked up, an index mapping the (internal) name of every class on
+ * the class path to the directory or zip file holding it is built, from the central directories
+ * of the zip files and walks of the directories. Where a class appears more than once on the
+ * class path, the first occurrence wins. Each zip file is opened once and its handle kept for
+ * later lookups, until close() is called.
+ *
+ * <p>
+ * Optionally, the entries of the zip files can be saved to an index file, keyed by the
+ * modification time and size of each zip file, so that a later CLPath over the same zip files
+ * needn't scan them again. Directories are always walked, since their contents change more
+ * often.
  */
 class CLPath {
     // Stores the individual directories, zip, and jar files from the class path.
     private ArrayList<String> dirs;
 
+    // File in which the entries of zip files are saved, or null.
+    private File indexFile;
+
+    // Maps the name of each class on the class path to the directory or zip file holding it;
+    // null until the first lookup.
+    private HashMap<String, String> index;
+
+    // Maps the names of zip files on the class path to their (open) zip files.
+    private HashMap<String, ZipFile> zipFiles;
+
     /**
      * Returns a list of conceptual directories defining the class path.
      *
@@ -61,6 +86,19 @@ class CLPath {
      * @param extdir the directory for the Java extension classes.
      */
     public CLPath(String path, String extdir) {
+        this(path, extdir, null);
+    }
+
+    /**
+     * Constructs a CLPath object given the directory names defining the path, the directory for
+     * the Java extension classes, and the file in which to save the entries of the zip files on
+     * the path.
+     *
+     * @param path      the directory names defining the class path, separated by path separator.
+     * @param extdir    the directory for the Java extension classes.
+     * @param indexFile the file in which to save the entries of zip files, or null.
+     */
+    public CLPath(String path, String extdir, String indexFile) {
         if (path == null) {
             // No path specified, use CLASSPATH.
             path = System.getProperty("java.class.path");
@@ -81,13 +119,15 @@ class CLPath {
                 for (File file : extFiles) {
                     if (file.isFile() &&
                             (file.getName().endsWith(".zip") || file.getName().endsWith(".jar"))) {
-                        dirs.add(file.getName());
+                        dirs.add(file.getPath());
                     } else {
                         // Wrong suffix; ignore.
                     }
                 }
             }
         }
+        this.indexFile = indexFile == null ? null : new File(indexFile);
+        zipFiles = new HashMap<String, ZipFile>();
     }
 
     /**
@@ -99,35 +139,213 @@ class CLPath {
      * was not found.
      */
     public CLInputStream loadClass(String name) {
-        CLInputStream reader = null;
-        for (int i = 0; i < dirs.size(); i++) {
-            String dir = dirs.get(i);
+        String dir = index().get(name);
+        if (dir == null) {
+            // The class may have been written to one of the directories after they were walked.
+            for (String d : dirs) {
+                if (new File(d, name.replace('/', File.separatorChar) + ".class").canRead()) {
+                    dir = d;
+                    break;
+                }
+            }
+        }
+        if (dir == null) {
+            return null;
+        }
+        try {
+            if (new File(dir).isDirectory()) {
+                File theClass = new File(dir, name.replace('/', File.separatorChar) + ".class");
+                return new CLInputStream(new BufferedInputStream(new FileInputStream(theClass)));
+            }
+            ZipFile zip = zipFile(dir);
+            ZipEntry entry = zip.getEntry(name + ".class");
+            if (entry != null) {
+                return new CLInputStream(zip.getInputStream(entry));
+            }
+        } catch (IOException e) {
+            // Ignore
+        }
+        return null;
+    }
+
+    /**
+     * Closes the zip files opened by this CLPath.
+     */
+    public synchronized void close() {
+        for (ZipFile zip : zipFiles.values()) {
+            try {
+                zip.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+        zipFiles.clear();
+    }
+
+    // Returns the class-path index, building it on the first call.
+    private synchronized HashMap<String, String> index() {
+        if (index != null) {
+            return index;
+        }
+        index = new HashMap<String, String>();
+        HashMap<String, ZipIndexEntry> saved = readIndexFile();
+        boolean scanned = false;
+        for (String dir : dirs) {
             File file = new File(dir);
             if (file.isDirectory()) {
-                File theClass = new File(dir, name.replace('/', File.separatorChar) + ".class");
-                if (theClass.canRead()) {
+                walk(file, "", dir);
+            } else if (file.isFile()) {
+                ZipIndexEntry entry = saved.get(dir);
+                if (entry == null || entry.lastModified != file.lastModified() ||
+                        entry.length != file.length()) {
+                    entry = new ZipIndexEntry(file.lastModified(), file.length());
                     try {
-                        reader = new CLInputStream(new BufferedInputStream(new
-                                FileInputStream(theClass)));
-                    } catch (FileNotFoundException e) {
-                        // Ignore
+                        Enumeration<? extends ZipEntry> entries = zipFile(dir).entries();
+                        while (entries.hasMoreElements()) {
+                            String entryName = entries.nextElement().getName();
+                            if (entryName.endsWith(".class")) {
+                                entry.classes.add(entryName.substring(0,
+                                        entryName.length() - ".class".length()));
+                            }
+                        }
+                    } catch (IOException e) {
+                        // Not a zip file; ignore.
                     }
+                    saved.put(dir, entry);
+                    scanned = true;
                 }
-            } else if (file.isFile()) {
-                try {
-                    ZipFile zip = new ZipFile(dir);
-                    ZipEntry entry = zip.getEntry(name + ".class");
-                    if (entry != null) {
-                        reader = new CLInputStream(zip.getInputStream(entry));
+                for (String name : entry.classes) {
+                    if (!index.containsKey(name)) {
+                        index.put(name, dir);
                     }
-                } catch (IOException e) {
-                    // Ignore
                 }
             } else {
                 // Bogus entry; ignore
             }
         }
-        return reader;
+        if (scanned) {
+            writeIndexFile(saved);
+        }
+        return index;
+    }
+
+    // Adds the classes in the specified directory (and its subdirectories) to the index; prefix
+    // is the package prefix of the classes in the directory, and dir is the class-path entry.
+    private void walk(File directory, String prefix, String dir) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String fileName = file.getName();
+            if (file.isDirectory()) {
+                walk(file, prefix + fileName + "/", dir);
+            } else if (fileName.endsWith(".class")) {
+                String name = prefix + fileName.substring(0, fileName.length() - ".class".length());
+                if (!index.containsKey(name)) {
+                    index.put(name, dir);
+                }
+            }
+        }
+    }
+
+    // Returns the (shared) zip file with the given name, opening it if necessary.
+    private synchronized ZipFile zipFile(String name) throws IOException {
+        ZipFile zip = zipFiles.get(name);
+        if (zip == null) {
+            zip = new ZipFile(name);
+            zipFiles.put(name, zip);
+        }
+        return zip;
+    }
+
+    // Returns the zip file entries saved in the index file, keyed by zip file name. The file
+    // holds, for each zip file, a line "zip-file-name<TAB>modified<TAB>length<TAB>count",
+    // followed by the names of its count classes, one per line.
+    private HashMap<String, ZipIndexEntry> readIndexFile() {
+        HashMap<String, ZipIndexEntry> saved = new HashMap<String, ZipIndexEntry>();
+        if (indexFile == null || !indexFile.canRead()) {
+            return saved;
+        }
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(indexFile));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] fields = line.split("\t");
+                    ZipIndexEntry entry = new ZipIndexEntry(Long.parseLong(fields[1]),
+                            Long.parseLong(fields[2]));
+                    int count = Integer.parseInt(fields[3]);
+                    for (int i = 0; i < count; i++) {
+                        entry.classes.add(in.readLine());
+                    }
+                    saved.put(fields[0], entry);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // Rebuild the index.
+            saved.clear();
+        } catch (RuntimeException e) {
+            // Corrupt index file; rebuild the index.
+            saved.clear();
+        }
+        return saved;
+    }
+
+    // Saves the given zip file entries to the index file (if any).
+    private void writeIndexFile(HashMap<String, ZipIndexEntry> saved) {
+        if (indexFile == null) {
+            return;
+        }
+        try {
+            PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(indexFile)));
+            for (String name : saved.keySet()) {
+                ZipIndexEntry entry = saved.get(name);
+                out.printf("%s\t%d\t%d\t%d\n", name, entry.lastModified, entry.length,
+                        entry.classes.size());
+                for (String className : entry.classes) {
+                    out.println(className);
+                }
+            }
+            out.close();
+        } catch (IOException e) {
+            // The index is only a cache; ignore.
+        }
+    }
+}
+
+/**
+ * The classes in a zip file, along with the modification time and size of the zip file when it
+ * was scanned.
+ */
+class ZipIndexEntry {
+    /**
+     * Modification time of the zip file.
+     */
+    public long lastModified;
+
+    /**
+     * Size of the zip file.
+     */
+    public long length;
+
+    /**
+     * Names of the classes in the zip file.
+     */
+    public ArrayList<String> classes;
+
+    /**
+     * Constructs a ZipIndexEntry object.
+     *
+     * @param lastModified modification time of the zip file.
+     * @param length       size of the zip file.
+     */
+    public ZipIndexEntry(long lastModified, long length) {
+        this.lastModified = lastModified;
+        this.length = length;
+        classes = new ArrayList<String>();
     }
 }
 
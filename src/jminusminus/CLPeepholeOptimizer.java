@@ -0,0 +1,333 @@
+// Copyright 2012- Bill Campbell, Swami Iyer and Bahar Akbal-Delibas
+
+package jminusminus;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Map;
+
+import static jminusminus.CLConstants.*;
+
+/**
+ * A peephole optimizer for the instructions of a method, which CLEmitter runs before it resolves
+ * the jump labels in them. The following rewrites are made, over and over until none applies:
+ * <ul>
+ *   <li>A goto to the next instruction is removed.</li>
+ *
+ *   <li>A jump to a goto (or a chain of gotos) is redirected to where the last goto jumps.</li>
+ *
+ *   <li>A conditional jump over a goto is replaced by the opposite conditional jump to where the
+ *   goto jumps.</li>
+ *
+ *   <li>A load of a local variable followed by a store to it is removed, and a store to a local
+ *   variable followed by a load of it is replaced by a dup and the store, where that's shorter.
+ *   </li>
+ *
+ *   <li>Adding, subtracting, or-ing, xor-ing or shifting by 0, and multiplying or dividing by 1,
+ *   are removed.</li>
+ *
+ *   <li>A load of an int local variable, an add (or subtract) of a constant that fits in a byte,
+ *   and a store back to the variable are replaced by an iinc (or removed, if the constant is 0).
+ *   </li>
+ * </ul>
+ * Only the first instruction of a sequence being rewritten may be the target of a jump (or the
+ * start or end of an exception handler's range); the labels of a removed instruction move to the
+ * instruction following it. Methods with wide, jsr, ret or goto_w instructions are left alone.
+ */
+class CLPeepholeOptimizer {
+    /**
+     * Whether the peephole optimizer is enabled.
+     */
+    public static boolean enabled = true;
+
+    /**
+     * Whether the number of bytes of code the peephole optimizer saves in each class is reported
+     * on standard output.
+     */
+    public static boolean report = false;
+
+    // Instructions of the method, which are rewritten in place.
+    private ArrayList<CLInstruction> code;
+
+    // Jump labels of the method (mapping each to a pc), which are updated in place.
+    private Hashtable<String, Integer> labels;
+
+    // Maps each jump label to the instruction it's at, or to null if it's at the end of the code.
+    private HashMap<String, CLInstruction> targets;
+
+    // Instructions that some jump label is at.
+    private HashSet<CLInstruction> labeled;
+
+    /**
+     * Constructs a CLPeepholeOptimizer object.
+     *
+     * @param code   instructions of the method, whose pcs are consistent with the labels.
+     * @param labels jump labels of the method, mapping each to a pc.
+     */
+    public CLPeepholeOptimizer(ArrayList<CLInstruction> code, Hashtable<String, Integer> labels) {
+        this.code = code;
+        this.labels = labels;
+    }
+
+    /**
+     * Rewrites the instructions of the method, and then assigns the instructions their new pcs
+     * and the jump labels the pcs of the instructions they are at. Returns the size (in bytes) of
+     * the rewritten code.
+     *
+     * @return the size of the rewritten code.
+     */
+    public int optimize() {
+        int size = 0;
+        HashMap<Integer, CLInstruction> pcToInstruction = new HashMap<Integer, CLInstruction>();
+        for (CLInstruction instr : code) {
+            int opcode = instr.opcode();
+            if (opcode == WIDE || opcode == JSR || opcode == JSR_W || opcode == RET ||
+                    opcode == GOTO_W) {
+                return code.get(code.size() - 1).pc() + 1 +
+                        code.get(code.size() - 1).operandCount();
+            }
+            pcToInstruction.put(instr.pc(), instr);
+            size = instr.pc() + 1 + instr.operandCount();
+        }
+        targets = new HashMap<String, CLInstruction>();
+        for (Map.Entry<String, Integer> entry : labels.entrySet()) {
+            if (entry.getValue() < size && !pcToInstruction.containsKey(entry.getValue())) {
+                // A label in the middle of an instruction; can't happen unless the code is
+                // malformed, in which case it's left as it is.
+                return size;
+            }
+            targets.put(entry.getKey(), pcToInstruction.get(entry.getValue()));
+        }
+        labeled = new HashSet<CLInstruction>(targets.values());
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < code.size(); i++) {
+                changed |= rewrite(i);
+            }
+        }
+
+        // A label left at the end of the code must still be at an instruction.
+        if (targets.containsValue(null)) {
+            code.add(new CLMiscInstruction(NOP, 0));
+            for (Map.Entry<String, CLInstruction> entry : targets.entrySet()) {
+                if (entry.getValue() == null) {
+                    entry.setValue(code.get(code.size() - 1));
+                }
+            }
+        }
+
+        int pc = 0;
+        for (CLInstruction instr : code) {
+            instr.setPC(pc);
+            pc += 1 + instr.operandCount();
+        }
+        for (Map.Entry<String, CLInstruction> entry : targets.entrySet()) {
+            labels.put(entry.getKey(), entry.getValue().pc());
+        }
+        return pc;
+    }
+
+    // Applies the first rewrite that applies to the sequence of instructions starting at index
+    // i, if any; returns true if one did, and false otherwise.
+    private boolean rewrite(int i) {
+        CLInstruction a = code.get(i);
+        int opcode = a.opcode();
+
+        if (opcode == GOTO && targets.get(label(a)) == at(i + 1)) {
+            // A goto to the next instruction.
+            replace(i, 1);
+            return true;
+        }
+        if (isJump(opcode)) {
+            String label = finalLabel(label(a));
+            if (!label.equals(label(a))) {
+                // A jump to a goto.
+                replace(i, 1, new CLFlowControlInstruction(opcode, 0, label));
+                return true;
+            }
+        }
+        if (isConditionalJump(opcode) && unlabeled(i + 1) && code.get(i + 1).opcode() == GOTO &&
+                targets.get(label(a)) == at(i + 2)) {
+            // A conditional jump over a goto.
+            replace(i, 2, new CLFlowControlInstruction(oppositeJump(opcode), 0,
+                    label(code.get(i + 1))));
+            return true;
+        }
+        if (!unlabeled(i + 1)) {
+            return false;
+        }
+        CLInstruction b = code.get(i + 1);
+        if (loadType(a) != -1 && loadType(a) == storeType(b) &&
+                a.localVariableIndex() == b.localVariableIndex()) {
+            // A load of a local variable followed by a store to it.
+            replace(i, 2);
+            return true;
+        }
+        if (storeType(a) != -1 && storeType(a) == loadType(b) &&
+                a.localVariableIndex() == b.localVariableIndex() && a.operandCount() > 0) {
+            // A store to a local variable followed by a load of it, without short forms.
+            boolean isWide = storeType(a) == 1 || storeType(a) == 3;
+            replace(i, 2, new CLStackInstruction(isWide ? DUP2 : DUP, 0), a);
+            return true;
+        }
+        Integer c = intConstant(a);
+        if (c != null && (c == 0 && isIdentityForZero(b.opcode()) ||
+                c == 1 && (b.opcode() == IMUL || b.opcode() == IDIV))) {
+            // An operation that leaves its (other) operand unchanged.
+            replace(i, 2);
+            return true;
+        }
+        if (!unlabeled(i + 2) || !unlabeled(i + 3)) {
+            return false;
+        }
+        CLInstruction d = code.get(i + 2);
+        CLInstruction e = code.get(i + 3);
+        if (storeType(e) != 0 || e.localVariableIndex() > 255) {
+            return false;
+        }
+        int index = e.localVariableIndex();
+        Integer increment = null;
+        if (loadType(a) == 0 && a.localVariableIndex() == index && intConstant(b) != null) {
+            // x = x + c or x = x - c.
+            if (d.opcode() == IADD) {
+                increment = intConstant(b);
+            } else if (d.opcode() == ISUB) {
+                increment = -intConstant(b);
+            }
+        } else if (c != null && loadType(b) == 0 && b.localVariableIndex() == index &&
+                d.opcode() == IADD) {
+            // x = c + x.
+            increment = c;
+        }
+        if (increment != null && increment == 0) {
+            replace(i, 4);
+            return true;
+        } else if (increment != null && increment >= -128 && increment <= 127) {
+            replace(i, 4, new CLArithmeticInstruction(IINC, 0, index, increment, false));
+            return true;
+        }
+        return false;
+    }
+
+    // Replaces the n instructions starting at index i with the specified ones. The labels at the
+    // first of them move to the first replacement, or, if there are none, to the instruction
+    // after the ones replaced.
+    private void replace(int i, int n, CLInstruction... replacement) {
+        CLInstruction first = code.get(i);
+        for (int k = 0; k < n; k++) {
+            code.remove(i);
+        }
+        for (int k = 0; k < replacement.length; k++) {
+            code.add(i + k, replacement[k]);
+        }
+        if (labeled.remove(first)) {
+            CLInstruction target = at(i);
+            for (Map.Entry<String, CLInstruction> entry : targets.entrySet()) {
+                if (entry.getValue() == first) {
+                    entry.setValue(target);
+                }
+            }
+            if (target != null) {
+                labeled.add(target);
+            }
+        }
+    }
+
+    // Returns the label a jump to the specified label can go to instead: where the chain of
+    // gotos starting at the label ends, or the label itself if there's no chain or it loops.
+    private String finalLabel(String label) {
+        HashSet<CLInstruction> visited = new HashSet<CLInstruction>();
+        String result = label;
+        CLInstruction target = targets.get(result);
+        while (target != null && target.opcode() == GOTO) {
+            if (!visited.add(target)) {
+                return label;
+            }
+            result = label(target);
+            target = targets.get(result);
+        }
+        return result;
+    }
+
+    // Returns the instruction at index i, or null if i is at the end of the code.
+    private CLInstruction at(int i) {
+        return i < code.size() ? code.get(i) : null;
+    }
+
+    // Returns true if there's an instruction at index i, and no label is at it.
+    private boolean unlabeled(int i) {
+        return i < code.size() && !labeled.contains(code.get(i));
+    }
+
+    // Returns the label of the specified jump instruction.
+    private static String label(CLInstruction jump) {
+        return ((CLFlowControlInstruction) jump).jumpToLabel();
+    }
+
+    // Returns true if the specified opcode is of a (conditional or unconditional) jump to a
+    // label, and false otherwise.
+    private static boolean isJump(int opcode) {
+        return opcode == GOTO || isConditionalJump(opcode);
+    }
+
+    // Returns true if the specified opcode is of a conditional jump, and false otherwise.
+    private static boolean isConditionalJump(int opcode) {
+        return IFEQ <= opcode && opcode <= IF_ACMPNE || opcode == IFNULL || opcode == IFNONNULL;
+    }
+
+    // Returns the opcode of the conditional jump taken exactly when the one with the specified
+    // opcode isn't. The opcodes from IFEQ to IF_ACMPNE come in such pairs.
+    private static int oppositeJump(int opcode) {
+        if (opcode == IFNULL || opcode == IFNONNULL) {
+            return opcode == IFNULL ? IFNONNULL : IFNULL;
+        }
+        return IFEQ + ((opcode - IFEQ) ^ 1);
+    }
+
+    // Returns true if the specified opcode is of an operation that leaves its first operand
+    // unchanged when the second is 0, and false otherwise.
+    private static boolean isIdentityForZero(int opcode) {
+        return opcode == IADD || opcode == ISUB || opcode == IOR || opcode == IXOR ||
+                opcode == ISHL || opcode == ISHR || opcode == IUSHR;
+    }
+
+    // Returns the type (0 to 4 for int, long, float, double and reference) of the local variable
+    // the specified instruction loads, or -1 if it isn't a load of a local variable.
+    private static int loadType(CLInstruction instr) {
+        int opcode = instr.opcode();
+        if (ILOAD <= opcode && opcode <= ALOAD) {
+            return opcode - ILOAD;
+        } else if (ILOAD_0 <= opcode && opcode <= ALOAD_3) {
+            return (opcode - ILOAD_0) / 4;
+        }
+        return -1;
+    }
+
+    // Returns the type (0 to 4 for int, long, float, double and reference) of the local variable
+    // the specified instruction stores, or -1 if it isn't a store to a local variable.
+    private static int storeType(CLInstruction instr) {
+        int opcode = instr.opcode();
+        if (ISTORE <= opcode && opcode <= ASTORE) {
+            return opcode - ISTORE;
+        } else if (ISTORE_0 <= opcode && opcode <= ASTORE_3) {
+            return (opcode - ISTORE_0) / 4;
+        }
+        return -1;
+    }
+
+    // Returns the int constant the specified instruction pushes, or null if it doesn't push an
+    // int constant.
+    private static Integer intConstant(CLInstruction instr) {
+        int opcode = instr.opcode();
+        if (ICONST_M1 <= opcode && opcode <= ICONST_5) {
+            return opcode - ICONST_0;
+        } else if (opcode == BIPUSH || opcode == SIPUSH) {
+            return ((CLLoadStoreInstruction) instr).constVal();
+        }
+        return null;
+    }
+}
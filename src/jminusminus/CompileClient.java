@@ -0,0 +1,217 @@
+// Copyright 2012- Bill Campbell, Swami Iyer and Bahar Akbal-Delibas
+
+package jminusminus;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * A thin client for the compile server (see CompileServer). It sends its command-line arguments
+ * over the server's Unix domain socket as one compile request, copies the compiler's output to
+ * STDOUT and STDERR, and exits with the status of the compilation. With the option -stop, it
+ * stops the server instead.
+ * <p>
+ * With the option -bench n, it measures the latency of the request instead: n times cold, each
+ * time running the compiler (jminusminus.Main) in a new JVM, and then n times warm, each time
+ * sending the request to the server; and it reports the median (p50) and 99th percentile (p99)
+ * latencies of both.
+ * <p>
+ * With the option -bench-run n, it measures the latency of compiling and running a program
+ * instead: n times the two-process way, compiling the program to class files in a temporary
+ * directory and then running it in a second JVM, and then n times in one JVM, with the compiler
+ * option -run; and it reports the latencies of both in the same way. The server isn't involved.
+ */
+public class CompileClient {
+    /**
+     * Entry point.
+     *
+     * @param args the command-line arguments.
+     */
+    public static void main(String args[]) {
+        try {
+            if (args.length == 2 && args[0].equals("-stop")) {
+                System.exit(send(args[1], new String[] { CompileServer.STOP }, true));
+            } else if (args.length >= 3 && args[0].equals("-bench")) {
+                bench(Integer.parseInt(args[1]), args[2],
+                        Arrays.copyOfRange(args, 3, args.length));
+            } else if (args.length >= 4 && args[0].equals("-bench-run")) {
+                benchRun(Integer.parseInt(args[1]), args[2],
+                        Arrays.copyOfRange(args, 3, args.length));
+            } else if (args.length >= 1 && !args[0].startsWith("-")) {
+                String[] request = new String[args.length];
+                request[0] = new File(System.getProperty("user.dir")).getAbsolutePath();
+                System.arraycopy(args, 1, request, 1, args.length - 1);
+                System.exit(send(args[0], request, true));
+            } else {
+                printUsage();
+                System.exit(2);
+            }
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        } catch (InterruptedException e) {
+            System.exit(2);
+        }
+    }
+
+    // Sends the request made up of the given fields to the server listening on the given socket,
+    // and returns the exit status from the response. The output in the response is copied to
+    // STDOUT and STDERR if echo is true, and discarded otherwise.
+    private static int send(String socketPath, String[] fields, boolean echo) throws IOException {
+        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.connect(UnixDomainSocketAddress.of(socketPath));
+            PrintStream out = new PrintStream(Channels.newOutputStream(channel), false, "UTF-8");
+            out.println(String.join("\t", fields));
+            out.flush();
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(Channels.newInputStream(channel), "UTF-8"));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("exit ")) {
+                    return Integer.parseInt(line.substring(5).trim());
+                } else if (!echo) {
+                    continue;
+                } else if (line.startsWith("out ")) {
+                    System.out.println(line.substring(4));
+                } else if (line.startsWith("err ")) {
+                    System.err.println(line.substring(4));
+                }
+            }
+            throw new IOException("compile server closed the connection");
+        } finally {
+            channel.close();
+        }
+    }
+
+    // Runs the compilation with the given arguments n times cold and n times warm, and reports
+    // the latencies.
+    private static void bench(int n, String socketPath, String[] args)
+            throws IOException, InterruptedException {
+        ArrayList<String> command = javaCommand(System.getProperty("java.class.path"),
+                "jminusminus.Main");
+        command.addAll(Arrays.asList(args));
+        long[] cold = new long[n];
+        for (int i = 0; i < n; i++) {
+            long start = System.nanoTime();
+            execute(command);
+            cold[i] = System.nanoTime() - start;
+        }
+
+        String[] request = new String[args.length + 1];
+        request[0] = new File(System.getProperty("user.dir")).getAbsolutePath();
+        System.arraycopy(args, 0, request, 1, args.length);
+        long[] warm = new long[n];
+        for (int i = 0; i < n; i++) {
+            long start = System.nanoTime();
+            send(socketPath, request, false);
+            warm[i] = System.nanoTime() - start;
+        }
+
+        report("cold", cold);
+        report("warm", warm);
+    }
+
+    // Compiles and runs the program made up of the given source files (whose main class has the
+    // given name) n times in two JVMs and n times in one, and reports the latencies.
+    private static void benchRun(int n, String mainClass, String[] sourceFiles)
+            throws IOException, InterruptedException {
+        File dir = Files.createTempDirectory("jminusminus").toFile();
+        ArrayList<String> compile = javaCommand(System.getProperty("java.class.path"),
+                "jminusminus.Main");
+        compile.add("-d");
+        compile.add(dir.getPath());
+        compile.addAll(Arrays.asList(sourceFiles));
+        ArrayList<String> run = javaCommand(dir.getPath(), mainClass);
+        long[] twoJVMs = new long[n];
+        for (int i = 0; i < n; i++) {
+            long start = System.nanoTime();
+            execute(compile);
+            execute(run);
+            twoJVMs[i] = System.nanoTime() - start;
+        }
+        delete(dir);
+
+        ArrayList<String> compileAndRun = javaCommand(System.getProperty("java.class.path"),
+                "jminusminus.Main");
+        compileAndRun.addAll(Arrays.asList(sourceFiles));
+        compileAndRun.add("-run");
+        long[] oneJVM = new long[n];
+        for (int i = 0; i < n; i++) {
+            long start = System.nanoTime();
+            execute(compileAndRun);
+            oneJVM[i] = System.nanoTime() - start;
+        }
+
+        report("two JVMs", twoJVMs);
+        report("-run", oneJVM);
+    }
+
+    // Returns the command for running the class with the given name, from the given class path,
+    // in a new JVM.
+    static ArrayList<String> javaCommand(String classPath, String className) {
+        ArrayList<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator
+                + "java");
+        command.add("-cp");
+        command.add(classPath);
+        command.add(className);
+        return command;
+    }
+
+    // Executes the given command, discarding its output, waits for it to finish, and returns its
+    // exit status.
+    static int execute(ArrayList<String> command)
+            throws IOException, InterruptedException {
+        return new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD).start().waitFor();
+    }
+
+    // Deletes the given file, or directory along with everything in it.
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    // Prints the median and 99th percentile of the given latencies (in nanoseconds).
+    private static void report(String label, long[] latencies) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%s: n = %d, p50 = %.1f ms, p99 = %.1f ms\n", label, sorted.length,
+                percentile(sorted, 50) / 1e6, percentile(sorted, 99) / 1e6);
+    }
+
+    // Returns the p-th percentile (by nearest rank) of the given sorted values.
+    static long percentile(long[] sorted, int p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    // Prints command usage to STDOUT.
+    private static void printUsage() {
+        String usage = "Usage: java jminusminus.CompileClient <socket> <compiler arguments>\n"
+                + "       java jminusminus.CompileClient -stop <socket>\n"
+                + "       java jminusminus.CompileClient -bench <n> <socket> <compiler arguments>\n"
+                + "       java jminusminus.CompileClient -bench-run <n> <main class> "
+                + "<source files>";
+        System.out.println(usage);
+    }
+}
@@ -0,0 +1,204 @@
+// Copyright 2012- Bill Campbell, Swami Iyer and Bahar Akbal-Delibas
+
+package jminusminus;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * A long-lived compile server. It takes compile requests, one at a time, either from the lines of
+ * STDIN or from the connections to a Unix domain socket, and runs each of them through a front
+ * end (Main or JavaCCMain) in the same JVM. Successive requests thus find the scanner, parser,
+ * analyzer and code generators already loaded and compiled by the JIT, and the Type cache holding
+ * the JDK types already looked up by reflection.
+ * <p>
+ * Every request gets its own ASTs, contexts and ByteClassLoader, as a command-line compilation
+ * does; and the options and the user-defined types a request leaves behind are forgotten before
+ * the next one runs, so the output for a request is exactly what a fresh compiler would produce.
+ * <p>
+ * A request is a line holding the working directory of the client followed by the command-line
+ * arguments for the compiler, separated by tabs. Relative paths are interpreted against the
+ * working directory of the server, so the client's must be the same. The response is a line
+ * "out text" for each line the compilation wrote to STDOUT, a line "err text" for each line it
+ * wrote to STDERR, and finally a line "exit status" where status is 0 if the compilation
+ * succeeded and 1 otherwise. A request consisting of the single word "stop" stops the server.
+ * <p>
+ * The front ends reject the option -run in a request, since the program would run in the
+ * server's JVM (which it could exit) with the server's STDIN (which may be the request stream).
+ */
+class CompileServer {
+    /**
+     * The request that stops the server.
+     */
+    public static final String STOP = "stop";
+
+    // The front end that compiles the requests.
+    private Compiler compiler;
+
+    // Working directory of the server.
+    private String workingDir;
+
+    // Whether a stop request has been received.
+    private boolean stopped;
+
+    /**
+     * Constructs a compile server for the given front end.
+     *
+     * @param compiler the front end that compiles the requests.
+     */
+    public CompileServer(Compiler compiler) {
+        this.compiler = compiler;
+        workingDir = new File(System.getProperty("user.dir")).getAbsolutePath();
+        stopped = false;
+    }
+
+    /**
+     * Serves the requests read from STDIN, writing the responses to STDOUT, until STDIN is
+     * exhausted or a stop request is received.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public void serve() throws IOException {
+        serve(System.in, System.out);
+    }
+
+    /**
+     * Serves the requests sent over the connections to the Unix domain socket at the specified
+     * path, one connection at a time, until a stop request is received. A stale socket file at
+     * the path is replaced, and the socket file is removed when the server stops.
+     *
+     * @param socketPath path of the socket file.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void serve(String socketPath) throws IOException {
+        Path path = Paths.get(socketPath);
+        Files.deleteIfExists(path);
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            server.bind(UnixDomainSocketAddress.of(path));
+            while (!stopped) {
+                SocketChannel channel = server.accept();
+                try {
+                    serve(Channels.newInputStream(channel), Channels.newOutputStream(channel));
+                } catch (IOException e) {
+                    // The client went away; carry on with the next one.
+                } finally {
+                    channel.close();
+                }
+            }
+        } finally {
+            server.close();
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * The compilation that a compile server runs for each request.
+     */
+    interface Compiler {
+        /**
+         * Compiles as directed by the given command-line arguments, and returns true if the
+         * compilation succeeded, and false otherwise.
+         *
+         * @param args the command-line arguments.
+         * @return true if the compilation succeeded, and false otherwise.
+         */
+        public boolean compile(String[] args);
+    }
+
+    // Serves the requests read from in, writing the responses to out, until in is exhausted or a
+    // stop request is received.
+    private void serve(InputStream in, OutputStream out) throws IOException {
+        BufferedReader requests = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        PrintStream responses = new PrintStream(out, false, "UTF-8");
+        String request;
+        while (!stopped && (request = requests.readLine()) != null) {
+            if (request.trim().isEmpty()) {
+                continue;
+            }
+            if (request.trim().equals(STOP)) {
+                stopped = true;
+                responses.println("exit 0");
+            } else {
+                respond(request, responses);
+            }
+            responses.flush();
+        }
+    }
+
+    // Runs the compilation for the given request, and writes the response to out.
+    private void respond(String request, PrintStream out) {
+        String[] fields = request.split("\t", -1);
+        String[] args = new String[fields.length - 1];
+        System.arraycopy(fields, 1, args, 0, args.length);
+        if (!new File(fields[0]).getAbsolutePath().equals(workingDir)) {
+            out.println("err Error: compile server runs in " + workingDir + ", not " + fields[0]);
+            out.println("exit 1");
+            return;
+        }
+
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        PrintStream systemOut = System.out;
+        PrintStream systemErr = System.err;
+        boolean succeeded = false;
+        System.setOut(new PrintStream(stdout, true));
+        System.setErr(new PrintStream(stderr, true));
+        try {
+            resetOptions();
+            succeeded = compiler.compile(args);
+        } catch (Throwable e) {
+            e.printStackTrace();
+        } finally {
+            System.out.flush();
+            System.err.flush();
+            System.setOut(systemOut);
+            System.setErr(systemErr);
+            Type.removeUserTypes();
+            CLFrame.removeDeclaredClasses();
+        }
+        writeLines("out ", stdout.toString(), out);
+        writeLines("err ", stderr.toString(), out);
+        out.println("exit " + (succeeded ? 0 : 1));
+    }
+
+    // Restores the options that the command-line arguments of a request may have changed.
+    static void resetOptions() {
+        NPhysicalRegister.MAX_COUNT = 8;
+        CLEmitter.majorVersion = CLConstants.MAJOR_VERSION;
+        NHIROptimizer.constantPropagation = true;
+        NHIROptimizer.copyPropagation = true;
+        NHIROptimizer.loopInvariantCodeMotion = true;
+        NHIROptimizer.valueNumbering = true;
+        NHIROptimizer.deadCodeElimination = true;
+        CLPeepholeOptimizer.enabled = true;
+        CLPeepholeOptimizer.report = false;
+    }
+
+    // Writes the lines of the given text to out, each with the given tag in front of it.
+    private static void writeLines(String tag, String text, PrintStream out) {
+        if (text.isEmpty()) {
+            return;
+        }
+        if (text.endsWith("\n")) {
+            text = text.substring(0, text.length() - 1);
+        }
+        for (String line : text.split("\n", -1)) {
+            out.println(tag + line);
+        }
+    }
+}
@@ -0,0 +1,1033 @@
+// Copyright 2012- Bill Campbell, Swami Iyer and Bahar Akbal-Delibas
+
+package jminusminus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static jminusminus.CLConstants.*;
+
+/**
+ * Benchmarks for the parts of the compiler that have been tuned for speed. A benchmark that times
+ * something builds its own input, runs the part of the compiler it's about n times in this JVM
+ * after n warm-up runs (so that it has been compiled by the JIT), and reports the median (p50)
+ * and 99th percentile (p99) of what it measures, the way CompileClient -bench does for whole
+ * compilations. A benchmark of the SPIM code the compiler writes instead runs that code through
+ * SPIMSimulator and reports counts of what it executes, which don't vary from run to run; like
+ * any compilation with -s, it needs the environment variable j to point at the j-- root, where
+ * the SPIM runtime is.
+ * <p>
+ * The benchmark constants builds classes with 2500 to 30000 distinct string constants through
+ * CLEmitter, loading each constant twice so that half the lookups in the constant pool find an
+ * entry already there; it reports the time per class and per constant, which stays flat as the
+ * pool grows if finding an entry takes constant time.
+ * <p>
+ * The benchmark allocation builds a class with 200 methods of about 4000 instructions each through
+ * CLEmitter, with the peephole optimizer off, and reports the time and the bytes allocated (as
+ * counted by CompilerStats) per instruction emitted.
+ * <p>
+ * The benchmark spim-memory compiles each of the given j-- programs to SPIM with each register
+ * allocator (naive, linear and graph) and the given number of physical registers, runs them, and
+ * reports the loads (lw) and stores (sw) each executes, along with all the instructions; a
+ * program whose output differs from what it prints with the naive allocator is flagged.
+ * <p>
+ * The benchmark licm generates j-- programs with loops nested 1 to 4 deep, 10 iterations each,
+ * whose innermost body adds up terms that are invariant in one or more of the loops around it;
+ * it compiles them to SPIM with each register allocator, with and without loop-invariant code
+ * motion (-no-licm), and reports the instructions executed.
+ * <p>
+ * The benchmark spim-threads generates a j-- class with 400 methods, each with nested loops and
+ * a dozen locals, and compiles it to SPIM with each register allocator on 1, 2 and 4 threads
+ * (-j); it reports the wall-clock time of translating the methods to SPIM (the spim phase), per
+ * class and per method.
+ * <p>
+ * The benchmark batch generates the given number of j-- source files, each a class with a few
+ * methods, and compiles them n times in a single new JVM (jminusminus.Main with an @argfile
+ * listing them) and n times in a new JVM per file, the way a build that can only pass the
+ * compiler one file at a time does; it reports the times of both, per batch and per file.
+ * <p>
+ * The benchmark scan generates a j-- source file of about 4 MB, with identifiers, literals of
+ * every kind, operators and comments, and tokenizes it with the compiler option -t (with STDOUT
+ * discarded); it reports the time per file and per token, and the tokens per second.
+ * <p>
+ * The benchmark parse generates a j-- class of about 640 KB made up of nested casts, calls and
+ * parenthesized expressions, where the parser's speculative lookahead (seeCast() and
+ * seeLocalVariableDeclaration()) dominates, and parses it (with -p -compact, STDOUT discarded);
+ * it reports the time of the parse phase (which excludes scanning) per file and per token.
+ * <p>
+ * The benchmark parse-pathological parses (in the same way) inputs that have made parsers
+ * superlinear, each at 4000, 8000, 16000 and 32000 repetitions: a chain of casts "(A.B.C.D)
+ * (A.B.C.D) ... x", a chain of binary operators, a chain of calls, statements that start with
+ * qualified names, and one long qualified name; the time per token should stay flat as the
+ * input doubles. The whole series is run once before it's measured, on a thread with a 1 GB
+ * stack, since the parser and the -p dump recurse once per cast.
+ * <p>
+ * The benchmark dump-memory generates a j-- class of about 4 MB (the class of spim-threads with
+ * 6000 methods) and compiles it with -a (the dump of the analyzed AST, with STDOUT discarded),
+ * with -a -compact, and to class files; it reports the smallest heap (-Xmx, to within 4 MB) in
+ * which each compilation succeeds in a new JVM, and the bytes each allocates, as counted by
+ * CompilerStats.
+ * <p>
+ * The benchmark switch generates a j-- interpreter for a small bytecode (a loop summing 1..n)
+ * with three dispatch loops: a switch on dense opcodes 0 to 7 (a tableswitch), a switch on the
+ * same opcodes times 1000 (a lookupswitch), and a chain of if-else statements. It runs each
+ * interpreter n times on the JVM (summing 1..10000000, after n warm-up runs) and reports the
+ * time per interpreted step; and it compiles each to SPIM (with the graph allocator), runs it
+ * summing 1..1000, and reports the SPIM instructions executed per interpreted step.
+ * <p>
+ * The benchmark verify compiles 2000 generated classes (those of batch) with -target 49 and
+ * with -target 52, and loads and initializes every class n times (after n warm-up runs), each
+ * time through a new ByteClassLoader per class; initializing a class links it, which verifies
+ * it, by type inference for version 49 and by type checking against the StackMapTable
+ * attributes for version 52. It reports the time per batch and per class.
+ * <p>
+ * The benchmark analysis-threads generates the class of spim-threads with 4000 methods and
+ * compiles it to class files on 1, 2 and 4 threads (-j); it reports the wall-clock time of
+ * analyzing the method bodies (the analyze phase), per class and per method.
+ */
+public class CompilerBench {
+    /**
+     * Entry point.
+     *
+     * @param args the command-line arguments.
+     */
+    public static void main(String args[]) {
+        try {
+            if (args.length == 2 && args[0].equals("constants")) {
+                constants(Integer.parseInt(args[1]));
+            } else if (args.length == 2 && args[0].equals("allocation")) {
+                allocation(Integer.parseInt(args[1]));
+            } else if (args.length > 2 && args[0].equals("spim-memory")) {
+                spimMemory(Integer.parseInt(args[1]), Arrays.copyOfRange(args, 2, args.length));
+            } else if (args.length == 1 && args[0].equals("licm")) {
+                licm();
+            } else if (args.length == 2 && args[0].equals("spim-threads")) {
+                spimThreads(Integer.parseInt(args[1]));
+            } else if (args.length == 3 && args[0].equals("batch")) {
+                batch(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+            } else if (args.length == 2 && args[0].equals("scan")) {
+                scan(Integer.parseInt(args[1]));
+            } else if (args.length == 2 && args[0].equals("parse")) {
+                parse(Integer.parseInt(args[1]));
+            } else if (args.length == 2 && args[0].equals("parse-pathological")) {
+                parsePathological(Integer.parseInt(args[1]));
+            } else if (args.length == 1 && args[0].equals("dump-memory")) {
+                dumpMemory();
+            } else if (args.length == 2 && args[0].equals("switch")) {
+                switchDispatch(Integer.parseInt(args[1]));
+            } else if (args.length == 2 && args[0].equals("verify")) {
+                verify(Integer.parseInt(args[1]));
+            } else if (args.length == 2 && args[0].equals("analysis-threads")) {
+                analysisThreads(Integer.parseInt(args[1]));
+            } else {
+                printUsage();
+                System.exit(2);
+            }
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        } catch (InterruptedException e) {
+            System.exit(2);
+        }
+    }
+
+    // A run of a benchmark.
+    private interface Run {
+        // Runs the benchmark once.
+        void run() throws IOException;
+    }
+
+    // Builds classes with growing numbers of distinct string constants through CLEmitter, and
+    // reports the times. The whole series is run once before it's measured, so that the small
+    // classes aren't the ones that pay for the warm-up.
+    private static void constants(int n) throws IOException {
+        int[] counts = { 2500, 5000, 10000, 20000, 30000 };
+        for (int pass = 0; pass < 2; pass++) {
+            for (final int count : counts) {
+                long[] times = time(n, new Run() {
+                    public void run() {
+                        buildClass(count);
+                    }
+                });
+                if (pass == 1) {
+                    report("constants " + count, times, count, "constant");
+                }
+            }
+        }
+    }
+
+    // Builds a class whose methods load the given number of distinct string constants, each of
+    // them twice, and pop them; each method loads 1000 of them.
+    private static void buildClass(int count) {
+        ArrayList<String> mods = new ArrayList<String>();
+        mods.add("public");
+        CLEmitter output = new CLEmitter(false);
+        output.addClass(mods, "Constants", "java/lang/Object", null, false);
+        mods.add("static");
+        for (int i = 0; i < count; i += 1000) {
+            output.addMethod(mods, "m" + i, "()V", null, false);
+            for (int j = i; j < Math.min(i + 1000, count); j++) {
+                for (int k = 0; k < 2; k++) {
+                    output.addLDCInstruction("constant " + j);
+                    output.addNoArgInstruction(POP);
+                }
+            }
+            output.addNoArgInstruction(RETURN);
+        }
+        output.write();
+    }
+
+    // Builds a class with many instructions through CLEmitter, and reports the time and the bytes
+    // allocated per instruction.
+    private static void allocation(int n) throws IOException {
+        CLPeepholeOptimizer.enabled = false;
+        final int[] instructions = new int[1];
+        long[] times = time(n, new Run() {
+            public void run() {
+                instructions[0] = buildMethods(200, 1000);
+            }
+        });
+        CompilerStats.begin(true);
+        buildMethods(200, 1000);
+        long allocated = CompilerStats.end().allocatedBytes();
+        CLPeepholeOptimizer.enabled = true;
+        report("allocation", times, instructions[0], "instruction");
+        System.out.printf("allocation: %d instructions, %.1f bytes allocated per instruction\n",
+                instructions[0], (double) allocated / instructions[0]);
+    }
+
+    // Builds a class with the given number of methods, each adding up its two arguments the
+    // given number of times in a loop, and returns the number of instructions emitted.
+    private static int buildMethods(int methods, int adds) {
+        ArrayList<String> mods = new ArrayList<String>();
+        mods.add("public");
+        CLEmitter output = new CLEmitter(false);
+        output.addClass(mods, "Instructions", "java/lang/Object", null, false);
+        mods.add("static");
+        int instructions = 0;
+        for (int i = 0; i < methods; i++) {
+            output.addMethod(mods, "m" + i, "(II)V", null, false);
+            String loop = output.createLabel();
+            output.addLabel(loop);
+            for (int j = 0; j < adds; j++) {
+                output.addNoArgInstruction(ILOAD_0);
+                output.addNoArgInstruction(ILOAD_1);
+                output.addNoArgInstruction(IADD);
+                output.addNoArgInstruction(ISTORE_0);
+            }
+            output.addNoArgInstruction(ILOAD_0);
+            output.addBranchInstruction(IFNE, loop);
+            output.addNoArgInstruction(RETURN);
+            instructions += adds * 4 + 3;
+        }
+        output.write();
+        return instructions;
+    }
+
+    // Compiles the given j-- programs to SPIM with each register allocator and the given number
+    // of physical registers, runs them, and reports the loads and stores executed.
+    private static void spimMemory(int registers, String[] files) throws IOException {
+        String[] allocators = { "naive", "linear", "graph" };
+        long[][] totals = new long[allocators.length][3];
+        System.out.printf("%-16s %-9s %12s %12s %14s\n", "program", "allocator", "loads", "stores",
+                "instructions");
+        for (String file : files) {
+            String naiveOutput = null;
+            for (int i = 0; i < allocators.length; i++) {
+                SPIMSimulator program = simulate(file, "-s", allocators[i], "-r", "" + registers);
+                if (naiveOutput == null) {
+                    naiveOutput = program.output();
+                }
+                String name = new File(file).getName().replace(".java", "");
+                System.out.printf("%-16s %-9s %12d %12d %14d%s\n", name, allocators[i],
+                        program.loads(), program.stores(), program.steps(),
+                        !program.finished() ? " (stopped)" : !program.output()
+                        .equals(naiveOutput) ? " (output differs from naive)" : "");
+                totals[i][0] += program.loads();
+                totals[i][1] += program.stores();
+                totals[i][2] += program.steps();
+            }
+        }
+        for (int i = 0; i < allocators.length; i++) {
+            System.out.printf("%-16s %-9s %12d %12d %14d\n", "total", allocators[i], totals[i][0],
+                    totals[i][1], totals[i][2]);
+        }
+    }
+
+    // Compiles programs with nested loops to SPIM with and without loop-invariant code motion,
+    // runs them, and reports the instructions executed.
+    private static void licm() throws IOException {
+        String[] allocators = { "naive", "linear", "graph" };
+        File dir = Files.createTempDirectory("jminusminus").toFile();
+        try {
+            String file = dir.getPath() + File.separator + "Loops.java";
+            System.out.printf("%-6s %-9s %14s %14s %8s\n", "depth", "allocator", "-no-licm",
+                    "licm", "saved");
+            for (int depth = 1; depth <= 4; depth++) {
+                Files.write(new File(file).toPath(), loops(depth).getBytes());
+                for (String allocator : allocators) {
+                    SPIMSimulator without = simulate(file, "-s", allocator, "-no-licm");
+                    SPIMSimulator with = simulate(file, "-s", allocator);
+                    System.out.printf("%-6d %-9s %14d %14d %7.1f%%%s\n", depth, allocator,
+                            without.steps(), with.steps(),
+                            100.0 * (without.steps() - with.steps()) / without.steps(),
+                            with.output().equals(without.output()) ? "" : " (outputs differ)");
+                }
+            }
+        } finally {
+            CompileClient.delete(dir);
+        }
+    }
+
+    // Returns a j-- program with loops nested to the given depth, the innermost of which adds up
+    // a term invariant in all of them and, for each loop, a term invariant in the loops inside
+    // it.
+    private static String loops(int depth) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("import jminusminus.SPIM;\n\n");
+        sb.append("public class Loops {\n");
+        sb.append("    public static int loops(int n, int a, int b) {\n");
+        sb.append("        int s = 0;\n");
+        String indent = "        ";
+        for (int i = 1; i <= depth; i++) {
+            sb.append(indent + "int i" + i + " = 0;\n");
+            sb.append(indent + "while (n > i" + i + ") {\n");
+            indent += "    ";
+        }
+        sb.append(indent + "s = s + a * b + (a + b) * 3");
+        for (int i = 1; i <= depth; i++) {
+            sb.append(" + i" + i + " * " + (2 * i + 3));
+        }
+        sb.append(";\n");
+        for (int i = depth; i >= 1; i--) {
+            sb.append(indent + "i" + i + " = i" + i + " + 1;\n");
+            indent = indent.substring(4);
+            sb.append(indent + "}\n");
+        }
+        sb.append("        return s;\n");
+        sb.append("    }\n\n");
+        sb.append("    public static void main(String[] args) {\n");
+        sb.append("        SPIM.printInt(loops(10, 7, 9));\n");
+        sb.append("        SPIM.printChar('\\n');\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    // Compiles a class with many methods to SPIM with each register allocator on 1, 2 and 4
+    // threads, and reports the times of translating it to SPIM.
+    private static void spimThreads(int n) throws IOException {
+        String[] allocators = { "naive", "linear", "graph" };
+        int methods = 400;
+        File dir = Files.createTempDirectory("jminusminus").toFile();
+        try {
+            String file = dir.getPath() + File.separator + "Methods.java";
+            Files.write(new File(file).toPath(), methods(methods).getBytes());
+            for (String allocator : allocators) {
+                for (int threads = 1; threads <= 4; threads *= 2) {
+                    long[] times = phaseTimes(n, "spim", "-s", allocator, "-j", "" + threads,
+                            "-d", dir.getPath(), file);
+                    report("spim-threads -s " + allocator + " -j " + threads, times, methods,
+                            "method");
+                }
+            }
+        } finally {
+            CompileClient.delete(dir);
+        }
+    }
+
+    // Compiles the given number of generated source files n times in one JVM and n times in a
+    // JVM per file, and reports the times.
+    private static void batch(int n, int count) throws IOException, InterruptedException {
+        File dir = Files.createTempDirectory("jminusminus").toFile();
+        try {
+            ArrayList<String> files = new ArrayList<String>();
+            for (int i = 0; i < count; i++) {
+                String file = dir.getPath() + File.separator + "C" + i + ".java";
+                Files.write(Paths.get(file), batchClass(i).getBytes());
+                files.add(file);
+            }
+            String argFile = dir.getPath() + File.separator + "files";
+            Files.write(Paths.get(argFile), files);
+            String outputDir = dir.getPath() + File.separator + "classes";
+            String classPath = System.getProperty("java.class.path");
+
+            ArrayList<String> command = CompileClient.javaCommand(classPath, "jminusminus.Main");
+            command.add("-d");
+            command.add(outputDir);
+            command.add("@" + argFile);
+            long[] oneJVM = new long[n];
+            for (int i = 0; i < n; i++) {
+                long start = System.nanoTime();
+                CompileClient.execute(command);
+                oneJVM[i] = System.nanoTime() - start;
+            }
+
+            long[] perFile = new long[n];
+            for (int i = 0; i < n; i++) {
+                long start = System.nanoTime();
+                for (String file : files) {
+                    command = CompileClient.javaCommand(classPath, "jminusminus.Main");
+                    command.add("-d");
+                    command.add(outputDir);
+                    command.add(file);
+                    CompileClient.execute(command);
+                }
+                perFile[i] = System.nanoTime() - start;
+            }
+
+            report("batch one JVM", oneJVM, count, "file");
+            report("batch JVM per file", perFile, count, "file");
+        } finally {
+            CompileClient.delete(dir);
+        }
+    }
+
+    // Compiles generated classes for class file versions 49 and 52, and reports the times of
+    // loading and verifying them.
+    private static void verify(int n) throws IOException {
+        int count = 2000;
+        File dir = Files.createTempDirectory("jminusminus").toFile();
+        try {
+            ArrayList<String> files = new ArrayList<String>();
+            for (int i = 0; i < count; i++) {
+                String file = dir.getPath() + File.separator + "C" + i + ".java";
+                Files.write(Paths.get(file), batchClass(i).getBytes());
+                files.add(file);
+            }
+            String argFile = dir.getPath() + File.separator + "files";
+            Files.write(Paths.get(argFile), files);
+            String[] targets = { "49", "52" };
+            for (String target : targets) {
+                String outputDir = dir.getPath() + File.separator + target;
+                compile("-target", target, "-d", outputDir, "@" + argFile);
+                final String[] names = new String[count];
+                final byte[][] classes = new byte[count][];
+                for (int i = 0; i < count; i++) {
+                    names[i] = "C" + i;
+                    classes[i] = Files.readAllBytes(Paths.get(outputDir, names[i] + ".class"));
+                }
+                long[] times = time(n, new Run() {
+                    public void run() throws IOException {
+                        for (int i = 0; i < names.length; i++) {
+                            ByteClassLoader loader = new ByteClassLoader();
+                            loader.setClassBytes(classes[i]);
+                            try {
+                                Class.forName(names[i], true, loader);
+                            } catch (ClassNotFoundException e) {
+                                throw new IOException(e.toString());
+                            }
+                        }
+                    }
+                });
+                report("verify -target " + target, times, count, "class");
+            }
+        } finally {
+            CompileClient.delete(dir);
+        }
+    }
+
+    // Returns the source of the i-th class of a batch.
+    private static String batchClass(int i) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("public class C" + i + " {\n");
+        sb.append("    private int value;\n\n");
+        sb.append("    public C" + i + "(int value) {\n");
+        sb.append("        this.value = value;\n");
+        sb.append("    }\n\n");
+        sb.append("    public int scaled(int factor) {\n");
+        sb.append("        return value * factor + " + i + ";\n");
+        sb.append("    }\n\n");
+        sb.append("    public static int sum(int n) {\n");
+        sb.append("        int s = 0;\n");
+        sb.append("        while (n > 0) {\n");
+        sb.append("            s = s + new C" + i + "(n).scaled(2);\n");
+        sb.append("            n = n - 1;\n");
+        sb.append("        }\n");
+        sb.append("        return s;\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    // Tokenizes a large generated source file, and reports the times.
+    private static void scan(int n) throws IOException {
+        File dir = Files.createTempDirectory("jminusminus").toFile();
+        try {
+            final String file = dir.getPath() + File.separator + "Tokens.java";
+            StringBuilder sb = new StringBuilder();
+            sb.append("public class Tokens {\n");
+            for (int i = 0; sb.length() < 4 << 20; i++) {
+                sb.append("    // Method number " + i + ", which has nothing to say.\n");
+                sb.append("    public static String method" + i + "(int count, char c) {\n");
+                sb.append("        /* A literal of every kind. */\n");
+                sb.append("        int total = count * " + i + " + 0x" + Integer.toHexString(i)
+                        + " - 017;\n");
+                sb.append("        long big = " + i + "L + total;\n");
+                sb.append("        double ratio = 3.25e" + (i % 10) + " * (total + 1.5);\n");
+                sb.append("        String name = \"method\\t" + i + "\" + c + '\\n';\n");
+                sb.append("        if (total >= 10 && !(c == 'x') || big <= 0) {\n");
+                sb.append("            total += count >>> 2;\n");
+                sb.append("        }\n");
+                sb.append("        return name;\n");
+                sb.append("    }\n\n");
+            }
+            sb.append("}\n");
+            Files.write(Paths.get(file), sb.toString().getBytes());
+            final long[] tokens = new long[1];
+            long[] times = time(n, new Run() {
+                public void run() throws IOException {
+                    tokens[0] = count(compile("-t", file), "scan", "tokens");
+                }
+            });
+            report("scan " + sb.length() / 1024 + " KB", times, tokens[0], "token");
+            long[] sorted = times.clone();
+            Arrays.sort(sorted);
+            System.out.printf("scan: %d tokens, %.0f tokens per second\n", tokens[0],
+                    tokens[0] / (CompileClient.percentile(sorted, 50) / 1e9));
+        } finally {
+            CompileClient.delete(dir);
+        }
+    }
+
+    // Parses a large generated class of expression-dense code, and reports the times.
+    private static void parse(int n) throws IOException {
+        File dir = Files.createTempDirectory("jminusminus").toFile();
+        try {
+            String file = dir.getPath() + File.separator + "Expressions.java";
+            StringBuilder sb = new StringBuilder();
+            sb.append("public class Expressions {\n");
+            for (int i = 0; sb.length() < 640 << 10; i++) {
+                sb.append("    public static int e" + i + "(int a, int b, int c) {\n");
+                sb.append("        int x = ((a + b) * (c - a)) + ((b - (c + a)) * (a + (b * c)));"
+                        + "\n");
+                sb.append("        int y = (int) (x + ((a - b) * (b - c))) - (((x * 2)));\n");
+                sb.append("        x = (int) ((int) (a + (b * 3)) * (int) e" + i
+                        + "(((a - 1)), (b + c), (int) (c + 2)));\n");
+                sb.append("        y = ((x - y) + (int) c) * ((b + (a - (c + (x - y)))));\n");
+                sb.append("        boolean z = (x == y) && ((a + b) > (c - (x + y))) "
+                        + "|| !((y - x) == (a * b));\n");
+                sb.append("        String s = (String) ((Object) (\"\" + (x + (y - 5))));\n");
+                sb.append("        if (z) {\n");
+                sb.append("            x = ((x + (int) (y * (a + 4))));\n");
+                sb.append("        }\n");
+                sb.append("        return ((x + y) - ((a * 7)));\n");
+                sb.append("    }\n\n");
+            }
+            sb.append("}\n");
+            Files.write(Paths.get(file), sb.toString().getBytes());
+            long[] times = statsTimes(n, "parse", "-p", "-compact", file);
+            long tokens = count(compile("-p", "-compact", file), "scan", "tokens");
+            report("parse " + sb.length() / 1024 + " KB", times, tokens, "token");
+        } finally {
+            CompileClient.delete(dir);
+        }
+    }
+
+    // Parses inputs that have made parsers superlinear at growing sizes, and reports the times.
+    private static void parsePathological(final int n) throws IOException {
+        final String[] shapes = { "casts", "operators", "calls", "statements", "name" };
+        final File dir = Files.createTempDirectory("jminusminus").toFile();
+        try {
+            runWithStack(1L << 30, new Run() {
+                public void run() throws IOException {
+                    String file = dir.getPath() + File.separator + "Pathological.java";
+                    for (int pass = 0; pass < 2; pass++) {
+                        for (String shape : shapes) {
+                            for (int size = 4000; size <= 32000; size *= 2) {
+                                Files.write(Paths.get(file),
+                                        pathological(shape, size).getBytes());
+                                long[] times = statsTimes(n, "parse", "-p", "-compact", file);
+                                long tokens = count(compile("-p", "-compact", file), "scan",
+                                        "tokens");
+                                if (pass == 1) {
+                                    report("parse-pathological " + shape + " " + size, times,
+                                            tokens, "token");
+                                }
+                            }
+                        }
+                    }
+                }
+            });
+        } finally {
+            CompileClient.delete(dir);
+        }
+    }
+
+    // Returns a j-- class whose one method holds the given pathological shape repeated the
+    // given number of times.
+    private static String pathological(String shape, int size) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("public class Pathological {\n");
+        sb.append("    public static void m(int x) {\n");
+        if (shape.equals("statements")) {
+            for (int i = 0; i < size; i++) {
+                sb.append("        a.b.c.d" + i + " = x;\n");
+            }
+        } else {
+            sb.append("        x = ");
+            for (int i = 0; i < size; i++) {
+                if (shape.equals("casts")) {
+                    sb.append("(A.B.C.D) ");
+                } else if (shape.equals("operators")) {
+                    sb.append("x + ");
+                } else if (shape.equals("calls")) {
+                    sb.append("a.f(x).");
+                } else {
+                    sb.append("a.");
+                }
+            }
+            sb.append(shape.equals("calls") ? "f(x);\n" : "x;\n");
+        }
+        sb.append("    }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    // Compiles a large generated class with -a, with -a -compact and to class files, and reports
+    // the smallest heaps they succeed in and the bytes they allocate.
+    private static void dumpMemory() throws IOException, InterruptedException {
+        File dir = Files.createTempDirectory("jminusminus").toFile();
+        try {
+            String file = dir.getPath() + File.separator + "Methods.java";
+            String source = methods(6000);
+            Files.write(Paths.get(file), source.getBytes());
+            String[][] runs = { { "-a", file }, { "-a", "-compact", file },
+                    { "-d", dir.getPath(), file } };
+            System.out.printf("dump-memory %d KB: %-12s %14s %12s\n", source.length() / 1024,
+                    "options", "smallest heap", "allocated");
+            for (String[] args : runs) {
+                long allocated = compile(args).allocatedBytes();
+                int low = 4;
+                int high = 1024;
+                while (high - low > 4) {
+                    int mb = (low + high) / 2;
+                    ArrayList<String> command = CompileClient.javaCommand(
+                            System.getProperty("java.class.path"), "jminusminus.Main");
+                    command.add(1, "-Xmx" + mb + "m");
+                    command.addAll(Arrays.asList(args));
+                    if (CompileClient.execute(command) == 0) {
+                        high = mb;
+                    } else {
+                        low = mb;
+                    }
+                }
+                String options = String.join(" ", Arrays.copyOf(args, args.length - 1))
+                        .replace(dir.getPath(), "dir");
+                System.out.printf("dump-memory %d KB: %-12s %11d MB %9.1f MB\n",
+                        source.length() / 1024, options, high, allocated / 1048576.0);
+            }
+        } finally {
+            CompileClient.delete(dir);
+        }
+    }
+
+    // Runs interpreters with switch and if-else dispatch on the JVM and in SPIM, and reports the
+    // times and instruction counts per interpreted step.
+    private static void switchDispatch(int n) throws IOException {
+        String[] dispatches = { "dense", "sparse", "chain" };
+        File dir = Files.createTempDirectory("jminusminus").toFile();
+        try {
+            String file = dir.getPath() + File.separator + "Interp.java";
+            for (String dispatch : dispatches) {
+                Files.write(Paths.get(file), interpreter(dispatch).getBytes());
+                compile("-d", dir.getPath(), file);
+                URLClassLoader loader = new URLClassLoader(new URL[] { dir.toURI().toURL() },
+                        CompilerBench.class.getClassLoader());
+                try {
+                    final Method method = interpreterMethod(loader, dispatch);
+                    final int[] steps = new int[1];
+                    long[] times = time(n, new Run() {
+                        public void run() throws IOException {
+                            steps[0] = invoke(method, 10000000);
+                        }
+                    });
+                    report("switch " + dispatch + " JVM", times, steps[0], "step");
+                } finally {
+                    loader.close();
+                }
+                SPIMSimulator program = simulate(file, "-s", "graph");
+                String[] output = program.output().trim().split("\\s+");
+                long interpreted = Long.parseLong(output[output.length - 1]);
+                System.out.printf("switch %s SPIM: %d steps, %d instructions, %.1f instructions "
+                        + "per step, output %s\n", dispatch, interpreted, program.steps(),
+                        (double) program.steps() / interpreted, output[0]);
+            }
+        } finally {
+            CompileClient.delete(dir);
+        }
+    }
+
+    // Returns the interpreter method with the given name, of the class Interp loaded by the given
+    // loader.
+    private static Method interpreterMethod(ClassLoader loader, String name) throws IOException {
+        try {
+            return loader.loadClass("Interp").getMethod(name, int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException(e.toString());
+        }
+    }
+
+    // Invokes the given static interpreter method with the given argument, and returns the
+    // number of steps it interpreted.
+    private static int invoke(Method method, int n) throws IOException {
+        try {
+            return (Integer) method.invoke(null, n);
+        } catch (IllegalAccessException e) {
+            throw new IOException(e.toString());
+        } catch (InvocationTargetException e) {
+            throw new IOException(e.getCause().toString());
+        }
+    }
+
+    // Returns a j-- class Interp whose method with the name of the given dispatch (dense, sparse
+    // or chain) interprets a program that sums 1..n, printing the sum and returning the number
+    // of steps; main runs it for n = 1000 and prints both.
+    private static String interpreter(String dispatch) {
+        // The program is 0: ADD, 1: NOP, 2: DEC, 3: JMP 5, 4: HALT, 5: JPOS 0, 6: HALT, where
+        // the opcodes are 0 HALT, 1 INC, 2 DBL, 3 JPOS, 4 JMP, 5 NOP, 6 DEC and 7 ADD; the
+        // opcodes and their actions are listed in the order of the switch cases.
+        int[] program = { 7, 5, 6, 4, 0, 3, 0 };
+        int[] opcodes = { 0, 7, 6, 5, 4, 3, 1, 2 };
+        String[] actions = { "running = 0;", "r1 = r1 + r0; pc = pc + 1;",
+                "r0 = r0 - 1; pc = pc + 1;", "pc = pc + 1;", "pc = arg(pc);",
+                "if (r0 > 0) { pc = arg(pc); } else { pc = pc + 1; }",
+                "r1 = r1 + 1; pc = pc + 1;", "r1 = r1 * 2; pc = pc + 1;" };
+        StringBuilder sb = new StringBuilder();
+        sb.append("import jminusminus.SPIM;\n\n");
+        sb.append("public class Interp {\n");
+        sb.append("    public static int op(int pc) {\n");
+        sb.append("        switch (pc) {\n");
+        for (int pc = 0; pc < program.length; pc++) {
+            if (program[pc] != 0) {
+                sb.append("        case " + pc + ":\n");
+                sb.append("            return " + program[pc] + ";\n");
+            }
+        }
+        sb.append("        default:\n");
+        sb.append("            return 0;\n");
+        sb.append("        }\n");
+        sb.append("    }\n\n");
+        sb.append("    public static int arg(int pc) {\n");
+        sb.append("        switch (pc) {\n");
+        sb.append("        case 3:\n");
+        sb.append("            return 5;\n");
+        sb.append("        default:\n");
+        sb.append("            return 0;\n");
+        sb.append("        }\n");
+        sb.append("    }\n\n");
+        sb.append("    public static int " + dispatch + "(int n) {\n");
+        sb.append("        int r0 = n;\n");
+        sb.append("        int r1 = 0;\n");
+        sb.append("        int pc = 0;\n");
+        sb.append("        int steps = 0;\n");
+        sb.append("        int running = 1;\n");
+        sb.append("        while (running == 1) {\n");
+        sb.append("            steps = steps + 1;\n");
+        if (dispatch.equals("chain")) {
+            sb.append("            int op = op(pc);\n");
+            for (int i = 0; i < opcodes.length; i++) {
+                sb.append(i == 0 ? "            " : " else ");
+                sb.append("if (op == " + opcodes[i] + ") { " + actions[i] + " }");
+            }
+            sb.append("\n");
+        } else {
+            int scale = dispatch.equals("sparse") ? 1000 : 1;
+            sb.append("            switch (op(pc) * " + scale + ") {\n");
+            for (int i = 0; i < opcodes.length; i++) {
+                sb.append("            case " + opcodes[i] * scale + ":\n");
+                sb.append("                " + actions[i] + "\n");
+                sb.append("                break;\n");
+            }
+            sb.append("            }\n");
+        }
+        sb.append("        }\n");
+        sb.append("        SPIM.printInt(r1);\n");
+        sb.append("        SPIM.printChar(' ');\n");
+        sb.append("        return steps;\n");
+        sb.append("    }\n\n");
+        sb.append("    public static void main(String[] args) {\n");
+        sb.append("        SPIM.printInt(" + dispatch + "(1000));\n");
+        sb.append("        SPIM.printChar('\\n');\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    // Compiles a class with thousands of methods on 1, 2 and 4 threads, and reports the times of
+    // analyzing it.
+    private static void analysisThreads(int n) throws IOException {
+        int methods = 4000;
+        File dir = Files.createTempDirectory("jminusminus").toFile();
+        try {
+            String file = dir.getPath() + File.separator + "Methods.java";
+            Files.write(Paths.get(file), methods(methods).getBytes());
+            for (int threads = 1; threads <= 4; threads *= 2) {
+                long[] times = phaseTimes(n, "analyze", "-j", "" + threads, "-d", dir.getPath(),
+                        file);
+                report("analysis-threads -j " + threads, times, methods, "method");
+            }
+        } finally {
+            CompileClient.delete(dir);
+        }
+    }
+
+    // Returns a j-- class with the given number of methods, each with loops nested two deep
+    // over a dozen locals.
+    private static String methods(int count) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("public class Methods {\n");
+        for (int i = 0; i < count; i++) {
+            sb.append("    public static int m" + i + "(int n, int a, int b) {\n");
+            sb.append("        int s = " + i + ";\n");
+            for (int k = 0; k < 8; k++) {
+                sb.append("        int x" + k + " = a * " + (k + 2) + " + b;\n");
+            }
+            sb.append("        int i = 0;\n");
+            sb.append("        while (n > i) {\n");
+            sb.append("            int j = 0;\n");
+            sb.append("            while (i > j) {\n");
+            sb.append("                s = s + x0 * i + x1 * j + x2 - x3;\n");
+            sb.append("                x4 = x4 + x5 * s;\n");
+            sb.append("                if (s > x6) {\n");
+            sb.append("                    s = s - x7 + x4;\n");
+            sb.append("                }\n");
+            sb.append("                j = j + 1;\n");
+            sb.append("            }\n");
+            sb.append("            i = i + 1;\n");
+            sb.append("        }\n");
+            sb.append("        return s + x4;\n");
+            sb.append("    }\n\n");
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    // Returns the count of the given things in the given phase of the given stats, or 0 if
+    // there's no such count.
+    private static long count(CompilerStats stats, String phase, String what) {
+        for (CompilerStats.Phase p : stats.phases()) {
+            if (p.name().equals(phase) && p.counts().containsKey(what)) {
+                return p.counts().get(what);
+            }
+        }
+        return 0;
+    }
+
+    // Compiles with the given command-line arguments n times after n warm-up compilations, and
+    // returns the times of the given phase in the stats of the measured ones, in nanoseconds.
+    private static long[] statsTimes(int n, String phase, String... args) throws IOException {
+        for (int i = 0; i < n; i++) {
+            compile(args);
+        }
+        long[] times = new long[n];
+        for (int i = 0; i < n; i++) {
+            for (CompilerStats.Phase p : compile(args).phases()) {
+                if (p.name().equals(phase)) {
+                    times[i] += p.time();
+                }
+            }
+        }
+        return times;
+    }
+
+    // Compiles with the given command-line arguments n times after n warm-up compilations, and
+    // returns the wall-clock times of the given phase (see phaseTime()) in the measured ones.
+    private static long[] phaseTimes(int n, String phase, String... args) throws IOException {
+        for (int i = 0; i < n; i++) {
+            phaseTime(phase, args);
+        }
+        long[] times = new long[n];
+        for (int i = 0; i < n; i++) {
+            times[i] = phaseTime(phase, args);
+        }
+        return times;
+    }
+
+    // Compiles with the given command-line arguments (see compile()), and returns the
+    // wall-clock time, in nanoseconds, of the given phase run by the compiling thread (outside
+    // of any other phase): from the end of the phase before it, or the start of the compilation,
+    // to its end. Unlike the time of the phase in the stats, this doesn't add up the time spent
+    // in it on other threads.
+    private static long phaseTime(final String phase, String... args) throws IOException {
+        final long[] times = new long[2];
+        CompilerStats.Listener listener = new CompilerStats.Listener() {
+            public void phaseEnded(CompilerStats.Phase ended) {
+                if (ended.name().equals(phase)) {
+                    times[1] += System.nanoTime() - times[0];
+                }
+                times[0] = System.nanoTime();
+            }
+
+            public void compilationEnded(CompilerStats compilation) {
+            }
+        };
+        CompilerStats.addListener(listener);
+        try {
+            times[0] = System.nanoTime();
+            compile(args);
+        } finally {
+            CompilerStats.removeListener(listener);
+        }
+        return times[1];
+    }
+
+    // Compiles the given j-- program to SPIM, with the given options, in a temporary directory,
+    // and returns a simulator that has run it.
+    private static SPIMSimulator simulate(String file, String... options) throws IOException {
+        File dir = Files.createTempDirectory("jminusminus").toFile();
+        try {
+            String[] args = Arrays.copyOf(options, options.length + 3);
+            args[options.length] = "-d";
+            args[options.length + 1] = dir.getPath();
+            args[options.length + 2] = file;
+            compile(args);
+            SPIMSimulator program = new SPIMSimulator(dir.getPath() + File.separator
+                    + new File(file).getName().replace(".java", ".s"));
+            program.run();
+            return program;
+        } finally {
+            CompileClient.delete(dir);
+        }
+    }
+
+    // Compiles with the given command-line arguments in this JVM, discarding what the compiler
+    // writes to STDOUT, and returns the stats of the compilation. The options and user-defined
+    // types the compilation leaves behind are forgotten afterwards, as they are after a compile
+    // server request, so that the next compilation is exactly what a fresh compiler would do.
+    private static CompilerStats compile(String... args) throws IOException {
+        final CompilerStats[] stats = new CompilerStats[1];
+        CompilerStats.Listener listener = new CompilerStats.Listener() {
+            public void phaseEnded(CompilerStats.Phase phase) {
+            }
+
+            public void compilationEnded(CompilerStats compilation) {
+                stats[0] = compilation;
+            }
+        };
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        PrintStream systemOut = System.out;
+        PrintStream systemErr = System.err;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        System.setErr(new PrintStream(stderr, true));
+        CompilerStats.addListener(listener);
+        try {
+            Main.main(args);
+        } finally {
+            CompilerStats.removeListener(listener);
+            System.setOut(systemOut);
+            System.setErr(systemErr);
+            CompileServer.resetOptions();
+            Type.removeUserTypes();
+            CLFrame.removeDeclaredClasses();
+        }
+        if (stderr.size() > 0) {
+            // Only the first error, since there may be thousands of them in a generated file.
+            throw new IOException(stderr.toString().split("\n")[0]);
+        } else if (stats[0] == null) {
+            throw new IOException("bad compiler arguments: " + String.join(" ", args));
+        }
+        return stats[0];
+    }
+
+    // Runs the given benchmark once on a new thread with a stack of the given size (in bytes),
+    // and waits for it to finish.
+    private static void runWithStack(long stackSize, final Run run) throws IOException {
+        final IOException[] exception = new IOException[1];
+        Thread thread = new Thread(null, new Runnable() {
+            public void run() {
+                try {
+                    run.run();
+                } catch (IOException e) {
+                    exception[0] = e;
+                }
+            }
+        }, "bench", stackSize);
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted");
+        }
+        if (exception[0] != null) {
+            throw exception[0];
+        }
+    }
+
+    // Runs the given benchmark n times after n warm-up runs, and returns the times of the
+    // measured runs, in nanoseconds.
+    private static long[] time(int n, Run run) throws IOException {
+        for (int i = 0; i < n; i++) {
+            run.run();
+        }
+        long[] times = new long[n];
+        for (int i = 0; i < n; i++) {
+            long start = System.nanoTime();
+            run.run();
+            times[i] = System.nanoTime() - start;
+        }
+        return times;
+    }
+
+    // Prints the median and 99th percentile of the given times (in nanoseconds), and the median
+    // time per item for the given number of items of the given kind.
+    private static void report(String label, long[] times, long items, String kind) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        long p50 = CompileClient.percentile(sorted, 50);
+        System.out.printf("%s: n = %d, p50 = %.1f ms, p99 = %.1f ms, %.0f ns per %s\n", label,
+                sorted.length, p50 / 1e6, CompileClient.percentile(sorted, 99) / 1e6,
+                (double) p50 / items, kind);
+    }
+
+    // Prints command usage to STDOUT.
+    private static void printUsage() {
+        String usage = "Usage: java jminusminus.CompilerBench <benchmark> <arguments>\n"
+                + "Where the benchmarks and their arguments are:\n"
+                + "  constants <n>                   Build classes with 2500 to 30000 distinct "
+                + "constants,\n"
+                + "                                  n times\n"
+                + "  allocation <n>                  Build a class with 800000 instructions, n "
+                + "times\n"
+                + "  spim-memory <r> <source files>  Count the loads and stores of the programs "
+                + "with each\n"
+                + "                                  register allocator and r registers\n"
+                + "  licm                            Count the instructions of nested loops with "
+                + "and without\n"
+                + "                                  loop-invariant code motion\n"
+                + "  spim-threads <n>                Translate 400 methods to SPIM on 1, 2 and 4 "
+                + "threads,\n"
+                + "                                  n times\n"
+                + "  batch <n> <count>               Compile count files in one JVM and in a JVM "
+                + "per file,\n"
+                + "                                  n times\n"
+                + "  scan <n>                        Tokenize a 4 MB file with -t, n times\n"
+                + "  parse <n>                       Parse a 640 KB file of dense expressions, n "
+                + "times\n"
+                + "  parse-pathological <n>          Parse pathological inputs of doubling size, "
+                + "n times\n"
+                + "  dump-memory                     Measure the heap needed by -a, -a -compact "
+                + "and -d on\n"
+                + "                                  a 4 MB file\n"
+                + "  switch <n>                      Run interpreters with switch and if-else "
+                + "dispatch, n\n"
+                + "                                  times\n"
+                + "  verify <n>                      Load and verify 2000 classes of versions 49 "
+                + "and 52, n\n"
+                + "                                  times\n"
+                + "  analysis-threads <n>            Analyze 4000 methods on 1, 2 and 4 threads, "
+                + "n times";
+        System.out.println(usage);
+    }
+}
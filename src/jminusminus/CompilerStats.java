@@ -0,0 +1,451 @@
+// Copyright 2012- Bill Campbell, Swami Iyer and Bahar Akbal-Delibas
+
+package jminusminus;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The stats of a compilation: for each phase of the compiler (scanning, parsing, pre-analysis,
+ * analysis, code generation, writing class files, and the steps of the translation to SPIM), the
+ * wall time spent in it, the bytes allocated during it (as counted by the JVM's per-thread
+ * allocation counter), and counts of what it processed, such as tokens, AST nodes, constant pool
+ * entries, bytes of code, virtual registers and spills.
+ * <p>
+ * A phase is measured by a timer, which is started when the phase starts and stopped when it
+ * ends. Timers nest: while a timer is running on a thread, the one it was started inside of is
+ * paused, so the time (and allocation) of a phase doesn't include that of the phases run inside
+ * it. A phase may be timed many times (for example, once per token for scanning) and on many
+ * threads (for example, when methods are translated to SPIM in parallel), and its time is the sum
+ * of all those; so the times of the phases may add up to more than the time of the compilation
+ * as a whole, or (when threads wait for each other) to less.
+ * <p>
+ * Stats are collected between begin() and end(), which the compiler invokes around a compilation
+ * when asked (with -stats) to report them, or when there are listeners for them (see Listener).
+ * Otherwise, starting a timer and counting cost next to nothing.
+ */
+public class CompilerStats {
+    /**
+     * A listener for the stats of compilations, which may be added with addListener(); for
+     * example, by a program that then compiles with Main.main() or JavaCCMain.main().
+     */
+    public interface Listener {
+        /**
+         * Invoked on the compiling thread when a phase that it ran (outside of any other phase)
+         * ends. It may be invoked more than once for a phase, for example once for each source
+         * file parsed; the phase holds the totals up to then.
+         *
+         * @param phase the phase.
+         */
+        void phaseEnded(Phase phase);
+
+        /**
+         * Invoked when a compilation ends, with its stats.
+         *
+         * @param stats the stats of the compilation.
+         */
+        void compilationEnded(CompilerStats stats);
+    }
+
+    /**
+     * The metrics of a phase of the compiler.
+     */
+    public static class Phase {
+        // Name of the phase.
+        private String name;
+
+        // Time spent in the phase, in nanoseconds.
+        private long time;
+
+        // Bytes allocated during the phase.
+        private long allocatedBytes;
+
+        // Counts of what the phase processed, in the order they were first counted.
+        private LinkedHashMap<String, Long> counts;
+
+        /**
+         * Constructs a Phase object.
+         *
+         * @param name name of the phase.
+         */
+        public Phase(String name) {
+            this.name = name;
+            counts = new LinkedHashMap<String, Long>();
+        }
+
+        /**
+         * Returns the name of this phase.
+         *
+         * @return the name of this phase.
+         */
+        public String name() {
+            return name;
+        }
+
+        /**
+         * Returns the time spent in this phase, in nanoseconds.
+         *
+         * @return the time spent in this phase.
+         */
+        public synchronized long time() {
+            return time;
+        }
+
+        /**
+         * Returns the bytes allocated during this phase, or 0 if the JVM doesn't count the
+         * bytes threads allocate.
+         *
+         * @return the bytes allocated during this phase.
+         */
+        public synchronized long allocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /**
+         * Returns the counts of what this phase processed, mapping what was counted to its count.
+         *
+         * @return the counts of what this phase processed.
+         */
+        public synchronized LinkedHashMap<String, Long> counts() {
+            return new LinkedHashMap<String, Long>(counts);
+        }
+
+        // Adds the given time and allocated bytes to this phase.
+        private synchronized void add(long time, long allocatedBytes) {
+            this.time += time;
+            this.allocatedBytes += allocatedBytes;
+        }
+
+        // Adds n to the count of what.
+        private synchronized void count(String what, long n) {
+            Long count = counts.get(what);
+            counts.put(what, count == null ? n : count + n);
+        }
+    }
+
+    /**
+     * A timer measuring (one run of) a phase on a thread, which is returned by start().
+     */
+    public static class Timer {
+        // The phase measured, or null if stats aren't being collected.
+        private Phase phase;
+
+        // Time and allocated bytes (of the thread) when the timer was last started or resumed.
+        private long since;
+        private long allocatedSince;
+
+        // Constructs a timer for the given phase.
+        private Timer(Phase phase, long since, long allocatedSince) {
+            this.phase = phase;
+            this.since = since;
+            this.allocatedSince = allocatedSince;
+        }
+
+        /**
+         * Adds n to the count of what in the phase this timer measures.
+         *
+         * @param what what was counted.
+         * @param n    the number to add.
+         */
+        public void count(String what, long n) {
+            if (phase != null) {
+                phase.count(what, n);
+            }
+        }
+
+        /**
+         * Stops this timer, adding the time and bytes allocated since it was started (less those
+         * of the timers started inside it) to its phase, and resumes the timer it was started
+         * inside of, if any.
+         */
+        public void stop() {
+            if (phase == null) {
+                return;
+            }
+            ArrayList<Timer> timers = running.get();
+            if (timers.isEmpty() || timers.get(timers.size() - 1) != this) {
+                // The compilation the timer was started in has ended.
+                return;
+            }
+            long now = System.nanoTime();
+            long allocated = threadAllocatedBytes();
+            phase.add(now - since, allocated - allocatedSince);
+            timers.remove(timers.size() - 1);
+            if (!timers.isEmpty()) {
+                Timer outer = timers.get(timers.size() - 1);
+                outer.since = now;
+                outer.allocatedSince = allocated;
+            } else if (current != null && Thread.currentThread() == current.thread) {
+                for (Listener listener : listeners) {
+                    listener.phaseEnded(phase);
+                }
+            }
+        }
+    }
+
+    // Timer returned by start() when stats aren't being collected.
+    private static final Timer NONE = new Timer(null, 0, 0);
+
+    // The stats of the compilation in progress, or null if none are being collected.
+    private static volatile CompilerStats current;
+
+    // Listeners for the stats of compilations.
+    private static CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    // The timers running on each thread, innermost last.
+    private static ThreadLocal<ArrayList<Timer>> running = new ThreadLocal<ArrayList<Timer>>() {
+        protected ArrayList<Timer> initialValue() {
+            return new ArrayList<Timer>();
+        }
+    };
+
+    // Counter of the bytes allocated by threads, or null if the JVM doesn't have one; looked up
+    // when stats are first collected, since that loads the management classes.
+    private static com.sun.management.ThreadMXBean allocationCounter;
+
+    // Whether allocationCounter has been looked up.
+    private static boolean hasAllocationCounter = false;
+
+    // The phases, by name, in the order they were first started.
+    private LinkedHashMap<String, Phase> phases;
+
+    // The thread the compilation runs on.
+    private Thread thread;
+
+    // Time and allocated bytes (of the compiling thread) when the compilation began.
+    private long began;
+    private long allocatedBefore;
+
+    // Time spent in the compilation and bytes the compiling thread allocated during it, once it
+    // has ended.
+    private long time;
+    private long allocatedBytes;
+
+    // Constructs a CompilerStats object for a compilation beginning now, on the current thread.
+    private CompilerStats() {
+        if (!hasAllocationCounter) {
+            allocationCounter = allocationCounter();
+            hasAllocationCounter = true;
+        }
+        phases = new LinkedHashMap<String, Phase>();
+        thread = Thread.currentThread();
+        began = System.nanoTime();
+        allocatedBefore = threadAllocatedBytes();
+    }
+
+    /**
+     * Adds a listener for the stats of compilations. Stats are collected from the next
+     * compilation on.
+     *
+     * @param listener the listener.
+     */
+    public static void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener added with addListener().
+     *
+     * @param listener the listener.
+     */
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Begins collecting the stats of a compilation (run on the current thread), if asked to or if
+     * there are listeners for them.
+     *
+     * @param asked whether stats were asked for.
+     */
+    public static void begin(boolean asked) {
+        current = asked || !listeners.isEmpty() ? new CompilerStats() : null;
+    }
+
+    /**
+     * Stops collecting stats, notifies the listeners that the compilation has ended, and returns
+     * its stats; or returns null if stats weren't being collected.
+     *
+     * @return the stats of the compilation, or null.
+     */
+    public static CompilerStats end() {
+        CompilerStats stats = current;
+        current = null;
+        if (stats == null) {
+            return null;
+        }
+        stats.time = System.nanoTime() - stats.began;
+        stats.allocatedBytes = threadAllocatedBytes() - stats.allocatedBefore;
+        running.get().clear();
+        for (Listener listener : listeners) {
+            listener.compilationEnded(stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Returns true if stats are being collected, and false otherwise. Counts that take some work
+     * to make need only be made if they are.
+     *
+     * @return true if stats are being collected, and false otherwise.
+     */
+    public static boolean collecting() {
+        return current != null;
+    }
+
+    /**
+     * Starts a timer for the phase with the given name on the current thread, pausing the timer
+     * running on it, if any. The timer must be stopped on the same thread.
+     *
+     * @param name name of the phase.
+     * @return the timer.
+     */
+    public static Timer start(String name) {
+        CompilerStats stats = current;
+        if (stats == null) {
+            return NONE;
+        }
+        long now = System.nanoTime();
+        long allocated = threadAllocatedBytes();
+        ArrayList<Timer> timers = running.get();
+        if (!timers.isEmpty()) {
+            Timer outer = timers.get(timers.size() - 1);
+            outer.phase.add(now - outer.since, allocated - outer.allocatedSince);
+        }
+        Timer timer = new Timer(stats.phase(name), now, allocated);
+        timers.add(timer);
+        return timer;
+    }
+
+    /**
+     * Adds n to the count of what in the phase whose timer is running on the current thread, if
+     * any.
+     *
+     * @param what what was counted.
+     * @param n    the number to add.
+     */
+    public static void count(String what, long n) {
+        if (current == null) {
+            return;
+        }
+        ArrayList<Timer> timers = running.get();
+        if (!timers.isEmpty()) {
+            timers.get(timers.size() - 1).count(what, n);
+        }
+    }
+
+    /**
+     * Returns the phases, in the order they were first started.
+     *
+     * @return the phases.
+     */
+    public synchronized ArrayList<Phase> phases() {
+        return new ArrayList<Phase>(phases.values());
+    }
+
+    /**
+     * Returns the (wall) time the compilation took, in nanoseconds, once it has ended.
+     *
+     * @return the time the compilation took.
+     */
+    public long time() {
+        return time;
+    }
+
+    /**
+     * Returns the bytes the compiling thread allocated during the compilation, once it has ended.
+     *
+     * @return the bytes the compiling thread allocated.
+     */
+    public long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Prints these stats to the given stream, as a table if the format is text and as a JSON
+     * object if it's json.
+     *
+     * @param format the format (text or json).
+     * @param out    the stream to print to.
+     */
+    public void print(String format, PrintStream out) {
+        if (format.equals("json")) {
+            printJSON(out);
+        } else {
+            printText(out);
+        }
+    }
+
+    // Returns the phase with the given name, adding it if there's none.
+    private synchronized Phase phase(String name) {
+        Phase phase = phases.get(name);
+        if (phase == null) {
+            phase = new Phase(name);
+            phases.put(name, phase);
+        }
+        return phase;
+    }
+
+    // Prints these stats as a table: a row for each phase, with its time (in milliseconds),
+    // allocated bytes (in kilobytes) and counts, and then a row for the compilation as a whole.
+    private void printText(PrintStream out) {
+        out.printf("%-12s %10s %14s  %s\n", "Phase", "Time (ms)", "Allocated (KB)", "Counts");
+        for (Phase phase : phases()) {
+            String counts = "";
+            for (Map.Entry<String, Long> count : phase.counts().entrySet()) {
+                counts += (counts.equals("") ? "" : ", ") + count.getKey() + " " +
+                        count.getValue();
+            }
+            out.printf("%-12s %10.1f %14.1f  %s\n", phase.name(), phase.time() / 1e6,
+                    phase.allocatedBytes() / 1024.0, counts);
+        }
+        out.printf("%-12s %10.1f %14.1f\n", "total", time / 1e6, allocatedBytes / 1024.0);
+    }
+
+    // Prints these stats as a JSON object, with times in nanoseconds.
+    private void printJSON(PrintStream out) {
+        StringBuilder json = new StringBuilder("{\"phases\": [");
+        ArrayList<Phase> phases = phases();
+        for (int i = 0; i < phases.size(); i++) {
+            Phase phase = phases.get(i);
+            json.append(i == 0 ? "" : ", ");
+            json.append(String.format("{\"name\": \"%s\", \"time\": %d, \"allocatedBytes\": %d, " +
+                    "\"counts\": {", phase.name(), phase.time(), phase.allocatedBytes()));
+            String separator = "";
+            for (Map.Entry<String, Long> count : phase.counts().entrySet()) {
+                json.append(String.format("%s\"%s\": %d", separator, count.getKey(),
+                        count.getValue()));
+                separator = ", ";
+            }
+            json.append("}}");
+        }
+        json.append(String.format("], \"time\": %d, \"allocatedBytes\": %d}", time,
+                allocatedBytes));
+        out.println(json);
+    }
+
+    // Returns the bytes the current thread has allocated so far, or 0 if the JVM doesn't count
+    // them.
+    private static long threadAllocatedBytes() {
+        return allocationCounter == null ? 0 : allocationCounter.getCurrentThreadAllocatedBytes();
+    }
+
+    // Returns the JVM's counter of the bytes allocated by threads, enabling it if need be; or
+    // null if it doesn't have one.
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) bean;
+        if (!counter.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        counter.setThreadAllocatedMemoryEnabled(true);
+        return counter;
+    }
+}
@@ -75,7 +75,7 @@ class Context {
      */
     public void addEntry(int line, String name, IDefn definition) {
         if (entries.containsKey(name)) {
-            JAST.compilationUnit.reportSemanticError(line, "redefining name: " + name);
+            compilationUnit().reportSemanticError(line, "redefining name: " + name);
         } else {
             entries.put(name, definition);
         }
@@ -155,6 +155,16 @@ class Context {
         return compilationUnitContext;
     }
 
+    /**
+     * Returns the compilation unit whose declarations this context belongs to. Semantic errors
+     * found while analyzing the unit are reported against it.
+     *
+     * @return the compilation unit.
+     */
+    public JCompilationUnit compilationUnit() {
+        return compilationUnitContext.compilationUnit();
+    }
+
     /**
      * Returns the closest surrounding method context, or null (if we are not within a method).
      *
@@ -192,12 +202,48 @@ class Context {
  * locally defined types (classes) are declared.
  */
 class CompilationUnitContext extends Context {
+    // The compilation unit this context was built for.
+    private JCompilationUnit compilationUnit;
+
     /**
      * Constructs a new compilation unit context.
+     *
+     * @param compilationUnit the compilation unit this context is built for.
      */
-    public CompilationUnitContext() {
+    public CompilationUnitContext(JCompilationUnit compilationUnit) {
         super(null, null, null);
         compilationUnitContext = this;
+        this.compilationUnit = compilationUnit;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public JCompilationUnit compilationUnit() {
+        return compilationUnit;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Method bodies may be analyzed in parallel, and types may be added here while they are, so
+     * entries are added and looked up under this context's lock.
+     */
+    public synchronized void addEntry(int line, String name, IDefn definition) {
+        super.addEntry(line, name, definition);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Types found here are recorded as references of the compilation unit.
+     */
+    public synchronized IDefn lookup(String name) {
+        IDefn iDefn = super.lookup(name);
+        if (iDefn instanceof TypeNameDefn) {
+            compilationUnit.addReference(iDefn.type());
+        }
+        return iDefn;
     }
 
     /**
@@ -338,6 +384,12 @@ class MethodContext extends LocalContext {
      */
     private boolean hasReturnStatement;
 
+    /**
+     * The statements (loops and switch-statements) enclosing the statement being analyzed that a
+     * break-statement can exit, innermost last.
+     */
+    private ArrayList<JStatement> breakTargets;
+
     /**
      * Constructs a method context.
      *
@@ -351,6 +403,7 @@ class MethodContext extends LocalContext {
         this.isStatic = isStatic;
         this.methodReturnType = methodReturnType;
         hasReturnStatement = false;
+        breakTargets = new ArrayList<JStatement>();
     }
 
     /**
@@ -378,6 +431,33 @@ class MethodContext extends LocalContext {
         return hasReturnStatement;
     }
 
+    /**
+     * Records that the specified statement (a loop or switch-statement), whose body is about to be
+     * analyzed, can be exited by a break-statement within it.
+     *
+     * @param statement the statement.
+     */
+    public void enterBreakTarget(JStatement statement) {
+        breakTargets.add(statement);
+    }
+
+    /**
+     * Records that the body of the innermost statement that a break-statement can exit has been
+     * analyzed.
+     */
+    public void exitBreakTarget() {
+        breakTargets.remove(breakTargets.size() - 1);
+    }
+
+    /**
+     * Returns the innermost statement that a break-statement can exit, or null if there's none.
+     *
+     * @return the innermost statement that a break-statement can exit, or null.
+     */
+    public JStatement breakTarget() {
+        return breakTargets.isEmpty() ? null : breakTargets.get(breakTargets.size() - 1);
+    }
+
     /**
      * Returns the return type of this method.
      *
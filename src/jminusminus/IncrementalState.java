@@ -0,0 +1,332 @@
+// Copyright 2012- Bill Campbell, Swami Iyer and Bahar Akbal-Delibas
+
+package jminusminus;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.TreeSet;
+
+/**
+ * The state of an incremental compilation, kept in a file in the output directory between
+ * compilations. For each source file it records a hash of the file's contents, the types
+ * declared in it, the types declared in the other source files that it refers to by name (that
+ * is, that were found in its compilation unit context while it was analyzed, whether through
+ * Context.lookupType(), Type.resolve() or a name in an expression), and the files generated for
+ * it.
+ * <p>
+ * A source file is out of date if it is new, its contents have changed, any of its generated
+ * files are missing, or any of the source files it refers to, directly or indirectly, is out of
+ * date or has gone. The whole state is out of date if the compiler options have changed since it
+ * was saved. The contents of a file are only hashed if its modification time or size has
+ * changed, so a compilation in which nothing is out of date reads no more than the state file
+ * and the directory entries of the source files.
+ */
+class IncrementalState {
+    /**
+     * Name of the state file in the output directory.
+     */
+    public static final String FILE_NAME = ".jminusminus.state";
+
+    // The state file.
+    private File stateFile;
+
+    // The compiler options the state holds for.
+    private String options;
+
+    // Maps each source file to what's recorded about it.
+    private LinkedHashMap<String, SourceEntry> entries;
+
+    /**
+     * Constructs the state of the incremental compilation into the specified output directory,
+     * reading the state saved in it if that was saved for the same compiler options.
+     *
+     * @param outputDir the output directory.
+     * @param options   the compiler options (other than the source files) that affect the
+     *                  generated files.
+     */
+    public IncrementalState(String outputDir, String options) {
+        stateFile = new File(outputDir, FILE_NAME);
+        this.options = options;
+        entries = readStateFile();
+    }
+
+    /**
+     * Returns the source files, among those specified, that are out of date and must be
+     * compiled, in the order in which they were specified.
+     *
+     * @param sourceFiles the source files being compiled.
+     * @return the source files that must be compiled.
+     */
+    public ArrayList<String> outOfDate(ArrayList<String> sourceFiles) {
+        LinkedHashMap<String, SourceEntry> current = new LinkedHashMap<String, SourceEntry>();
+        HashSet<String> changed = new HashSet<String>();
+        for (String sourceFile : sourceFiles) {
+            SourceEntry saved = entries.get(sourceFile);
+            SourceEntry entry = stamp(sourceFile, saved);
+            current.put(sourceFile, entry);
+            if (saved == null || entry.hash == null || !entry.hash.equals(saved.hash)) {
+                changed.add(sourceFile);
+                continue;
+            }
+            for (String output : saved.outputs) {
+                if (!new File(output).exists()) {
+                    changed.add(sourceFile);
+                    break;
+                }
+            }
+        }
+
+        // The source files that are gone count as changed too, for their dependents' sake.
+        for (String sourceFile : entries.keySet()) {
+            if (!current.containsKey(sourceFile)) {
+                changed.add(sourceFile);
+            }
+        }
+
+        // Invert the dependencies recorded in the saved state, and propagate the changes along
+        // them to the dependents.
+        HashMap<String, String> declaringFile = new HashMap<String, String>();
+        for (String sourceFile : entries.keySet()) {
+            for (String type : entries.get(sourceFile).declared) {
+                declaringFile.put(type, sourceFile);
+            }
+        }
+        HashMap<String, ArrayList<String>> dependents = new HashMap<String, ArrayList<String>>();
+        for (String sourceFile : current.keySet()) {
+            for (String type : current.get(sourceFile).references) {
+                String dependency = declaringFile.get(type);
+                if (dependency == null || dependency.equals(sourceFile)) {
+                    continue;
+                }
+                if (!dependents.containsKey(dependency)) {
+                    dependents.put(dependency, new ArrayList<String>());
+                }
+                dependents.get(dependency).add(sourceFile);
+            }
+        }
+        ArrayList<String> worklist = new ArrayList<String>(changed);
+        while (!worklist.isEmpty()) {
+            ArrayList<String> next = dependents.get(worklist.remove(worklist.size() - 1));
+            if (next == null) {
+                continue;
+            }
+            for (String sourceFile : next) {
+                if (changed.add(sourceFile)) {
+                    worklist.add(sourceFile);
+                }
+            }
+        }
+
+        entries = current;
+        ArrayList<String> outOfDate = new ArrayList<String>();
+        for (String sourceFile : sourceFiles) {
+            if (changed.contains(sourceFile)) {
+                outOfDate.add(sourceFile);
+            }
+        }
+        return outOfDate;
+    }
+
+    /**
+     * Records what's been learned about the specified source file from compiling it.
+     *
+     * @param sourceFile the source file.
+     * @param unit       its (analyzed) compilation unit.
+     * @param outputDir  the output directory.
+     * @param spimOutput whether SPIM code (rather than class files) has been generated.
+     */
+    public void update(String sourceFile, JCompilationUnit unit, String outputDir,
+                       boolean spimOutput) {
+        SourceEntry entry = entries.get(sourceFile);
+        entry.declared.clear();
+        entry.references.clear();
+        entry.outputs.clear();
+        for (Type type : unit.declaredTypes()) {
+            entry.declared.add(type.toString());
+            if (!spimOutput) {
+                entry.outputs.add(outputDir + File.separator + type.jvmName() + ".class");
+            }
+        }
+        if (spimOutput) {
+            String baseName = sourceFile.substring(sourceFile.lastIndexOf(File.separator) + 1);
+            entry.outputs.add(outputDir + File.separator + baseName.replace(".java", ".s"));
+        }
+        for (Type type : unit.references()) {
+            if (type.classRep() != null && !entry.declared.contains(type.toString()) &&
+                    type.classRep().getClassLoader() instanceof ByteClassLoader) {
+                entry.references.add(type.toString());
+            }
+        }
+    }
+
+    /**
+     * Writes this state to the state file.
+     */
+    public void save() {
+        try {
+            stateFile.getAbsoluteFile().getParentFile().mkdirs();
+            PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(stateFile)));
+            out.printf("%s\n", options);
+            for (String sourceFile : entries.keySet()) {
+                SourceEntry entry = entries.get(sourceFile);
+                out.printf("%s\t%d\t%d\t%s\t%d\t%d\t%d\n", sourceFile, entry.lastModified,
+                        entry.length, entry.hash, entry.declared.size(),
+                        entry.references.size(), entry.outputs.size());
+                for (String type : entry.declared) {
+                    out.println(type);
+                }
+                for (String type : entry.references) {
+                    out.println(type);
+                }
+                for (String output : entry.outputs) {
+                    out.println(output);
+                }
+            }
+            out.close();
+        } catch (IOException e) {
+            // The state is only a cache; the next compilation will be a full one.
+            stateFile.delete();
+        }
+    }
+
+    // Returns an entry for the specified source file carrying the file's current modification
+    // time, size and hash, and otherwise what's recorded in the saved entry (if any). The hash
+    // is copied from the saved entry if the modification time and size haven't changed, and is
+    // null if the file can't be read.
+    private SourceEntry stamp(String sourceFile, SourceEntry saved) {
+        File file = new File(sourceFile);
+        SourceEntry entry = new SourceEntry(file.lastModified(), file.length());
+        if (saved != null) {
+            entry.declared.addAll(saved.declared);
+            entry.references.addAll(saved.references);
+            entry.outputs.addAll(saved.outputs);
+            if (saved.lastModified == entry.lastModified && saved.length == entry.length) {
+                entry.hash = saved.hash;
+                return entry;
+            }
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            StringBuilder hash = new StringBuilder();
+            for (byte b : digest.digest(Files.readAllBytes(file.toPath()))) {
+                hash.append(String.format("%02x", b & 0xFF));
+            }
+            entry.hash = hash.toString();
+        } catch (IOException e) {
+            entry.hash = null;
+        } catch (NoSuchAlgorithmException e) {
+            entry.hash = null;
+        }
+        return entry;
+    }
+
+    // Reads and returns the entries saved in the state file, or no entries if there's no state
+    // file, it can't be read, or it was saved for other compiler options.
+    private LinkedHashMap<String, SourceEntry> readStateFile() {
+        LinkedHashMap<String, SourceEntry> saved = new LinkedHashMap<String, SourceEntry>();
+        if (!stateFile.canRead()) {
+            return saved;
+        }
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(stateFile));
+            try {
+                if (!options.equals(in.readLine())) {
+                    return saved;
+                }
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] fields = line.split("\t");
+                    SourceEntry entry = new SourceEntry(Long.parseLong(fields[1]),
+                            Long.parseLong(fields[2]));
+                    entry.hash = fields[3];
+                    readLines(in, Integer.parseInt(fields[4]), entry.declared);
+                    readLines(in, Integer.parseInt(fields[5]), entry.references);
+                    readLines(in, Integer.parseInt(fields[6]), entry.outputs);
+                    saved.put(fields[0], entry);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // Compile everything.
+            saved.clear();
+        } catch (RuntimeException e) {
+            // Corrupt state file; compile everything.
+            saved.clear();
+        }
+        return saved;
+    }
+
+    // Reads count lines from in into lines.
+    private static void readLines(BufferedReader in, int count, TreeSet<String> lines)
+            throws IOException {
+        for (int i = 0; i < count; i++) {
+            String line = in.readLine();
+            if (line == null) {
+                throw new IOException("truncated state file");
+            }
+            lines.add(line);
+        }
+    }
+}
+
+/**
+ * What an incremental compilation records about a source file.
+ */
+class SourceEntry {
+    /**
+     * Modification time of the source file.
+     */
+    public long lastModified;
+
+    /**
+     * Size of the source file.
+     */
+    public long length;
+
+    /**
+     * Hash of the contents of the source file, or null if it couldn't be read.
+     */
+    public String hash;
+
+    /**
+     * Names of the types declared in the source file.
+     */
+    public TreeSet<String> declared;
+
+    /**
+     * Names of the types declared in other source files that the source file refers to.
+     */
+    public TreeSet<String> references;
+
+    /**
+     * Files generated for the source file.
+     */
+    public TreeSet<String> outputs;
+
+    /**
+     * Constructs an entry for a source file with the given modification time and size.
+     *
+     * @param lastModified modification time of the source file.
+     * @param length       size of the source file.
+     */
+    public SourceEntry(long lastModified, long length) {
+        this.lastModified = lastModified;
+        this.length = length;
+        declared = new TreeSet<String>();
+        references = new TreeSet<String>();
+        outputs = new TreeSet<String>();
+    }
+}
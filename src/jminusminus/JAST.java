@@ -2,22 +2,23 @@
 
 package jminusminus;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * JAST is the abstract superclass of all nodes in the abstract syntax tree (AST).
  */
 abstract class JAST {
-    /**
-     * Current compilation unit (set in JCompilationUnit()).
-     */
-    public static JCompilationUnit compilationUnit;
-
     /**
      * Line in which the source for the AST was found.
      */
     protected int line;
 
+    // Number of AST nodes constructed so far. Method bodies may be analyzed (and so nodes
+    // constructed) on several threads at once.
+    private static LongAdder nodeCount = new LongAdder();
+
     /**
      * Constructs an AST node the given its line number in the source file.
      *
@@ -25,6 +26,16 @@ abstract class JAST {
      */
     protected JAST(int line) {
         this.line = line;
+        nodeCount.increment();
+    }
+
+    /**
+     * Returns the number of AST nodes constructed so far, by the parser and by analysis.
+     *
+     * @return the number of AST nodes constructed so far.
+     */
+    public static long nodeCount() {
+        return nodeCount.sum();
     }
 
     /**
@@ -119,38 +130,93 @@ abstract class JAST {
         }
         return b.toString();
     }
+
+    /**
+     * Escapes the characters in the specified string that must be escaped in a string literal, and
+     * returns the escaped string; the inverse of unescape().
+     *
+     * @param s string to escape.
+     * @return the escaped string.
+     */
+    public static String escape(String s) {
+        StringBuffer b = new StringBuffer();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\b':
+                    b.append("\\b");
+                    break;
+                case '\t':
+                    b.append("\\t");
+                    break;
+                case '\n':
+                    b.append("\\n");
+                    break;
+                case '\f':
+                    b.append("\\f");
+                    break;
+                case '\r':
+                    b.append("\\r");
+                    break;
+                case '"':
+                    b.append("\\\"");
+                    break;
+                case '\\':
+                    b.append("\\\\");
+                    break;
+                default:
+                    b.append(c);
+            }
+        }
+        return b.toString();
+    }
 }
 
 /**
- * Representation of an element with a JSON document.
+ * Representation of an element with a JSON document. The document is streamed: an element is
+ * written out as it is built, so the document is never held in memory. For this to work, a child
+ * must be added to its parent before anything is added to the child, and once something has been
+ * added to an element, nothing more may be added to the children added to the element before.
+ * Attributes and children are written in the order in which they are added.
  */
 class JSONElement {
-    // List of attribute names.
-    private ArrayList<String> attrNames;
-
-    // List of attribute values.
-    private ArrayList<String> attrValues;
+    // The writer the document is written to, or null until this element is added to a parent.
+    private PrintWriter out;
 
-    // List of children names.
-    private ArrayList<String> childrenNames;
-
-    // List of children.
-    private ArrayList<JSONElement> children;
+    // Whether the document is compact, that is, written without new lines and indentation.
+    private boolean compact;
 
     // Indentation level.
     private int indentation;
 
+    // Whether an attribute or child has been added to this element.
+    private boolean hasMembers;
+
+    // The child last added to this element, until it's finished.
+    private JSONElement openChild;
+
     /**
-     * Constructs an empty JSON element.
+     * Constructs an empty JSON element, to be added as a child to another.
      */
     public JSONElement() {
-        this.attrNames = new ArrayList<String>();
-        this.attrValues = new ArrayList<String>();
-        this.childrenNames = new ArrayList<String>();
-        this.children = new ArrayList<JSONElement>();
         indentation = 0;
     }
 
+    /**
+     * Constructs a JSON element at the root of a document, and starts writing the document to the
+     * given writer. The document is finished by close().
+     *
+     * @param out     the writer the document is written to.
+     * @param compact whether to write the document without new lines and indentation.
+     */
+    public JSONElement(PrintWriter out, boolean compact) {
+        this.out = out;
+        this.compact = compact;
+        indentation = 0;
+        out.print('{');
+        newLine();
+    }
+
     /**
      * Adds an attribute to this JSON element with the given name and value.
      *
@@ -158,8 +224,17 @@ class JSONElement {
      * @param value value of the attribute.
      */
     public void addAttribute(String name, String value) {
-        attrNames.add(name);
-        attrValues.add(value);
+        startMember(name);
+        if (!compact) {
+            out.print(' ');
+        }
+        if (value.startsWith("[") && value.endsWith("]")) {
+            out.print(value);
+        } else {
+            out.print('"');
+            out.print(value);
+            out.print('"');
+        }
     }
 
     /**
@@ -169,8 +244,7 @@ class JSONElement {
      * @param value value of the attribute as a list of strings.
      */
     public void addAttribute(String name, ArrayList<String> value) {
-        attrNames.add(name);
-        attrValues.add(value.toString());
+        addAttribute(name, value.toString());
     }
 
     /**
@@ -180,53 +254,65 @@ class JSONElement {
      * @param child the child.
      */
     public void addChild(String name, JSONElement child) {
+        startMember(name);
+        newLine();
+        child.out = out;
+        child.compact = compact;
         child.indentation = indentation + 4;
-        childrenNames.add(name);
-        children.add(child);
+        child.indent(child.indentation);
+        out.print('{');
+        child.newLine();
+        openChild = child;
     }
 
     /**
-     * Returns a string representation of this JSON element.
-     *
-     * @return a string representation of this JSON element.
+     * Finishes writing this JSON element and its children.
      */
-    public String toString() {
-        StringBuilder sb = new StringBuilder();
-        if (indentation > 0) {
-            sb.append(String.format("%" + indentation + "s", " "));
+    public void close() {
+        closeOpenChild();
+        if (hasMembers) {
+            newLine();
         }
-        sb.append("{\n");
-        for (int i = 0; i < attrNames.size(); i++) {
-            String name = attrNames.get(i);
-            String value = attrValues.get(i);
-            sb.append(String.format("%" + (indentation + 4) + "s", " "));
-            if (value.startsWith("[") && value.endsWith("]")) {
-                sb.append(String.format("\"%s\": %s", name, value));
-            } else {
-                sb.append(String.format("\"%s\": \"%s\"", name, value));
-            }
-            if (i < attrNames.size() - 1 || childrenNames.size() > 0) {
-                sb.append(",\n");
-            } else {
-                sb.append("\n");
-            }
+        indent(indentation);
+        out.print('}');
+    }
+
+    // Finishes the open child, if any, and starts writing a member (attribute or child) with the
+    // given name.
+    private void startMember(String name) {
+        closeOpenChild();
+        if (hasMembers) {
+            out.print(',');
+            newLine();
         }
-        for (int i = 0; i < childrenNames.size(); i++) {
-            String name = childrenNames.get(i);
-            JSONElement child = children.get(i);
-            sb.append(String.format("%" + (indentation + 4) + "s", " "));
-            sb.append(String.format("\"%s\":\n", name));
-            sb.append(child.toString());
-            if (i < childrenNames.size() - 1) {
-                sb.append(",\n");
-            } else {
-                sb.append("\n");
-            }
+        hasMembers = true;
+        indent(indentation + 4);
+        out.print('"');
+        out.print(name);
+        out.print("\":");
+    }
+
+    // Finishes the open child, if any.
+    private void closeOpenChild() {
+        if (openChild != null) {
+            openChild.close();
+            openChild = null;
+        }
+    }
+
+    // Writes a new line, unless the document is compact.
+    private void newLine() {
+        if (!compact) {
+            out.print('\n');
         }
-        if (indentation > 0) {
-            sb.append(String.format("%" + indentation + "s", " "));
+    }
+
+    // Writes the given number of spaces, unless the document is compact.
+    private void indent(int n) {
+        if (!compact) {
+            for (int i = 0; i < n; i++) {
+                out.print(' ');
+            }
         }
-        sb.append("}");
-        return sb.toString();
     }
 }
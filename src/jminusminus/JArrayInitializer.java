@@ -32,7 +32,8 @@ class JArrayInitializer extends JExpression {
     public JExpression analyze(Context context) {
         type = type.resolve(context);
         if (!type.isArray()) {
-            JAST.compilationUnit.reportSemanticError(line, "Cannot initialize a " + type.toString()
+            context.compilationUnit().reportSemanticError(line,
+                    "Cannot initialize a " + type.toString()
                     + " with an array sequence {...}");
             return this;
         }
@@ -41,7 +42,7 @@ class JArrayInitializer extends JExpression {
             JExpression initial = initials.get(i);
             initials.set(i, initial = initial.analyze(context));
             if (!(initial instanceof JArrayInitializer)) {
-                initial.type().mustMatchExpected(line, componentType);
+                initial.type().mustMatchExpected(context, line, componentType);
             }
         }
         return this;
@@ -39,6 +39,16 @@ abstract class JBinaryExpression extends JExpression {
         this.rhs = rhs;
     }
 
+    /**
+     * Returns true if both (analyzed) operands are int literals, that is, if this expression folds
+     * to a constant, and false otherwise.
+     *
+     * @return true if both operands are int literals, and false otherwise.
+     */
+    protected boolean hasIntLiteralOperands() {
+        return lhs instanceof JLiteralInt && rhs instanceof JLiteralInt;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -77,9 +87,12 @@ class JMultiplyOp extends JBinaryExpression {
     public JExpression analyze(Context context) {
         lhs = (JExpression) lhs.analyze(context);
         rhs = (JExpression) rhs.analyze(context);
-        lhs.type().mustMatchExpected(line(), Type.INT);
-        rhs.type().mustMatchExpected(line(), Type.INT);
+        lhs.type().mustMatchExpected(context, line(), Type.INT);
+        rhs.type().mustMatchExpected(context, line(), Type.INT);
         type = Type.INT;
+        if (hasIntLiteralOperands()) {
+            return intLiteral(context, ((JLiteralInt) lhs).toInt() * ((JLiteralInt) rhs).toInt());
+        }
         return this;
     }
 
@@ -119,9 +132,13 @@ class JPlusOp extends JBinaryExpression {
             return (new JStringConcatenationOp(line, lhs, rhs)).analyze(context);
         } else if (lhs.type() == Type.INT && rhs.type() == Type.INT) {
             type = Type.INT;
+            if (hasIntLiteralOperands()) {
+                return intLiteral(context,
+                        ((JLiteralInt) lhs).toInt() + ((JLiteralInt) rhs).toInt());
+            }
         } else {
             type = Type.ANY;
-            JAST.compilationUnit.reportSemanticError(line(), "Invalid operand types for +");
+            context.compilationUnit().reportSemanticError(line(), "Invalid operand types for +");
         }
         return this;
     }
@@ -157,9 +174,12 @@ class JSubtractOp extends JBinaryExpression {
     public JExpression analyze(Context context) {
         lhs = (JExpression) lhs.analyze(context);
         rhs = (JExpression) rhs.analyze(context);
-        lhs.type().mustMatchExpected(line(), Type.INT);
-        rhs.type().mustMatchExpected(line(), Type.INT);
+        lhs.type().mustMatchExpected(context, line(), Type.INT);
+        rhs.type().mustMatchExpected(context, line(), Type.INT);
         type = Type.INT;
+        if (hasIntLiteralOperands()) {
+            return intLiteral(context, ((JLiteralInt) lhs).toInt() - ((JLiteralInt) rhs).toInt());
+        }
         return this;
     }
 
@@ -256,9 +276,12 @@ class JOrOp extends JBinaryExpression {
     public JExpression analyze(Context context) {
         lhs = (JExpression) lhs.analyze(context);
         rhs = (JExpression) rhs.analyze(context);
-        lhs.type().mustMatchExpected(line(), Type.INT);
-        rhs.type().mustMatchExpected(line(), Type.INT);
+        lhs.type().mustMatchExpected(context, line(), Type.INT);
+        rhs.type().mustMatchExpected(context, line(), Type.INT);
         type = Type.INT;
+        if (hasIntLiteralOperands()) {
+            return intLiteral(context, ((JLiteralInt) lhs).toInt() | ((JLiteralInt) rhs).toInt());
+        }
         return this;
     }
 
@@ -59,8 +59,18 @@ class JEqualOp extends JBooleanBinaryExpression {
     public JExpression analyze(Context context) {
         lhs = (JExpression) lhs.analyze(context);
         rhs = (JExpression) rhs.analyze(context);
-        lhs.type().mustMatchExpected(line(), rhs.type());
+        lhs.type().mustMatchExpected(context, line(), rhs.type());
         type = Type.BOOLEAN;
+        if (hasIntLiteralOperands()) {
+            return booleanLiteral(context,
+                    ((JLiteralInt) lhs).toInt() == ((JLiteralInt) rhs).toInt());
+        } else if (lhs instanceof JLiteralChar && rhs instanceof JLiteralChar) {
+            return booleanLiteral(context,
+                    ((JLiteralChar) lhs).toInt() == ((JLiteralChar) rhs).toInt());
+        } else if (lhs instanceof JLiteralBoolean && rhs instanceof JLiteralBoolean) {
+            return booleanLiteral(context,
+                    ((JLiteralBoolean) lhs).toBoolean() == ((JLiteralBoolean) rhs).toBoolean());
+        }
         return this;
     }
 
@@ -99,9 +109,15 @@ class JLogicalAndOp extends JBooleanBinaryExpression {
     public JExpression analyze(Context context) {
         lhs = (JExpression) lhs.analyze(context);
         rhs = (JExpression) rhs.analyze(context);
-        lhs.type().mustMatchExpected(line(), Type.BOOLEAN);
-        rhs.type().mustMatchExpected(line(), Type.BOOLEAN);
+        lhs.type().mustMatchExpected(context, line(), Type.BOOLEAN);
+        rhs.type().mustMatchExpected(context, line(), Type.BOOLEAN);
         type = Type.BOOLEAN;
+        if (lhs instanceof JLiteralBoolean) {
+            // true && rhs is rhs, and false && rhs is false (rhs is never evaluated).
+            return ((JLiteralBoolean) lhs).toBoolean() ? rhs : lhs;
+        } else if (rhs instanceof JLiteralBoolean && ((JLiteralBoolean) rhs).toBoolean()) {
+            return lhs;
+        }
         return this;
     }
 
@@ -142,9 +158,15 @@ class JLogicalOrOp extends JBooleanBinaryExpression {
     public JExpression analyze(Context context) {
         lhs = (JExpression) lhs.analyze(context);
         rhs = (JExpression) rhs.analyze(context);
-        lhs.type().mustMatchExpected(line(), Type.BOOLEAN);
-        rhs.type().mustMatchExpected(line(), Type.BOOLEAN);
+        lhs.type().mustMatchExpected(context, line(), Type.BOOLEAN);
+        rhs.type().mustMatchExpected(context, line(), Type.BOOLEAN);
         type = Type.BOOLEAN;
+        if (lhs instanceof JLiteralBoolean) {
+            // true || rhs is true (rhs is never evaluated), and false || rhs is rhs.
+            return ((JLiteralBoolean) lhs).toBoolean() ? lhs : rhs;
+        } else if (rhs instanceof JLiteralBoolean && !((JLiteralBoolean) rhs).toBoolean()) {
+            return lhs;
+        }
         return this;
     }
 
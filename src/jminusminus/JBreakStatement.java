@@ -8,6 +8,9 @@ import static jminusminus.CLConstants.*;
  * An AST node for a break-statement.
  */
 public class JBreakStatement extends JStatement {
+    // The statement (loop or switch-statement) that this break-statement exits.
+    private JStatement target;
+
     /**
      * Constructs an AST node for a break-statement.
      *
@@ -21,7 +24,10 @@ public class JBreakStatement extends JStatement {
      * {@inheritDoc}
      */
     public JStatement analyze(Context context) {
-        // TODO
+        target = context.methodContext().breakTarget();
+        if (target == null) {
+            context.compilationUnit().reportSemanticError(line(), "Break outside switch or loop");
+        }
         return this;
     }
 
@@ -29,7 +35,7 @@ public class JBreakStatement extends JStatement {
      * {@inheritDoc}
      */
     public void codegen(CLEmitter output) {
-        // TODO
+        output.addBranchInstruction(GOTO, target.breakLabel());
     }
 
     /**
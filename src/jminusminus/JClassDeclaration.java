@@ -3,6 +3,8 @@
 package jminusminus;
 
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import static jminusminus.CLConstants.*;
 
@@ -16,6 +18,9 @@ class JClassDeclaration extends JAST implements JTypeDecl {
     // Class name.
     private String name;
 
+    // Fully qualified (JVM) name of the class, set in declareThisType().
+    private String qualifiedName;
+
     // This class type.
     private Type thisType;
 
@@ -76,8 +81,8 @@ class JClassDeclaration extends JAST implements JTypeDecl {
      * {@inheritDoc}
      */
     public void declareThisType(Context context) {
-        String qualifiedName = JAST.compilationUnit.packageName() == "" ?
-                name : JAST.compilationUnit.packageName() + "/" + name;
+        String packageName = context.compilationUnit().packageName();
+        qualifiedName = packageName == "" ? name : packageName + "/" + name;
         CLEmitter partial = new CLEmitter(false);
         partial.addClass(mods, qualifiedName, Type.OBJECT.jvmName(), null, false);
         thisType = Type.typeFor(partial.toClass());
@@ -96,9 +101,9 @@ class JClassDeclaration extends JAST implements JTypeDecl {
 
         // Creating a partial class in memory can result in a java.lang.VerifyError if the
         // semantics below are violated, so we can't defer these checks to analyze().
-        thisType.checkAccess(line, superType);
+        thisType.checkAccess(context, line, superType);
         if (superType.isFinal()) {
-            JAST.compilationUnit.reportSemanticError(line, "Cannot extend a final type: %s",
+            context.compilationUnit().reportSemanticError(line, "Cannot extend a final type: %s",
                     superType.toString());
         }
 
@@ -106,8 +111,6 @@ class JClassDeclaration extends JAST implements JTypeDecl {
         CLEmitter partial = new CLEmitter(false);
 
         // Add the class header to the partial class
-        String qualifiedName = JAST.compilationUnit.packageName() == "" ?
-                name : JAST.compilationUnit.packageName() + "/" + name;
         partial.addClass(mods, qualifiedName, superType.jvmName(), null, false);
 
         // Pre-analyze the members and add them to the partial class.
@@ -124,7 +127,7 @@ class JClassDeclaration extends JAST implements JTypeDecl {
 
         // Get the ClassRep for the (partial) class and make it the representation for this type.
         Type id = this.context.lookupType(name);
-        if (id != null && !JAST.compilationUnit.errorHasOccurred()) {
+        if (id != null && !context.compilationUnit().errorHasOccurred()) {
             id.setClassRep(partial.toClass());
         }
     }
@@ -162,8 +165,13 @@ class JClassDeclaration extends JAST implements JTypeDecl {
      */
     public JAST analyze(Context context) {
         // Analyze all members.
-        for (JMember member : classBlock) {
-            ((JAST) member).analyze(this.context);
+        ForkJoinPool pool = context.compilationUnit().analysisPool();
+        if (pool == null) {
+            for (JMember member : classBlock) {
+                ((JAST) member).analyze(this.context);
+            }
+        } else {
+            analyzeMembers(pool);
         }
 
         // Separate declared fields for purposes of initialization.
@@ -184,7 +192,7 @@ class JClassDeclaration extends JAST implements JTypeDecl {
             for (Method method : thisType.abstractMethods()) {
                 methods += "\n" + method;
             }
-            JAST.compilationUnit.reportSemanticError(line,
+            context.compilationUnit().reportSemanticError(line,
                     "Class must be abstract since it defines abstract methods: %s", methods);
         }
         return this;
@@ -195,8 +203,6 @@ class JClassDeclaration extends JAST implements JTypeDecl {
      */
     public void codegen(CLEmitter output) {
         // The class header.
-        String qualifiedName = JAST.compilationUnit.packageName() == "" ?
-                name : JAST.compilationUnit.packageName() + "/" + name;
         output.addClass(mods, qualifiedName, superType.jvmName(), null, false);
 
         // The implicit empty constructor?
@@ -247,6 +253,38 @@ class JClassDeclaration extends JAST implements JTypeDecl {
         }
     }
 
+    // Analyzes the members: the fields here, and then the method (and constructor) bodies in
+    // parallel on the given pool, each in its own method context. The errors found are held back
+    // while the members are analyzed, and then reported in the order of the members.
+    private void analyzeMembers(ForkJoinPool pool) {
+        String[] errors = new String[classBlock.size()];
+        for (int i = 0; i < classBlock.size(); i++) {
+            if (!(classBlock.get(i) instanceof JMethodDeclaration)) {
+                JCompilationUnit.holdErrors();
+                ((JAST) classBlock.get(i)).analyze(this.context);
+                errors[i] = JCompilationUnit.releaseErrors();
+            }
+        }
+        ArrayList<MethodAnalysisTask> tasks = new ArrayList<MethodAnalysisTask>();
+        for (JMember member : classBlock) {
+            if (member instanceof JMethodDeclaration) {
+                MethodAnalysisTask task = new MethodAnalysisTask((JAST) member, this.context);
+                pool.execute(task);
+                tasks.add(task);
+            } else {
+                tasks.add(null);
+            }
+        }
+        for (int i = 0; i < classBlock.size(); i++) {
+            if (tasks.get(i) != null) {
+                CompilerStats.Timer timer = CompilerStats.start("wait");
+                errors[i] = tasks.get(i).join();
+                timer.stop();
+            }
+            System.err.print(errors[i]);
+        }
+    }
+
     // Generates code for an implicit empty constructor (necessary only if there is not already
     // an explicit one).
     private void codegenPartialImplicitConstructor(CLEmitter partial) {
@@ -294,3 +332,47 @@ class JClassDeclaration extends JAST implements JTypeDecl {
         return mods.contains("public");
     }
 }
+
+/**
+ * A task for analyzing the body of a method (or constructor), on a fork-join pool. The errors
+ * found are held back, and are the result of the task.
+ */
+class MethodAnalysisTask extends RecursiveTask<String> {
+    // Version of the serialized form, which RecursiveTask requires.
+    private static final long serialVersionUID = 1L;
+
+    // The method (or constructor) declaration.
+    private JAST method;
+
+    // Context of the class declaring the method.
+    private Context context;
+
+    /**
+     * Constructs a task for analyzing the given method declaration in the given class context.
+     *
+     * @param method  the method (or constructor) declaration.
+     * @param context context of the class declaring the method.
+     */
+    public MethodAnalysisTask(JAST method, Context context) {
+        this.method = method;
+        this.context = context;
+    }
+
+    /**
+     * Analyzes the method, and returns the errors found, each on its own line.
+     *
+     * @return the errors found.
+     */
+    protected String compute() {
+        String errors;
+        CompilerStats.Timer timer = CompilerStats.start("analyze");
+        JCompilationUnit.holdErrors();
+        try {
+            method.analyze(context);
+        } finally {
+            errors = JCompilationUnit.releaseErrors();
+            timer.stop();
+        }
+        return errors;
+    }
+}
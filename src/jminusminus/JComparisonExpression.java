@@ -26,11 +26,25 @@ abstract class JComparisonExpression extends JBooleanBinaryExpression {
     public JExpression analyze(Context context) {
         lhs = (JExpression) lhs.analyze(context);
         rhs = (JExpression) rhs.analyze(context);
-        lhs.type().mustMatchExpected(line(), Type.INT);
-        rhs.type().mustMatchExpected(line(), lhs.type());
+        lhs.type().mustMatchExpected(context, line(), Type.INT);
+        rhs.type().mustMatchExpected(context, line(), lhs.type());
         type = Type.BOOLEAN;
+        if (hasIntLiteralOperands()) {
+            return booleanLiteral(context,
+                    compare(((JLiteralInt) lhs).toInt(), ((JLiteralInt) rhs).toInt()));
+        }
         return this;
     }
+
+    /**
+     * Returns the result of this comparison on the specified operand values; used for folding a
+     * comparison of two constants.
+     *
+     * @param lhs value of the lhs operand.
+     * @param rhs value of the rhs operand.
+     * @return the result of the comparison.
+     */
+    protected abstract boolean compare(int lhs, int rhs);
 }
 
 /**
@@ -48,6 +62,13 @@ class JGreaterThanOp extends JComparisonExpression {
         super(line, ">", lhs, rhs);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    protected boolean compare(int lhs, int rhs) {
+        return lhs > rhs;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -74,6 +95,13 @@ class JLessEqualOp extends JComparisonExpression {
         super(line, "<=", lhs, rhs);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    protected boolean compare(int lhs, int rhs) {
+        return lhs <= rhs;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -100,6 +128,13 @@ class JGreaterEqualOp extends JComparisonExpression {
         super(line, ">=", lhs, rhs);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    protected boolean compare(int lhs, int rhs) {
+        return lhs >= rhs;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -123,6 +158,13 @@ class JLessThanOp extends JComparisonExpression {
         super(line, "<", lhs, rhs);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    protected boolean compare(int lhs, int rhs) {
+        return lhs < rhs;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -3,6 +3,9 @@
 package jminusminus;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * The abstract syntax tree (AST) node representing a compilation unit, and so the root of the AST.
@@ -17,7 +20,8 @@ import java.util.ArrayList;
  *
  *   <li>Method analyze() is invoked for type-checking field initializations and method bodies,
  *   and determining the types of all expressions. A certain amount of tree surgery is also done
- *   here. And stack frame offsets are computed for method parameters and local variables.</li>
+ *   here. And stack frame offsets are computed for method parameters and local variables. The
+ *   method bodies of a class may be analyzed in parallel (see analyze(ArrayList, int)).</li>
  *
  *   <li>Method codegen() is invoked for generating code for the compilation unit to a class file.
  *   For each type declaration, it instantiates a CLEmitter object (an abstraction of the class
@@ -50,6 +54,17 @@ class JCompilationUnit extends JAST {
     // Whether a semantic error has been found.
     private boolean isInError;
 
+    // Types looked up by name in the context of this unit (see CompilationUnitContext.lookup()).
+    private HashSet<Type> references;
+
+    // The pool on which the method bodies of this unit are analyzed, or null if they are
+    // analyzed one after another.
+    private ForkJoinPool analysisPool;
+
+    // The semantic errors reported on each thread while they're being held back (see
+    // holdErrors()), or null if they aren't.
+    private static ThreadLocal<StringBuilder> heldErrors = new ThreadLocal<StringBuilder>();
+
     /**
      * Constructs an AST node for a compilation unit.
      *
@@ -67,7 +82,7 @@ class JCompilationUnit extends JAST {
         this.imports = imports;
         this.typeDeclarations = typeDeclarations;
         clFiles = new ArrayList<CLFile>();
-        compilationUnit = this;
+        references = new HashSet<Type>();
     }
 
     /**
@@ -90,6 +105,39 @@ class JCompilationUnit extends JAST {
         return clFiles;
     }
 
+    /**
+     * Returns the types declared in this compilation unit.
+     *
+     * @return the types declared in this compilation unit.
+     */
+    public ArrayList<Type> declaredTypes() {
+        ArrayList<Type> types = new ArrayList<Type>();
+        for (JAST typeDeclaration : typeDeclarations) {
+            types.add(((JTypeDecl) typeDeclaration).thisType());
+        }
+        return types;
+    }
+
+    /**
+     * Records that the specified type has been looked up by name in the context of this
+     * compilation unit.
+     *
+     * @param type the type.
+     */
+    public synchronized void addReference(Type type) {
+        references.add(type);
+    }
+
+    /**
+     * Returns the types that have been looked up by name in the context of this compilation
+     * unit, which include those of the other compilation units that this one depends on.
+     *
+     * @return the types that have been looked up by name in the context of this unit.
+     */
+    public HashSet<Type> references() {
+        return references;
+    }
+
     /**
      * Returns true if a semantic error has occurred up to now, and false otherwise.
      *
@@ -108,44 +156,200 @@ class JCompilationUnit extends JAST {
      */
     public void reportSemanticError(int line, String message, Object... arguments) {
         isInError = true;
+        StringBuilder held = heldErrors.get();
+        if (held != null) {
+            held.append(String.format("%s:%d: error: ", fileName, line));
+            held.append(String.format(message, arguments));
+            held.append(System.lineSeparator());
+            return;
+        }
         System.err.printf("%s:%d: error: ", fileName, line);
         System.err.printf(message, arguments);
         System.err.println();
     }
 
+    /**
+     * Returns the pool on which the method bodies of this compilation unit are to be analyzed, or
+     * null if they are to be analyzed one after another.
+     *
+     * @return the pool on which the method bodies are to be analyzed, or null.
+     */
+    public ForkJoinPool analysisPool() {
+        return analysisPool;
+    }
+
+    /**
+     * Holds back the semantic errors reported (for any compilation unit) on the current thread
+     * from now on, instead of printing them to STDERR, until releaseErrors() is called.
+     */
+    public static void holdErrors() {
+        heldErrors.set(new StringBuilder());
+    }
+
+    /**
+     * Stops holding back the semantic errors reported on the current thread, and returns the
+     * ones held back, each on its own line.
+     *
+     * @return the errors held back.
+     */
+    public static String releaseErrors() {
+        String errors = heldErrors.get().toString();
+        heldErrors.remove();
+        return errors;
+    }
+
     /**
      * Constructs a context for the compilation unit, initializing it with imported types. Then
      * pre-analyzes the unit's type declarations, adding their types to the context.
      */
     public void preAnalyze() {
-        context = new CompilationUnitContext();
+        ArrayList<JCompilationUnit> units = new ArrayList<JCompilationUnit>();
+        units.add(this);
+        preAnalyze(units);
+    }
+
+    /**
+     * Pre-analyzes the given compilation units together, so that each may refer to the types
+     * declared in the others: by simple name within the same package, and by way of an import
+     * otherwise. The types of all the units are declared before any of them is pre-analyzed, and a
+     * type's superclass is pre-analyzed before the type itself when both are in the batch.
+     *
+     * @param units the compilation units to pre-analyze.
+     */
+    public static void preAnalyze(ArrayList<JCompilationUnit> units) {
+        // Declare the locally declared type(s) of every unit.
+        CLEmitter.initializeByteClassLoader();
+        HashMap<String, JTypeDecl> declared = new HashMap<String, JTypeDecl>();
+        HashMap<JTypeDecl, JCompilationUnit> owners = new HashMap<JTypeDecl, JCompilationUnit>();
+        for (JCompilationUnit unit : units) {
+            unit.declareTypes();
+            for (JAST typeDeclaration : unit.typeDeclarations) {
+                JTypeDecl decl = (JTypeDecl) typeDeclaration;
+                JTypeDecl other = declared.get(decl.thisType().toString());
+                if (other != null) {
+                    if (owners.get(other) != unit) {
+                        unit.reportSemanticError(typeDeclaration.line(), "duplicate class: %s",
+                                decl.thisType().toString());
+                    }
+                } else {
+                    declared.put(decl.thisType().toString(), decl);
+                    owners.put(decl, unit);
+                }
+            }
+        }
+
+        // Make the types of the other units visible in each unit, and declare imported types.
+        for (JCompilationUnit unit : units) {
+            unit.declareVisibleTypes(units, declared, owners);
+        }
+
+        // Pre-analyze the locally declared type(s). Generate (partial) Class instances,
+        // reflecting only the member declaration information.
+        CLEmitter.initializeByteClassLoader();
+        HashMap<Type, JTypeDecl> byType = new HashMap<Type, JTypeDecl>();
+        for (JTypeDecl decl : owners.keySet()) {
+            byType.put(decl.thisType(), decl);
+        }
+        HashSet<JTypeDecl> done = new HashSet<JTypeDecl>();
+        for (JCompilationUnit unit : units) {
+            for (JAST typeDeclaration : unit.typeDeclarations) {
+                // A duplicate declaration is not pre-analyzed; its class has already been
+                // defined.
+                if (owners.get(typeDeclaration) == unit) {
+                    preAnalyze((JTypeDecl) typeDeclaration, unit, byType, owners, done);
+                }
+            }
+        }
+    }
+
+    // Constructs the context for this unit and declares in it the two implicit types and the
+    // unit's own type declarations.
+    private void declareTypes() {
+        context = new CompilationUnitContext(this);
 
         // Declare the two implicit types java.lang.Object and java.lang.String.
         context.addType(0, Type.OBJECT);
         context.addType(0, Type.STRING);
 
-        // Declare any imported types.
+        for (JAST typeDeclaration : typeDeclarations) {
+            ((JTypeDecl) typeDeclaration).declareThisType(context);
+        }
+    }
+
+    // Declares in this unit's context the types of the other units in the same package, and the
+    // imported types. An import naming a type declared in the batch resolves to that type;
+    // anything else is loaded by name.
+    private void declareVisibleTypes(ArrayList<JCompilationUnit> units,
+                                     HashMap<String, JTypeDecl> declared,
+                                     HashMap<JTypeDecl, JCompilationUnit> owners) {
+        for (JCompilationUnit unit : units) {
+            if (unit == this || !unit.packageName().equals(packageName())) {
+                continue;
+            }
+            for (JAST typeDeclaration : unit.typeDeclarations) {
+                JTypeDecl decl = (JTypeDecl) typeDeclaration;
+                if (owners.get(decl) == unit
+                        && context.lookup(decl.thisType().toString()) == null) {
+                    context.addType(typeDeclaration.line(), decl.thisType());
+                }
+            }
+        }
         for (TypeName imported : imports) {
+            JTypeDecl decl = declared.get(imported.toString());
+            if (decl != null) {
+                if (owners.get(decl) != this && context.lookup(imported.toString()) == null) {
+                    context.addType(imported.line(), decl.thisType());
+                }
+                continue;
+            }
             try {
                 Class<?> classRep = Class.forName(imported.toString());
                 context.addType(imported.line(), Type.typeFor(classRep));
             } catch (Exception e) {
-                JAST.compilationUnit.reportSemanticError(imported.line(), "Unable to find %s",
-                        imported.toString());
+                reportSemanticError(imported.line(), "Unable to find %s", imported.toString());
             }
         }
+    }
 
-        // Declare the locally declared type(s).
-        CLEmitter.initializeByteClassLoader();
-        for (JAST typeDeclaration : typeDeclarations) {
-            ((JTypeDecl) typeDeclaration).declareThisType(context);
+    // Pre-analyzes the given type declaration of the given unit, after pre-analyzing its
+    // superclass if that is declared in the batch too (the partial class of a type can only be
+    // loaded once the partial class of its superclass has been).
+    private static void preAnalyze(JTypeDecl decl, JCompilationUnit unit,
+                                   HashMap<Type, JTypeDecl> byType,
+                                   HashMap<JTypeDecl, JCompilationUnit> owners,
+                                   HashSet<JTypeDecl> done) {
+        if (!done.add(decl)) {
+            return;
+        }
+        if (decl.superType() != null) {
+            JTypeDecl superDecl = byType.get(unit.context.lookupType(decl.superType().toString()));
+            if (superDecl != null) {
+                preAnalyze(superDecl, owners.get(superDecl), byType, owners, done);
+            }
         }
+        decl.preAnalyze(unit.context);
+    }
 
-        // Pre-analyze the locally declared type(s). Generate (partial) Class instances,
-        // reflecting only the member declaration information.
-        CLEmitter.initializeByteClassLoader();
-        for (JAST typeDeclaration : typeDeclarations) {
-            ((JTypeDecl) typeDeclaration).preAnalyze(context);
+    /**
+     * Analyzes the given compilation units, one after another. If threads is more than one, the
+     * method (and constructor) bodies of each class are analyzed in parallel, on a fork-join pool
+     * with that many threads. Either way, the errors found are reported in the same order.
+     *
+     * @param units   the compilation units to analyze, which have been pre-analyzed.
+     * @param threads number of threads to analyze the method bodies on.
+     */
+    public static void analyze(ArrayList<JCompilationUnit> units, int threads) {
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        try {
+            for (JCompilationUnit unit : units) {
+                unit.analysisPool = pool;
+                unit.analyze(null);
+                unit.analysisPool = null;
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
         }
     }
 
@@ -159,7 +363,7 @@ class JCompilationUnit extends JAST {
                 JClassDeclaration newClass = (JClassDeclaration) typeDeclaration;
                 if(newClass.isPublic()) {// Make a method in JClassDeclaration to check if public is in mods maybe?
                     if(publicClassSeen) {
-                        JAST.compilationUnit.reportSemanticError(line,
+                        reportSemanticError(line,
                                 "The public type %s must be defined in its own file", ((JClassDeclaration) typeDeclaration).name());
                     } else {
                         publicClassSeen = true;
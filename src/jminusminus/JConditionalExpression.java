@@ -39,9 +39,13 @@ class JConditionalExpression extends JExpression {
      */
     public JExpression analyze(Context context) {
         condition = condition.analyze(context);
-        condition.type().mustMatchExpected(line(), Type.BOOLEAN);
+        condition.type().mustMatchExpected(context, line(), Type.BOOLEAN);
         thenPart = thenPart.analyze(context);
         elsePart = elsePart.analyze(context);
+        if (condition instanceof JLiteralBoolean) {
+            // Only one of the parts is ever evaluated, so the other is dropped.
+            return ((JLiteralBoolean) condition).toBoolean() ? thenPart : elsePart;
+        }
         return this;
     }
 
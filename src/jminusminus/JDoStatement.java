@@ -31,9 +31,11 @@ public class JDoStatement extends JStatement {
      * {@inheritDoc}
      */
     public JStatement analyze(Context context) {
+        context.methodContext().enterBreakTarget(this);
         body = (JStatement) body.analyze(context);
+        context.methodContext().exitBreakTarget();
         condition = condition.analyze(context);
-        condition.type().mustMatchExpected(line(), Type.BOOLEAN);
+        condition.type().mustMatchExpected(context, line(), Type.BOOLEAN);
         return this;
     }
 
@@ -42,9 +44,11 @@ public class JDoStatement extends JStatement {
      */
     public void codegen(CLEmitter output) {
         String test = output.createLabel();
+        breakLabel = output.createLabel();
         output.addLabel(test);
         body.codegen(output);
         condition.codegen(output, test, true);
+        output.addLabel(breakLabel);
     }
 
     /**
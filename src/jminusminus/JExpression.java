@@ -54,6 +54,42 @@ abstract class JExpression extends JStatement {
      */
     public abstract JExpression analyze(Context context);
 
+    /**
+     * Returns an (analyzed) int literal with the specified value, which replaces this expression
+     * when it folds to a constant.
+     *
+     * @param context context in which names are resolved.
+     * @param value   the value of this expression.
+     * @return an int literal with the specified value.
+     */
+    protected JExpression intLiteral(Context context, int value) {
+        return new JLiteralInt(line, String.valueOf(value)).analyze(context);
+    }
+
+    /**
+     * Returns an (analyzed) boolean literal with the specified value, which replaces this
+     * expression when it folds to a constant.
+     *
+     * @param context context in which names are resolved.
+     * @param value   the value of this expression.
+     * @return a boolean literal with the specified value.
+     */
+    protected JExpression booleanLiteral(Context context, boolean value) {
+        return new JLiteralBoolean(line, String.valueOf(value)).analyze(context);
+    }
+
+    /**
+     * Returns an (analyzed) string literal with the specified value, which replaces this
+     * expression when it folds to a constant.
+     *
+     * @param context context in which names are resolved.
+     * @param value   the value of this expression.
+     * @return a string literal with the specified value.
+     */
+    protected JExpression stringLiteral(Context context, String value) {
+        return new JLiteralString(line, "\"" + JAST.escape(value) + "\"").analyze(context);
+    }
+
     /**
      * Performs short-circuit code generation for a boolean expression, given the code emitter,
      * a target label, and whether we branch to that label on true or on false.
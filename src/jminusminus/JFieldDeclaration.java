@@ -46,7 +46,8 @@ class JFieldDeclaration extends JAST implements JMember {
      */
     public void preAnalyze(Context context, CLEmitter partial) {
         if (mods.contains("abstract")) {
-            JAST.compilationUnit.reportSemanticError(line(), "Field cannot be declared abstract");
+            context.compilationUnit().reportSemanticError(line(),
+                    "Field cannot be declared abstract");
         }
         for (JVariableDeclarator decl : decls) {
             decl.setType(decl.type().resolve(context));
@@ -43,13 +43,19 @@ class JForStatement extends JStatement {
     /**
      * {@inheritDoc}
      */
-    public JForStatement analyze(Context context) {
+    public JStatement analyze(Context context) {
         // TODO
         init.replaceAll(jStatement -> (JStatement) jStatement.analyze(context));
         condition = condition.analyze(context);
-        condition.type().mustMatchExpected(line(), Type.BOOLEAN);
+        condition.type().mustMatchExpected(context, line(), Type.BOOLEAN);
         update.replaceAll(jStatement -> (JStatement) jStatement.analyze(context));
+        context.methodContext().enterBreakTarget(this);
         body = (JStatement) body.analyze(context);
+        context.methodContext().exitBreakTarget();
+        if (condition instanceof JLiteralBoolean && !((JLiteralBoolean) condition).toBoolean()) {
+            // The body and update are never executed; only the initialization is.
+            return init.isEmpty() ? new JEmptyStatement(line) : new JBlock(line, init);
+        }
         return this;
     }
 
@@ -59,14 +65,14 @@ class JForStatement extends JStatement {
     public void codegen(CLEmitter output) {
         // TODO
         String test = output.createLabel();
-        String out = output.createLabel();
+        breakLabel = output.createLabel();
         for (JStatement jStatement : init) jStatement.codegen(output);
         output.addLabel(test);
-        condition.codegen(output, out, false);
+        condition.codegen(output, breakLabel, false);
         body.codegen(output);
         for (JStatement jStatement : update) jStatement.codegen(output);
         output.addBranchInstruction(GOTO, test);
-        output.addLabel(out);
+        output.addLabel(breakLabel);
     }
 
     /**
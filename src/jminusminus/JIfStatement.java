@@ -37,11 +37,18 @@ class JIfStatement extends JStatement {
      */
     public JStatement analyze(Context context) {
         condition = condition.analyze(context);
-        condition.type().mustMatchExpected(line(), Type.BOOLEAN);
+        condition.type().mustMatchExpected(context, line(), Type.BOOLEAN);
         thenPart = (JStatement) thenPart.analyze(context);
         if (elsePart != null) {
             elsePart = (JStatement) elsePart.analyze(context);
         }
+        if (condition instanceof JLiteralBoolean) {
+            // Only one of the parts is ever executed, so the other is dropped.
+            if (((JLiteralBoolean) condition).toBoolean()) {
+                return thenPart;
+            }
+            return elsePart == null ? new JEmptyStatement(line) : elsePart;
+        }
         return this;
     }
 
@@ -45,6 +45,9 @@ class JLiteralInt extends JExpression {
     public void codegen(CLEmitter output) {
         int i = toInt();
         switch (i) {
+            case -1:
+                output.addNoArgInstruction(ICONST_M1);
+                break;
             case 0:
                 output.addNoArgInstruction(ICONST_0);
                 break;
@@ -64,9 +67,9 @@ class JLiteralInt extends JExpression {
                 output.addNoArgInstruction(ICONST_5);
                 break;
             default:
-                if (i >= 6 && i <= 127) {
+                if (i >= -128 && i <= 127) {
                     output.addOneArgInstruction(BIPUSH, i);
-                } else if (i >= 128 && i <= 32767) {
+                } else if (i >= -32768 && i <= 32767) {
                     output.addOneArgInstruction(SIPUSH, i);
                 } else {
                     output.addLDCInstruction(i);
@@ -20,6 +20,16 @@ class JLiteralString extends JExpression {
         this.text = text;
     }
 
+    /**
+     * Returns the literal as a (unescaped) string.
+     *
+     * @return the literal as a (unescaped) string.
+     */
+    public String toStringValue() {
+        String s = JAST.unescape(text);
+        return s.substring(1, s.length() - 1);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -32,8 +42,7 @@ class JLiteralString extends JExpression {
      * {@inheritDoc}
      */
     public void codegen(CLEmitter output) {
-        String s = JAST.unescape(text);
-        output.addLDCInstruction(s.substring(1, s.length() - 1));
+        output.addLDCInstruction(toStringValue());
     }
 
     /**
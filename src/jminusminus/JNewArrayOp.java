@@ -37,7 +37,7 @@ class JNewArrayOp extends JExpression {
         type = typeSpec.resolve(context);
         for (int i = 0; i < dimExprs.size(); i++) {
             dimExprs.set(i, dimExprs.get(i).analyze(context));
-            dimExprs.get(i).type().mustMatchExpected(line, Type.INT);
+            dimExprs.get(i).type().mustMatchExpected(context, line, Type.INT);
         }
         return this;
     }
@@ -36,7 +36,7 @@ class JReturnStatement extends JStatement {
         if (methodContext.methodReturnType() == Type.CONSTRUCTOR) {
             if (expr != null) {
                 // Can't return a value from a constructor.
-                JAST.compilationUnit.reportSemanticError(line(),
+                context.compilationUnit().reportSemanticError(line(),
                         "Cannot return a value from a constructor");
             }
         } else {
@@ -46,18 +46,18 @@ class JReturnStatement extends JStatement {
             if (expr != null) {
                 if (returnType == Type.VOID) {
                     // Can't return a value from void method.
-                    JAST.compilationUnit.reportSemanticError(line(),
+                    context.compilationUnit().reportSemanticError(line(),
                             "Cannot return a value from a void method");
                 } else {
                     // There's a (non-void) return value. Its type must match the return type of
                     // the method.
                     expr = expr.analyze(context);
-                    expr.type().mustMatchExpected(line(), returnType);
+                    expr.type().mustMatchExpected(context, line(), returnType);
                 }
             } else {
                 // The method better have void as return type.
                 if (returnType != Type.VOID) {
-                    JAST.compilationUnit.reportSemanticError(line(), "Missing return value");
+                    context.compilationUnit().reportSemanticError(line(), "Missing return value");
                 }
             }
         }
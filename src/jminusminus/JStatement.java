@@ -6,6 +6,12 @@ package jminusminus;
  * This abstract base class is the AST node for a statement (includes expressions).
  */
 abstract class JStatement extends JAST {
+    /**
+     * Label marking the code that follows this statement, which a break-statement within it jumps
+     * to; set by loops and switch-statements in codegen().
+     */
+    protected String breakLabel;
+
     /**
      * Constructs an AST node for a statement.
      *
@@ -14,4 +20,13 @@ abstract class JStatement extends JAST {
     protected JStatement(int line) {
         super(line);
     }
+
+    /**
+     * Returns the label marking the code that follows this statement.
+     *
+     * @return the label marking the code that follows this statement.
+     */
+    public String breakLabel() {
+        return breakLabel;
+    }
 }
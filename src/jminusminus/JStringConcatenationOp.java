@@ -26,6 +26,11 @@ class JStringConcatenationOp extends JBinaryExpression {
      */
     public JExpression analyze(Context context) {
         type = Type.STRING;
+        String lhsValue = constantString(lhs);
+        String rhsValue = constantString(rhs);
+        if (lhsValue != null && rhsValue != null) {
+            return stringLiteral(context, lhsValue + rhsValue);
+        }
         return this;
     }
 
@@ -47,6 +52,21 @@ class JStringConcatenationOp extends JBinaryExpression {
                 "()Ljava/lang/String;");
     }
 
+    // Returns the string an (analyzed) operand converts to if it is a string, int, char or boolean
+    // literal, and null otherwise.
+    private static String constantString(JExpression operand) {
+        if (operand instanceof JLiteralString) {
+            return ((JLiteralString) operand).toStringValue();
+        } else if (operand instanceof JLiteralInt) {
+            return String.valueOf(((JLiteralInt) operand).toInt());
+        } else if (operand instanceof JLiteralChar) {
+            return String.valueOf((char) ((JLiteralChar) operand).toInt());
+        } else if (operand instanceof JLiteralBoolean) {
+            return String.valueOf(((JLiteralBoolean) operand).toBoolean());
+        }
+        return null;
+    }
+
     // Like codegen() method, but we needn't (and shouldn't) create a StringBuilder nor convert
     // the result to a String, as that will be done in a parent.
     private void nestedCodegen(CLEmitter output) {
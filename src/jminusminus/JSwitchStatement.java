@@ -3,6 +3,7 @@
 package jminusminus;
 
 import java.util.ArrayList;
+import java.util.TreeMap;
 
 import static jminusminus.CLConstants.*;
 
@@ -16,6 +17,9 @@ public class JSwitchStatement extends JStatement {
     // List of switch-statement groups.
     private ArrayList<SwitchStatementGroup> stmtGroup;
 
+    // The new context (built in analyze()) for the switch block.
+    private LocalContext context;
+
     /**
      * Constructs an AST node for a switch-statement.
      *
@@ -34,7 +38,39 @@ public class JSwitchStatement extends JStatement {
      * {@inheritDoc}
      */
     public JStatement analyze(Context context) {
-        // TODO
+        condition = condition.analyze(context);
+        condition.type().mustMatchOneOf(context, line(), Type.INT, Type.CHAR);
+
+        // The switch block defines a new level of scope.
+        this.context = new LocalContext(context);
+        TreeMap<Integer, SwitchStatementGroup> cases = new TreeMap<Integer, SwitchStatementGroup>();
+        boolean hasDefault = false;
+        context.methodContext().enterBreakTarget(this);
+        for (SwitchStatementGroup group : stmtGroup) {
+            for (JExpression label : group.analyzeLabels(this.context)) {
+                if (label == null) {
+                    if (hasDefault) {
+                        context.compilationUnit().reportSemanticError(line(),
+                                "Duplicate default label");
+                    }
+                    hasDefault = true;
+                    continue;
+                }
+                Integer value = constantValue(label);
+                if (value == null) {
+                    context.compilationUnit().reportSemanticError(label.line(),
+                            "Case label must be a constant expression");
+                } else if (cases.containsKey(value)) {
+                    context.compilationUnit().reportSemanticError(label.line(),
+                            "Duplicate case label %d", value);
+                } else {
+                    cases.put(value, group);
+                    group.addKey(value);
+                }
+            }
+            group.analyzeBlock(this.context);
+        }
+        context.methodContext().exitBreakTarget();
         return this;
     }
 
@@ -42,7 +78,91 @@ public class JSwitchStatement extends JStatement {
      * {@inheritDoc}
      */
     public void codegen(CLEmitter output) {
-        // TODO
+        condition.codegen(output);
+        breakLabel = output.createLabel();
+        String defaultLabel = breakLabel;
+        TreeMap<Integer, String> keys = new TreeMap<Integer, String>();
+        ArrayList<String> groupLabels = new ArrayList<String>();
+        for (SwitchStatementGroup group : stmtGroup) {
+            String label = output.createLabel();
+            groupLabels.add(label);
+            if (group.hasDefault()) {
+                defaultLabel = label;
+            }
+            for (int key : group.keys()) {
+                keys.put(key, label);
+            }
+        }
+        if (keys.isEmpty()) {
+            output.addNoArgInstruction(POP);
+            output.addBranchInstruction(GOTO, defaultLabel);
+        } else if (isDense(keys.firstKey(), keys.lastKey(), keys.size())) {
+            ArrayList<String> labels = new ArrayList<String>();
+            for (long key = keys.firstKey(); key <= keys.lastKey(); key++) {
+                String label = keys.get((int) key);
+                labels.add(label == null ? defaultLabel : label);
+            }
+            output.addTABLESWITCHInstruction(defaultLabel, keys.firstKey(), keys.lastKey(),
+                    labels);
+        } else {
+            output.addLOOKUPSWITCHInstruction(defaultLabel, keys.size(), keys);
+        }
+        for (int i = 0; i < stmtGroup.size(); i++) {
+            output.addLabel(groupLabels.get(i));
+            stmtGroup.get(i).codegen(output);
+        }
+        output.addLabel(breakLabel);
+    }
+
+    /**
+     * Returns true if a switch on the given number of case labels, ranging from low to high, is
+     * better compiled to a TABLESWITCH (a jump table indexed by the value switched on, with an
+     * entry for each value from low to high) than to a LOOKUPSWITCH (a table of the labels and
+     * their jumps that is searched for the value), and false otherwise. The cost of each is its
+     * size in words plus three times the number of words it reads for a dispatch; a
+     * TABLESWITCH, which has three words in its header and reads one entry besides, wins unless
+     * the table would be mostly empty.
+     *
+     * @param low   smallest case label.
+     * @param high  largest case label.
+     * @param count number of case labels.
+     * @return true if the switch is better compiled to a TABLESWITCH, and false otherwise.
+     */
+    public static boolean isDense(int low, int high, int count) {
+        long tableSpace = 4 + ((long) high - low + 1);
+        long tableTime = 3;
+        long lookupSpace = 3 + 2 * (long) count;
+        long lookupTime = count;
+        return tableSpace + 3 * tableTime <= lookupSpace + 3 * lookupTime;
+    }
+
+    // Returns the value of the specified (analyzed) case label if it's a constant expression
+    // (built from int and char literals with unary minus and plus, and binary plus, minus and
+    // multiplication), and null otherwise.
+    private static Integer constantValue(JExpression label) {
+        if (label instanceof JLiteralInt) {
+            return ((JLiteralInt) label).toInt();
+        } else if (label instanceof JLiteralChar) {
+            return ((JLiteralChar) label).toInt();
+        } else if (label instanceof JNegateOp || label instanceof JUnaryPlusOp) {
+            Integer operand = constantValue(((JUnaryExpression) label).operand);
+            if (operand == null) {
+                return null;
+            }
+            return label instanceof JNegateOp ? -operand : operand;
+        } else if (label instanceof JPlusOp || label instanceof JSubtractOp ||
+                label instanceof JMultiplyOp) {
+            Integer lhs = constantValue(((JBinaryExpression) label).lhs);
+            Integer rhs = constantValue(((JBinaryExpression) label).rhs);
+            if (lhs == null || rhs == null) {
+                return null;
+            }
+            if (label instanceof JPlusOp) {
+                return lhs + rhs;
+            }
+            return label instanceof JSubtractOp ? lhs - rhs : lhs * rhs;
+        }
+        return null;
     }
 
     /**
@@ -70,6 +190,9 @@ class SwitchStatementGroup {
     // Block of statements.
     private ArrayList<JStatement> block;
 
+    // Values of the case labels, folded during analysis.
+    private ArrayList<Integer> keys;
+
     /**
      * Constructs a switch-statement group.
      *
@@ -79,6 +202,75 @@ class SwitchStatementGroup {
     public SwitchStatementGroup(ArrayList<JExpression> switchLabels, ArrayList<JStatement> block) {
         this.switchLabels = switchLabels;
         this.block = block;
+        keys = new ArrayList<Integer>();
+    }
+
+    /**
+     * Analyzes the case labels of this group in the specified context, and returns them; a null
+     * label stands for default.
+     *
+     * @param context context in which names are resolved.
+     * @return the analyzed case labels.
+     */
+    public ArrayList<JExpression> analyzeLabels(Context context) {
+        for (int i = 0; i < switchLabels.size(); i++) {
+            JExpression label = switchLabels.get(i);
+            if (label != null) {
+                label = label.analyze(context);
+                label.type().mustMatchOneOf(context, label.line(), Type.INT, Type.CHAR);
+                switchLabels.set(i, label);
+            }
+        }
+        return switchLabels;
+    }
+
+    /**
+     * Records the value of one of the case labels of this group.
+     *
+     * @param key the value of the case label.
+     */
+    public void addKey(int key) {
+        keys.add(key);
+    }
+
+    /**
+     * Returns the values of the case labels of this group.
+     *
+     * @return the values of the case labels of this group.
+     */
+    public ArrayList<Integer> keys() {
+        return keys;
+    }
+
+    /**
+     * Returns true if this group has the default label, and false otherwise.
+     *
+     * @return true if this group has the default label, and false otherwise.
+     */
+    public boolean hasDefault() {
+        return switchLabels.contains(null);
+    }
+
+    /**
+     * Analyzes the block of statements of this group in the specified context.
+     *
+     * @param context context in which names are resolved.
+     */
+    public void analyzeBlock(Context context) {
+        for (int i = 0; i < block.size(); i++) {
+            block.set(i, (JStatement) block.get(i).analyze(context));
+        }
+    }
+
+    /**
+     * Generates code for the block of statements of this group.
+     *
+     * @param output the code emitter.
+     */
+    public void codegen(CLEmitter output) {
+        for (JStatement statement : block) {
+            statement.codegen(output);
+        }
     }
 
     /**
@@ -65,8 +65,11 @@ class JLogicalNotOp extends JUnaryExpression {
      */
     public JExpression analyze(Context context) {
         operand = (JExpression) operand.analyze(context);
-        operand.type().mustMatchExpected(line(), Type.BOOLEAN);
+        operand.type().mustMatchExpected(context, line(), Type.BOOLEAN);
         type = Type.BOOLEAN;
+        if (operand instanceof JLiteralBoolean) {
+            return booleanLiteral(context, !((JLiteralBoolean) operand).toBoolean());
+        }
         return this;
     }
 
@@ -111,8 +114,11 @@ class JNegateOp extends JUnaryExpression {
      */
     public JExpression analyze(Context context) {
         operand = operand.analyze(context);
-        operand.type().mustMatchExpected(line(), Type.INT);
+        operand.type().mustMatchExpected(context, line(), Type.INT);
         type = Type.INT;
+        if (operand instanceof JLiteralInt) {
+            return intLiteral(context, -((JLiteralInt) operand).toInt());
+        }
         return this;
     }
 
@@ -144,11 +150,12 @@ class JPostDecrementOp extends JUnaryExpression {
      */
     public JExpression analyze(Context context) {
         if (!(operand instanceof JLhs)) {
-            JAST.compilationUnit.reportSemanticError(line, "Operand to -- must have an LValue.");
+            context.compilationUnit().reportSemanticError(line,
+                    "Operand to -- must have an LValue.");
             type = Type.ANY;
         } else {
             operand = (JExpression) operand.analyze(context);
-            operand.type().mustMatchExpected(line(), Type.INT);
+            operand.type().mustMatchExpected(context, line(), Type.INT);
             type = Type.INT;
         }
         return this;
@@ -200,11 +207,12 @@ class JPreIncrementOp extends JUnaryExpression {
      */
     public JExpression analyze(Context context) {
         if (!(operand instanceof JLhs)) {
-            JAST.compilationUnit.reportSemanticError(line, "Operand to ++ must have an LValue.");
+            context.compilationUnit().reportSemanticError(line,
+                    "Operand to ++ must have an LValue.");
             type = Type.ANY;
         } else {
             operand = (JExpression) operand.analyze(context);
-            operand.type().mustMatchExpected(line(), Type.INT);
+            operand.type().mustMatchExpected(context, line(), Type.INT);
             type = Type.INT;
         }
         return this;
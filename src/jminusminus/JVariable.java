@@ -58,7 +58,7 @@ class JVariable extends JExpression implements JLhs {
             if (field == null) {
                 type = Type.ANY;
                 context.addEntry(line, name, new TypeNameDefn(type));
-                JAST.compilationUnit.reportSemanticError(line, "Cannot find name: " + name);
+                context.compilationUnit().reportSemanticError(line, "Cannot find name: " + name);
             } else {
                 // Rewrite a variable denoting a field as an explicit field selection.
                 type = field.type();
@@ -72,7 +72,7 @@ class JVariable extends JExpression implements JLhs {
         } else {
             if (!analyzeLhs && iDefn instanceof LocalVariableDefn &&
                     !((LocalVariableDefn) iDefn).isInitialized()) {
-                JAST.compilationUnit.reportSemanticError(line, "Variable " + name +
+                context.compilationUnit().reportSemanticError(line, "Variable " + name +
                         " might not have been initialized");
             }
             type = iDefn.type();
@@ -89,7 +89,8 @@ class JVariable extends JExpression implements JLhs {
         if (newTree instanceof JVariable) {
             // Could (now) be a JFieldSelection, but if it's (still) a JVariable...
             if (iDefn != null && !(iDefn instanceof LocalVariableDefn)) {
-                JAST.compilationUnit.reportSemanticError(line(), name + " is a bad LHS to a =");
+                context.compilationUnit().reportSemanticError(line(),
+                        name + " is a bad LHS to a =");
             }
         }
         return newTree;
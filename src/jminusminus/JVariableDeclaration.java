@@ -40,7 +40,7 @@ class JVariableDeclaration extends JStatement {
             // First, check for shadowing.
             IDefn previousDefn = context.lookup(decl.name());
             if (previousDefn != null && previousDefn instanceof LocalVariableDefn) {
-                JAST.compilationUnit.reportSemanticError(decl.line(),
+                context.compilationUnit().reportSemanticError(decl.line(),
                         "The name " + decl.name() + " overshadows another local variable");
             }
 
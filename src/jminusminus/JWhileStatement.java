@@ -30,10 +30,16 @@ class JWhileStatement extends JStatement {
     /**
      * {@inheritDoc}
      */
-    public JWhileStatement analyze(Context context) {
+    public JStatement analyze(Context context) {
         condition = condition.analyze(context);
-        condition.type().mustMatchExpected(line(), Type.BOOLEAN);
+        condition.type().mustMatchExpected(context, line(), Type.BOOLEAN);
+        context.methodContext().enterBreakTarget(this);
         body = (JStatement) body.analyze(context);
+        context.methodContext().exitBreakTarget();
+        if (condition instanceof JLiteralBoolean && !((JLiteralBoolean) condition).toBoolean()) {
+            // The body is never executed.
+            return new JEmptyStatement(line);
+        }
         return this;
     }
 
@@ -42,12 +48,12 @@ class JWhileStatement extends JStatement {
      */
     public void codegen(CLEmitter output) {
         String test = output.createLabel();
-        String out = output.createLabel();
+        breakLabel = output.createLabel();
         output.addLabel(test);
-        condition.codegen(output, out, false);
+        condition.codegen(output, breakLabel, false);
         body.codegen(output);
         output.addBranchInstruction(GOTO, test);
-        output.addLabel(out);
+        output.addLabel(breakLabel);
     }
 
     /**
@@ -2,23 +2,33 @@
 
 package jminusminus;
 
+import java.io.BufferedWriter;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 
 /**
  * Driver class for j-- compiler using JavaCC front-end. This is the main entry point for the
  * compiler. The compiler proceeds as follows:
  * <ol>
- *   <li>It reads arguments that affects its behavior.</li>
+ *   <li>It reads arguments that affects its behavior. Arguments may also be read from a file
+ *   named by an argument of the form {@code @argfile}.</li>
  *
  *   <li>It builds a scanner.</li>
  *
  *   <li>It builds a parser (using the scanner) and parses the input for producing an abstact
- *   syntax tree (AST).</li>
+ *   syntax tree (AST). This and the steps below are carried out for every source file named on
+ *   the command line, all in the one invocation.</li>
  *
- *   <li>It sends the preAnalyze() message to that AST, which recursively descends the tree
- *   so far as the member headers for declaring types and members in the symbol table
- *   (represented as a string of contexts).</li>
+ *   <li>It pre-analyzes the ASTs together, which recursively descends each tree so far as the
+ *   member headers for declaring types and members in the symbol table (represented as a string
+ *   of contexts). Since all the types are declared before any is pre-analyzed, a source file
+ *   may refer to the types declared in the others.</li>
  *
  *   <li>It sends the analyze() message to that AST for declaring local variables, and
  *   checking and assigning types to expressions. Analysis also sometimes rewrites some of the
@@ -27,31 +37,77 @@ import java.io.FileNotFoundException;
  *
  *   <li>Finally, it sends a codegen() message to the AST for generating code. Again,
  *   codegen() recursively descends the tree, down to its leaves, generating JVM code for
- *   producing a .class or .s (SPIM) file for each defined type (class).</li>
+ *   producing a .class or .s (SPIM) file for each defined type (class). With the option -run,
+ *   no files are produced; the classes are instead loaded from memory, and the program is run
+ *   with the arguments that follow the option.</li>
  * </ol>
  */
 public class JavaCCMain {
     // Whether an error occurred during compilation.
     private static boolean errorHasOccurred;
 
+    // Format (text or json) of the stats report asked for with -stats, or null if none is.
+    private static String statsFormat;
+
+    // Whether the compiler runs as a compile server, in which case -run isn't allowed.
+    private static boolean serving;
+
     /**
-     * Entry point.
+     * Entry point. With the option -daemon, the compiler runs as a compile server (see
+     * CompileServer) instead, taking compile requests on STDIN (if the socket is given as -) or
+     * on a Unix domain socket.
      *
      * @param args the command-line arguments.
      */
     public static void main(String args[]) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals("-daemon")) {
+                serve(args[i + 1]);
+                return;
+            }
+        }
+        compile(args);
+    }
+
+    // Compiles as directed by the given command-line arguments, and then reports the stats of the
+    // compilation if they were asked for.
+    private static void compile(String args[]) {
+        statsFormat = null;
+        try {
+            compileSources(args);
+        } finally {
+            CompilerStats stats = CompilerStats.end();
+            if (stats != null && statsFormat != null) {
+                stats.print(statsFormat, System.err);
+            }
+        }
+    }
+
+    // Compiles as directed by the given command-line arguments.
+    private static void compileSources(String args[]) {
         String caller = "java jminusminus.JavaCCMain";
-        String sourceFile = "";
+        ArrayList<String> sourceFiles = new ArrayList<String>();
         String debugOption = "";
         String outputDir = ".";
         boolean spimOutput = false;
         String registerAllocation = "";
+        int threads = 1;
+        boolean incremental = false;
+        boolean compact = false;
+        String[] programArgs = null;
         errorHasOccurred = false;
+        try {
+            args = Main.expandArgFiles(args);
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            errorHasOccurred = true;
+            return;
+        }
         for (int i = 0; i < args.length; i++) {
             if (args[i].equals("javaccj--")) {
                 caller = "javaccj--";
             } else if (args[i].endsWith(".java")) {
-                sourceFile = args[i];
+                sourceFiles.add(args[i]);
             } else if (args[i].equals("-t") || args[i].equals("-p")
                     || args[i].equals("-pa") || args[i].equals("-a")) {
                 debugOption = args[i];
@@ -72,55 +128,133 @@ public class JavaCCMain {
                         .parseInt(args[++i]));
                 NPhysicalRegister.MAX_COUNT = Math.max(1,
                         NPhysicalRegister.MAX_COUNT);
+            } else if (args[i].equals("-j") && (i + 1) < args.length) {
+                threads = Math.max(1, Integer.parseInt(args[++i]));
+            } else if (args[i].equals("-target") && (i + 1) < args.length) {
+                int target = Integer.parseInt(args[++i]);
+                if (target < CLConstants.MAJOR_VERSION || target > CLConstants.MAX_MAJOR_VERSION) {
+                    printUsage(caller);
+                    return;
+                }
+                CLEmitter.majorVersion = target;
+            } else if (args[i].equals("-incremental")) {
+                incremental = true;
+            } else if (args[i].equals("-compact")) {
+                compact = true;
+            } else if (args[i].equals("-stats") && (i + 1) < args.length) {
+                statsFormat = args[++i];
+                if (!statsFormat.equals("text") && !statsFormat.equals("json")) {
+                    printUsage(caller);
+                    return;
+                }
+            } else if (args[i].equals("-run")) {
+                if (serving) {
+                    // The program would share the server's JVM, which it could exit, and STDIN,
+                    // which may be where the requests come from.
+                    System.err.println("Error: -run is not supported by the compile server");
+                    printUsage(caller);
+                    errorHasOccurred = true;
+                    return;
+                }
+
+                // The rest of the arguments are the program's.
+                programArgs = Arrays.copyOfRange(args, i + 1, args.length);
+                break;
+            } else if (args[i].equals("-no-sccp")) {
+                NHIROptimizer.constantPropagation = false;
+            } else if (args[i].equals("-no-copy")) {
+                NHIROptimizer.copyPropagation = false;
+            } else if (args[i].equals("-no-licm")) {
+                NHIROptimizer.loopInvariantCodeMotion = false;
+            } else if (args[i].equals("-no-gvn")) {
+                NHIROptimizer.valueNumbering = false;
+            } else if (args[i].equals("-no-dce")) {
+                NHIROptimizer.deadCodeElimination = false;
+            } else if (args[i].equals("-no-peephole")) {
+                CLPeepholeOptimizer.enabled = false;
+            } else if (args[i].equals("-peephole-report")) {
+                CLPeepholeOptimizer.report = true;
             } else {
                 printUsage(caller);
                 return;
             }
         }
-        if (sourceFile.equals("")) {
+        if (sourceFiles.isEmpty() || programArgs != null && spimOutput) {
             printUsage(caller);
             return;
         }
+        CompilerStats.begin(statsFormat != null);
 
-        JavaCCParserTokenManager javaCCScanner = null;
-        try {
-            javaCCScanner = new JavaCCParserTokenManager(new
-                    SimpleCharStream(new FileInputStream(sourceFile), 1, 1));
-        } catch (FileNotFoundException e) {
-            System.err.println("Error: file " + sourceFile + " not found.");
+        // In an incremental compilation, only the source files that are out of date (and the
+        // ones they depend on) need looking at; and if none are, there's nothing to do. Only the
+        // out-of-date ones are analyzed and have code generated for them.
+        IncrementalState state = null;
+        HashSet<String> toCompile = new HashSet<String>(sourceFiles);
+        if (incremental && debugOption.equals("") && programArgs == null) {
+            state = new IncrementalState(outputDir, options(spimOutput, registerAllocation));
+            toCompile = new HashSet<String>(state.outOfDate(sourceFiles));
+            if (toCompile.isEmpty()) {
+                return;
+            }
+        }
+
+        CompilerStats.Timer timer = CompilerStats.start("scan");
+        ArrayList<JavaCCParserTokenManager> javaCCScanners =
+                new ArrayList<JavaCCParserTokenManager>();
+        for (String sourceFile : sourceFiles) {
+            try {
+                javaCCScanners.add(new JavaCCParserTokenManager(new
+                        SimpleCharStream(new FileInputStream(sourceFile), 1, 1)));
+            } catch (FileNotFoundException e) {
+                System.err.println("Error: file " + sourceFile + " not found.");
+                errorHasOccurred = true;
+                return;
+            }
         }
+        timer.stop();
 
         if (debugOption.equals("-t")) {
             // Just tokenize input and print the tokens to STDOUT.
-            Token token;
-            do {
-                token = javaCCScanner.getNextToken();
-                if (token.kind == JavaCCParserConstants.ERROR) {
-                    System.err.printf("%s:%d: Unidentified input token: '%s'\n", sourceFile,
-                            token.beginLine, token.image);
-                    errorHasOccurred |= true;
-                } else {
-                    System.out.printf("%d\t : %s = %s\n", token.beginLine,
-                            JavaCCParserConstants.tokenImage[token.kind], token.image);
-                }
-            } while (token.kind != JavaCCParserConstants.EOF);
+            timer = CompilerStats.start("scan");
+            for (int i = 0; i < javaCCScanners.size(); i++) {
+                Token token;
+                do {
+                    token = javaCCScanners.get(i).getNextToken();
+                    timer.count("tokens", 1);
+                    if (token.kind == JavaCCParserConstants.ERROR) {
+                        System.err.printf("%s:%d: Unidentified input token: '%s'\n",
+                                sourceFiles.get(i), token.beginLine, token.image);
+                        errorHasOccurred |= true;
+                    } else {
+                        System.out.printf("%d\t : %s = %s\n", token.beginLine,
+                                JavaCCParserConstants.tokenImage[token.kind], token.image);
+                    }
+                } while (token.kind != JavaCCParserConstants.EOF);
+            }
+            timer.stop();
             return;
         }
 
-        // Parse input.
-        JCompilationUnit ast = null;
-        JavaCCParser javaCCParser = new JavaCCParser(javaCCScanner);
-        javaCCParser.fileName(sourceFile);
-        try {
-            ast = javaCCParser.compilationUnit();
-            errorHasOccurred |= javaCCParser.errorHasOccurred();
-        } catch (ParseException e) {
-            System.err.println(e.getMessage());
+        // Parse input; the JavaCC parser scans as it goes, so scanning counts as parsing here.
+        ArrayList<JCompilationUnit> asts = new ArrayList<JCompilationUnit>();
+        for (int i = 0; i < javaCCScanners.size(); i++) {
+            timer = CompilerStats.start("parse");
+            long nodeCount = JAST.nodeCount();
+            JavaCCParser javaCCParser = new JavaCCParser(javaCCScanners.get(i));
+            javaCCParser.fileName(sourceFiles.get(i));
+            try {
+                asts.add(javaCCParser.compilationUnit());
+                errorHasOccurred |= javaCCParser.errorHasOccurred();
+            } catch (ParseException e) {
+                System.err.println(e.getMessage());
+                errorHasOccurred = true;
+            }
+            timer.count("files", 1);
+            timer.count("AST nodes", JAST.nodeCount() - nodeCount);
+            timer.stop();
         }
         if (debugOption.equals("-p")) {
-            JSONElement json = new JSONElement();
-            ast.toJSON(json);
-            System.out.println(json.toString());
+            printJSON(asts, compact);
             return;
         }
         if (errorHasOccurred) {
@@ -128,25 +262,39 @@ public class JavaCCMain {
         }
 
         // Do pre-analysis.
-        ast.preAnalyze();
-        errorHasOccurred |= JAST.compilationUnit.errorHasOccurred();
+        timer = CompilerStats.start("preAnalyze");
+        JCompilationUnit.preAnalyze(asts);
+        for (JCompilationUnit ast : asts) {
+            timer.count("types", ast.declaredTypes().size());
+            errorHasOccurred |= ast.errorHasOccurred();
+        }
+        timer.stop();
         if (debugOption.equals("-pa")) {
-            JSONElement json = new JSONElement();
-            ast.toJSON(json);
-            System.out.println(json.toString());
+            printJSON(asts, compact);
             return;
         }
         if (errorHasOccurred) {
             return;
         }
 
-        // Do analysis.
-        ast.analyze(null);
-        errorHasOccurred |= JAST.compilationUnit.errorHasOccurred();
+        // Do analysis. The method bodies are analyzed on the given number of threads.
+        ArrayList<JCompilationUnit> toAnalyze = new ArrayList<JCompilationUnit>();
+        for (int i = 0; i < asts.size(); i++) {
+            if (toCompile.contains(sourceFiles.get(i))) {
+                toAnalyze.add(asts.get(i));
+            }
+        }
+        timer = CompilerStats.start("analyze");
+        long nodeCount = JAST.nodeCount();
+        JCompilationUnit.analyze(toAnalyze, threads);
+        for (JCompilationUnit ast : toAnalyze) {
+            errorHasOccurred |= ast.errorHasOccurred();
+        }
+        timer.count("files", toAnalyze.size());
+        timer.count("AST nodes added", JAST.nodeCount() - nodeCount);
+        timer.stop();
         if (debugOption.equals("-a")) {
-            JSONElement json = new JSONElement();
-            ast.toJSON(json);
-            System.out.println(json.toString());
+            printJSON(asts, compact);
             return;
         }
         if (errorHasOccurred) {
@@ -154,36 +302,140 @@ public class JavaCCMain {
         }
 
         // Generate JVM code.
-        CLEmitter clEmitter = new CLEmitter(!spimOutput);
+        timer = CompilerStats.start("codegen");
+        CLEmitter clEmitter = new CLEmitter(!spimOutput && programArgs == null);
         clEmitter.destinationDir(outputDir);
-        ast.codegen(clEmitter);
+        for (int i = 0; i < asts.size(); i++) {
+            if (toCompile.contains(sourceFiles.get(i))) {
+                asts.get(i).codegen(clEmitter);
+            }
+        }
+        timer.stop();
         errorHasOccurred |= clEmitter.errorHasOccurred();
         if (errorHasOccurred) {
             return;
         }
 
+        // If the program is to be run, do so from the classes in memory.
+        if (programArgs != null) {
+            timer = CompilerStats.start("run");
+            errorHasOccurred |= !Main.run(asts, programArgs);
+            timer.stop();
+            return;
+        }
+
         // If SPIM output was asked for, convert the in-memory JVM instructions to SPIM using the
         // specified register allocation scheme.
         if (spimOutput) {
-            NEmitter nEmitter = new NEmitter(sourceFile, ast.clFiles(), registerAllocation);
-            nEmitter.destinationDir(outputDir);
-            nEmitter.write();
-            errorHasOccurred |= nEmitter.errorHasOccurred();
+            for (int i = 0; i < asts.size(); i++) {
+                if (!toCompile.contains(sourceFiles.get(i))) {
+                    continue;
+                }
+                timer = CompilerStats.start("spim");
+                NEmitter nEmitter = new NEmitter(sourceFiles.get(i), asts.get(i).clFiles(),
+                        registerAllocation, threads);
+                timer.stop();
+                timer = CompilerStats.start("writeSpim");
+                nEmitter.destinationDir(outputDir);
+                nEmitter.write();
+                timer.stop();
+                errorHasOccurred |= nEmitter.errorHasOccurred();
+            }
+        }
+
+        // Record what's been compiled for the next incremental compilation.
+        if (state != null && !errorHasOccurred) {
+            for (int i = 0; i < asts.size(); i++) {
+                if (toCompile.contains(sourceFiles.get(i))) {
+                    state.update(sourceFiles.get(i), asts.get(i), outputDir, spimOutput);
+                }
+            }
+            state.save();
+        }
+    }
+
+    // Serves compile requests on the Unix domain socket at the given path, or on STDIN if the
+    // path is -.
+    private static void serve(String socketPath) {
+        serving = true;
+        CompileServer server = new CompileServer(new CompileServer.Compiler() {
+            public boolean compile(String[] args) {
+                JavaCCMain.compile(args);
+                return !errorHasOccurred;
+            }
+        });
+        try {
+            if (socketPath.equals("-")) {
+                server.serve();
+            } else {
+                server.serve(socketPath);
+            }
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    // Returns the options that affect the generated files, which the state of an incremental
+    // compilation holds for.
+    private static String options(boolean spimOutput, String registerAllocation) {
+        String peephole = CLPeepholeOptimizer.enabled ? "" : " -no-peephole";
+        if (!spimOutput) {
+            return (CLEmitter.majorVersion == CLConstants.MAJOR_VERSION ? "-class" :
+                    "-class -target " + CLEmitter.majorVersion) + peephole;
+        }
+        return String.format("-s %s -r %d%s%s%s%s%s%s", registerAllocation,
+                NPhysicalRegister.MAX_COUNT,
+                NHIROptimizer.constantPropagation ? "" : " -no-sccp",
+                NHIROptimizer.copyPropagation ? "" : " -no-copy",
+                NHIROptimizer.loopInvariantCodeMotion ? "" : " -no-licm",
+                NHIROptimizer.valueNumbering ? "" : " -no-gvn",
+                NHIROptimizer.deadCodeElimination ? "" : " -no-dce", peephole);
+    }
+
+    // Prints the ASTs to STDOUT in JSON format.
+    private static void printJSON(ArrayList<JCompilationUnit> asts, boolean compact) {
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out), 1 << 16));
+        for (JCompilationUnit ast : asts) {
+            JSONElement json = new JSONElement(out, compact);
+            ast.toJSON(json);
+            json.close();
+            out.println();
         }
+        out.flush();
     }
 
     // Prints command usage to STDOUT.
     private static void printUsage(String caller) {
         String usage = "Usage: " + caller
-                + " <options> <source file>\n"
+                + " <options> <source files | @argfiles>\n"
                 + "Where possible options include:\n"
                 + "  -t  Only tokenize input and print tokens to STDOUT\n"
                 + "  -p  Only parse input and print AST to STDOUT\n"
                 + "  -pa Only parse and pre-analyze input and print AST to STDOUT\n"
                 + "  -a  Only parse, pre-analyze, and analyze input and print AST to STDOUT\n"
+                + "  -compact Print the AST for -p, -pa and -a as compact JSON\n"
+                + "  -stats <text|json> Report the time, allocation and counts of each phase to "
+                + "STDERR\n"
                 + "  -s  <naive|linear|graph> Generate SPIM code\n"
                 + "  -r  <num> Physical registers (1-18) available for allocation; default = 8\n"
-                + "  -d  <dir> Specify where to place output files; default = .";
+                + "  -j  <num> Threads to analyze method bodies and translate methods to SPIM "
+                + "on; default = 1\n"
+                + "  -no-sccp Disable sparse conditional constant propagation of HIR\n"
+                + "  -no-copy Disable copy propagation of HIR\n"
+                + "  -no-licm Disable loop-invariant code motion of HIR\n"
+                + "  -no-gvn  Disable global value numbering of HIR\n"
+                + "  -no-dce  Disable dead code elimination of HIR\n"
+                + "  -no-peephole Disable peephole optimization of JVM code\n"
+                + "  -peephole-report Report the bytes of code peephole optimization saves per "
+                + "class to STDERR\n"
+                + "  -target <num> Class file major version (49 to 52; 50 and up carry stack "
+                + "map frames); default = 49\n"
+                + "  -run <args> Run main(String[]) in memory with the arguments that follow, "
+                + "writing no files (not with -daemon)\n"
+                + "  -incremental Only compile changed source files and their dependents\n"
+                + "  -d  <dir> Specify where to place output files; default = .\n"
+                + "  -daemon <socket|-> Serve compile requests on a Unix domain socket or STDIN";
         System.out.println(usage);
     }
 }
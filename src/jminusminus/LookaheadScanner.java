@@ -3,26 +3,40 @@
 package jminusminus;
 
 import java.io.FileNotFoundException;
-import java.util.Stack;
-import java.util.Vector;
+import java.util.Arrays;
 
 /**
  * A lexical analyzer for j-- that interfaces with the hand-written parser (Parser). It
  * provides a backtracking mechanism, and makes use of the underlying hand-written scanner
  * (Scanner).
+ * <p>
+ * The tokens scanned are kept in a ring buffer, and positions in the input are indices into the
+ * token stream, so recording a position saves an int and returning to it just moves back the
+ * current index. Tokens are only kept as long as some recorded position (or the previous token)
+ * may need them.
  */
 class LookaheadScanner {
     // The underlying hand-written scanner.
     private Scanner scanner;
 
-    // Backtracking queue.
-    private Vector<TokenInfo> backtrackingQueue;
+    // Ring buffer of tokens, indexed by position in the token stream modulo its length (a power
+    // of 2). It holds the tokens at positions start to end - 1.
+    private TokenInfo[] tokens;
 
-    // Token queue.
-    private Vector<TokenInfo> nextQueue;
+    // Position of the oldest token kept.
+    private int start;
 
-    // Stack of token queues for nested lookahead.
-    private Stack<Vector<TokenInfo>> queueStack;
+    // Position just past the last token scanned.
+    private int end;
+
+    // Position of the current token.
+    private int position;
+
+    // Stack of recorded positions, for nested lookahead.
+    private int[] marks;
+
+    // Number of recorded positions.
+    private int markCount;
 
     // Whether we are looking ahead.
     public boolean isLookingAhead;
@@ -41,9 +55,15 @@ class LookaheadScanner {
      */
     public LookaheadScanner(String fileName) throws FileNotFoundException {
         scanner = new Scanner(fileName);
-        backtrackingQueue = new Vector<TokenInfo>();
-        nextQueue = new Vector<TokenInfo>();
-        queueStack = new Stack<Vector<TokenInfo>>();
+        tokens = new TokenInfo[64];
+
+        // Positions 0 and 1 hold the (null) previous and current tokens before the first one
+        // is scanned.
+        start = 0;
+        end = 2;
+        position = 1;
+        marks = new int[16];
+        markCount = 0;
         isLookingAhead = false;
     }
 
@@ -51,44 +71,51 @@ class LookaheadScanner {
      * Scans to the next token in the input.
      */
     public void next() {
-        previousToken = token;
-        if (backtrackingQueue.size() == 0) {
-            token = scanner.getNextToken();
-        } else {
-            token = backtrackingQueue.remove(0);
-        }
-        if (isLookingAhead) {
-            nextQueue.add(token);
+        position++;
+        if (position == end) {
+            // Drop the tokens that no recorded position can return to.
+            start = (markCount == 0 ? position : marks[0]) - 1;
+            if (end - start == tokens.length) {
+                grow();
+            }
+            CompilerStats.Timer timer = CompilerStats.start("scan");
+            TokenInfo last = tokens[(end - 1) & (tokens.length - 1)];
+            TokenInfo next = scanner.getNextToken();
+            tokens[end & (tokens.length - 1)] = next;
+            if (next.kind() == TokenKind.EOF && (last == null || last.kind() != TokenKind.EOF)) {
+                // Count the tokens all at once, rather than one at a time.
+                timer.count("tokens", end - 1);
+            }
+            timer.stop();
+            end++;
         }
+        previousToken = token;
+        token = tokens[position & (tokens.length - 1)];
     }
 
     /**
      * Records the current position in the input, so that we can start looking ahead in the input
-     * (and later return to this position) --- the current and subsequent tokens are queued until
+     * (and later return to this position) --- the current and subsequent tokens are kept until
      * returnToPosition() is invoked.
      */
     public void recordPosition() {
+        if (markCount == marks.length) {
+            marks = Arrays.copyOf(marks, marks.length * 2);
+        }
+        marks[markCount++] = position;
         isLookingAhead = true;
-        queueStack.push(nextQueue);
-        nextQueue = new Vector<TokenInfo>();
-        nextQueue.add(previousToken);
-        nextQueue.add(token);
     }
 
     /**
      * Returns to the previously recorded position in the input stream of tokens.
      */
     public void returnToPosition() {
-        while (backtrackingQueue.size() > 0) {
-            nextQueue.add(backtrackingQueue.remove(0));
-        }
-        backtrackingQueue = nextQueue;
-        nextQueue = queueStack.pop();
-        isLookingAhead = !(queueStack.empty());
+        position = marks[--markCount];
+        isLookingAhead = markCount > 0;
 
         // Restore previous and current tokens
-        previousToken = backtrackingQueue.remove(0);
-        token = backtrackingQueue.remove(0);
+        previousToken = tokens[(position - 1) & (tokens.length - 1)];
+        token = tokens[position & (tokens.length - 1)];
     }
 
     /**
@@ -126,4 +153,13 @@ class LookaheadScanner {
     public String fileName() {
         return scanner.fileName();
     }
+
+    // Doubles the size of the ring buffer, keeping the tokens at positions start to end - 1.
+    private void grow() {
+        TokenInfo[] old = tokens;
+        tokens = new TokenInfo[old.length * 2];
+        for (int i = start; i < end; i++) {
+            tokens[i & (tokens.length - 1)] = old[i & (old.length - 1)];
+        }
+    }
 }
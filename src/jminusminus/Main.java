@@ -2,7 +2,19 @@
 
 package jminusminus;
 
+import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 
 import static jminusminus.TokenKind.EOF;
 
@@ -10,16 +22,19 @@ import static jminusminus.TokenKind.EOF;
  * Driver class for j-- compiler using hand-written front-end. This is the main entry point for
  * the compiler. The compiler proceeds as follows:
  * <ol>
- *   <li>It reads arguments that affects its behavior.</li>
+ *   <li>It reads arguments that affects its behavior. Arguments may also be read from a file
+ *   named by an argument of the form {@code @argfile}.</li>
  *
  *   <li>It builds a scanner.</li>
  *
  *   <li>It builds a parser (using the scanner) and parses the input for producing an abstact
- *   syntax tree (AST).</li>
+ *   syntax tree (AST). This and the steps below are carried out for every source file named on
+ *   the command line, all in the one invocation.</li>
  *
- *   <li>It sends the preAnalyze() message to that AST, which recursively descends the tree
- *   so far as the member headers for declaring types and members in the symbol table
- *   (represented as a string of contexts).</li>
+ *   <li>It pre-analyzes the ASTs together, which recursively descends each tree so far as the
+ *   member headers for declaring types and members in the symbol table (represented as a string
+ *   of contexts). Since all the types are declared before any is pre-analyzed, a source file
+ *   may refer to the types declared in the others.</li>
  *
  *   <li>It sends the analyze() message to that AST for declaring local variables, and
  *   checking and assigning types to expressions. Analysis also sometimes rewrites some of the
@@ -28,31 +43,77 @@ import static jminusminus.TokenKind.EOF;
  *
  *   <li>Finally, it sends a codegen() message to the AST for generating code. Again,
  *   codegen() recursively descends the tree, down to its leaves, generating JVM code for
- *   producing a .class or .s (SPIM) file for each defined type (class).</li>
+ *   producing a .class or .s (SPIM) file for each defined type (class). With the option -run,
+ *   no files are produced; the classes are instead loaded from memory, and the program is run
+ *   with the arguments that follow the option.</li>
  * </ol>
  */
 public class Main {
     // Whether an error occurred during compilation.
     private static boolean errorHasOccurred;
 
+    // Format (text or json) of the stats report asked for with -stats, or null if none is.
+    private static String statsFormat;
+
+    // Whether the compiler runs as a compile server, in which case -run isn't allowed.
+    private static boolean serving;
+
     /**
-     * Entry point.
+     * Entry point. With the option -daemon, the compiler runs as a compile server (see
+     * CompileServer) instead, taking compile requests on STDIN (if the socket is given as -) or
+     * on a Unix domain socket.
      *
      * @param args the command-line arguments.
      */
     public static void main(String args[]) {
+        for (int i = 0; i < args.length - 1; i++) {
+            if (args[i].equals("-daemon")) {
+                serve(args[i + 1]);
+                return;
+            }
+        }
+        compile(args);
+    }
+
+    // Compiles as directed by the given command-line arguments, and then reports the stats of the
+    // compilation if they were asked for.
+    private static void compile(String args[]) {
+        statsFormat = null;
+        try {
+            compileSources(args);
+        } finally {
+            CompilerStats stats = CompilerStats.end();
+            if (stats != null && statsFormat != null) {
+                stats.print(statsFormat, System.err);
+            }
+        }
+    }
+
+    // Compiles as directed by the given command-line arguments.
+    private static void compileSources(String args[]) {
         String caller = "java jminusminus.Main";
-        String sourceFile = "";
+        ArrayList<String> sourceFiles = new ArrayList<String>();
         String debugOption = "";
         String outputDir = ".";
         boolean spimOutput = false;
         String registerAllocation = "";
+        int threads = 1;
+        boolean incremental = false;
+        boolean compact = false;
+        String[] programArgs = null;
         errorHasOccurred = false;
+        try {
+            args = expandArgFiles(args);
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            errorHasOccurred = true;
+            return;
+        }
         for (int i = 0; i < args.length; i++) {
             if (args[i].equals("j--")) {
                 caller = "j--";
             } else if (args[i].endsWith(".java")) {
-                sourceFile = args[i];
+                sourceFiles.add(args[i]);
             } else if (args[i].equals("-t") || args[i].equals("-p") || args[i].equals("-pa") ||
                     args[i].equals("-a")) {
                 debugOption = args[i];
@@ -69,45 +130,128 @@ public class Main {
             } else if (args[i].endsWith("-r") && (i + 1) < args.length) {
                 NPhysicalRegister.MAX_COUNT = Math.min(18, Integer.parseInt(args[++i]));
                 NPhysicalRegister.MAX_COUNT = Math.max(1, NPhysicalRegister.MAX_COUNT);
+            } else if (args[i].equals("-j") && (i + 1) < args.length) {
+                threads = Math.max(1, Integer.parseInt(args[++i]));
+            } else if (args[i].equals("-target") && (i + 1) < args.length) {
+                int target = Integer.parseInt(args[++i]);
+                if (target < CLConstants.MAJOR_VERSION || target > CLConstants.MAX_MAJOR_VERSION) {
+                    printUsage(caller);
+                    return;
+                }
+                CLEmitter.majorVersion = target;
+            } else if (args[i].equals("-incremental")) {
+                incremental = true;
+            } else if (args[i].equals("-compact")) {
+                compact = true;
+            } else if (args[i].equals("-stats") && (i + 1) < args.length) {
+                statsFormat = args[++i];
+                if (!statsFormat.equals("text") && !statsFormat.equals("json")) {
+                    printUsage(caller);
+                    return;
+                }
+            } else if (args[i].equals("-run")) {
+                if (serving) {
+                    // The program would share the server's JVM, which it could exit, and STDIN,
+                    // which may be where the requests come from.
+                    System.err.println("Error: -run is not supported by the compile server");
+                    printUsage(caller);
+                    errorHasOccurred = true;
+                    return;
+                }
+
+                // The rest of the arguments are the program's.
+                programArgs = Arrays.copyOfRange(args, i + 1, args.length);
+                break;
+            } else if (args[i].equals("-no-sccp")) {
+                NHIROptimizer.constantPropagation = false;
+            } else if (args[i].equals("-no-copy")) {
+                NHIROptimizer.copyPropagation = false;
+            } else if (args[i].equals("-no-licm")) {
+                NHIROptimizer.loopInvariantCodeMotion = false;
+            } else if (args[i].equals("-no-gvn")) {
+                NHIROptimizer.valueNumbering = false;
+            } else if (args[i].equals("-no-dce")) {
+                NHIROptimizer.deadCodeElimination = false;
+            } else if (args[i].equals("-no-peephole")) {
+                CLPeepholeOptimizer.enabled = false;
+            } else if (args[i].equals("-peephole-report")) {
+                CLPeepholeOptimizer.report = true;
             } else {
                 printUsage(caller);
                 return;
             }
         }
-        if (sourceFile.equals("")) {
+        if (sourceFiles.isEmpty() || programArgs != null && spimOutput) {
             printUsage(caller);
             return;
         }
+        CompilerStats.begin(statsFormat != null);
 
-        LookaheadScanner scanner = null;
-        try {
-            scanner = new LookaheadScanner(sourceFile);
-        } catch (FileNotFoundException e) {
-            System.err.println("Error: file " + sourceFile + " not found.");
-            return;
+        // In an incremental compilation, only the source files that are out of date (and the
+        // ones they depend on) need looking at; and if none are, there's nothing to do. Only the
+        // out-of-date ones are analyzed and have code generated for them.
+        IncrementalState state = null;
+        HashSet<String> toCompile = new HashSet<String>(sourceFiles);
+        if (incremental && debugOption.equals("") && programArgs == null) {
+            state = new IncrementalState(outputDir, options(spimOutput, registerAllocation));
+            toCompile = new HashSet<String>(state.outOfDate(sourceFiles));
+            if (toCompile.isEmpty()) {
+                return;
+            }
+        }
+
+        CompilerStats.Timer timer = CompilerStats.start("scan");
+        ArrayList<LookaheadScanner> scanners = new ArrayList<LookaheadScanner>();
+        for (String sourceFile : sourceFiles) {
+            try {
+                scanners.add(new LookaheadScanner(sourceFile));
+            } catch (FileNotFoundException e) {
+                System.err.println("Error: file " + sourceFile + " not found.");
+                errorHasOccurred = true;
+                return;
+            }
         }
+        timer.stop();
 
         if (debugOption.equals("-t")) {
-            // Just tokenize input and print the tokens to STDOUT.
-            TokenInfo token;
-            do {
-                scanner.next();
-                token = scanner.token();
-                System.out.printf("%d\t : %s = %s\n", token.line(), token.tokenRep(),
-                        token.image());
-            } while (token.kind() != EOF);
-            errorHasOccurred |= scanner.errorHasOccured();
+            // Just tokenize input and print the tokens to STDOUT. They're printed through a
+            // buffer, since STDOUT flushes at every new line.
+            PrintWriter out = new PrintWriter(new BufferedWriter(
+                    new OutputStreamWriter(System.out), 1 << 16));
+            timer = CompilerStats.start("scan");
+            for (LookaheadScanner scanner : scanners) {
+                TokenInfo token;
+                do {
+                    scanner.next();
+                    token = scanner.token();
+                    out.print(token.line());
+                    out.print("\t : ");
+                    out.print(token.tokenRep());
+                    out.print(" = ");
+                    out.print(token.image());
+                    out.print('\n');
+                } while (token.kind() != EOF);
+                out.flush();
+                errorHasOccurred |= scanner.errorHasOccured();
+            }
+            timer.stop();
             return;
         }
 
         // Parse input.
-        Parser parser = new Parser(scanner);
-        JCompilationUnit ast = parser.compilationUnit();
-        errorHasOccurred |= parser.errorHasOccurred();
+        ArrayList<JCompilationUnit> asts = new ArrayList<JCompilationUnit>();
+        for (LookaheadScanner scanner : scanners) {
+            timer = CompilerStats.start("parse");
+            long nodeCount = JAST.nodeCount();
+            Parser parser = new Parser(scanner);
+            asts.add(parser.compilationUnit());
+            timer.count("files", 1);
+            timer.count("AST nodes", JAST.nodeCount() - nodeCount);
+            timer.stop();
+            errorHasOccurred |= parser.errorHasOccurred();
+        }
         if (debugOption.equals("-p")) {
-            JSONElement json = new JSONElement();
-            ast.toJSON(json);
-            System.out.println(json.toString());
+            printJSON(asts, compact);
             return;
         }
         if (errorHasOccurred) {
@@ -115,25 +259,39 @@ public class Main {
         }
 
         // Do pre-analysis.
-        ast.preAnalyze();
-        errorHasOccurred |= JAST.compilationUnit.errorHasOccurred();
+        timer = CompilerStats.start("preAnalyze");
+        JCompilationUnit.preAnalyze(asts);
+        for (JCompilationUnit ast : asts) {
+            timer.count("types", ast.declaredTypes().size());
+            errorHasOccurred |= ast.errorHasOccurred();
+        }
+        timer.stop();
         if (debugOption.equals("-pa")) {
-            JSONElement json = new JSONElement();
-            ast.toJSON(json);
-            System.out.println(json.toString());
+            printJSON(asts, compact);
             return;
         }
         if (errorHasOccurred) {
             return;
         }
 
-        // Do analysis.
-        ast.analyze(null);
-        errorHasOccurred |= JAST.compilationUnit.errorHasOccurred();
+        // Do analysis. The method bodies are analyzed on the given number of threads.
+        ArrayList<JCompilationUnit> toAnalyze = new ArrayList<JCompilationUnit>();
+        for (int i = 0; i < asts.size(); i++) {
+            if (toCompile.contains(sourceFiles.get(i))) {
+                toAnalyze.add(asts.get(i));
+            }
+        }
+        timer = CompilerStats.start("analyze");
+        long nodeCount = JAST.nodeCount();
+        JCompilationUnit.analyze(toAnalyze, threads);
+        for (JCompilationUnit ast : toAnalyze) {
+            errorHasOccurred |= ast.errorHasOccurred();
+        }
+        timer.count("files", toAnalyze.size());
+        timer.count("AST nodes added", JAST.nodeCount() - nodeCount);
+        timer.stop();
         if (debugOption.equals("-a")) {
-            JSONElement json = new JSONElement();
-            ast.toJSON(json);
-            System.out.println(json.toString());
+            printJSON(asts, compact);
             return;
         }
         if (errorHasOccurred) {
@@ -141,36 +299,260 @@ public class Main {
         }
 
         // Generate JVM code.
-        CLEmitter clEmitter = new CLEmitter(!spimOutput);
+        timer = CompilerStats.start("codegen");
+        CLEmitter clEmitter = new CLEmitter(!spimOutput && programArgs == null);
         clEmitter.destinationDir(outputDir);
-        ast.codegen(clEmitter);
+        for (int i = 0; i < asts.size(); i++) {
+            if (toCompile.contains(sourceFiles.get(i))) {
+                asts.get(i).codegen(clEmitter);
+            }
+        }
+        timer.stop();
         errorHasOccurred |= clEmitter.errorHasOccurred();
         if (errorHasOccurred) {
             return;
         }
 
+        // If the program is to be run, do so from the classes in memory.
+        if (programArgs != null) {
+            timer = CompilerStats.start("run");
+            errorHasOccurred |= !run(asts, programArgs);
+            timer.stop();
+            return;
+        }
+
         // If SPIM output was asked for, convert the in-memory JVM instructions to SPIM using the
         // specified register allocation scheme.
         if (spimOutput) {
-            NEmitter nEmitter = new NEmitter(sourceFile, ast.clFiles(), registerAllocation);
-            nEmitter.destinationDir(outputDir);
-            nEmitter.write();
-            errorHasOccurred |= nEmitter.errorHasOccurred();
+            for (int i = 0; i < asts.size(); i++) {
+                if (!toCompile.contains(sourceFiles.get(i))) {
+                    continue;
+                }
+                timer = CompilerStats.start("spim");
+                NEmitter nEmitter = new NEmitter(sourceFiles.get(i), asts.get(i).clFiles(),
+                        registerAllocation, threads);
+                timer.stop();
+                timer = CompilerStats.start("writeSpim");
+                nEmitter.destinationDir(outputDir);
+                nEmitter.write();
+                timer.stop();
+                errorHasOccurred |= nEmitter.errorHasOccurred();
+            }
+        }
+
+        // Record what's been compiled for the next incremental compilation.
+        if (state != null && !errorHasOccurred) {
+            for (int i = 0; i < asts.size(); i++) {
+                if (toCompile.contains(sourceFiles.get(i))) {
+                    state.update(sourceFiles.get(i), asts.get(i), outputDir, spimOutput);
+                }
+            }
+            state.save();
+        }
+    }
+
+    /**
+     * Returns the given command-line arguments with every argument of the form @argfile replaced
+     * by the arguments listed in that file. The arguments in the file are separated by white space
+     * and may be enclosed in double quotes.
+     *
+     * @param args the command-line arguments.
+     * @return the expanded command-line arguments.
+     * @throws IOException if an argument file cannot be read.
+     */
+    static String[] expandArgFiles(String[] args) throws IOException {
+        ArrayList<String> expanded = new ArrayList<String>();
+        for (String arg : args) {
+            if (!arg.startsWith("@") || arg.length() == 1) {
+                expanded.add(arg);
+                continue;
+            }
+            String argFile = arg.substring(1);
+            if (!Files.isReadable(Paths.get(argFile))) {
+                throw new IOException("argument file " + argFile + " not found.");
+            }
+            String contents = new String(Files.readAllBytes(Paths.get(argFile)));
+            for (String token : contents.trim().split("\\s+")) {
+                if (token.length() >= 2 && token.startsWith("\"") && token.endsWith("\"")) {
+                    token = token.substring(1, token.length() - 1);
+                }
+                if (!token.isEmpty()) {
+                    expanded.add(token);
+                }
+            }
+        }
+        return expanded.toArray(new String[expanded.size()]);
+    }
+
+    /**
+     * Runs the program made up of the classes generated for the given compilation units, without
+     * writing any files: the classes are defined by a fresh ByteClassLoader, and the main(String[])
+     * method of the first of them (in the order the units were given) that has one is invoked
+     * with the given arguments. Returns false, after reporting the problem on STDERR, if there's
+     * no such method or the program throws an exception; and true otherwise.
+     *
+     * @param asts        the compilation units, which code has been generated for.
+     * @param programArgs the program's arguments.
+     * @return false if the program could not be run or threw an exception, and true otherwise.
+     */
+    static boolean run(ArrayList<JCompilationUnit> asts, String[] programArgs) {
+        ByteClassLoader loader = new ByteClassLoader();
+        ArrayList<String> classNames = new ArrayList<String>();
+        try {
+            for (JCompilationUnit ast : asts) {
+                for (CLFile clFile : ast.clFiles()) {
+                    loader.addClass(clFile);
+                    classNames.add(clFile.name());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error: cannot write class to byte stream");
+            return false;
+        }
+
+        // Find the main method. Loading the classes doesn't initialize them.
+        Method main = null;
+        try {
+            for (int i = 0; i < classNames.size() && main == null; i++) {
+                try {
+                    main = loader.loadClass(classNames.get(i)).getDeclaredMethod("main",
+                            String[].class);
+                    if (!Modifier.isStatic(main.getModifiers()) ||
+                            main.getReturnType() != void.class) {
+                        main = null;
+                    }
+                } catch (NoSuchMethodException e) {
+                    // Not in this class.
+                }
+            }
+        } catch (ClassNotFoundException e) {
+            System.err.println("Error: cannot load class " + e.getMessage());
+            return false;
+        } catch (LinkageError e) {
+            System.err.println("Error: cannot load class: " + e);
+            return false;
+        }
+        if (main == null) {
+            System.err.println("Error: no class has a static void main(String[]) method.");
+            return false;
+        }
+
+        // Run the program, with the loader as the context class loader of this thread while it
+        // does.
+        Thread thread = Thread.currentThread();
+        ClassLoader contextClassLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(loader);
+        try {
+            main.setAccessible(true);
+            main.invoke(null, (Object) programArgs);
+        } catch (InvocationTargetException e) {
+            // Report the exception as the java launcher would, leaving out the frames (at the
+            // bottom of its stack trace) of the compiler and of the reflective invocation.
+            Throwable cause = e.getCause();
+            StackTraceElement[] trace = cause.getStackTrace();
+            int n = trace.length;
+            while (n > 0 && (trace[n - 1].getClassName().startsWith("jminusminus.") ||
+                    trace[n - 1].getClassName().startsWith("jdk.internal.reflect.") ||
+                    trace[n - 1].getClassName().equals("java.lang.reflect.Method"))) {
+                n--;
+            }
+            cause.setStackTrace(Arrays.copyOf(trace, n));
+            System.out.flush();
+            System.err.print("Exception in thread \"" + thread.getName() + "\" ");
+            cause.printStackTrace();
+            return false;
+        } catch (IllegalAccessException e) {
+            System.err.println("Error: cannot invoke " + main);
+            return false;
+        } finally {
+            thread.setContextClassLoader(contextClassLoader);
+            System.out.flush();
+        }
+        return true;
+    }
+
+    // Serves compile requests on the Unix domain socket at the given path, or on STDIN if the
+    // path is -.
+    private static void serve(String socketPath) {
+        serving = true;
+        CompileServer server = new CompileServer(new CompileServer.Compiler() {
+            public boolean compile(String[] args) {
+                Main.compile(args);
+                return !errorHasOccurred;
+            }
+        });
+        try {
+            if (socketPath.equals("-")) {
+                server.serve();
+            } else {
+                server.serve(socketPath);
+            }
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+        }
+    }
+
+    // Returns the options that affect the generated files, which the state of an incremental
+    // compilation holds for.
+    private static String options(boolean spimOutput, String registerAllocation) {
+        String peephole = CLPeepholeOptimizer.enabled ? "" : " -no-peephole";
+        if (!spimOutput) {
+            return (CLEmitter.majorVersion == CLConstants.MAJOR_VERSION ? "-class" :
+                    "-class -target " + CLEmitter.majorVersion) + peephole;
+        }
+        return String.format("-s %s -r %d%s%s%s%s%s%s", registerAllocation,
+                NPhysicalRegister.MAX_COUNT,
+                NHIROptimizer.constantPropagation ? "" : " -no-sccp",
+                NHIROptimizer.copyPropagation ? "" : " -no-copy",
+                NHIROptimizer.loopInvariantCodeMotion ? "" : " -no-licm",
+                NHIROptimizer.valueNumbering ? "" : " -no-gvn",
+                NHIROptimizer.deadCodeElimination ? "" : " -no-dce", peephole);
+    }
+
+    // Prints the ASTs to STDOUT in JSON format.
+    private static void printJSON(ArrayList<JCompilationUnit> asts, boolean compact) {
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(System.out), 1 << 16));
+        for (JCompilationUnit ast : asts) {
+            JSONElement json = new JSONElement(out, compact);
+            ast.toJSON(json);
+            json.close();
+            out.println();
         }
+        out.flush();
     }
 
     // Prints command usage to STDOUT.
     private static void printUsage(String caller) {
         String usage = "Usage: " + caller
-                + " <options> <source file>\n"
+                + " <options> <source files | @argfiles>\n"
                 + "Where possible options include:\n"
                 + "  -t  Only tokenize input and print tokens to STDOUT\n"
                 + "  -p  Only parse input and print AST to STDOUT\n"
                 + "  -pa Only parse and pre-analyze input and print AST to STDOUT\n"
                 + "  -a  Only parse, pre-analyze, and analyze input and print AST to STDOUT\n"
+                + "  -compact Print the AST for -p, -pa and -a as compact JSON\n"
+                + "  -stats <text|json> Report the time, allocation and counts of each phase to "
+                + "STDERR\n"
                 + "  -s  <naive|linear|graph> Generate SPIM code\n"
                 + "  -r  <num> Physical registers (1-18) available for allocation; default = 8\n"
-                + "  -d  <dir> Specify where to place output files; default = .";
+                + "  -j  <num> Threads to analyze method bodies and translate methods to SPIM "
+                + "on; default = 1\n"
+                + "  -no-sccp Disable sparse conditional constant propagation of HIR\n"
+                + "  -no-copy Disable copy propagation of HIR\n"
+                + "  -no-licm Disable loop-invariant code motion of HIR\n"
+                + "  -no-gvn  Disable global value numbering of HIR\n"
+                + "  -no-dce  Disable dead code elimination of HIR\n"
+                + "  -no-peephole Disable peephole optimization of JVM code\n"
+                + "  -peephole-report Report the bytes of code peephole optimization saves per "
+                + "class to STDERR\n"
+                + "  -target <num> Class file major version (49 to 52; 50 and up carry stack "
+                + "map frames); default = 49\n"
+                + "  -run <args> Run main(String[]) in memory with the arguments that follow, "
+                + "writing no files (not with -daemon)\n"
+                + "  -incremental Only compile changed source files and their dependents\n"
+                + "  -d  <dir> Specify where to place output files; default = .\n"
+                + "  -daemon <socket|-> Serve compile requests on a Unix domain socket or STDIN";
         System.out.println(usage);
     }
 }
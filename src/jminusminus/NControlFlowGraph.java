@@ -5,6 +5,8 @@ package jminusminus;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.Stack;
 import java.util.TreeMap;
@@ -274,8 +276,10 @@ class NBasicBlock {
         s = "Locals: ";
         if (locals != null) {
             for (int i = 0; i < locals.length; i++) {
-                if (!(cfg.hirMap.get(locals[i]) instanceof NHIRLocal)) {
-                    s += cfg.hirMap.get(locals[i]).id() + " ";
+                // Locals whose values were optimized away are no longer in the map.
+                NHIRInstruction local = cfg.hirMap.get(locals[i]);
+                if (local != null && !(local instanceof NHIRLocal)) {
+                    s += local.id() + " ";
                 }
             }
         }
@@ -384,25 +388,31 @@ class NControlFlowGraph {
     // Maps the pc of a JVM instruction to the block it's in.
     private HashMap<Integer, NBasicBlock> pcToBasicBlock;
 
+    // Optimizer for the hir instructions.
+    private NHIROptimizer optimizer;
+
+    // Number of jumps eliminated by ordering the blocks.
+    private int jumpsEliminated;
+
     /**
      * Block identifier.
      */
-    public static int blockId;
+    public int blockId;
 
     /**
      * HIR instruction identifier.
      */
-    public static int hirId;
+    public int hirId;
 
     /**
      * HIR instruction identifier.
      */
-    public static int lirId;
+    public int lirId;
 
     /**
      * Virtual register identifier.
      */
-    public static int regId;
+    public int regId;
 
     /**
      * Stack offset counter..
@@ -412,7 +422,7 @@ class NControlFlowGraph {
     /**
      * Loop identifier.
      */
-    public static int loopIndex;
+    public int loopIndex;
 
     /**
      * Name of the method this cfg corresponds to.
@@ -478,7 +488,7 @@ class NControlFlowGraph {
         desc = new String(((CLConstantUtf8Info) cp.cpItem(m.descriptorIndex)).b);
         basicBlocks = new ArrayList<NBasicBlock>();
         pcToBasicBlock = new HashMap<Integer, NBasicBlock>();
-        ArrayList<Integer> code = getByteCode();
+        CLCodeBuffer code = getByteCode();
         ArrayList<NTuple> tuples = bytecodeToTuples(code);
         if (tuples.size() == 0) {
             return;
@@ -570,9 +580,15 @@ class NControlFlowGraph {
                 case RET:
                 case ATHROW:
                     break;
-                case TABLESWITCH: // Unsupported
-                    break;
-                case LOOKUPSWITCH: // Unsupported
+                case TABLESWITCH:
+                case LOOKUPSWITCH:
+                    for (int pc : switchTargets(tuple)) {
+                        target = blockAt[pc];
+                        if (!block.successors.contains(target)) {
+                            block.successors.add(target);
+                            target.predecessors.add(block);
+                        }
+                    }
                     break;
                 default:
                     if (j < basicBlocks.size() - 1) {
@@ -608,7 +624,7 @@ class NControlFlowGraph {
             block.isLoopHead = true;
             pred.isLoopTail = true;
             block.bwdBranches++;
-            block.loopIndex = NControlFlowGraph.loopIndex++;
+            block.loopIndex = loopIndex++;
         }
     }
 
@@ -661,6 +677,38 @@ class NControlFlowGraph {
         }
     }
 
+    /**
+     * Computes the loop nesting depth of each block in this cfg, ie, the number of loops the
+     * block belongs to. A loop consists of a loop head and all the blocks from which one of its
+     * back edges can be reached without going through the head. Loop heads must have been
+     * identified (detectLoops()) and dominators computed (computeDominators()).
+     */
+    public void computeLoopDepths() {
+        for (NBasicBlock head : basicBlocks) {
+            if (!head.isLoopHead) {
+                continue;
+            }
+            HashSet<NBasicBlock> body = new HashSet<NBasicBlock>();
+            Stack<NBasicBlock> stack = new Stack<NBasicBlock>();
+            body.add(head);
+            for (NBasicBlock pred : head.predecessors) {
+                if (dominates(head, pred) && body.add(pred)) {
+                    stack.push(pred);
+                }
+            }
+            while (!stack.isEmpty()) {
+                for (NBasicBlock pred : stack.pop().predecessors) {
+                    if (body.add(pred)) {
+                        stack.push(pred);
+                    }
+                }
+            }
+            for (NBasicBlock block : body) {
+                block.loopDepth++;
+            }
+        }
+    }
+
     /**
      * Converts tuples in each block to their high-level (HIR) representations.
      */
@@ -690,8 +738,18 @@ class NControlFlowGraph {
         Queue<NBasicBlock> q = new LinkedList<NBasicBlock>();
         beginBlock.visited = true;
         q.add(beginBlock);
+        int deferred = 0;
         while (!q.isEmpty()) {
             NBasicBlock block = q.remove();
+
+            // A join (other than a loop head, whose other predecessors are at the ends of its back
+            // edges) waits for all its predecessors, so that their locals can be merged.
+            if (!block.isLoopHead && !localsKnown(block.predecessors) && deferred <= q.size()) {
+                q.add(block);
+                deferred++;
+                continue;
+            }
+            deferred = 0;
             for (NBasicBlock succ : block.successors) {
                 if (!succ.visited) {
                     succ.visited = true;
@@ -723,11 +781,7 @@ class NControlFlowGraph {
                         phi.inferType();
                     }
                 } else {
-                    block.locals = block.predecessors.get(0).locals.clone();
-                    for (int i = 1; i < block.predecessors.size(); i++) {
-                        NBasicBlock pred = block.predecessors.get(i);
-                        mergeLocals(block, pred);
-                    }
+                    mergeLocals(block);
                 }
             }
             for (NTuple tuple : block.tuples) {
@@ -838,6 +892,7 @@ class NControlFlowGraph {
                         block.hir.add(ins.id);
                         break;
                     }
+                    case ICONST_M1:
                     case ICONST_0:
                     case ICONST_1:
                     case ICONST_2:
@@ -886,7 +941,7 @@ class NControlFlowGraph {
                     }
                     case BIPUSH: {
                         operandByte1 = tuple.operands.get(0);
-                        ins = new NHIRIntConstant(block, hirId++, operandByte1);
+                        ins = new NHIRIntConstant(block, hirId++, (byte) operandByte1);
                         block.cfg.hirMap.put(ins.id, ins);
                         block.hir.add(ins.id);
                         operandStack.push(ins.id);
@@ -905,11 +960,17 @@ class NControlFlowGraph {
                     case LDC: {
                         operandByte1 = tuple.operands.get(0);
 
-                        // Only allowing ldc of string constants for now.
-                        int stringIndex =
-                                ((CLConstantStringInfo) cp.cpItem(operandByte1)).stringIndex;
-                        String s = new String(((CLConstantUtf8Info) cp.cpItem(stringIndex)).b);
-                        ins = new NHIRStringConstant(block, hirId++, s);
+                        // Only allowing ldc of int and string constants for now.
+                        CLCPInfo item = cp.cpItem(operandByte1);
+                        if (item instanceof CLConstantIntegerInfo) {
+                            ins = new NHIRIntConstant(block, hirId++,
+                                    ((CLConstantIntegerInfo) item).i);
+                        } else {
+                            int stringIndex = ((CLConstantStringInfo) item).stringIndex;
+                            String s =
+                                    new String(((CLConstantUtf8Info) cp.cpItem(stringIndex)).b);
+                            ins = new NHIRStringConstant(block, hirId++, s);
+                        }
                         block.cfg.hirMap.put(ins.id, ins);
                         block.hir.add(ins.id);
                         operandStack.push(ins.id);
@@ -941,7 +1002,10 @@ class NControlFlowGraph {
                         block.cfg.hirMap.put(ins.id, ins);
                         break;
                     }
+                    case IF_ICMPEQ:
                     case IF_ICMPNE:
+                    case IF_ICMPLT:
+                    case IF_ICMPGE:
                     case IF_ICMPGT:
                     case IF_ICMPLE: {
                         operandByte1 = tuple.operands.get(0);
@@ -957,6 +1021,30 @@ class NControlFlowGraph {
                         block.hir.add(ins.id);
                         break;
                     }
+                    case IFEQ:
+                    case IFNE:
+                    case IFLT:
+                    case IFGE:
+                    case IFGT:
+                    case IFLE: {
+                        // A comparison with zero, which we turn into the corresponding comparison
+                        // of two ints.
+                        operandByte1 = tuple.operands.get(0);
+                        operandByte2 = tuple.operands.get(1);
+                        offset = shortValue(operandByte1, operandByte2);
+                        int lhs = operandStack.pop();
+                        NHIRInstruction zero = new NHIRIntConstant(block, hirId++, 0);
+                        block.cfg.hirMap.put(zero.id, zero);
+                        block.hir.add(zero.id);
+                        NBasicBlock trueDestination = pcToBasicBlock.get(tuple.pc + offset);
+                        NBasicBlock falseDestination = pcToBasicBlock.get(tuple.pc + 3);
+                        ins = new NHIRConditionalJump(block, hirId++, lhs, zero.id,
+                                IF_ICMPEQ + insInfo.opcode - IFEQ, trueDestination,
+                                falseDestination);
+                        block.cfg.hirMap.put(ins.id, ins);
+                        block.hir.add(ins.id);
+                        break;
+                    }
                     case GOTO: {
                         operandByte1 = tuple.operands.get(0);
                         operandByte2 = tuple.operands.get(1);
@@ -967,6 +1055,20 @@ class NControlFlowGraph {
                         block.hir.add(ins.id);
                         break;
                     }
+                    case TABLESWITCH:
+                    case LOOKUPSWITCH: {
+                        ArrayList<Integer> targets = switchTargets(tuple);
+                        ArrayList<NBasicBlock> destinations = new ArrayList<NBasicBlock>();
+                        for (int i = 1; i < targets.size(); i++) {
+                            destinations.add(pcToBasicBlock.get(targets.get(i)));
+                        }
+                        ins = new NHIRSwitch(block, hirId++, operandStack.pop(), insInfo.opcode,
+                                switchKeys(tuple), destinations,
+                                pcToBasicBlock.get(targets.get(0)));
+                        block.cfg.hirMap.put(ins.id, ins);
+                        block.hir.add(ins.id);
+                        break;
+                    }
                     case GETSTATIC:
                     case PUTSTATIC: {
                         operandByte1 = tuple.operands.get(0);
@@ -1045,16 +1147,23 @@ class NControlFlowGraph {
                         block.hir.add(ins.id);
                         break;
                     }
+                    case DUP: {
+                        operandStack.push(operandStack.peek());
+                        break;
+                    }
                 }
             }
         }
     }
 
     /**
-     * Carries out optimizations on the high-level instructions.
+     * Carries out optimizations on the high-level instructions: sparse conditional constant
+     * propagation, copy propagation, global value numbering and dead code elimination (see
+     * NHIROptimizer).
      */
     public void optimize() {
-        // Unsupported.
+        optimizer = new NHIROptimizer(this);
+        optimizer.optimize();
     }
 
     /**
@@ -1098,6 +1207,15 @@ class NControlFlowGraph {
             registers.add(null);
         }
         pRegisters = new ArrayList<NPhysicalRegister>();
+
+        // Convert block by block so that the LIR instructions of a block follow the order of its
+        // HIR instructions, even for instructions moved there from other blocks; then convert
+        // whatever is left (instructions not in any block).
+        for (NBasicBlock block : basicBlocks) {
+            for (int ins : block.hir) {
+                hirMap.get(ins).toLir();
+            }
+        }
         for (int ins : hirMap.keySet()) {
             hirMap.get(ins).toLir();
         }
@@ -1117,8 +1235,14 @@ class NControlFlowGraph {
      * Resolves the phi functions in this cfg, i.e., for each x = phi(x1, x2, ..., xn) generate
      * an (LIR) move xi, x instruction at the end of the predecessor i of thte block defining the
      * phi function; if the instruction there is a branch, add the instruction prior to the branch.
+     * The moves at the end of a predecessor are a parallel copy: they're ordered so that no move
+     * overwrites a register that a later one reads, and a cycle of moves (as when two variables
+     * are swapped in a loop) is broken with a new virtual register.
      */
     public void resolvePhiFunctions() {
+        // The copies (register copied from, and register copied to) for each predecessor.
+        LinkedHashMap<NBasicBlock, ArrayList<NRegister[]>> copies =
+                new LinkedHashMap<NBasicBlock, ArrayList<NRegister[]>>();
         for (int ins1 : hirMap.keySet()) {
             NHIRInstruction hir = hirMap.get(ins1);
             if (hir instanceof NHIRPhiFunction) {
@@ -1130,23 +1254,121 @@ class NControlFlowGraph {
                         continue;
                     }
                     NBasicBlock targetBlock = block.predecessors.get(i);
-                    NLIRMove move = new NLIRMove(arg.block, lirId++, arg.lir, phi.lir);
-                    int len = targetBlock.hir.size();
-                    if (isHIRJmp(hirMap.get(targetBlock.hir.get(len - 1)))) {
-                        targetBlock.lir.add(len - 1, move);
-                    } else {
-                        targetBlock.lir.add(move);
+                    if (!copies.containsKey(targetBlock)) {
+                        copies.put(targetBlock, new ArrayList<NRegister[]>());
                     }
+                    copies.get(targetBlock).add(new NRegister[] { arg.lir.write, phi.lir.write });
                 }
             }
         }
+        for (NBasicBlock targetBlock : copies.keySet()) {
+            int len = targetBlock.hir.size();
+            int at = targetBlock.lir.size();
+            if (len > 0 && isHIRJmp(hirMap.get(targetBlock.hir.get(len - 1)))) {
+                // The jump is the last LIR instruction in the block; the moves go before it.
+                at--;
+            }
+            for (NLIRMove move : sequentialize(targetBlock, copies.get(targetBlock))) {
+                targetBlock.lir.add(at++, move);
+            }
+        }
     }
 
     /**
-     * Computes optimal ordering of the basic blocks in this cfg.
+     * Computes an ordering of the basic blocks in this cfg that turns the most frequently taken
+     * control flow edges into fall-throughs, so the jumps along them need not be emitted. Lacking
+     * a profile, an edge is assumed to be taken more often the deeper the loop it is in. Blocks
+     * are chained along the edges in order of their weights, and the chains are placed in the
+     * original order of their blocks. Blocks that relied on falling through to a block that no
+     * longer follows them get an explicit jump, and conditional jumps whose true destination
+     * follows them are inverted.
      */
     public void orderBlocks() {
-        // Unsupported.
+        // Number of jumps if there were no fall-throughs.
+        int jumps = 0;
+        for (NBasicBlock block : basicBlocks) {
+            for (NLIRInstruction ins : block.lir) {
+                if (ins instanceof NLIRGoto) {
+                    jumps++;
+                } else if (ins instanceof NLIRConditionalJump) {
+                    jumps += 2;
+                }
+            }
+        }
+
+        // Sort the edges by weight (heaviest first, stable).
+        ArrayList<NBasicBlock[]> edges = new ArrayList<NBasicBlock[]>();
+        ArrayList<Integer> weights = new ArrayList<Integer>();
+        for (NBasicBlock block : basicBlocks) {
+            for (NBasicBlock succ : block.successors) {
+                int weight = edgeWeight(block, succ);
+                int i = 0;
+                while (i < weights.size() && weights.get(i) >= weight) {
+                    i++;
+                }
+                edges.add(i, new NBasicBlock[] {block, succ});
+                weights.add(i, weight);
+            }
+        }
+
+        // Chain the blocks: an edge joins the chain ending with its source to the chain starting
+        // with its destination. The begin block always starts its chain.
+        HashMap<NBasicBlock, ArrayList<NBasicBlock>> chainOf =
+                new HashMap<NBasicBlock, ArrayList<NBasicBlock>>();
+        for (NBasicBlock block : basicBlocks) {
+            ArrayList<NBasicBlock> chain = new ArrayList<NBasicBlock>();
+            chain.add(block);
+            chainOf.put(block, chain);
+        }
+        for (NBasicBlock[] edge : edges) {
+            ArrayList<NBasicBlock> from = chainOf.get(edge[0]);
+            ArrayList<NBasicBlock> to = chainOf.get(edge[1]);
+            if (from != to && from.get(from.size() - 1) == edge[0] && to.get(0) == edge[1] &&
+                    edge[1] != basicBlocks.get(0)) {
+                for (NBasicBlock block : to) {
+                    from.add(block);
+                    chainOf.put(block, from);
+                }
+            }
+        }
+        ArrayList<NBasicBlock> order = new ArrayList<NBasicBlock>();
+        for (NBasicBlock block : basicBlocks) {
+            if (chainOf.get(block).get(0) == block) {
+                order.addAll(chainOf.get(block));
+            }
+        }
+        basicBlocks = order;
+
+        // Fix up the jumps at the ends of the blocks for the new order.
+        for (int i = 0; i < basicBlocks.size(); i++) {
+            NBasicBlock block = basicBlocks.get(i);
+            NBasicBlock next = i + 1 < basicBlocks.size() ? basicBlocks.get(i + 1) : null;
+            NLIRInstruction last = block.lir.isEmpty() ? null : block.lir.get(block.lir.size() - 1);
+            if (last instanceof NLIRConditionalJump) {
+                NLIRConditionalJump jump = (NLIRConditionalJump) last;
+                if (jump.getOnTrueDestination() == next && jump.getOnFalseDestination() != next) {
+                    jump.invert();
+                }
+            } else if (!(last instanceof NLIRGoto) && !(last instanceof NLIRReturn) &&
+                    !(last instanceof NLIRSwitch) && block.successors.size() == 1 &&
+                    block.successors.get(0) != next) {
+                block.lir.add(new NLIRGoto(block, lirId++, block.successors.get(0)));
+            }
+        }
+        jumpsEliminated = jumps - jumpCount();
+    }
+
+    /**
+     * Returns true if the specified block immediately follows the given block in this cfg, ie,
+     * if control falls through from block to next; false otherwise.
+     *
+     * @param block a block.
+     * @param next  the block that may follow it.
+     * @return true if next immediately follows block, false otherwise.
+     */
+    public boolean isNextBlock(NBasicBlock block, NBasicBlock next) {
+        int i = basicBlocks.indexOf(block);
+        return i + 1 < basicBlocks.size() && basicBlocks.get(i + 1) == next;
     }
 
     /**
@@ -1224,6 +1446,35 @@ class NControlFlowGraph {
         p.indentLeft();
     }
 
+    /**
+     * Writes the number of hir instructions removed by each optimization pass to standard output.
+     *
+     * @param p for pretty printing with indentation.
+     */
+    public void writeOptimizationsToStdOut(PrettyPrinter p) {
+        if (optimizer != null && NHIROptimizer.isEnabled()) {
+            optimizer.writeToStdOut(p);
+        }
+    }
+
+    /**
+     * Writes the order of the blocks in this cfg, and the number of jumps eliminated by it, to
+     * standard output.
+     *
+     * @param p for pretty printing with indentation.
+     */
+    public void writeBlockOrderToStdOut(PrettyPrinter p) {
+        p.indentRight();
+        p.printf("[[ BLOCK ORDER ]]\n\n");
+        String order = "";
+        for (NBasicBlock block : basicBlocks) {
+            order += (order.isEmpty() ? "" : " ") + block.id();
+        }
+        p.printf("%s\n\n", order);
+        p.printf("Jumps eliminated: %d\n\n", jumpsEliminated);
+        p.indentLeft();
+    }
+
     /**
      * Writes the lir instructions in this cfg to standard output.
      *
@@ -1303,9 +1554,11 @@ class NControlFlowGraph {
                 case RET:
                 case ATHROW:
                     break;
-                case TABLESWITCH: // Unsupported
-                    break;
-                case LOOKUPSWITCH: // Unsupported
+                case TABLESWITCH:
+                case LOOKUPSWITCH:
+                    for (int pc : switchTargets(tuple)) {
+                        tupleAt[pc].isLeader = true;
+                    }
                     break;
                 default:
                     jumpInstruction = false;
@@ -1336,9 +1589,57 @@ class NControlFlowGraph {
         basicBlocks.add(block);
     }
 
+    // Returns the moves, for the end of the given block, that carry out the given copies (each
+    // the register copied from and the register copied to) as if all at once. A copy is moved
+    // only once no other pending copy reads the register it writes; when every pending copy is
+    // blocked, they form cycles, and one is broken by first moving the register it writes aside
+    // into a new virtual register, which the copies reading it then read instead.
+    private ArrayList<NLIRMove> sequentialize(NBasicBlock block, ArrayList<NRegister[]> copies) {
+        ArrayList<NLIRMove> moves = new ArrayList<NLIRMove>();
+        ArrayList<NRegister[]> pending = new ArrayList<NRegister[]>();
+        for (NRegister[] copy : copies) {
+            if (copy[0] != copy[1]) {
+                pending.add(new NRegister[] { copy[0], copy[1] });
+            }
+        }
+        while (!pending.isEmpty()) {
+            NRegister[] ready = null;
+            for (NRegister[] copy : pending) {
+                boolean isRead = false;
+                for (NRegister[] other : pending) {
+                    if (other != copy && other[0] == copy[1]) {
+                        isRead = true;
+                        break;
+                    }
+                }
+                if (!isRead) {
+                    ready = copy;
+                    break;
+                }
+            }
+            if (ready == null) {
+                NVirtualRegister blocked = (NVirtualRegister) pending.get(0)[1];
+                NVirtualRegister scratch =
+                        new NVirtualRegister(regId++, blocked.sType(), blocked.lType());
+                registers.add(scratch);
+                moves.add(new NLIRMove(block, lirId++, blocked, scratch));
+                for (NRegister[] copy : pending) {
+                    if (copy[0] == blocked) {
+                        copy[0] = scratch;
+                    }
+                }
+                continue;
+            }
+            moves.add(new NLIRMove(block, lirId++, ready[0], ready[1]));
+            pending.remove(ready);
+        }
+        return moves;
+    }
+
     // Returns true if instr is a (conditional or unconditional) jump, and false otherwise.
     private boolean isHIRJmp(NHIRInstruction instr) {
-        return (instr instanceof NHIRGoto || instr instanceof NHIRConditionalJump);
+        return (instr instanceof NHIRGoto || instr instanceof NHIRConditionalJump ||
+                instr instanceof NHIRSwitch);
     }
 
     // Clears the visitation information in each block in this cfg.
@@ -1363,34 +1664,84 @@ class NControlFlowGraph {
         return dom;
     }
 
-    // Merges the locals from each of the predecessors of the specified block with the locals in
-    // the block.
-    private void mergeLocals(NBasicBlock block) {
-        for (NBasicBlock other : block.predecessors) {
-            mergeLocals(block, other);
+    // Returns the weight of the control flow edge from block a to block b. An edge in a deeper
+    // loop weighs more; at the same depth, a back edge weighs more than other edges (so that a
+    // loop is laid out with its head last, and only the exit from the loop needs a jump), and an
+    // edge to a block with a single forward branch weighs more than an edge to a join.
+    private int edgeWeight(NBasicBlock a, NBasicBlock b) {
+        int weight = 4 * Math.min(a.loopDepth, b.loopDepth);
+        if (b.bwdBranches > 0 && dominates(b, a)) {
+            weight += 2;
         }
+        if (b.fwdBranches <= 1) {
+            weight++;
+        }
+        return weight;
     }
 
-    // Merges the locals in block b with the locals in block a.
-    private void mergeLocals(NBasicBlock a, NBasicBlock b) {
-        for (int i = 0; i < a.locals.length; i++) {
-            if (a.cfg.hirMap.get(a.locals[i]).equals(b.cfg.hirMap.get(b.locals[i]))) {
-                continue;
-            } else {
-                ArrayList<Integer> args = new ArrayList<Integer>();
-                args.add(a.locals[i]);
-                args.add(b.locals[i]);
-                NHIRInstruction ins = new NHIRPhiFunction(a, NControlFlowGraph.hirId++, args, i);
-                a.locals[i] = ins.id;
-                a.hir.add(ins.id);
-                a.cfg.hirMap.put(ins.id, ins);
+    // Returns the number of jumps (other than returns) in the SPIM code for this cfg, given the
+    // current order of the blocks.
+    private int jumpCount() {
+        int count = 0;
+        for (NBasicBlock block : basicBlocks) {
+            for (NLIRInstruction ins : block.lir) {
+                if (ins instanceof NLIRGoto) {
+                    count += isNextBlock(block, ((NLIRGoto) ins).getDestination()) ? 0 : 1;
+                } else if (ins instanceof NLIRConditionalJump) {
+                    NLIRConditionalJump jump = (NLIRConditionalJump) ins;
+                    count += isNextBlock(block, jump.getOnFalseDestination()) ? 1 : 2;
+                }
+            }
+        }
+        return count;
+    }
+
+    // Returns true if block a dominates block b, and false otherwise.
+    private boolean dominates(NBasicBlock a, NBasicBlock b) {
+        for (NBasicBlock dom = b; dom != null; dom = dom.dom) {
+            if (dom == a) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns true if the locals of each of the specified blocks are known, and false otherwise.
+    private boolean localsKnown(ArrayList<NBasicBlock> blocks) {
+        for (NBasicBlock block : blocks) {
+            if (block.locals == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Merges the locals from each of the predecessors of the specified block (a join that is not
+    // a loop head) into the locals of the block: a local on which the predecessors disagree gets
+    // a phi function with an argument from each of them.
+    private void mergeLocals(NBasicBlock block) {
+        block.locals = block.predecessors.get(0).locals.clone();
+        for (int i = 0; i < block.locals.length; i++) {
+            ArrayList<Integer> args = new ArrayList<Integer>();
+            boolean match = true;
+            for (NBasicBlock pred : block.predecessors) {
+                args.add(pred.locals[i]);
+                if (!hirMap.get(block.locals[i]).equals(hirMap.get(pred.locals[i]))) {
+                    match = false;
+                }
+            }
+            if (!match) {
+                NHIRInstruction ins = new NHIRPhiFunction(block, hirId++, args, i);
+                block.locals[i] = ins.id;
+                block.hir.add(ins.id);
+                hirMap.put(ins.id, ins);
                 ((NHIRPhiFunction) ins).inferType();
             }
         }
     }
 
     // Converts the bytecode in the specified list to their tuple representations.
-    private ArrayList<NTuple> bytecodeToTuples(ArrayList<Integer> code) {
+    private ArrayList<NTuple> bytecodeToTuples(CLCodeBuffer code) {
         ArrayList<NTuple> tuples = new ArrayList<NTuple>();
         for (int i = 0; i < code.size(); i++) {
             int pc = i;
@@ -1402,34 +1753,46 @@ class NControlFlowGraph {
                 case 0:
                     break;
                 case 1:
-                    operandByte1 = code.get(++i).shortValue();
+                    operandByte1 = (short) code.get(++i);
                     operands.add(operandByte1);
                     break;
                 case 2:
-                    operandByte1 = code.get(++i).shortValue();
-                    operandByte2 = code.get(++i).shortValue();
+                    operandByte1 = (short) code.get(++i);
+                    operandByte2 = (short) code.get(++i);
                     operands.add(operandByte1);
                     operands.add(operandByte2);
                     break;
                 case 3:
-                    operandByte1 = code.get(++i).shortValue();
-                    operandByte2 = code.get(++i).shortValue();
-                    operandByte3 = code.get(++i).shortValue();
+                    operandByte1 = (short) code.get(++i);
+                    operandByte2 = (short) code.get(++i);
+                    operandByte3 = (short) code.get(++i);
                     operands.add(operandByte1);
                     operands.add(operandByte2);
                     operands.add(operandByte3);
                     break;
                 case 4:
-                    operandByte1 = code.get(++i).shortValue();
-                    operandByte2 = code.get(++i).shortValue();
-                    operandByte3 = code.get(++i).shortValue();
-                    operandByte4 = code.get(++i).shortValue();
+                    operandByte1 = (short) code.get(++i);
+                    operandByte2 = (short) code.get(++i);
+                    operandByte3 = (short) code.get(++i);
+                    operandByte4 = (short) code.get(++i);
                     operands.add(operandByte1);
                     operands.add(operandByte2);
                     operands.add(operandByte3);
                     operands.add(operandByte4);
                     break;
-                case DYNAMIC: // Unsupported
+                case DYNAMIC:
+                    // TABLESWITCH or LOOKUPSWITCH; the operands are the bytes following the
+                    // padding that aligns them on a four-byte boundary.
+                    i += 3 - pc % 4;
+                    int count = 0;
+                    if (opcode == TABLESWITCH) {
+                        count = 3 + intAt(code, i + 8) - intAt(code, i + 4) + 1;
+                    } else if (opcode == LOOKUPSWITCH) {
+                        count = 2 + 2 * intAt(code, i + 4);
+                    }
+                    for (int k = 0; k < 4 * count; k++) {
+                        operands.add((short) code.get(++i));
+                    }
                     break;
             }
             tuples.add(new NTuple(pc, opcode, operands));
@@ -1437,6 +1800,52 @@ class NControlFlowGraph {
         return tuples;
     }
 
+    // Returns the pcs that the specified TABLESWITCH or LOOKUPSWITCH tuple may jump to: the one
+    // for the default value, followed by one for each of the keys returned by switchKeys().
+    private ArrayList<Integer> switchTargets(NTuple tuple) {
+        ArrayList<Integer> targets = new ArrayList<Integer>();
+        targets.add(tuple.pc + operandInt(tuple, 0));
+        if (tuple.opcode == TABLESWITCH) {
+            for (int k = 3; k < tuple.operands.size() / 4; k++) {
+                targets.add(tuple.pc + operandInt(tuple, k));
+            }
+        } else {
+            for (int k = 3; k < tuple.operands.size() / 4; k += 2) {
+                targets.add(tuple.pc + operandInt(tuple, k));
+            }
+        }
+        return targets;
+    }
+
+    // Returns the keys (the values switched on) of the specified TABLESWITCH or LOOKUPSWITCH
+    // tuple, in ascending order.
+    private ArrayList<Integer> switchKeys(NTuple tuple) {
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        if (tuple.opcode == TABLESWITCH) {
+            int low = operandInt(tuple, 1);
+            for (int k = 3; k < tuple.operands.size() / 4; k++) {
+                keys.add(low + k - 3);
+            }
+        } else {
+            for (int k = 2; k < tuple.operands.size() / 4; k += 2) {
+                keys.add(operandInt(tuple, k));
+            }
+        }
+        return keys;
+    }
+
+    // Returns the k-th four-byte operand of the specified tuple.
+    private int operandInt(NTuple tuple, int k) {
+        return intValue(tuple.operands.get(4 * k), tuple.operands.get(4 * k + 1),
+                tuple.operands.get(4 * k + 2), tuple.operands.get(4 * k + 3));
+    }
+
+    // Returns the integer stored in the four bytes of the given code following index i.
+    private int intAt(CLCodeBuffer code, int i) {
+        return intValue((short) code.get(i + 1), (short) code.get(i + 2), (short) code.get(i + 3),
+                (short) code.get(i + 4));
+    }
+
     // Constructs and returns a short integer from two unsigned bytes specified.
     private short shortValue(short a, short b) {
         return (short) ((a << 8) | b);
@@ -1448,8 +1857,8 @@ class NControlFlowGraph {
     }
 
     // Extracts and returns the JVM bytecode for the method denoted by this cfg.
-    private ArrayList<Integer> getByteCode() {
-        ArrayList<Integer> code = null;
+    private CLCodeBuffer getByteCode() {
+        CLCodeBuffer code = null;
         for (CLAttributeInfo info : m.attributes) {
             if (info instanceof CLCodeAttribute) {
                 code = ((CLCodeAttribute) info).code;
@@ -1484,11 +1893,9 @@ class NControlFlowGraph {
 
     // Returns the number of local variables in the method denoted by this cfg.
     private int numLocals() {
-        ArrayList<Integer> code = null;
         int numLocals = 0;
         for (CLAttributeInfo info : m.attributes) {
             if (info instanceof CLCodeAttribute) {
-                code = ((CLCodeAttribute) info).code;
                 numLocals = ((CLCodeAttribute) info).maxLocals;
                 break;
             }
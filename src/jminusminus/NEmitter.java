@@ -6,12 +6,16 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.io.PrintWriter;
 
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * A class for generating native SPIM code.
@@ -22,7 +26,7 @@ public class NEmitter {
 
     // Map of maps, one per class in the compilation unit. Each one of them maps methods in a
     // class to their control flow graph.
-    private HashMap<CLFile, HashMap<CLMethodInfo, NControlFlowGraph>> classes;
+    private LinkedHashMap<CLFile, LinkedHashMap<CLMethodInfo, NControlFlowGraph>> classes;
 
     // Destination directory for the native SPIM code.
     private String destDir;
@@ -31,101 +35,73 @@ public class NEmitter {
     private boolean errorHasOccurred;
 
     /**
-     * Constructs an NEmitter object.
+     * Constructs an NEmitter object, translating the methods one after the other.
      *
      * @param sourceFile the source j-- program file name.
      * @param clFiles    list of CLFile objects.
      * @param ra         register allocation scheme (naive, linear, or graph).
      */
     public NEmitter(String sourceFile, ArrayList<CLFile> clFiles, String ra) {
+        this(sourceFile, clFiles, ra, 1);
+    }
+
+    /**
+     * Constructs an NEmitter object. The methods are translated independently of each other, on
+     * a fork-join pool with the given number of threads if that's more than one. Either way,
+     * the diagnostic output for the methods (and later, their SPIM code) comes out in the order
+     * in which the methods are declared.
+     *
+     * @param sourceFile the source j-- program file name.
+     * @param clFiles    list of CLFile objects.
+     * @param ra         register allocation scheme (naive, linear, or graph).
+     * @param threads    number of threads to translate the methods on.
+     */
+    public NEmitter(String sourceFile, ArrayList<CLFile> clFiles, String ra, int threads) {
         this.sourceFile = sourceFile.substring(sourceFile.lastIndexOf(File.separator) + 1);
-        classes = new HashMap<CLFile, HashMap<CLMethodInfo, NControlFlowGraph>>();
+        classes = new LinkedHashMap<CLFile, LinkedHashMap<CLMethodInfo, NControlFlowGraph>>();
+        ArrayList<NMethodTask> tasks = new ArrayList<NMethodTask>();
         for (CLFile clFile : clFiles) {
-            CLConstantPool cp = clFile.constantPool;
-            HashMap<CLMethodInfo, NControlFlowGraph> methods =
-                    new HashMap<CLMethodInfo, NControlFlowGraph>();
-
             for (int i = 0; i < clFile.methodsCount; i++) {
-                CLMethodInfo m = clFile.methods.get(i);
-
-                // Build a control flow graph (cfg) for this method. Each block in the cfg, at
-                // the end of this step, has the JVM bytecode translated into tuple
-                // representation.
-                NControlFlowGraph cfg = new NControlFlowGraph(cp, m);
-
-                // Write the tuples in cfg to standard output.
-                PrettyPrinter p = new PrettyPrinter();
-                p.printf(">>> %s %s\n", cfg.name, cfg.desc);
-                cfg.writeTuplesToStdOut(p);
-
-                // Identify blocks in cfg that are loop heads and loop tails. Also, compute
-                // number of backward branches to blocks.
-                cfg.detectLoops(cfg.basicBlocks.get(0), null);
-
-                // Remove unreachable blocks from cfg.
-                cfg.removeUnreachableBlocks();
-
-                // Compute the dominator of each block in the cfg.
-                cfg.computeDominators(cfg.basicBlocks.get(0), null);
-
-                // Convert the tuples in each block in the cfg to high-level (HIR) instructions.
-                cfg.tuplesToHir();
-
-                // Eliminate redundant phi functions, i.e., replace phi functions of the form x =
-                // (y, x, x, ..., x) with y.
-                cfg.eliminateRedundantPhiFunctions();
-
-                // Perform optimizations on the high-level instructions.
-                cfg.optimize();
-
-                // Write the HIR instructions in cfg to standard output.
-                cfg.writeHirToStdOut(p);
-
-                // Convert the HIR instructions in each block in the cfg to low-level (LIR)
-                // instructions.
-                cfg.hirToLir();
-
-                // Resolve phi functions;
-                cfg.resolvePhiFunctions();
-
-                // Compute block order.
-                cfg.orderBlocks();
-
-                // Assign new ids to LIR instructions.
-                cfg.renumberLirInstructions();
-
-                // Write the LIR instructions in cfg to standard output.
-                cfg.writeLirToStdOut(p);
-
-                // Save the cfg for the method in a map keyed in by the CLMethodInfo object for
-                // the method.
-                methods.put(m, cfg);
-
-                // Perform register allocation.
-                NRegisterAllocator regAllocator;
-                if (ra.equals("naive")) {
-                    regAllocator = new NNaiveRegisterAllocator(cfg);
-                } else if (ra.equals("linear")) {
-                    regAllocator = new NLinearRegisterAllocator(cfg);
+                tasks.add(new NMethodTask(clFile.constantPool, clFile.methods.get(i), ra));
+            }
+        }
+        ForkJoinPool pool = null;
+        if (threads > 1) {
+            pool = new ForkJoinPool(threads);
+            for (NMethodTask task : tasks) {
+                pool.execute(task);
+            }
+        }
+        int next = 0;
+        for (CLFile clFile : clFiles) {
+            LinkedHashMap<CLMethodInfo, NControlFlowGraph> methods =
+                    new LinkedHashMap<CLMethodInfo, NControlFlowGraph>();
+            for (int i = 0; i < clFile.methodsCount; i++) {
+                NMethodTask task = tasks.get(next++);
+                if (pool == null) {
+                    task.invoke();
                 } else {
-                    regAllocator = new NGraphRegisterAllocator(cfg);
+                    CompilerStats.Timer timer = CompilerStats.start("wait");
+                    task.join();
+                    timer.stop();
+                }
+                System.out.print(task.log());
+                if (task.error() != null) {
+                    reportEmitterError("%s: cannot allocate registers for %s%s: %s",
+                            this.sourceFile, task.cfg().name, task.cfg().desc, task.error());
                 }
-                regAllocator.allocation();
-
-                // Replace references to virtual registers in LIR instructions with references to
-                // physical registers.
-                cfg.allocatePhysicalRegisters();
-
-                // Write the liveness information to standard output.
-                regAllocator.writeLivenessInfoToStdOut(p);
 
-                // Write the liveness intervals in cfg to standard output.
-                cfg.writeIntervalsToStdOut(p);
+                // Save the cfg for the method in a map keyed in by the CLMethodInfo object for
+                // the method.
+                methods.put(clFile.methods.get(i), task.cfg());
             }
 
             // Store the cfgs for the methods in this class in a map.
             classes.put(clFile, methods);
         }
+        if (pool != null) {
+            pool.shutdown();
+        }
     }
 
     /**
@@ -148,13 +124,18 @@ public class NEmitter {
 
     /**
      * Writes out SPIM file(s) to the file system. The destination directory for the files can be
-     * set using the destinationDir() method.
+     * set using the destinationDir() method. Nothing is written if a method couldn't be
+     * translated.
      */
     public void write() {
+        if (errorHasOccurred) {
+            return;
+        }
         String file = "";
         try {
             file = destDir + File.separator + sourceFile.replace(".java", ".s");
             PrintWriter out = new PrintWriter(file);
+            NLIRStringConstant.resetLabels();
 
             // Header.
             out.printf("# %s\n", file);
@@ -163,7 +144,7 @@ public class NEmitter {
 
             // Translate classes and their methods to SPIM.
             for (CLFile clFile : classes.keySet()) {
-                HashMap<CLMethodInfo, NControlFlowGraph> aClass = classes.get(clFile);
+                LinkedHashMap<CLMethodInfo, NControlFlowGraph> aClass = classes.get(clFile);
                 CLConstantPool cp = clFile.constantPool;
                 int nameIndex = ((CLConstantClassInfo) cp.cpItem(clFile.thisClass)).nameIndex;
                 String className = new String(((CLConstantUtf8Info) cp.cpItem(nameIndex)).b);
@@ -276,12 +257,218 @@ public class NEmitter {
 }
 
 /**
- * A utility class that allows pretty (indented) printing to standard output.
+ * A task translating a method to SPIM: it builds the control flow graph (cfg) for the method and
+ * runs it through the tuples -> HIR -> LIR -> register allocation pipeline. A task only touches
+ * its own cfg, so tasks for different methods can run concurrently; the diagnostic output is
+ * collected in a buffer for the emitter to print in order.
+ */
+class NMethodTask extends RecursiveAction {
+    // Version of the serialized form (fork-join tasks are Serializable, though these never are
+    // serialized).
+    private static final long serialVersionUID = 1L;
+
+    // Constant pool for the class containing the method.
+    private CLConstantPool cp;
+
+    // Contains information about the method.
+    private CLMethodInfo m;
+
+    // Register allocation scheme (naive, linear, or graph).
+    private String ra;
+
+    // The cfg for the method.
+    private NControlFlowGraph cfg;
+
+    // Diagnostic output for the method.
+    private ByteArrayOutputStream log;
+
+    // Why registers couldn't be allocated for the method, or null if they could.
+    private String error;
+
+    /**
+     * Constructs an NMethodTask object.
+     *
+     * @param cp constant pool for the class containing the method.
+     * @param m  contains information about the method.
+     * @param ra register allocation scheme (naive, linear, or graph).
+     */
+    public NMethodTask(CLConstantPool cp, CLMethodInfo m, String ra) {
+        this.cp = cp;
+        this.m = m;
+        this.ra = ra;
+        log = new ByteArrayOutputStream();
+    }
+
+    /**
+     * Returns the cfg for the method, once the task is done.
+     *
+     * @return the cfg for the method.
+     */
+    public NControlFlowGraph cfg() {
+        return cfg;
+    }
+
+    /**
+     * Returns the diagnostic output for the method, once the task is done.
+     *
+     * @return the diagnostic output for the method.
+     */
+    public String log() {
+        return log.toString();
+    }
+
+    /**
+     * Returns the reason registers couldn't be allocated for the method once the task is done, or
+     * null if they could.
+     *
+     * @return the reason registers couldn't be allocated, or null.
+     */
+    public String error() {
+        return error;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    protected void compute() {
+        // The time spent here outside of the steps timed below (mostly writing the diagnostic
+        // output) counts as translating to SPIM.
+        CompilerStats.Timer spimTimer = CompilerStats.start("spim");
+        spimTimer.count("methods", 1);
+
+        // Build a control flow graph (cfg) for this method. Each block in the cfg, at
+        // the end of this step, has the JVM bytecode translated into tuple
+        // representation.
+        CompilerStats.Timer timer = CompilerStats.start("cfg");
+        cfg = new NControlFlowGraph(cp, m);
+        timer.stop();
+
+        // Write the tuples in cfg to standard output.
+        PrettyPrinter p = new PrettyPrinter(2, new PrintStream(log));
+        p.printf(">>> %s %s\n", cfg.name, cfg.desc);
+        cfg.writeTuplesToStdOut(p);
+
+        // Identify blocks in cfg that are loop heads and loop tails. Also, compute
+        // number of backward branches to blocks.
+        timer = CompilerStats.start("cfg");
+        cfg.detectLoops(cfg.basicBlocks.get(0), null);
+
+        // Remove unreachable blocks from cfg.
+        cfg.removeUnreachableBlocks();
+
+        // Compute the dominator of each block in the cfg.
+        cfg.computeDominators(cfg.basicBlocks.get(0), null);
+
+        // Compute the loop nesting depth of each block in the cfg.
+        cfg.computeLoopDepths();
+        timer.count("blocks", cfg.basicBlocks.size());
+        timer.stop();
+
+        // Convert the tuples in each block in the cfg to high-level (HIR) instructions.
+        timer = CompilerStats.start("tuplesToHir");
+        cfg.tuplesToHir();
+
+        // Eliminate redundant phi functions, i.e., replace phi functions of the form x =
+        // (y, x, x, ..., x) with y.
+        cfg.eliminateRedundantPhiFunctions();
+        timer.stop();
+
+        // Perform optimizations on the high-level instructions.
+        timer = CompilerStats.start("optimize");
+        cfg.optimize();
+        timer.stop();
+
+        // Write the number of HIR instructions removed by each optimization to standard
+        // output.
+        cfg.writeOptimizationsToStdOut(p);
+
+        // Write the HIR instructions in cfg to standard output.
+        cfg.writeHirToStdOut(p);
+
+        // Convert the HIR instructions in each block in the cfg to low-level (LIR)
+        // instructions.
+        timer = CompilerStats.start("hirToLir");
+        cfg.hirToLir();
+        timer.count("virtual registers", cfg.registers.size() - 32);
+
+        // Resolve phi functions;
+        cfg.resolvePhiFunctions();
+        timer.stop();
+
+        // Compute block order.
+        timer = CompilerStats.start("orderBlocks");
+        cfg.orderBlocks();
+        timer.stop();
+
+        // Write the block order to standard output.
+        cfg.writeBlockOrderToStdOut(p);
+
+        // Assign new ids to LIR instructions.
+        cfg.renumberLirInstructions();
+
+        // Write the LIR instructions in cfg to standard output.
+        cfg.writeLirToStdOut(p);
+
+        // Perform register allocation. The spills are counted as the loads and stores it adds.
+        timer = CompilerStats.start("allocation");
+        int loadsAndStores = CompilerStats.collecting() ? loadsAndStores() : 0;
+        NRegisterAllocator regAllocator;
+        if (ra.equals("naive")) {
+            regAllocator = new NNaiveRegisterAllocator(cfg);
+        } else if (ra.equals("linear")) {
+            regAllocator = new NLinearRegisterAllocator(cfg);
+        } else {
+            regAllocator = new NGraphRegisterAllocator(cfg);
+        }
+        regAllocator.allocation();
+        error = regAllocator.error();
+        if (error != null) {
+            timer.stop();
+            spimTimer.stop();
+            return;
+        }
+
+        // Replace references to virtual registers in LIR instructions with references to
+        // physical registers.
+        cfg.allocatePhysicalRegisters();
+        if (CompilerStats.collecting()) {
+            timer.count("spill loads and stores", loadsAndStores() - loadsAndStores);
+        }
+        timer.stop();
+
+        // Write the liveness information to standard output.
+        regAllocator.writeLivenessInfoToStdOut(p);
+
+        // Write the liveness intervals in cfg to standard output.
+        cfg.writeIntervalsToStdOut(p);
+        spimTimer.stop();
+    }
+
+    // Returns the number of LIR loads from and stores to the stack frame in the cfg.
+    private int loadsAndStores() {
+        int n = 0;
+        for (NBasicBlock block : cfg.basicBlocks) {
+            for (NLIRInstruction ins : block.lir) {
+                if (ins instanceof NLIRLoad || ins instanceof NLIRStore) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+}
+
+/**
+ * A utility class that allows pretty (indented) printing to standard output, or to some other
+ * print stream.
  */
 class PrettyPrinter {
     // Width of an indentation.
     private int indentWidth;
 
+    // The stream to print to.
+    private PrintStream out;
+
     // Current indentation (number of blank spaces).
     private int indent;
 
@@ -298,7 +485,18 @@ class PrettyPrinter {
      * @param indentWidth number of blank spaces for an indent.
      */
     public PrettyPrinter(int indentWidth) {
+        this(indentWidth, System.out);
+    }
+
+    /**
+     * Constructs a pretty printer that prints to the specified stream.
+     *
+     * @param indentWidth number of blank spaces for an indent.
+     * @param out         the stream to print to.
+     */
+    public PrettyPrinter(int indentWidth, PrintStream out) {
         this.indentWidth = indentWidth;
+        this.out = out;
         indent = 0;
     }
 
@@ -323,7 +521,7 @@ class PrettyPrinter {
      */
     public void println() {
         doIndent();
-        System.out.println();
+        out.println();
     }
 
     /**
@@ -334,7 +532,7 @@ class PrettyPrinter {
 
     public void println(String s) {
         doIndent();
-        System.out.println(s);
+        out.println(s);
     }
 
     /**
@@ -344,7 +542,7 @@ class PrettyPrinter {
      */
     public void print(String s) {
         doIndent();
-        System.out.print(s);
+        out.print(s);
     }
 
     /**
@@ -355,13 +553,13 @@ class PrettyPrinter {
      */
     public void printf(String format, Object... args) {
         doIndent();
-        System.out.printf(format, args);
+        out.printf(format, args);
     }
 
     // Indents by printing spaces to standard output.
     private void doIndent() {
         for (int i = 0; i < indent; i++) {
-            System.out.print(" ");
+            out.print(" ");
         }
     }
 }
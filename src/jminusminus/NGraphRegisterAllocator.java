@@ -2,10 +2,55 @@
 
 package jminusminus;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Stack;
+
+import static jminusminus.NPhysicalRegister.*;
+
 /**
- * Implements register allocation using graph coloring algorithm.
+ * Implements register allocation using graph coloring algorithm. This is the Chaitin/Briggs
+ * allocator: an interference graph is built from the liveness information, moves between virtual
+ * registers that don't interfere are coalesced (conservatively, so the graph stays colorable),
+ * and the graph is colored by repeatedly removing nodes with fewer neighbors than there are
+ * registers (simplify) and then coloring them in reverse order (select). When every remaining
+ * node has too many neighbors, the one that's cheapest to spill (uses and definitions weighted by
+ * loop depth, per neighbor) is removed anyway, in the hope that it can still be colored. Those
+ * that can't are spilled to the stack: each of their uses is preceded by a load into a new
+ * virtual register and each of their definitions followed by a store, and allocation is
+ * repeated on the rewritten code.
  */
 public class NGraphRegisterAllocator extends NRegisterAllocator {
+    // An instruction reads at most two virtual registers and writes at most one (a call reads
+    // only a0, ..., a3, since its arguments beyond the fourth are stored on the stack before it),
+    // so we can't do with fewer than three registers, even if NPhysicalRegister.MAX_COUNT is set
+    // lower.
+    private static final int MIN_COUNT = 3;
+
+    // Number of registers (starting at t0) available for allocation.
+    private int count;
+
+    // Virtual registers introduced to hold spilled values around their uses and definitions.
+    private BitSet temps;
+
+    // The interference graph.
+    private NInterferenceGraph graph;
+
+    // The virtual registers in the graph.
+    private BitSet nodes;
+
+    // Maps a virtual register to the one it has been coalesced with (itself if it hasn't been).
+    private int[] alias;
+
+    // Spill cost of each virtual register.
+    private double[] cost;
+
+    // Moves from one virtual register (first element) to another (second element).
+    private ArrayList<int[]> moves;
+
+    // Color (index among the allocatable registers) of each virtual register.
+    private int[] color;
+
     /**
      * Constructs an NGraphRegisterAllocator object.
      *
@@ -19,6 +64,405 @@ public class NGraphRegisterAllocator extends NRegisterAllocator {
      * {@inheritDoc}
      */
     public void allocation() {
+        count = Math.max(MAX_COUNT, MIN_COUNT);
+        temps = new BitSet();
         buildIntervals();
+        preprocess();
+
+        // Formal parameters (fourth and above) are already on the stack, so they are spilled
+        // from the start.
+        for (int v = 32; v < cfg.intervals.size(); v++) {
+            NInterval interval = cfg.intervals.get(v);
+            if (interval.spill && interval.offsetFrom == OffsetFrom.FP) {
+                spill(v, interval.offset, interval.offsetFrom);
+            }
+        }
+
+        // Each round but the last spills virtual registers that are then gone from the code, and
+        // spill temps are never spilled; so there can't be more rounds than registers.
+        int rounds = cfg.registers.size();
+        while (true) {
+            if (rounds-- == 0) {
+                reportAllocationError("spilling doesn't converge with %d registers", count);
+                return;
+            }
+            cfg.intervals = new ArrayList<NInterval>();
+            for (int i = 0; i < cfg.registers.size(); i++) {
+                cfg.intervals.add(new NInterval(i, cfg));
+            }
+            cfg.maxIntervals = cfg.intervals.size();
+            buildIntervals();
+            preprocess();
+            build();
+            coalesce();
+            ArrayList<Integer> spilled = simplifyAndSelect();
+            if (spilled == null) {
+                reportAllocationError("an instruction needs more than %d registers", count);
+                return;
+            }
+            if (spilled.isEmpty()) {
+                break;
+            }
+            for (int v : spilled) {
+                spill(v, cfg.offset++, OffsetFrom.SP);
+            }
+        }
+
+        for (int v = nodes.nextSetBit(0); v >= 0; v = nodes.nextSetBit(v + 1)) {
+            NPhysicalRegister pRegister = regInfo[T0 + color[find(v)]];
+            cfg.intervals.get(v).pRegister = pRegister;
+            if (!cfg.pRegisters.contains(pRegister)) {
+                cfg.pRegisters.add(pRegister);
+            }
+        }
+        removeCoalescedMoves();
+    }
+
+    // Builds the interference graph and computes the spill costs, and collects the moves
+    // between virtual registers.
+    private void build() {
+        int n = cfg.registers.size();
+        graph = new NInterferenceGraph(n);
+        nodes = new BitSet(n);
+        alias = new int[n];
+        cost = new double[n];
+        color = new int[n];
+        moves = new ArrayList<int[]>();
+        for (int v = 0; v < n; v++) {
+            alias[v] = v;
+        }
+        for (NBasicBlock block : cfg.basicBlocks) {
+            double weight = Math.pow(10, block.loopDepth);
+            BitSet live = (BitSet) block.liveOut.clone();
+            for (int j = block.lir.size() - 1; j >= 0; j--) {
+                NLIRInstruction ins = block.lir.get(j);
+                if (ins instanceof NLIRLoadLocal) {
+                    continue;
+                }
+                if (ins instanceof NLIRMove && isVirtual(ins.reads.get(0)) &&
+                        isVirtual(ins.write)) {
+                    // The source and target of a move needn't interfere.
+                    live.clear(ins.reads.get(0).number());
+                    moves.add(new int[] {ins.reads.get(0).number(), ins.write.number()});
+                }
+                if (isVirtual(ins.write)) {
+                    int d = ins.write.number();
+                    for (int l = live.nextSetBit(32); l >= 0; l = live.nextSetBit(l + 1)) {
+                        graph.addEdge(d, l);
+                    }
+                    live.clear(d);
+                    nodes.set(d);
+                    cost[d] += weight;
+                }
+                for (NRegister reg : ins.reads) {
+                    if (isVirtual(reg)) {
+                        live.set(reg.number());
+                        nodes.set(reg.number());
+                        cost[reg.number()] += weight;
+                    }
+                }
+            }
+        }
+        for (int v = temps.nextSetBit(0); v >= 0; v = temps.nextSetBit(v + 1)) {
+            cost[v] = Double.POSITIVE_INFINITY;
+        }
+    }
+
+    // Coalesces the source and target of each move if they don't interfere and the combined
+    // node has fewer than count neighbors of significant degree (Briggs' test), so that
+    // coalescing can't make the graph any harder to color.
+    private void coalesce() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int[] move : moves) {
+                int a = find(move[0]), b = find(move[1]);
+                if (a == b || temps.get(a) || temps.get(b) || graph.interferes(a, b)) {
+                    continue;
+                }
+                BitSet neighbors = graph.neighbors(a);
+                neighbors.or(graph.neighbors(b));
+                int significant = 0;
+                for (int n = neighbors.nextSetBit(0); n >= 0; n = neighbors.nextSetBit(n + 1)) {
+                    int degree = graph.degree(n);
+                    if (graph.interferes(n, a) && graph.interferes(n, b)) {
+                        degree--;
+                    }
+                    if (degree >= count) {
+                        significant++;
+                    }
+                }
+                if (significant < count) {
+                    graph.merge(a, b);
+                    alias[b] = a;
+                    cost[a] += cost[b];
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    // Colors the graph, and returns the virtual registers that must be spilled (empty if
+    // coloring succeeded, and null if it can't, even with spilling).
+    private ArrayList<Integer> simplifyAndSelect() {
+        BitSet remaining = new BitSet();
+        int[] degree = new int[cfg.registers.size()];
+        for (int v = nodes.nextSetBit(0); v >= 0; v = nodes.nextSetBit(v + 1)) {
+            if (find(v) == v) {
+                remaining.set(v);
+                degree[v] = graph.degree(v);
+            }
+        }
+
+        // Simplify.
+        Stack<Integer> stack = new Stack<Integer>();
+        while (!remaining.isEmpty()) {
+            int node = -1;
+            for (int v = remaining.nextSetBit(0); v >= 0; v = remaining.nextSetBit(v + 1)) {
+                if (degree[v] < count) {
+                    node = v;
+                    break;
+                }
+            }
+            if (node == -1) {
+                // Optimistically push the node that's cheapest to spill.
+                double best = Double.POSITIVE_INFINITY;
+                for (int v = remaining.nextSetBit(0); v >= 0; v = remaining.nextSetBit(v + 1)) {
+                    double c = cost[v] / degree[v];
+                    if (node == -1 || c < best) {
+                        node = v;
+                        best = c;
+                    }
+                }
+            }
+            remaining.clear(node);
+            stack.push(node);
+            BitSet neighbors = graph.neighbors(node);
+            for (int n = neighbors.nextSetBit(0); n >= 0; n = neighbors.nextSetBit(n + 1)) {
+                degree[n]--;
+            }
+        }
+
+        // Select.
+        ArrayList<Integer> spilled = new ArrayList<Integer>();
+        BitSet spilledNodes = new BitSet();
+        boolean stuck = false;
+        BitSet colored = new BitSet();
+        while (!stack.isEmpty()) {
+            int node = stack.pop();
+            BitSet used = new BitSet(count);
+            BitSet neighbors = graph.neighbors(node);
+            for (int n = neighbors.nextSetBit(0); n >= 0; n = neighbors.nextSetBit(n + 1)) {
+                if (colored.get(n)) {
+                    used.set(color[n]);
+                }
+            }
+            int c = used.nextClearBit(0);
+            if (c < count) {
+                color[node] = c;
+                colored.set(node);
+                continue;
+            }
+            if (temps.get(node)) {
+                // A spill temp lives only around one instruction, so spilling it again would
+                // gain nothing; spill the neighbor that's cheapest to spill instead.
+                int victim = -1;
+                double best = Double.POSITIVE_INFINITY;
+                for (int n = neighbors.nextSetBit(0); n >= 0; n = neighbors.nextSetBit(n + 1)) {
+                    double ratio = cost[n] / graph.degree(n);
+                    if (!temps.get(n) && !spilledNodes.get(n) && ratio < best) {
+                        victim = n;
+                        best = ratio;
+                    }
+                }
+                if (victim == -1) {
+                    stuck = true;
+                    continue;
+                }
+                node = victim;
+            }
+            if (!spilledNodes.get(node)) {
+                spilledNodes.set(node);
+                for (int v = nodes.nextSetBit(0); v >= 0; v = nodes.nextSetBit(v + 1)) {
+                    if (find(v) == node) {
+                        spilled.add(v);
+                    }
+                }
+            }
+        }
+        return stuck && spilled.isEmpty() ? null : spilled;
+    }
+
+    // Rewrites the code so that the value of virtual register v lives on the stack at the given
+    // offset: each instruction using v instead uses a new virtual register, loaded from the
+    // stack before a read and stored to the stack after a write.
+    private void spill(int v, int offset, OffsetFrom offsetFrom) {
+        NVirtualRegister reg = (NVirtualRegister) cfg.registers.get(v);
+        for (NBasicBlock block : cfg.basicBlocks) {
+            for (int j = 0; j < block.lir.size(); j++) {
+                NLIRInstruction ins = block.lir.get(j);
+                boolean reads = false;
+                for (NRegister r : ins.reads) {
+                    reads |= r.number() == v;
+                }
+                boolean writes = ins.write != null && ins.write.number() == v;
+                if (ins instanceof NLIRLoadLocal || !reads && !writes) {
+                    continue;
+                }
+                NVirtualRegister temp = new NVirtualRegister(cfg.registers.size(), reg.sType(),
+                        reg.lType());
+                cfg.registers.add(temp);
+                temps.set(temp.number());
+                if (reads) {
+                    for (int k = 0; k < ins.reads.size(); k++) {
+                        if (ins.reads.get(k).number() == v) {
+                            ins.reads.set(k, temp);
+                        }
+                    }
+                    block.lir.add(j++, new NLIRLoad(block, ins.id - 1, offset, offsetFrom, temp));
+                }
+                if (writes) {
+                    ins.write = temp;
+                    block.lir.add(++j, new NLIRStore(block, ins.id + 1, offset, offsetFrom, temp));
+                }
+            }
+        }
+    }
+
+    // Removes the moves whose source and target ended up in the same register.
+    private void removeCoalescedMoves() {
+        for (NBasicBlock block : cfg.basicBlocks) {
+            ArrayList<NLIRInstruction> lir = new ArrayList<NLIRInstruction>();
+            for (NLIRInstruction ins : block.lir) {
+                if (!(ins instanceof NLIRMove && isVirtual(ins.reads.get(0)) &&
+                        isVirtual(ins.write) &&
+                        color[find(ins.reads.get(0).number())] ==
+                                color[find(ins.write.number())])) {
+                    lir.add(ins);
+                }
+            }
+            block.lir = lir;
+        }
+    }
+
+    // Returns the virtual register that v has been coalesced into.
+    private int find(int v) {
+        while (alias[v] != v) {
+            v = alias[v];
+        }
+        return v;
+    }
+
+    // Returns true if reg is a virtual register, and false otherwise.
+    private boolean isVirtual(NRegister reg) {
+        return reg != null && reg.number() >= 32;
+    }
+}
+
+/**
+ * An interference graph, represented as a (lower triangular) bit matrix with a bit for each pair
+ * of nodes, along with the degree of each node.
+ */
+class NInterferenceGraph {
+    // Number of nodes.
+    private int size;
+
+    // The bit matrix; the bit for nodes a > b is at index a * (a - 1) / 2 + b.
+    private long[] bits;
+
+    // Degree of each node.
+    private int[] degree;
+
+    // Nodes that have been merged into others.
+    private BitSet merged;
+
+    /**
+     * Constructs an interference graph with the given number of nodes, and no edges.
+     *
+     * @param size number of nodes.
+     */
+    public NInterferenceGraph(int size) {
+        this.size = size;
+        bits = new long[(int) (((long) size * (size - 1) / 2 + 63) / 64) + 1];
+        degree = new int[size];
+        merged = new BitSet(size);
+    }
+
+    /**
+     * Adds an edge between nodes a and b (if there isn't one already).
+     *
+     * @param a a node.
+     * @param b another node.
+     */
+    public void addEdge(int a, int b) {
+        if (a != b && !interferes(a, b)) {
+            long i = index(a, b);
+            bits[(int) (i >>> 6)] |= 1L << i;
+            degree[a]++;
+            degree[b]++;
+        }
+    }
+
+    /**
+     * Returns true if there's an edge between nodes a and b, and false otherwise.
+     *
+     * @param a a node.
+     * @param b another node.
+     * @return true if there's an edge between nodes a and b, and false otherwise.
+     */
+    public boolean interferes(int a, int b) {
+        if (a == b) {
+            return false;
+        }
+        long i = index(a, b);
+        return (bits[(int) (i >>> 6)] & (1L << i)) != 0;
+    }
+
+    /**
+     * Returns the number of neighbors of the given node.
+     *
+     * @param a the node.
+     * @return the number of neighbors of the given node.
+     */
+    public int degree(int a) {
+        return degree[a];
+    }
+
+    /**
+     * Returns the neighbors of the given node.
+     *
+     * @param a the node.
+     * @return the neighbors of the given node.
+     */
+    public BitSet neighbors(int a) {
+        BitSet neighbors = new BitSet(size);
+        for (int b = 0; b < size; b++) {
+            if (!merged.get(b) && interferes(a, b)) {
+                neighbors.set(b);
+            }
+        }
+        return neighbors;
+    }
+
+    /**
+     * Merges node b into node a: the neighbors of b become neighbors of a, and b is removed from
+     * the graph.
+     *
+     * @param a the node to merge into.
+     * @param b the node to merge.
+     */
+    public void merge(int a, int b) {
+        BitSet neighbors = neighbors(b);
+        for (int n = neighbors.nextSetBit(0); n >= 0; n = neighbors.nextSetBit(n + 1)) {
+            addEdge(a, n);
+            degree[n]--;
+        }
+        merged.set(b);
+    }
+
+    // Returns the index of the bit for the pair of (distinct) nodes a and b.
+    private long index(int a, int b) {
+        long hi = Math.max(a, b), lo = Math.min(a, b);
+        return hi * (hi - 1) / 2 + lo;
     }
 }
@@ -3,6 +3,7 @@
 package jminusminus;
 
 import java.util.ArrayList;
+import java.util.Collections;
 
 import static jminusminus.CLConstants.*;
 import static jminusminus.NPhysicalRegister.*;
@@ -27,9 +28,14 @@ abstract class NHIRInstruction {
         hirMnemonic[AALOAD] = "aaload";
         hirMnemonic[IALOAD] = "iaload";
         hirMnemonic[IASTORE] = "iastore";
+        hirMnemonic[IF_ICMPEQ] = "==";
         hirMnemonic[IF_ICMPNE] = "!=";
+        hirMnemonic[IF_ICMPLT] = "<";
+        hirMnemonic[IF_ICMPGE] = ">=";
         hirMnemonic[IF_ICMPGT] = ">";
         hirMnemonic[IF_ICMPLE] = "<=";
+        hirMnemonic[TABLESWITCH] = "tableswitch";
+        hirMnemonic[LOOKUPSWITCH] = "lookupswitch";
         hirMnemonic[GETSTATIC] = "getstatic";
         hirMnemonic[PUTSTATIC] = "putstatic";
         hirMnemonic[INVOKESPECIAL] = "invokespecial";
@@ -110,6 +116,36 @@ abstract class NHIRInstruction {
         return null;
     }
 
+    /**
+     * Returns a list containing the HIR ids of the operands of this instruction.
+     *
+     * @return a list containing the HIR ids of the operands of this instruction.
+     */
+    public ArrayList<Integer> getOperands() {
+        return new ArrayList<Integer>();
+    }
+
+    /**
+     * Replaces every operand of this instruction that refers to the HIR id oldId with newId.
+     *
+     * @param oldId HIR id of the operand to replace.
+     * @param newId HIR id of the replacement.
+     */
+    public void replaceOperand(int oldId, int newId) {
+        // Nothing to replace.
+    }
+
+    /**
+     * Makes this instruction (if it's a jump) go to newDestination wherever it went to
+     * oldDestination.
+     *
+     * @param oldDestination the block this instruction jumps to.
+     * @param newDestination the block to jump to instead.
+     */
+    public void replaceDestination(NBasicBlock oldDestination, NBasicBlock newDestination) {
+        // Nothing to replace.
+    }
+
     /**
      * Returns the identifier of this instruction with the short type name prefix.
      *
@@ -158,6 +194,55 @@ class NHIRArithmetic extends NHIRInstruction {
         this.rhs = rhs;
     }
 
+    /**
+     * Returns the opcode for the arithmetic operator.
+     *
+     * @return the opcode for the arithmetic operator.
+     */
+    public int getOpcode() {
+        return opcode;
+    }
+
+    /**
+     * Returns the lhs HIR id.
+     *
+     * @return the lhs HIR id.
+     */
+    public int getLhs() {
+        return lhs;
+    }
+
+    /**
+     * Returns the rhs HIR id.
+     *
+     * @return the rhs HIR id.
+     */
+    public int getRhs() {
+        return rhs;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ArrayList<Integer> getOperands() {
+        ArrayList<Integer> operands = new ArrayList<Integer>();
+        operands.add(lhs);
+        operands.add(rhs);
+        return operands;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void replaceOperand(int oldId, int newId) {
+        if (lhs == oldId) {
+            lhs = newId;
+        }
+        if (rhs == oldId) {
+            rhs = newId;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -167,7 +252,7 @@ class NHIRArithmetic extends NHIRInstruction {
         }
         NLIRInstruction ins1 = block.cfg.hirMap.get(lhs).toLir();
         NLIRInstruction ins2 = block.cfg.hirMap.get(rhs).toLir();
-        lir = new NLIRArithmetic(block, NControlFlowGraph.lirId++, opcode, ins1, ins2);
+        lir = new NLIRArithmetic(block, block.cfg.lirId++, opcode, ins1, ins2);
         block.lir.add(lir);
         return lir;
     }
@@ -200,6 +285,15 @@ class NHIRIntConstant extends NHIRInstruction {
         this.value = value;
     }
 
+    /**
+     * Returns the constant int value.
+     *
+     * @return the constant int value.
+     */
+    public int getValue() {
+        return value;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -207,7 +301,7 @@ class NHIRIntConstant extends NHIRInstruction {
         if (lir != null) {
             return lir;
         }
-        lir = new NLIRIntConstant(block, NControlFlowGraph.lirId++, value);
+        lir = new NLIRIntConstant(block, block.cfg.lirId++, value);
         block.lir.add(lir);
         return lir;
     }
@@ -248,7 +342,7 @@ class NHIRStringConstant extends NHIRInstruction {
         if (lir != null) {
             return lir;
         }
-        lir = new NLIRStringConstant(block, NControlFlowGraph.lirId++, value);
+        lir = new NLIRStringConstant(block, block.cfg.lirId++, value);
         block.lir.add(lir);
         return lir;
     }
@@ -301,6 +395,85 @@ class NHIRConditionalJump extends NHIRInstruction {
         this.onFalseDestination = onFalseDestination;
     }
 
+    /**
+     * Returns the opcode in the test.
+     *
+     * @return the opcode in the test.
+     */
+    public int getOpcode() {
+        return opcode;
+    }
+
+    /**
+     * Returns the lhs HIR id.
+     *
+     * @return the lhs HIR id.
+     */
+    public int getLhs() {
+        return lhs;
+    }
+
+    /**
+     * Returns the rhs HIR id.
+     *
+     * @return the rhs HIR id.
+     */
+    public int getRhs() {
+        return rhs;
+    }
+
+    /**
+     * Returns the block to jump to on true.
+     *
+     * @return the block to jump to on true.
+     */
+    public NBasicBlock getOnTrueDestination() {
+        return onTrueDestination;
+    }
+
+    /**
+     * Returns the block to jump to on false.
+     *
+     * @return the block to jump to on false.
+     */
+    public NBasicBlock getOnFalseDestination() {
+        return onFalseDestination;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void replaceDestination(NBasicBlock oldDestination, NBasicBlock newDestination) {
+        if (onTrueDestination == oldDestination) {
+            onTrueDestination = newDestination;
+        }
+        if (onFalseDestination == oldDestination) {
+            onFalseDestination = newDestination;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ArrayList<Integer> getOperands() {
+        ArrayList<Integer> operands = new ArrayList<Integer>();
+        operands.add(lhs);
+        operands.add(rhs);
+        return operands;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void replaceOperand(int oldId, int newId) {
+        if (lhs == oldId) {
+            lhs = newId;
+        }
+        if (rhs == oldId) {
+            rhs = newId;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -310,7 +483,7 @@ class NHIRConditionalJump extends NHIRInstruction {
         }
         NLIRInstruction ins1 = block.cfg.hirMap.get(lhs).toLir();
         NLIRInstruction ins2 = block.cfg.hirMap.get(rhs).toLir();
-        lir = new NLIRConditionalJump(block, NControlFlowGraph.lirId++, ins1, ins2, opcode,
+        lir = new NLIRConditionalJump(block, block.cfg.lirId++, ins1, ins2, opcode,
                 onTrueDestination, onFalseDestination);
         block.lir.add(lir);
         return lir;
@@ -352,7 +525,7 @@ class NHIRGoto extends NHIRInstruction {
         if (lir != null) {
             return lir;
         }
-        lir = new NLIRGoto(block, NControlFlowGraph.lirId++, destination);
+        lir = new NLIRGoto(block, block.cfg.lirId++, destination);
         block.lir.add(lir);
         return lir;
     }
@@ -365,6 +538,125 @@ class NHIRGoto extends NHIRInstruction {
     }
 }
 
+/**
+ * HIR instruction representing the JVM switch instructions (TABLESWITCH and LOOKUPSWITCH).
+ */
+class NHIRSwitch extends NHIRInstruction {
+    // HIR id of the value switched on.
+    private int index;
+
+    // Opcode of the JVM instruction.
+    private int opcode;
+
+    // Keys (values switched on) with a destination of their own, in ascending order.
+    private ArrayList<Integer> keys;
+
+    // Block to jump to for each key.
+    private ArrayList<NBasicBlock> destinations;
+
+    // Block to jump to for any other value.
+    private NBasicBlock defaultDestination;
+
+    /**
+     * Constructs an NHIRSwitch object.
+     *
+     * @param block              enclosing block.
+     * @param id                 identifier of the instruction.
+     * @param index              HIR id of the value switched on.
+     * @param opcode             opcode of the JVM instruction.
+     * @param keys               keys with a destination of their own, in ascending order.
+     * @param destinations       block to jump to for each key.
+     * @param defaultDestination block to jump to for any other value.
+     */
+    public NHIRSwitch(NBasicBlock block, int id, int index, int opcode, ArrayList<Integer> keys,
+                      ArrayList<NBasicBlock> destinations, NBasicBlock defaultDestination) {
+        super(block, id, "", "");
+        this.index = index;
+        this.opcode = opcode;
+        this.keys = keys;
+        this.destinations = destinations;
+        this.defaultDestination = defaultDestination;
+    }
+
+    /**
+     * Returns the HIR id of the value switched on.
+     *
+     * @return the HIR id of the value switched on.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the block to jump to when the value switched on is the given one.
+     *
+     * @param value the value switched on.
+     * @return the block to jump to.
+     */
+    public NBasicBlock getDestination(int value) {
+        int i = Collections.binarySearch(keys, value);
+        return i < 0 ? defaultDestination : destinations.get(i);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ArrayList<Integer> getOperands() {
+        ArrayList<Integer> operands = new ArrayList<Integer>();
+        operands.add(index);
+        return operands;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void replaceOperand(int oldId, int newId) {
+        if (index == oldId) {
+            index = newId;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void replaceDestination(NBasicBlock oldDestination, NBasicBlock newDestination) {
+        for (int i = 0; i < destinations.size(); i++) {
+            if (destinations.get(i) == oldDestination) {
+                destinations.set(i, newDestination);
+            }
+        }
+        if (defaultDestination == oldDestination) {
+            defaultDestination = newDestination;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public NLIRInstruction toLir() {
+        if (lir != null) {
+            return lir;
+        }
+        NLIRInstruction ins = block.cfg.hirMap.get(index).toLir();
+        lir = new NLIRSwitch(block, block.cfg.lirId++, ins, opcode, keys, destinations,
+                defaultDestination);
+        block.lir.add(lir);
+        return lir;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString() {
+        String s = id() + ": " + hirMnemonic[opcode] + " " + block.cfg.hirMap.get(index).id()
+                + " [";
+        for (int i = 0; i < keys.size(); i++) {
+            s += keys.get(i) + ": " + destinations.get(i).id() + ", ";
+        }
+        return s + "default: " + defaultDestination.id() + "]";
+    }
+}
+
 /**
  * HIR instruction representing method invocation instructions in JVM.
  */
@@ -402,6 +694,24 @@ class NHIRInvoke extends NHIRInstruction {
         this.arguments = arguments;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public ArrayList<Integer> getOperands() {
+        return new ArrayList<Integer>(arguments);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void replaceOperand(int oldId, int newId) {
+        for (int i = 0; i < arguments.size(); i++) {
+            if (arguments.get(i) == oldId) {
+                arguments.set(i, newId);
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -431,11 +741,11 @@ class NHIRInvoke extends NHIRInstruction {
                 String lType = block.cfg.hirMap.get(arg).lType;
                 NPhysicalRegister from = NPhysicalRegister.regInfo[A0 + i];
                 block.cfg.registers.set(A0 + i, from);
-                NVirtualRegister to = new NVirtualRegister(NControlFlowGraph.regId++, sType, lType);
+                NVirtualRegister to = new NVirtualRegister(block.cfg.regId++, sType, lType);
                 block.cfg.registers.add(to);
-                NLIRMove move1 = new NLIRMove(block, NControlFlowGraph.lirId++, from, to);
+                NLIRMove move1 = new NLIRMove(block, block.cfg.lirId++, from, to);
                 block.lir.add(move1);
-                NLIRMove move2 = new NLIRMove(block, NControlFlowGraph.lirId++, ins.write, from);
+                NLIRMove move2 = new NLIRMove(block, block.cfg.lirId++, ins.write, from);
                 block.lir.add(move2);
                 arguments.add(NPhysicalRegister.regInfo[A0 + i]);
 
@@ -443,21 +753,21 @@ class NHIRInvoke extends NHIRInstruction {
                 froms.add(from);
                 tos.add(to);
             } else {
-                NLIRStore store = new NLIRStore(block, NControlFlowGraph.lirId++, i - 4,
+                // The store passes the argument, so the call itself doesn't read it.
+                NLIRStore store = new NLIRStore(block, block.cfg.lirId++, i - 4,
                         OffsetFrom.SP, ins.write);
                 block.lir.add(store);
-                arguments.add(ins.write);
             }
         }
-        lir = new NLIRInvoke(block, NControlFlowGraph.lirId++, opcode, target, name, arguments,
+        lir = new NLIRInvoke(block, block.cfg.lirId++, opcode, target, name, arguments,
                 sType, lType);
         block.lir.add(lir);
 
         // If the function returns a value, generate an LIR move instruction to save away the 
         // value in the physical register v0 into a virtual register.
         if (lir.write != null) {
-            NVirtualRegister to = new NVirtualRegister(NControlFlowGraph.regId++, sType, lType);
-            NLIRMove move = new NLIRMove(block, NControlFlowGraph.lirId++,
+            NVirtualRegister to = new NVirtualRegister(block.cfg.regId++, sType, lType);
+            NLIRMove move = new NLIRMove(block, block.cfg.lirId++,
                     NPhysicalRegister.regInfo[V0], to);
             block.cfg.registers.add(to);
             block.lir.add(move);
@@ -466,7 +776,7 @@ class NHIRInvoke extends NHIRInstruction {
 
         // Generate LIR move instructions to restore the a0, ..., a3 instructions.
         for (int i = 0; i < tos.size(); i++) {
-            NLIRMove move = new NLIRMove(block, NControlFlowGraph.lirId++, tos.get(i),
+            NLIRMove move = new NLIRMove(block, block.cfg.lirId++, tos.get(i),
                     froms.get(i));
             block.lir.add(move);
         }
@@ -511,6 +821,26 @@ class NHIRReturn extends NHIRInstruction {
         this.value = value;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public ArrayList<Integer> getOperands() {
+        ArrayList<Integer> operands = new ArrayList<Integer>();
+        if (value != -1) {
+            operands.add(value);
+        }
+        return operands;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void replaceOperand(int oldId, int newId) {
+        if (value != -1 && value == oldId) {
+            value = newId;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -521,12 +851,12 @@ class NHIRReturn extends NHIRInstruction {
         NLIRInstruction result = null;
         if (value != -1) {
             result = block.cfg.hirMap.get(value).toLir();
-            NLIRMove move = new NLIRMove(block, NControlFlowGraph.lirId++, result.write,
+            NLIRMove move = new NLIRMove(block, block.cfg.lirId++, result.write,
                     NPhysicalRegister.regInfo[V0]);
             block.lir.add(move);
             block.cfg.registers.set(V0, NPhysicalRegister.regInfo[V0]);
         }
-        lir = new NLIRReturn(block, NControlFlowGraph.lirId++, opcode, result == null ? null :
+        lir = new NLIRReturn(block, block.cfg.lirId++, opcode, result == null ? null :
                 NPhysicalRegister.regInfo[V0]);
         block.lir.add(lir);
         return lir;
@@ -580,6 +910,24 @@ class NHIRPutField extends NHIRInstruction {
         this.value = value;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public ArrayList<Integer> getOperands() {
+        ArrayList<Integer> operands = new ArrayList<Integer>();
+        operands.add(value);
+        return operands;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void replaceOperand(int oldId, int newId) {
+        if (value == oldId) {
+            value = newId;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -588,7 +936,7 @@ class NHIRPutField extends NHIRInstruction {
             return lir;
         }
         NLIRInstruction result = block.cfg.hirMap.get(value).toLir();
-        lir = new NLIRPutField(block, NControlFlowGraph.lirId++, opcode, target, name, sType,
+        lir = new NLIRPutField(block, block.cfg.lirId++, opcode, target, name, sType,
                 lType, result);
         block.lir.add(lir);
         return lir;
@@ -642,7 +990,7 @@ class NHIRGetField extends NHIRInstruction {
         if (lir != null) {
             return lir;
         }
-        lir = new NLIRGetField(block, NControlFlowGraph.lirId++, opcode, target, name, sType,
+        lir = new NLIRGetField(block, block.cfg.lirId++, opcode, target, name, sType,
                 lType);
         block.lir.add(lir);
         return lir;
@@ -690,7 +1038,7 @@ class NHIRNewArray extends NHIRInstruction {
         if (lir != null) {
             return lir;
         }
-        lir = new NLIRNewArray(block, NControlFlowGraph.lirId++, opcode, dim, sType, lType);
+        lir = new NLIRNewArray(block, block.cfg.lirId++, opcode, dim, sType, lType);
         block.lir.add(lir);
         return lir;
     }
@@ -735,6 +1083,28 @@ class NHIRALoad extends NHIRInstruction {
         this.index = index;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public ArrayList<Integer> getOperands() {
+        ArrayList<Integer> operands = new ArrayList<Integer>();
+        operands.add(arrayRef);
+        operands.add(index);
+        return operands;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void replaceOperand(int oldId, int newId) {
+        if (arrayRef == oldId) {
+            arrayRef = newId;
+        }
+        if (index == oldId) {
+            index = newId;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -744,7 +1114,7 @@ class NHIRALoad extends NHIRInstruction {
         }
         NLIRInstruction arrayRef = block.cfg.hirMap.get(this.arrayRef).toLir();
         NLIRInstruction index = block.cfg.hirMap.get(this.index).toLir();
-        lir = new NLIRALoad(block, NControlFlowGraph.lirId++, opcode, arrayRef, index, sType,
+        lir = new NLIRALoad(block, block.cfg.lirId++, opcode, arrayRef, index, sType,
                 lType);
         block.lir.add(lir);
         return lir;
@@ -796,6 +1166,32 @@ class NHIRAStore extends NHIRInstruction {
         this.value = value;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public ArrayList<Integer> getOperands() {
+        ArrayList<Integer> operands = new ArrayList<Integer>();
+        operands.add(arrayRef);
+        operands.add(index);
+        operands.add(value);
+        return operands;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void replaceOperand(int oldId, int newId) {
+        if (arrayRef == oldId) {
+            arrayRef = newId;
+        }
+        if (index == oldId) {
+            index = newId;
+        }
+        if (value == oldId) {
+            value = newId;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -806,7 +1202,7 @@ class NHIRAStore extends NHIRInstruction {
         NLIRInstruction arrayRef = block.cfg.hirMap.get(this.arrayRef).toLir();
         NLIRInstruction index = block.cfg.hirMap.get(this.index).toLir();
         NLIRInstruction value = block.cfg.hirMap.get(this.value).toLir();
-        lir = new NLIRAStore(block, NControlFlowGraph.lirId++, opcode, arrayRef, index, value,
+        lir = new NLIRAStore(block, block.cfg.lirId++, opcode, arrayRef, index, value,
                 sType, lType);
         block.lir.add(lir);
         return lir;
@@ -864,6 +1260,24 @@ class NHIRPhiFunction extends NHIRInstruction {
         return local;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public ArrayList<Integer> getOperands() {
+        return new ArrayList<Integer>(arguments);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void replaceOperand(int oldId, int newId) {
+        for (int i = 0; i < arguments.size(); i++) {
+            if (arguments.get(i) == oldId) {
+                arguments.set(i, newId);
+            }
+        }
+    }
+
     /**
      * Infers type for this phi function, which is essentially the type of the arguments.
      */
@@ -884,7 +1298,7 @@ class NHIRPhiFunction extends NHIRInstruction {
         if (lir != null) {
             return lir;
         }
-        lir = new NLIRPhiFunction(block, NControlFlowGraph.lirId++, sType, lType);
+        lir = new NLIRPhiFunction(block, block.cfg.lirId++, sType, lType);
         return lir;
     }
 
@@ -930,7 +1344,7 @@ class NHIRLoadLocal extends NHIRInstruction {
         if (lir != null) {
             return lir;
         }
-        lir = new NLIRLoadLocal(block, NControlFlowGraph.lirId++, local, sType, lType);
+        lir = new NLIRLoadLocal(block, block.cfg.lirId++, local, sType, lType);
         block.lir.add(lir);
         return lir;
     }
@@ -0,0 +1,850 @@
+// Copyright 2012- Bill Campbell, Swami Iyer and Bahar Akbal-Delibas
+
+package jminusminus;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Queue;
+
+import static jminusminus.CLConstants.*;
+
+/**
+ * Optimizes the high-level (HIR) instructions of a control flow graph, which are in SSA form. The
+ * following passes are run, in order, each of which may be switched off:
+ * <ol>
+ *   <li>Sparse conditional constant propagation (Wegman and Zadeck), which replaces arithmetic
+ *   instructions and phi functions that always compute the same value with that constant,
+ *   replaces conditional jumps that always go the same way with gotos, and removes the blocks
+ *   that can't be reached as a result.</li>
+ *
+ *   <li>Copy propagation, which replaces phi functions whose arguments (other than the phi
+ *   function itself) are all the same, and arithmetic instructions that leave their operand
+ *   unchanged (x + 0, x - 0, x * 1), with the value they copy.</li>
+ *
+ *   <li>Loop-invariant code motion, which gives each loop a preheader (a block that is the only
+ *   way into the loop head from outside the loop) and moves the arithmetic instructions, int
+ *   constants and (static) field reads computing the same value in every iteration there. Inner
+ *   loops are handled first, so that invariants can move out of several loops at once.</li>
+ *
+ *   <li>Global value numbering, which replaces an arithmetic instruction (or int constant) with
+ *   an equivalent one in a dominating block.</li>
+ *
+ *   <li>Dead code elimination, which removes the instructions (free of side effects) whose
+ *   values are never used.</li>
+ * </ol>
+ * The number of HIR instructions removed by each pass is recorded for reporting.
+ */
+class NHIROptimizer {
+    /**
+     * Whether sparse conditional constant propagation is enabled.
+     */
+    public static boolean constantPropagation = true;
+
+    /**
+     * Whether copy propagation is enabled.
+     */
+    public static boolean copyPropagation = true;
+
+    /**
+     * Whether loop-invariant code motion is enabled.
+     */
+    public static boolean loopInvariantCodeMotion = true;
+
+    /**
+     * Whether global value numbering is enabled.
+     */
+    public static boolean valueNumbering = true;
+
+    /**
+     * Whether dead code elimination is enabled.
+     */
+    public static boolean deadCodeElimination = true;
+
+    // Lattice values for constant propagation: not yet known, a known constant, and not constant.
+    private static final int TOP = 0;
+    private static final int CONSTANT = 1;
+    private static final int BOTTOM = 2;
+
+    // The control flow graph being optimized.
+    private NControlFlowGraph cfg;
+
+    // Maps the HIR id of a removed instruction to the HIR id of the one that replaces it.
+    private HashMap<Integer, Integer> replacements;
+
+    // Number of instructions removed by constant propagation (along with unreachable blocks).
+    private int constantPropagationRemoved;
+
+    // Number of instructions (and jumps) folded into constants (and gotos) by constant
+    // propagation.
+    private int constantPropagationFolded;
+
+    // Number of instructions removed by copy propagation.
+    private int copyPropagationRemoved;
+
+    // Number of instructions moved out of loops by loop-invariant code motion.
+    private int loopInvariantCodeMotionHoisted;
+
+    // Number of preheaders created by loop-invariant code motion.
+    private int loopInvariantCodeMotionPreheaders;
+
+    // Number of instructions removed by global value numbering.
+    private int valueNumberingRemoved;
+
+    // Number of instructions removed by dead code elimination.
+    private int deadCodeEliminationRemoved;
+
+    // Lattice value (TOP, CONSTANT or BOTTOM) of each instruction, indexed by HIR id.
+    private int[] lattice;
+
+    // Constant value of each instruction whose lattice value is CONSTANT, indexed by HIR id.
+    private int[] constant;
+
+    // Blocks found to be executable by constant propagation.
+    private HashSet<NBasicBlock> executableBlocks;
+
+    // Edges (see edge()) found to be executable by constant propagation.
+    private HashSet<Long> executableEdges;
+
+    // Maps the HIR id of an instruction to the HIR ids of the instructions using it.
+    private HashMap<Integer, ArrayList<Integer>> uses;
+
+    /**
+     * Constructs an NHIROptimizer object.
+     *
+     * @param cfg the control flow graph to optimize.
+     */
+    public NHIROptimizer(NControlFlowGraph cfg) {
+        this.cfg = cfg;
+    }
+
+    /**
+     * Returns true if at least one of the passes is enabled, and false otherwise.
+     *
+     * @return true if at least one of the passes is enabled, and false otherwise.
+     */
+    public static boolean isEnabled() {
+        return constantPropagation || copyPropagation || loopInvariantCodeMotion ||
+                valueNumbering || deadCodeElimination;
+    }
+
+    /**
+     * Runs the enabled passes over the HIR instructions of the control flow graph.
+     */
+    public void optimize() {
+        if (!isEnabled()) {
+            return;
+        }
+        replacements = new HashMap<Integer, Integer>();
+        resolveAliases();
+        if (constantPropagation) {
+            propagateConstants();
+        }
+        if (copyPropagation) {
+            propagateCopies();
+        }
+        replaceOperands();
+        if (loopInvariantCodeMotion) {
+            hoistLoopInvariants();
+        }
+        if (valueNumbering) {
+            numberValues();
+        }
+        replaceOperands();
+        if (deadCodeElimination) {
+            eliminateDeadCode();
+        }
+    }
+
+    /**
+     * Writes the number of instructions removed by each pass to standard output.
+     *
+     * @param p for pretty printing with indentation.
+     */
+    public void writeToStdOut(PrettyPrinter p) {
+        p.indentRight();
+        p.printf("[[ OPTIMIZATIONS ]]\n\n");
+        p.printf("Constant propagation: %s\n", constantPropagation ? constantPropagationRemoved +
+                " removed, " + constantPropagationFolded + " folded" : "disabled");
+        p.printf("Copy propagation: %s\n", copyPropagation ? copyPropagationRemoved +
+                " removed" : "disabled");
+        p.printf("Loop-invariant code motion: %s\n", loopInvariantCodeMotion ?
+                loopInvariantCodeMotionHoisted + " hoisted, " + loopInvariantCodeMotionPreheaders +
+                        " preheaders created" : "disabled");
+        p.printf("Global value numbering: %s\n", valueNumbering ? valueNumberingRemoved +
+                " removed" : "disabled");
+        p.printf("Dead code elimination: %s\n", deadCodeElimination ?
+                deadCodeEliminationRemoved + " removed" : "disabled");
+        p.printf("Total: %d removed\n", constantPropagationRemoved + copyPropagationRemoved +
+                valueNumberingRemoved + deadCodeEliminationRemoved);
+        p.println();
+        p.indentLeft();
+    }
+
+    // Redundant phi functions are eliminated by mapping their ids to the instructions replacing
+    // them; rewrite the operands referring to these ids so that each instruction is referred to
+    // by its own id, and drop the ids from the HIR map.
+    private void resolveAliases() {
+        ArrayList<Integer> aliases = new ArrayList<Integer>();
+        for (int id : cfg.hirMap.keySet()) {
+            int target = id;
+            while (cfg.hirMap.get(target).id != target) {
+                target = cfg.hirMap.get(target).id;
+            }
+            if (target != id) {
+                replacements.put(id, target);
+                aliases.add(id);
+            }
+        }
+        replaceOperands();
+        for (int id : aliases) {
+            cfg.hirMap.remove(id);
+        }
+    }
+
+    // Sparse conditional constant propagation.
+    private void propagateConstants() {
+        int size = cfg.hirMap.lastKey() + 1;
+        lattice = new int[size];
+        constant = new int[size];
+        executableBlocks = new HashSet<NBasicBlock>();
+        executableEdges = new HashSet<Long>();
+        uses = new HashMap<Integer, ArrayList<Integer>>();
+
+        // Instructions outside of the blocks (uninitialized locals) are not constant. Edges into
+        // blocks with phi functions that don't have an argument per predecessor can't be removed.
+        HashSet<Integer> inBlocks = new HashSet<Integer>();
+        boolean canRemoveEdges = true;
+        for (NBasicBlock block : cfg.basicBlocks) {
+            for (int id : block.hir) {
+                NHIRInstruction ins = cfg.hirMap.get(id);
+                if (ins instanceof NHIRPhiFunction &&
+                        ((NHIRPhiFunction) ins).getArguments().size() != block.predecessors.size()) {
+                    canRemoveEdges = false;
+                }
+                inBlocks.add(id);
+                for (int operand : cfg.hirMap.get(id).getOperands()) {
+                    if (!uses.containsKey(operand)) {
+                        uses.put(operand, new ArrayList<Integer>());
+                    }
+                    uses.get(operand).add(id);
+                }
+            }
+        }
+        for (int id : cfg.hirMap.keySet()) {
+            if (!inBlocks.contains(id)) {
+                lattice[id] = BOTTOM;
+            }
+        }
+
+        // Propagate along the executable edges and the SSA def-use edges until nothing changes.
+        Queue<NBasicBlock[]> flowWorkList = new LinkedList<NBasicBlock[]>();
+        Queue<Integer> ssaWorkList = new LinkedList<Integer>();
+        NBasicBlock entry = cfg.basicBlocks.get(0);
+        executableBlocks.add(entry);
+        for (int id : entry.hir) {
+            visit(cfg.hirMap.get(id), flowWorkList, ssaWorkList);
+        }
+        markSuccessors(entry, flowWorkList);
+        while (!flowWorkList.isEmpty() || !ssaWorkList.isEmpty()) {
+            while (!flowWorkList.isEmpty()) {
+                NBasicBlock[] edge = flowWorkList.remove();
+                NBasicBlock block = edge[1];
+                if (!executableEdges.add(edge(edge[0], block))) {
+                    continue;
+                }
+                if (executableBlocks.add(block)) {
+                    for (int id : block.hir) {
+                        visit(cfg.hirMap.get(id), flowWorkList, ssaWorkList);
+                    }
+                    markSuccessors(block, flowWorkList);
+                } else {
+                    for (int id : block.hir) {
+                        if (cfg.hirMap.get(id) instanceof NHIRPhiFunction) {
+                            visit(cfg.hirMap.get(id), flowWorkList, ssaWorkList);
+                        }
+                    }
+                }
+            }
+            while (!ssaWorkList.isEmpty()) {
+                int id = ssaWorkList.remove();
+                if (!uses.containsKey(id)) {
+                    continue;
+                }
+                for (int use : uses.get(id)) {
+                    NHIRInstruction ins = cfg.hirMap.get(use);
+                    if (executableBlocks.contains(ins.block)) {
+                        visit(ins, flowWorkList, ssaWorkList);
+                    }
+                }
+            }
+        }
+
+        // Replace constant instructions with int constants and decided jumps with gotos.
+        for (NBasicBlock block : cfg.basicBlocks) {
+            if (!executableBlocks.contains(block)) {
+                continue;
+            }
+            for (int id : block.hir) {
+                NHIRInstruction ins = cfg.hirMap.get(id);
+                if ((ins instanceof NHIRArithmetic || ins instanceof NHIRPhiFunction) &&
+                        lattice[id] == CONSTANT) {
+                    cfg.hirMap.put(id, new NHIRIntConstant(block, id, constant[id]));
+                    constantPropagationFolded++;
+                } else if (ins instanceof NHIRConditionalJump && canRemoveEdges) {
+                    NHIRConditionalJump jump = (NHIRConditionalJump) ins;
+                    NBasicBlock onTrue = jump.getOnTrueDestination();
+                    NBasicBlock onFalse = jump.getOnFalseDestination();
+                    boolean trueTaken = executableEdges.contains(edge(block, onTrue));
+                    boolean falseTaken = executableEdges.contains(edge(block, onFalse));
+                    if (trueTaken != falseTaken) {
+                        NBasicBlock taken = trueTaken ? onTrue : onFalse;
+                        cfg.hirMap.put(id, new NHIRGoto(block, id, taken));
+                        removeEdge(block, trueTaken ? onFalse : onTrue);
+                        constantPropagationFolded++;
+                    }
+                } else if (ins instanceof NHIRSwitch && canRemoveEdges &&
+                        lattice[((NHIRSwitch) ins).getIndex()] == CONSTANT) {
+                    NHIRSwitch jump = (NHIRSwitch) ins;
+                    NBasicBlock taken = jump.getDestination(constant[jump.getIndex()]);
+                    cfg.hirMap.put(id, new NHIRGoto(block, id, taken));
+                    for (NBasicBlock succ : new ArrayList<NBasicBlock>(block.successors)) {
+                        if (succ != taken) {
+                            removeEdge(block, succ);
+                        }
+                    }
+                    constantPropagationFolded++;
+                }
+            }
+        }
+
+        // Remove the blocks that can't be reached.
+        ArrayList<NBasicBlock> toRemove = new ArrayList<NBasicBlock>();
+        for (NBasicBlock block : cfg.basicBlocks) {
+            if (canRemoveEdges && !executableBlocks.contains(block)) {
+                toRemove.add(block);
+            }
+        }
+        for (NBasicBlock block : toRemove) {
+            for (NBasicBlock succ : new ArrayList<NBasicBlock>(block.successors)) {
+                removeEdge(block, succ);
+            }
+            for (int id : block.hir) {
+                cfg.hirMap.remove(id);
+                constantPropagationRemoved++;
+            }
+            block.hir.clear();
+            cfg.basicBlocks.remove(block);
+        }
+        lattice = null;
+        constant = null;
+        uses = null;
+    }
+
+    // Evaluates the specified instruction over the constant propagation lattice, adding the
+    // instruction to the SSA work list if its value changed and the edges out of its block that
+    // it makes executable to the flow work list.
+    private void visit(NHIRInstruction ins, Queue<NBasicBlock[]> flowWorkList,
+                       Queue<Integer> ssaWorkList) {
+        if (ins instanceof NHIRConditionalJump) {
+            NHIRConditionalJump jump = (NHIRConditionalJump) ins;
+            int lhs = jump.getLhs();
+            int rhs = jump.getRhs();
+            if (lattice[lhs] == CONSTANT && lattice[rhs] == CONSTANT) {
+                boolean taken = false;
+                switch (jump.getOpcode()) {
+                    case IF_ICMPEQ:
+                        taken = constant[lhs] == constant[rhs];
+                        break;
+                    case IF_ICMPNE:
+                        taken = constant[lhs] != constant[rhs];
+                        break;
+                    case IF_ICMPLT:
+                        taken = constant[lhs] < constant[rhs];
+                        break;
+                    case IF_ICMPGE:
+                        taken = constant[lhs] >= constant[rhs];
+                        break;
+                    case IF_ICMPGT:
+                        taken = constant[lhs] > constant[rhs];
+                        break;
+                    case IF_ICMPLE:
+                        taken = constant[lhs] <= constant[rhs];
+                        break;
+                }
+                flowWorkList.add(new NBasicBlock[] { ins.block, taken ?
+                        jump.getOnTrueDestination() : jump.getOnFalseDestination() });
+            } else if (lattice[lhs] == BOTTOM || lattice[rhs] == BOTTOM) {
+                flowWorkList.add(new NBasicBlock[] { ins.block, jump.getOnTrueDestination() });
+                flowWorkList.add(new NBasicBlock[] { ins.block, jump.getOnFalseDestination() });
+            }
+            return;
+        }
+        if (ins instanceof NHIRSwitch) {
+            NHIRSwitch jump = (NHIRSwitch) ins;
+            int index = jump.getIndex();
+            if (lattice[index] == CONSTANT) {
+                flowWorkList.add(new NBasicBlock[] { ins.block,
+                        jump.getDestination(constant[index]) });
+            } else if (lattice[index] == BOTTOM) {
+                for (NBasicBlock succ : ins.block.successors) {
+                    flowWorkList.add(new NBasicBlock[] { ins.block, succ });
+                }
+            }
+            return;
+        }
+        if (lattice[ins.id] == BOTTOM) {
+            return;
+        }
+        int value = 0;
+        int result = BOTTOM;
+        if (ins instanceof NHIRIntConstant) {
+            value = ((NHIRIntConstant) ins).getValue();
+            result = CONSTANT;
+        } else if (ins instanceof NHIRArithmetic) {
+            NHIRArithmetic arithmetic = (NHIRArithmetic) ins;
+            int lhs = arithmetic.getLhs();
+            int rhs = arithmetic.getRhs();
+            if (arithmetic.getOpcode() == IMUL && (isConstant(lhs, 0) || isConstant(rhs, 0))) {
+                result = CONSTANT;
+            } else if (lattice[lhs] == CONSTANT && lattice[rhs] == CONSTANT) {
+                value = fold(arithmetic.getOpcode(), constant[lhs], constant[rhs]);
+                result = CONSTANT;
+            } else if (lattice[lhs] == TOP || lattice[rhs] == TOP) {
+                result = TOP;
+            }
+        } else if (ins instanceof NHIRPhiFunction) {
+            ArrayList<Integer> args = ((NHIRPhiFunction) ins).getArguments();
+            ArrayList<NBasicBlock> preds = ins.block.predecessors;
+            if (args.size() == preds.size()) {
+                result = TOP;
+                for (int i = 0; i < args.size() && result != BOTTOM; i++) {
+                    int arg = args.get(i);
+                    if (!executableEdges.contains(edge(preds.get(i), ins.block)) ||
+                            lattice[arg] == TOP) {
+                        continue;
+                    }
+                    if (lattice[arg] == BOTTOM) {
+                        result = BOTTOM;
+                    } else if (result == TOP) {
+                        result = CONSTANT;
+                        value = constant[arg];
+                    } else if (value != constant[arg]) {
+                        result = BOTTOM;
+                    }
+                }
+            }
+        }
+        if (result != lattice[ins.id]) {
+            lattice[ins.id] = result;
+            constant[ins.id] = value;
+            ssaWorkList.add(ins.id);
+        }
+    }
+
+    // Adds the edges out of the specified (executable) block to the flow work list, unless the
+    // block ends in a conditional jump or a switch, in which case the jump decides the edges.
+    private void markSuccessors(NBasicBlock block, Queue<NBasicBlock[]> flowWorkList) {
+        if (block.hir.size() > 0) {
+            NHIRInstruction last = cfg.hirMap.get(block.hir.get(block.hir.size() - 1));
+            if (last instanceof NHIRConditionalJump || last instanceof NHIRSwitch) {
+                return;
+            }
+        }
+        for (NBasicBlock succ : block.successors) {
+            flowWorkList.add(new NBasicBlock[] { block, succ });
+        }
+    }
+
+    // Returns true if the instruction with the specified HIR id is known to be the given constant,
+    // and false otherwise.
+    private boolean isConstant(int id, int value) {
+        return lattice[id] == CONSTANT && constant[id] == value;
+    }
+
+    // Returns a key identifying the edge from block a to block b.
+    private long edge(NBasicBlock a, NBasicBlock b) {
+        return ((long) a.id << 32) | b.id;
+    }
+
+    // Copy propagation.
+    private void propagateCopies() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (NBasicBlock block : cfg.basicBlocks) {
+                for (int i = 0; i < block.hir.size(); i++) {
+                    int id = block.hir.get(i);
+                    int copy = copyOf(cfg.hirMap.get(id));
+                    if (copy != -1) {
+                        replacements.put(id, copy);
+                        block.hir.remove(i--);
+                        cfg.hirMap.remove(id);
+                        copyPropagationRemoved++;
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    // Returns the HIR id of the value the specified instruction copies, or -1 if it is not a
+    // copy.
+    private int copyOf(NHIRInstruction ins) {
+        if (ins instanceof NHIRPhiFunction) {
+            int copy = -1;
+            for (int arg : ((NHIRPhiFunction) ins).getArguments()) {
+                arg = resolve(arg);
+                if (arg == ins.id || arg == copy) {
+                    continue;
+                }
+                if (copy != -1) {
+                    return -1;
+                }
+                copy = arg;
+            }
+            return copy;
+        } else if (ins instanceof NHIRArithmetic) {
+            NHIRArithmetic arithmetic = (NHIRArithmetic) ins;
+            int lhs = resolve(arithmetic.getLhs());
+            int rhs = resolve(arithmetic.getRhs());
+            switch (arithmetic.getOpcode()) {
+                case IADD:
+                    return intValue(rhs, 0) ? lhs : intValue(lhs, 0) ? rhs : -1;
+                case ISUB:
+                    return intValue(rhs, 0) ? lhs : -1;
+                case IMUL:
+                    return intValue(rhs, 1) ? lhs : intValue(lhs, 1) ? rhs : -1;
+            }
+        }
+        return -1;
+    }
+
+    // Loop-invariant code motion.
+    private void hoistLoopInvariants() {
+        ArrayList<NBasicBlock> heads = new ArrayList<NBasicBlock>();
+        for (NBasicBlock block : cfg.basicBlocks) {
+            if (block.isLoopHead) {
+                int i = 0;
+                while (i < heads.size() && heads.get(i).loopDepth >= block.loopDepth) {
+                    i++;
+                }
+                heads.add(i, block);
+            }
+        }
+        HashSet<Integer> hoisted = new HashSet<Integer>();
+        for (NBasicBlock head : heads) {
+            // The loop is made up of the head and the blocks from which one of its back edges
+            // (from a block the head dominates) can be reached without going through the head.
+            ArrayList<NBasicBlock> entries = new ArrayList<NBasicBlock>();
+            HashSet<NBasicBlock> body = new HashSet<NBasicBlock>();
+            LinkedList<NBasicBlock> workList = new LinkedList<NBasicBlock>();
+            body.add(head);
+            for (NBasicBlock pred : head.predecessors) {
+                if (!dominates(head, pred)) {
+                    entries.add(pred);
+                } else if (body.add(pred)) {
+                    workList.add(pred);
+                }
+            }
+            while (!workList.isEmpty()) {
+                for (NBasicBlock pred : workList.remove().predecessors) {
+                    if (body.add(pred)) {
+                        workList.add(pred);
+                    }
+                }
+            }
+            if (entries.size() != 1 || body.size() == 1 && !head.predecessors.contains(head)) {
+                // Not a loop (anymore), or one with several ways in.
+                continue;
+            }
+
+            // Field reads can only move if the loop doesn't write fields or call methods.
+            boolean writesFields = false;
+            for (NBasicBlock block : body) {
+                for (int id : block.hir) {
+                    NHIRInstruction ins = cfg.hirMap.get(id);
+                    if (ins instanceof NHIRPutField || ins instanceof NHIRInvoke) {
+                        writesFields = true;
+                    }
+                }
+            }
+
+            // Move invariant instructions (in the order of the blocks) to the preheader until
+            // there are no more; an instruction becomes invariant once its operands have moved.
+            ArrayList<NBasicBlock> blocks = new ArrayList<NBasicBlock>();
+            for (NBasicBlock block : cfg.basicBlocks) {
+                if (body.contains(block)) {
+                    blocks.add(block);
+                }
+            }
+            NBasicBlock preheader = null;
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (NBasicBlock block : blocks) {
+                    for (int i = 0; i < block.hir.size(); i++) {
+                        NHIRInstruction ins = cfg.hirMap.get(block.hir.get(i));
+                        if (!isInvariant(ins, body, writesFields)) {
+                            continue;
+                        }
+                        if (preheader == null) {
+                            preheader = preheader(head, entries.get(0));
+                        }
+                        block.hir.remove(i--);
+                        ins.block = preheader;
+                        int last = preheader.hir.size();
+                        if (last > 0 && (cfg.hirMap.get(preheader.hir.get(last - 1)) instanceof
+                                NHIRGoto || cfg.hirMap.get(preheader.hir.get(last - 1)) instanceof
+                                NHIRSwitch)) {
+                            last--;
+                        }
+                        preheader.hir.add(last, ins.id);
+                        hoisted.add(ins.id);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        loopInvariantCodeMotionHoisted = hoisted.size();
+    }
+
+    // Returns true if the specified instruction computes the same value in every iteration of
+    // the loop made up of the given blocks, and can be moved out of it; false otherwise.
+    private boolean isInvariant(NHIRInstruction ins, HashSet<NBasicBlock> body,
+                                boolean writesFields) {
+        if (ins instanceof NHIRIntConstant) {
+            return true;
+        } else if (ins instanceof NHIRGetField) {
+            return !writesFields;
+        } else if (ins instanceof NHIRArithmetic) {
+            for (int operand : ins.getOperands()) {
+                if (body.contains(cfg.hirMap.get(operand).block)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // Returns the preheader for the loop with the specified head and entry (the predecessor of
+    // the head outside of the loop). That's the entry itself if the head is its only successor,
+    // and otherwise a new block on the edge from the entry to the head.
+    private NBasicBlock preheader(NBasicBlock head, NBasicBlock entry) {
+        if (entry.successors.size() == 1) {
+            return entry;
+        }
+        int blockId = 0;
+        for (NBasicBlock block : cfg.basicBlocks) {
+            blockId = Math.max(blockId, block.id + 1);
+        }
+        NBasicBlock preheader = new NBasicBlock(cfg, blockId);
+        NHIRGoto jump = new NHIRGoto(preheader, cfg.hirId++, head);
+        cfg.hirMap.put(jump.id, jump);
+        preheader.hir.add(jump.id);
+        preheader.predecessors.add(entry);
+        preheader.successors.add(head);
+        preheader.dom = entry;
+        preheader.loopDepth = entry.loopDepth;
+        preheader.locals = entry.locals;
+
+        // The preheader takes the place of the entry among the predecessors of the head, so the
+        // phi functions in the head need no change.
+        entry.successors.set(entry.successors.indexOf(head), preheader);
+        head.predecessors.set(head.predecessors.indexOf(entry), preheader);
+        head.dom = preheader;
+        cfg.hirMap.get(entry.hir.get(entry.hir.size() - 1)).replaceDestination(head, preheader);
+        cfg.basicBlocks.add(cfg.basicBlocks.indexOf(head), preheader);
+        loopInvariantCodeMotionPreheaders++;
+        return preheader;
+    }
+
+    // Returns true if block a dominates block b, and false otherwise.
+    private boolean dominates(NBasicBlock a, NBasicBlock b) {
+        for (NBasicBlock dom = b; dom != null; dom = dom.dom) {
+            if (dom == a) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Global value numbering.
+    private void numberValues() {
+        HashMap<NBasicBlock, ArrayList<NBasicBlock>> children =
+                new HashMap<NBasicBlock, ArrayList<NBasicBlock>>();
+        for (NBasicBlock block : cfg.basicBlocks) {
+            if (block.dom != null) {
+                if (!children.containsKey(block.dom)) {
+                    children.put(block.dom, new ArrayList<NBasicBlock>());
+                }
+                children.get(block.dom).add(block);
+            }
+        }
+        numberValues(cfg.basicBlocks.get(0), children, new HashMap<String, Integer>());
+    }
+
+    // Numbers the values computed in the specified block and in the blocks it dominates, given
+    // the values computed in the blocks dominating it.
+    private void numberValues(NBasicBlock block,
+                              HashMap<NBasicBlock, ArrayList<NBasicBlock>> children,
+                              HashMap<String, Integer> values) {
+        ArrayList<String> added = new ArrayList<String>();
+        for (int i = 0; i < block.hir.size(); i++) {
+            int id = block.hir.get(i);
+            String key = valueKey(cfg.hirMap.get(id));
+            if (key == null) {
+                continue;
+            }
+            if (values.containsKey(key)) {
+                replacements.put(id, values.get(key));
+                block.hir.remove(i--);
+                cfg.hirMap.remove(id);
+                valueNumberingRemoved++;
+            } else {
+                values.put(key, id);
+                added.add(key);
+            }
+        }
+        if (children.containsKey(block)) {
+            for (NBasicBlock child : children.get(block)) {
+                numberValues(child, children, values);
+            }
+        }
+        for (String key : added) {
+            values.remove(key);
+        }
+    }
+
+    // Returns a key that is the same for any two instructions computing the same value, or null
+    // if the specified instruction is not numbered.
+    private String valueKey(NHIRInstruction ins) {
+        if (ins instanceof NHIRIntConstant) {
+            return "#" + ((NHIRIntConstant) ins).getValue();
+        } else if (ins instanceof NHIRArithmetic) {
+            NHIRArithmetic arithmetic = (NHIRArithmetic) ins;
+            int lhs = resolve(arithmetic.getLhs());
+            int rhs = resolve(arithmetic.getRhs());
+            if (arithmetic.getOpcode() != ISUB && lhs > rhs) {
+                // Addition and multiplication are commutative.
+                int t = lhs;
+                lhs = rhs;
+                rhs = t;
+            }
+            return arithmetic.getOpcode() + " " + lhs + " " + rhs;
+        }
+        return null;
+    }
+
+    // Dead code elimination.
+    private void eliminateDeadCode() {
+        HashSet<Integer> live = new HashSet<Integer>();
+        LinkedList<Integer> workList = new LinkedList<Integer>();
+        for (NBasicBlock block : cfg.basicBlocks) {
+            for (int id : block.hir) {
+                if (!isRemovable(cfg.hirMap.get(id)) && live.add(id)) {
+                    workList.add(id);
+                }
+            }
+        }
+        while (!workList.isEmpty()) {
+            for (int operand : cfg.hirMap.get(workList.remove()).getOperands()) {
+                if (live.add(operand)) {
+                    workList.add(operand);
+                }
+            }
+        }
+        for (NBasicBlock block : cfg.basicBlocks) {
+            for (int i = 0; i < block.hir.size(); i++) {
+                int id = block.hir.get(i);
+                if (!live.contains(id)) {
+                    block.hir.remove(i--);
+                    cfg.hirMap.remove(id);
+                    deadCodeEliminationRemoved++;
+                }
+            }
+        }
+    }
+
+    // Returns true if the specified instruction has no effect other than computing its value,
+    // and false otherwise.
+    private boolean isRemovable(NHIRInstruction ins) {
+        return ins instanceof NHIRArithmetic || ins instanceof NHIRIntConstant ||
+                ins instanceof NHIRStringConstant || ins instanceof NHIRPhiFunction ||
+                ins instanceof NHIRGetField;
+    }
+
+    // Rewrites the operands of the instructions (and the locals of the blocks) according to the
+    // replacements made so far.
+    private void replaceOperands() {
+        if (replacements.isEmpty()) {
+            return;
+        }
+        for (NHIRInstruction ins : cfg.hirMap.values()) {
+            for (int operand : ins.getOperands()) {
+                int replacement = resolve(operand);
+                if (replacement != operand) {
+                    ins.replaceOperand(operand, replacement);
+                }
+            }
+        }
+        for (NBasicBlock block : cfg.basicBlocks) {
+            if (block.locals != null) {
+                for (int i = 0; i < block.locals.length; i++) {
+                    block.locals[i] = resolve(block.locals[i]);
+                }
+            }
+        }
+        replacements.clear();
+    }
+
+    // Returns the HIR id of the instruction that (eventually) replaces the one with the specified
+    // id.
+    private int resolve(int id) {
+        while (replacements.containsKey(id)) {
+            id = replacements.get(id);
+        }
+        return id;
+    }
+
+    // Returns true if the instruction with the specified HIR id is the given int constant, and
+    // false otherwise.
+    private boolean intValue(int id, int value) {
+        NHIRInstruction ins = cfg.hirMap.get(id);
+        return ins instanceof NHIRIntConstant && ((NHIRIntConstant) ins).getValue() == value;
+    }
+
+    // Removes the edge from block a to block b, along with the corresponding arguments of the
+    // phi functions in b.
+    private void removeEdge(NBasicBlock a, NBasicBlock b) {
+        int i = b.predecessors.indexOf(a);
+        if (i == -1) {
+            return;
+        }
+        for (int id : b.hir) {
+            NHIRInstruction ins = cfg.hirMap.get(id);
+            if (ins instanceof NHIRPhiFunction) {
+                ArrayList<Integer> args = ((NHIRPhiFunction) ins).getArguments();
+                if (args.size() == b.predecessors.size()) {
+                    args.remove(i);
+                }
+            }
+        }
+        b.predecessors.remove(i);
+        a.successors.remove(b);
+    }
+
+    // Returns the result of applying the specified arithmetic operator to the given values.
+    private static int fold(int opcode, int lhs, int rhs) {
+        switch (opcode) {
+            case IADD:
+                return lhs + rhs;
+            case ISUB:
+                return lhs - rhs;
+            default:
+                return lhs * rhs;
+        }
+    }
+}
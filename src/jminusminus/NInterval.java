@@ -3,7 +3,7 @@
 package jminusminus;
 
 import java.util.ArrayList;
-import java.util.TreeMap;
+import java.util.Arrays;
 
 /**
  * Represents a lifetime interval, recording the interval of LIR code for which the corresponding
@@ -19,15 +19,20 @@ class NInterval implements Comparable<NInterval> {
      */
     public int vRegId;
 
-    /**
-     * All live ranges for this virtual register
-     */
-    public ArrayList<NRange> ranges;
+    // The live ranges for this virtual register, ordered by (and disjoint in) their positions:
+    // the i-th range extends from starts[firstRange + i] to stops[firstRange + i], and the ranges
+    // fill the arrays up to their end. The free space is at the front of the arrays, since
+    // buildIntervals() adds ranges in the reverse order of their positions.
+    private int[] starts;
+    private int[] stops;
+    private int firstRange;
 
-    /**
-     * All use positions (in LIR) and their types for this virtual register
-     */
-    public TreeMap<Integer, InstructionType> usePositions;
+    // The use positions (in LIR) for this virtual register and their types, in increasing order:
+    // the i-th use is at uses[firstUse + i], with type useTypes[firstUse + i]. Like the ranges,
+    // they fill the arrays from the back.
+    private int[] uses;
+    private InstructionType[] useTypes;
+    private int firstUse;
 
     /**
      * The NPhyicalRegister assigned to this interval. If an interval ends up needing more than
@@ -69,8 +74,12 @@ class NInterval implements Comparable<NInterval> {
     public NInterval(int vRegId, NControlFlowGraph cfg) {
         this.vRegId = vRegId;
         this.cfg = cfg;
-        ranges = new ArrayList<NRange>();
-        usePositions = new TreeMap<Integer, InstructionType>();
+        starts = new int[0];
+        stops = new int[0];
+        firstRange = 0;
+        uses = new int[0];
+        useTypes = new InstructionType[0];
+        firstUse = 0;
         spill = false;
         pRegister = null;
         offset = -1;
@@ -79,69 +88,86 @@ class NInterval implements Comparable<NInterval> {
     }
 
     /**
-     * This second constructor is used in instantiating children of a split interval.
+     * Returns the number of live ranges in this interval.
      *
-     * @param virtualRegID program counter.
-     * @param cfg          The control flow graph.
-     * @param childRanges  The instruction ranges for this child.
-     * @param parent       The parent interval.
+     * @return the number of live ranges in this interval.
      */
-    public NInterval(int virtualRegID, NControlFlowGraph cfg, ArrayList<NRange> childRanges,
-                     NInterval parent) {
-        this.cfg = cfg;
-        this.ranges = childRanges;
-        this.usePositions = new TreeMap<Integer, InstructionType>();
-        this.vRegId = virtualRegID;
-        this.parent = parent;
-        this.children = new ArrayList<NInterval>();
-        spill = false;
-        offset = -1;
+    public int rangeCount() {
+        return starts.length - firstRange;
     }
 
     /**
-     * Adds a new range to the existing ranges. If the range overlaps then the old start position
-     * will be given the new start range position.
+     * Returns the start position of the i-th live range in this interval.
      *
-     * @param newNRange the NRange to add
+     * @param i index of the range.
+     * @return the start position of the range.
      */
-    public void addOrExtendNRange(NRange newNRange) {
-        if (!ranges.isEmpty()) {
-            if (newNRange.stop + 5 == ranges.get(0).start ||
-                    newNRange.rangeOverlaps(ranges.get(0))) {
-                ranges.get(0).start = newNRange.start;
-            } else {
-                ranges.add(0, newNRange);
-            }
+    public int rangeStart(int i) {
+        return starts[firstRange + i];
+    }
+
+    /**
+     * Returns the stop position of the i-th live range in this interval.
+     *
+     * @param i index of the range.
+     * @return the stop position of the range.
+     */
+    public int rangeStop(int i) {
+        return stops[firstRange + i];
+    }
+
+    /**
+     * Adds the range from start to stop in front of the existing ranges. If it overlaps with the
+     * first range (or immediately precedes it), then the first range is given the new start
+     * position instead.
+     *
+     * @param start start position of the range.
+     * @param stop  stop position of the range.
+     */
+    public void addOrExtendRange(int start, int stop) {
+        if (rangeCount() > 0 && (stop + 5 == starts[firstRange] ||
+                start <= stops[firstRange] && starts[firstRange] <= stop)) {
+            starts[firstRange] = start;
         } else {
-            ranges.add(newNRange);
+            insertRange(0, start, stop);
+        }
+    }
+
+    /**
+     * Adds the range from start to stop, which must not overlap with any of the existing ranges,
+     * to this interval.
+     *
+     * @param start start position of the range.
+     * @param stop  stop position of the range.
+     */
+    public void addRange(int start, int stop) {
+        int i = 0;
+        while (i < rangeCount() && rangeStart(i) < start) {
+            i++;
         }
+        insertRange(i, start, stop);
     }
 
     /**
-     * Returns the very first position where an intersection with another interval occurs.
+     * Returns the very first position where an intersection with another interval occurs, or -1
+     * if the intervals don't intersect.
      *
      * @param otherInterval the interval to compare against for intersection.
-     * @return the position where the intersection begins.
+     * @return the position where the intersection begins, or -1.
      */
     public int nextIntersection(NInterval otherInterval) {
-        int a = -1, b = -2;
-        for (NRange r : this.ranges) {
-            if (otherInterval.isLiveAt(r.start)) {
-                a = r.start;
-                break;
-            }
-        }
-        for (NRange r : otherInterval.ranges) {
-            if (this.isLiveAt(r.start)) {
-                b = r.start;
-                break;
+        int i = firstRange, j = otherInterval.firstRange;
+        int[] otherStarts = otherInterval.starts, otherStops = otherInterval.stops;
+        while (i < starts.length && j < otherStarts.length) {
+            if (stops[i] < otherStarts[j]) {
+                i++;
+            } else if (otherStops[j] < starts[i]) {
+                j++;
+            } else {
+                return Math.max(starts[i], otherStarts[j]);
             }
         }
-        if (a >= 0 && b >= 0) {
-            return a <= b ? a : b;
-        } else {
-            return a > b ? a : b;
-        }
+        return -1;
     }
 
     /**
@@ -154,11 +180,11 @@ class NInterval implements Comparable<NInterval> {
      * @return the next use position.
      */
     public int nextUsageOverlapping(NInterval currInterval) {
-        int psi = currInterval.firstNRangeStart();
-        if (usePositions.ceilingKey(psi) != null) {
-            return usePositions.ceilingKey(psi);
-        } else if (!usePositions.isEmpty()) {
-            return usePositions.firstKey();
+        int next = nextUsage(currInterval.firstNRangeStart());
+        if (next != Integer.MAX_VALUE) {
+            return next;
+        } else if (usageCount() > 0) {
+            return firstUsage();
         } else {
             return Integer.MAX_VALUE;
         }
@@ -170,7 +196,60 @@ class NInterval implements Comparable<NInterval> {
      * @return the first use position in this interval.
      */
     public int firstUsage() {
-        return usePositions.firstKey();
+        return uses[firstUse];
+    }
+
+    /**
+     * Returns the first use position in this interval at or after the given position, or
+     * Integer.MAX_VALUE if there's none.
+     *
+     * @param position the position.
+     * @return the first use position at or after position, or Integer.MAX_VALUE.
+     */
+    public int nextUsage(int position) {
+        int i = ceiling(uses, firstUse, position);
+        return i < uses.length ? uses[i] : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns the number of use positions in this interval.
+     *
+     * @return the number of use positions in this interval.
+     */
+    public int usageCount() {
+        return uses.length - firstUse;
+    }
+
+    /**
+     * Returns the i-th use position in this interval.
+     *
+     * @param i index of the use.
+     * @return the use position.
+     */
+    public int usage(int i) {
+        return uses[firstUse + i];
+    }
+
+    /**
+     * Returns the type of the i-th use in this interval.
+     *
+     * @param i index of the use.
+     * @return the type of the use.
+     */
+    public InstructionType usageType(int i) {
+        return useTypes[firstUse + i];
+    }
+
+    /**
+     * Returns the type of the use at the given position, or null if this interval isn't used
+     * there.
+     *
+     * @param position the position.
+     * @return the type of the use at position, or null.
+     */
+    public InstructionType usageTypeAt(int position) {
+        int i = ceiling(uses, firstUse, position);
+        return i < uses.length && uses[i] == position ? useTypes[i] : null;
     }
 
     /**
@@ -180,51 +259,70 @@ class NInterval implements Comparable<NInterval> {
      * @param newStart the value to which the first range's start will be set.
      */
     public void newFirstRangeStart(int newStart) {
-        if (!ranges.isEmpty()) {
-            ranges.get(0).start = newStart;
+        if (rangeCount() > 0) {
+            starts[firstRange] = newStart;
         }
     }
 
     /**
-     * Registers a use (read or write).
+     * Registers a use (read or write). A later registration of a use at the same site replaces
+     * the earlier one.
      *
      * @param index the site of the use.
      * @param type  the instruction type.
      */
-    public void addUsePosition(Integer index, InstructionType type) {
-        usePositions.put(index, type);
+    public void addUsePosition(int index, InstructionType type) {
+        int i = ceiling(uses, firstUse, index);
+        if (i < uses.length && uses[i] == index) {
+            useTypes[i] = type;
+            return;
+        }
+        if (firstUse == 0) {
+            int length = Math.max(4, 2 * uses.length);
+            uses = grow(uses, length);
+            InstructionType[] types = new InstructionType[length];
+            System.arraycopy(useTypes, 0, types, length - useTypes.length, useTypes.length);
+            i += length - useTypes.length;
+            firstUse = length - useTypes.length;
+            useTypes = types;
+        }
+        System.arraycopy(uses, firstUse, uses, firstUse - 1, i - firstUse);
+        System.arraycopy(useTypes, firstUse, useTypes, firstUse - 1, i - firstUse);
+        firstUse--;
+        uses[i - 1] = index;
+        useTypes[i - 1] = type;
     }
 
     /**
-     * Returns true if this virtual register is alive at a given index, and false otherwise.
+     * Unregisters the use at the given position, if any.
      *
-     * @param atIndex the index at which to see if this register is live.
-     * @return true if this virtual register is alive at a given index, and false otherwise.
+     * @param index the site of the use.
      */
-    public boolean isLiveAt(int atIndex) {
-        for (NRange r : ranges) {
-            if (atIndex >= r.start && atIndex < r.stop) {
-                return true;
-            }
+    public void removeUsePosition(int index) {
+        int i = ceiling(uses, firstUse, index);
+        if (i < uses.length && uses[i] == index) {
+            System.arraycopy(uses, firstUse, uses, firstUse + 1, i - firstUse);
+            System.arraycopy(useTypes, firstUse, useTypes, firstUse + 1, i - firstUse);
+            useTypes[firstUse++] = null;
         }
-        return false;
     }
 
     /**
-     * Returns the range in this interval in which the LIR instruction with the given id is live,
-     * or null.
+     * Returns true if this virtual register is alive at a given index, and false otherwise.
      *
-     * @param id the LIR instruction id.
-     * @return the range in this interval in which the LIR instruction with the given id is live,
-     * or null.
+     * @param atIndex the index at which to see if this register is live.
+     * @return true if this virtual register is alive at a given index, and false otherwise.
      */
-    private NRange liveRangeAt(int id) {
-        for (NRange r : ranges) {
-            if (id >= r.start && id <= r.stop) {
-                return r;
-            }
-        }
-        return null;
+    public boolean isLiveAt(int atIndex) {
+        return liveRangeAt(atIndex) >= 0;
+    }
+
+    // Returns the index (in the arrays) of the range in this interval in which the LIR
+    // instruction with the given id is live, or -1.
+    private int liveRangeAt(int id) {
+        // The last range starting at or before id is the only one that can contain it.
+        int i = ceiling(starts, firstRange, id + 1) - 1;
+        return i >= firstRange && stops[i] >= id ? i : -1;
     }
 
     /**
@@ -234,10 +332,7 @@ class NInterval implements Comparable<NInterval> {
      */
     public void writeToStdOut(PrettyPrinter p) {
         if (cfg.registers.get(vRegId) != null) {
-            String s = cfg.registers.get(vRegId).name() + ": ";
-            for (NRange r : ranges) {
-                s += r.toString() + " ";
-            }
+            String s = cfg.registers.get(vRegId).name() + ": " + rangesToString();
             if (pRegister != null) {
                 s += "-> " + pRegister.name();
             } else {
@@ -255,10 +350,7 @@ class NInterval implements Comparable<NInterval> {
                 child.writeToStdOut(p);
             }
         } else if (this.isChild()) {
-            String s = "\tv" + this.vRegId + ": ";
-            for (NRange r : ranges) {
-                s += r.toString() + " ";
-            }
+            String s = "\tv" + this.vRegId + ": " + rangesToString();
             if (pRegister != null) {
                 s += "-> " + pRegister.name();
             } else {
@@ -282,7 +374,7 @@ class NInterval implements Comparable<NInterval> {
      * @return the start position for the first range.
      */
     public int firstNRangeStart() {
-        return ranges.isEmpty() ? -1 : ranges.get(0).start;
+        return rangeCount() == 0 ? -1 : starts[firstRange];
     }
 
     /**
@@ -291,7 +383,7 @@ class NInterval implements Comparable<NInterval> {
      * @return the stop position for the last range.
      */
     public int lastNRangeStop() {
-        return ranges.isEmpty() ? -1 : ranges.get(ranges.size() - 1).stop;
+        return rangeCount() == 0 ? -1 : stops[stops.length - 1];
     }
 
     /**
@@ -317,47 +409,99 @@ class NInterval implements Comparable<NInterval> {
     /**
      * Splits the current interval at the given index. Responsible for splitting a range if the
      * index falls on one, moving remaining ranges over to child, and moving appropriate
-     * usePositions over to the child.
+     * usePositions over to the child. The child covers the positions from idx onwards, and this
+     * interval keeps those before idx. The child shares the stack slot (if any) of the parent.
      *
-     * @param idx the index at which this interval is to be split
-     * @return the child interval which is to be sorted onto unhandled. If there was no child
-     * created in the case of a pruning this interval is returned.
+     * @param idx the index at which this interval is to be split; must be greater than the start
+     *            of this interval.
+     * @return the child interval which is to be sorted onto unhandled.
      */
     public NInterval splitAt(int idx) {
-        ArrayList<NRange> childsRanges = new ArrayList<NRange>();
-        if (this.isLiveAt(idx)) { // means split falls on a range
-            // Assumptions: if a range is LIVE on an index, then there exist usePositions at or
-            // before the index within this same range.
-            NRange liveRange = this.liveRangeAt(idx);
-            int splitTo = idx;
-            splitTo = usePositions.ceilingKey(idx);
-            childsRanges.add((liveRange.splitRange(splitTo, idx - 5)));
-        }
+        NInterval child = new NInterval(cfg.maxIntervals++, cfg);
+        child.parent = getParent();
+        child.offset = getParent().offset;
+        child.offsetFrom = getParent().offsetFrom;
+        cfg.registers.add(null); // expand size of cfg.registers to avoid NPE when printing
 
-        // The following two for loops take care of any untouched ranges which start after the
-        // split position and must be moved to the child interval.
-        for (NRange r : ranges) {
-            if (r.start > idx) {
-                childsRanges.add(r);
-            }
+        // The ranges which start at or after the split position move to the child, and so does
+        // the part from idx onwards of a range the split position falls inside.
+        int i = ceiling(starts, firstRange, idx);
+        int live = liveRangeAt(idx);
+        boolean inside = live >= 0 && starts[live] < idx;
+        int n = starts.length - i + (inside ? 1 : 0);
+        child.starts = new int[n];
+        child.stops = new int[n];
+        System.arraycopy(starts, i, child.starts, n - (starts.length - i), starts.length - i);
+        System.arraycopy(stops, i, child.stops, n - (stops.length - i), stops.length - i);
+        if (inside) {
+            child.starts[0] = idx;
+            child.stops[0] = stops[live];
+            stops[live] = idx - 5;
         }
-        for (NRange r : childsRanges) {
-            ranges.remove(r);
-        }
-
-        NInterval child = new NInterval(cfg.maxIntervals++, cfg, childsRanges, getParent());
-        cfg.registers.add(null); // expand size of cfg.registers to avoid NPE when printing
+        starts = Arrays.copyOfRange(starts, firstRange, i);
+        stops = Arrays.copyOfRange(stops, firstRange, i);
+        firstRange = 0;
 
         // Transfer remaining use positions.
-        while (this.usePositions.ceilingKey(idx) != null) {
-            child.usePositions.put(usePositions.ceilingKey(idx),
-                    usePositions.remove(usePositions.ceilingKey(idx)));
-        }
+        int j = ceiling(uses, firstUse, idx);
+        child.uses = Arrays.copyOfRange(uses, j, uses.length);
+        child.useTypes = Arrays.copyOfRange(useTypes, j, useTypes.length);
+        uses = Arrays.copyOfRange(uses, firstUse, j);
+        useTypes = Arrays.copyOfRange(useTypes, firstUse, j);
+        firstUse = 0;
         getParent().children.add(child);
 
         return child;
     }
 
+    // Inserts the range from start to stop before the i-th range in this interval.
+    private void insertRange(int i, int start, int stop) {
+        if (firstRange == 0) {
+            int length = Math.max(4, 2 * starts.length);
+            firstRange = length - starts.length;
+            starts = grow(starts, length);
+            stops = grow(stops, length);
+        }
+        int at = firstRange + i;
+        System.arraycopy(starts, firstRange, starts, firstRange - 1, i);
+        System.arraycopy(stops, firstRange, stops, firstRange - 1, i);
+        firstRange--;
+        starts[at - 1] = start;
+        stops[at - 1] = stop;
+    }
+
+    // Returns a copy of the given array with the given (greater) length, holding the elements of
+    // the given array at its end.
+    private static int[] grow(int[] a, int length) {
+        int[] b = new int[length];
+        System.arraycopy(a, 0, b, length - a.length, a.length);
+        return b;
+    }
+
+    // Returns the index of the first element in the (sorted) array a, from index from onwards,
+    // that is greater than or equal to key, or a.length if there's none.
+    private static int ceiling(int[] a, int from, int key) {
+        int lo = from, hi = a.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (a[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Returns a string representation of the ranges in this interval.
+    private String rangesToString() {
+        StringBuilder s = new StringBuilder();
+        for (int i = firstRange; i < starts.length; i++) {
+            s.append("[").append(starts[i]).append(", ").append(stops[i]).append("] ");
+        }
+        return s.toString();
+    }
+
     /**
      * Returns the parent interval.
      *
@@ -513,72 +657,3 @@ enum OffsetFrom {
 enum InstructionType {
     read, write
 };
-
-/**
- * Representation of a liveness range for an interval.
- */
-class NRange implements Comparable<NRange> {
-    /**
-     * The range's start position.
-     */
-    public int start;
-
-    /**
-     * The range's stop position.
-     */
-    public int stop;
-
-    /**
-     * Constructs a liveness range extending from start to stop (positions in the code).
-     *
-     * @param start start position.
-     * @param stop  stop position.
-     */
-    public NRange(int start, int stop) {
-        this.start = start;
-        this.stop = stop;
-    }
-
-    /**
-     * Truncates the current range to newStop and returns the remainder as a new range.
-     *
-     * @param newStart the new start position.
-     * @param newStop  the split position.
-     * @return the remainder of this range starting at newStart and ending at its old stop
-     * position.
-     */
-    public NRange splitRange(int newStart, int newStop) {
-        NRange newRange = new NRange(newStart, stop);
-        this.stop = newStop;
-        return newRange;
-    }
-
-    /**
-     * Returns true if this range overlaps with other, and false otherwise.
-     *
-     * @param other the other range.
-     * @return true if this range overlaps with other, and false otherwise.
-     */
-    public boolean rangeOverlaps(NRange other) {
-        return other.start <= this.stop && this.start <= other.stop;
-    }
-
-    /**
-     * Returns a comparison of this range and other by their start positions.
-     *
-     * @param other the other range.
-     * @return a comparison of this range and other by their start positions.
-     */
-    public int compareTo(NRange other) {
-        return this.start - other.start;
-    }
-
-    /**
-     * Returns a string representation of this range.
-     *
-     * @return a string representation of this range.
-     */
-    public String toString() {
-        return "[" + start + ", " + stop + "]";
-    }
-}
@@ -28,7 +28,10 @@ abstract class NLIRInstruction {
         lirMnemonic[AALOAD] = "AALOAD";
         lirMnemonic[IALOAD] = "IALOAD";
         lirMnemonic[IASTORE] = "IASTORE";
+        lirMnemonic[IF_ICMPEQ] = "EQ";
         lirMnemonic[IF_ICMPNE] = "NE";
+        lirMnemonic[IF_ICMPLT] = "LT";
+        lirMnemonic[IF_ICMPGE] = "GE";
         lirMnemonic[IF_ICMPGT] = "GT";
         lirMnemonic[IF_ICMPLE] = "LE";
         lirMnemonic[GETSTATIC] = "GETSTATIC";
@@ -77,6 +80,17 @@ abstract class NLIRInstruction {
         // Nothing here.
     }
 
+    /**
+     * Makes this instruction (if it's a jump) go to newDestination wherever it went to
+     * oldDestination.
+     *
+     * @param oldDestination the block this instruction jumps to.
+     * @param newDestination the block to jump to instead.
+     */
+    public void replaceDestination(NBasicBlock oldDestination, NBasicBlock newDestination) {
+        // Nothing here.
+    }
+
     /**
      * Translates this LIR instruction into SPIM and writes it out to the specified output stream.
      *
@@ -118,7 +132,7 @@ class NLIRArithmetic extends NLIRInstruction {
         this.opcode = opcode;
         reads.add(lhs.write);
         reads.add(rhs.write);
-        write = new NVirtualRegister(NControlFlowGraph.regId++, "I", "I");
+        write = new NVirtualRegister(block.cfg.regId++, "I", "I");
         block.cfg.registers.add((NVirtualRegister) write);
     }
 
@@ -177,7 +191,7 @@ class NLIRIntConstant extends NLIRInstruction {
     public NLIRIntConstant(NBasicBlock block, int id, int value) {
         super(block, id);
         this.value = value;
-        write = new NVirtualRegister(NControlFlowGraph.regId++, "I", "I");
+        write = new NVirtualRegister(block.cfg.regId++, "I", "I");
         block.cfg.registers.add((NVirtualRegister) write);
     }
 
@@ -211,7 +225,8 @@ class NLIRStringConstant extends NLIRInstruction {
     // The constant string value.
     private String value;
 
-    // For generating unique label for the string in the data segment.
+    // For generating unique label for the string in the data segment. Labels are only created
+    // while the SPIM code is written out, which happens on a single thread.
     private static int labelSuffix;
 
     /**
@@ -224,8 +239,14 @@ class NLIRStringConstant extends NLIRInstruction {
     public NLIRStringConstant(NBasicBlock block, int id, String value) {
         super(block, id);
         this.value = value;
-        write = new NVirtualRegister(NControlFlowGraph.regId++, "L", "Ljava/lang/String;");
+        write = new NVirtualRegister(block.cfg.regId++, "L", "Ljava/lang/String;");
         block.cfg.registers.add((NVirtualRegister) write);
+    }
+
+    /**
+     * Restarts the numbering of the labels for strings, as is done for every SPIM file.
+     */
+    public static void resetLabels() {
         labelSuffix = 0;
     }
 
@@ -306,6 +327,65 @@ class NLIRConditionalJump extends NLIRInstruction {
         this.onFalseDestination = onFalseDestination;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void replaceDestination(NBasicBlock oldDestination, NBasicBlock newDestination) {
+        if (onTrueDestination == oldDestination) {
+            onTrueDestination = newDestination;
+        }
+        if (onFalseDestination == oldDestination) {
+            onFalseDestination = newDestination;
+        }
+    }
+
+    /**
+     * Returns the block to jump to on true.
+     *
+     * @return the block to jump to on true.
+     */
+    public NBasicBlock getOnTrueDestination() {
+        return onTrueDestination;
+    }
+
+    /**
+     * Returns the block to jump to on false.
+     *
+     * @return the block to jump to on false.
+     */
+    public NBasicBlock getOnFalseDestination() {
+        return onFalseDestination;
+    }
+
+    /**
+     * Negates the test in this jump, and swaps its destinations.
+     */
+    public void invert() {
+        switch (opcode) {
+            case IF_ICMPEQ:
+                opcode = IF_ICMPNE;
+                break;
+            case IF_ICMPNE:
+                opcode = IF_ICMPEQ;
+                break;
+            case IF_ICMPLT:
+                opcode = IF_ICMPGE;
+                break;
+            case IF_ICMPGE:
+                opcode = IF_ICMPLT;
+                break;
+            case IF_ICMPGT:
+                opcode = IF_ICMPLE;
+                break;
+            case IF_ICMPLE:
+                opcode = IF_ICMPGT;
+                break;
+        }
+        NBasicBlock destination = onTrueDestination;
+        onTrueDestination = onFalseDestination;
+        onFalseDestination = destination;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -321,10 +401,22 @@ class NLIRConditionalJump extends NLIRInstruction {
      */
     public void toSpim(PrintWriter out) {
         switch (opcode) {
+            case IF_ICMPEQ:
+                out.printf("    beq %s,%s,%s\n", reads.get(0), reads.get(1),
+                        block.cfg.labelPrefix + "." + onTrueDestination.id);
+                break;
             case IF_ICMPNE:
                 out.printf("    bne %s,%s,%s\n", reads.get(0), reads.get(1),
                         block.cfg.labelPrefix + "." + onTrueDestination.id);
                 break;
+            case IF_ICMPLT:
+                out.printf("    blt %s,%s,%s\n", reads.get(0), reads.get(1),
+                        block.cfg.labelPrefix + "." + onTrueDestination.id);
+                break;
+            case IF_ICMPGE:
+                out.printf("    bge %s,%s,%s\n", reads.get(0), reads.get(1),
+                        block.cfg.labelPrefix + "." + onTrueDestination.id);
+                break;
             case IF_ICMPGT:
                 out.printf("    bgt %s,%s,%s\n", reads.get(0), reads.get(1),
                         block.cfg.labelPrefix + "." + onTrueDestination.id);
@@ -334,7 +426,9 @@ class NLIRConditionalJump extends NLIRInstruction {
                         block.cfg.labelPrefix + "." + onTrueDestination.id);
                 break;
         }
-        out.printf("    j %s\n", block.cfg.labelPrefix + "." + onFalseDestination.id);
+        if (!block.cfg.isNextBlock(block, onFalseDestination)) {
+            out.printf("    j %s\n", block.cfg.labelPrefix + "." + onFalseDestination.id);
+        }
     }
 
     /**
@@ -365,10 +459,23 @@ class NLIRGoto extends NLIRInstruction {
         this.destination = destination;
     }
 
+    /**
+     * Returns the block to jump to.
+     *
+     * @return the block to jump to.
+     */
+    public NBasicBlock getDestination() {
+        return destination;
+    }
+
     /**
      * {@inheritDoc}
      */
     public void toSpim(PrintWriter out) {
+        if (block.cfg.isNextBlock(block, destination)) {
+            // Fall through.
+            return;
+        }
         String label = block.cfg.labelPrefix + "." + destination.id;
         out.printf("    j %s\n", label);
     }
@@ -381,6 +488,139 @@ class NLIRGoto extends NLIRInstruction {
     }
 }
 
+/**
+ * LIR instruction representing the JVM switch instructions (TABLESWITCH and LOOKUPSWITCH). A
+ * TABLESWITCH becomes a jump through a table of the destinations (in the data segment) indexed by
+ * the value switched on, after checking that the value is in the range of the table; a
+ * LOOKUPSWITCH becomes a binary search of the keys, which ends in a chain of at most three
+ * compares.
+ */
+class NLIRSwitch extends NLIRInstruction {
+    // Opcode of the JVM instruction.
+    private int opcode;
+
+    // Keys (values switched on) with a destination of their own, in ascending order.
+    private ArrayList<Integer> keys;
+
+    // Block to jump to for each key.
+    private ArrayList<NBasicBlock> destinations;
+
+    // Block to jump to for any other value.
+    private NBasicBlock defaultDestination;
+
+    /**
+     * Constructs an NLIRSwitch object.
+     *
+     * @param block              enclosing block.
+     * @param id                 identifier of the instruction.
+     * @param index              LIR for the value switched on.
+     * @param opcode             opcode of the JVM instruction.
+     * @param keys               keys with a destination of their own, in ascending order.
+     * @param destinations       block to jump to for each key.
+     * @param defaultDestination block to jump to for any other value.
+     */
+    public NLIRSwitch(NBasicBlock block, int id, NLIRInstruction index, int opcode,
+                      ArrayList<Integer> keys, ArrayList<NBasicBlock> destinations,
+                      NBasicBlock defaultDestination) {
+        super(block, id);
+        this.opcode = opcode;
+        this.keys = keys;
+        this.destinations = new ArrayList<NBasicBlock>(destinations);
+        this.defaultDestination = defaultDestination;
+        reads.add(index.write);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void replaceDestination(NBasicBlock oldDestination, NBasicBlock newDestination) {
+        for (int i = 0; i < destinations.size(); i++) {
+            if (destinations.get(i) == oldDestination) {
+                destinations.set(i, newDestination);
+            }
+        }
+        if (defaultDestination == oldDestination) {
+            defaultDestination = newDestination;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void allocatePhysicalRegisters() {
+        NInterval input = block.cfg.intervals.get(reads.get(0).number()).childAt(id);
+        reads.set(0, input.pRegister);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void toSpim(PrintWriter out) {
+        String prefix = block.cfg.labelPrefix + "." + block.id;
+        if (opcode == TABLESWITCH) {
+            String table = prefix + ".table";
+            String s = table + ":\n";
+            for (NBasicBlock destination : destinations) {
+                s += "    .word " + label(destination) + "\n";
+            }
+            block.cfg.data.add(s);
+            int low = keys.get(0);
+            out.printf("    blt %s,%d,%s\n", reads.get(0), low, label(defaultDestination));
+            out.printf("    bgt %s,%d,%s\n", reads.get(0), keys.get(keys.size() - 1),
+                    label(defaultDestination));
+            if (low == 0) {
+                out.printf("    sll %s,%s,2\n", regInfo[V1], reads.get(0));
+            } else {
+                out.printf("    addiu %s,%s,%d\n", regInfo[V1], reads.get(0), -low);
+                out.printf("    sll %s,%s,2\n", regInfo[V1], regInfo[V1]);
+            }
+            out.printf("    lw %s,%s(%s)\n", regInfo[V1], table, regInfo[V1]);
+            out.printf("    jr %s\n", regInfo[V1]);
+        } else {
+            search(out, prefix, 0, keys.size() - 1);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString() {
+        String s = id + ": " + (opcode == TABLESWITCH ? "TABLESWITCH " : "LOOKUPSWITCH ")
+                + reads.get(0) + " [";
+        for (int i = 0; i < keys.size(); i++) {
+            s += keys.get(i) + ": " + destinations.get(i).id() + ", ";
+        }
+        return s + "default: " + defaultDestination.id() + "]";
+    }
+
+    // Writes out SPIM code that searches the keys from lo to hi (indices) for the value switched
+    // on, and jumps to the corresponding destination, or to the default destination if the
+    // value is not among them.
+    private void search(PrintWriter out, String prefix, int lo, int hi) {
+        if (hi - lo < 3) {
+            for (int i = lo; i <= hi; i++) {
+                out.printf("    beq %s,%d,%s\n", reads.get(0), keys.get(i),
+                        label(destinations.get(i)));
+            }
+            if (hi < keys.size() - 1 || !block.cfg.isNextBlock(block, defaultDestination)) {
+                out.printf("    j %s\n", label(defaultDestination));
+            }
+            return;
+        }
+        int mid = (lo + hi + 1) / 2;
+        String upper = prefix + "." + mid;
+        out.printf("    bge %s,%d,%s\n", reads.get(0), keys.get(mid), upper);
+        search(out, prefix, lo, mid - 1);
+        out.printf("%s:\n", upper);
+        search(out, prefix, mid, hi);
+    }
+
+    // Returns the SPIM label for the specified block.
+    private String label(NBasicBlock destination) {
+        return block.cfg.labelPrefix + "." + destination.id;
+    }
+}
+
 /**
  * LIR instruction representing method invocation instructions in JVM.
  */
@@ -402,7 +642,8 @@ class NLIRInvoke extends NLIRInstruction {
      * @param opcode    opcode of the JVM instruction.
      * @param target    target of the method.
      * @param name      name of the method.
-     * @param arguments list of register storing the of arguments for the method.
+     * @param arguments registers (a0, ..., a3) holding the first four arguments for the
+     *                  method; the rest are passed on the stack.
      * @param sType     return type (short name) of the method.
      * @param lType     return type (long name) of the method.
      */
@@ -573,7 +814,7 @@ class NLIRGetField extends NLIRInstruction {
         this.opcode = opcode;
         this.target = target;
         this.name = name;
-        write = new NVirtualRegister(NControlFlowGraph.regId++, sType, lType);
+        write = new NVirtualRegister(block.cfg.regId++, sType, lType);
         block.cfg.registers.add((NVirtualRegister) write);
     }
 
@@ -617,7 +858,7 @@ class NLIRNewArray extends NLIRInstruction {
         super(block, id);
         this.opcode = opcode;
         this.dim = dim;
-        write = new NVirtualRegister(NControlFlowGraph.regId++, sType, lType);
+        write = new NVirtualRegister(block.cfg.regId++, sType, lType);
         block.cfg.registers.add((NVirtualRegister) write);
     }
 
@@ -661,7 +902,7 @@ class NLIRALoad extends NLIRInstruction {
         this.opcode = opcode;
         reads.add(arrayRef.write);
         reads.add(index.write);
-        write = new NVirtualRegister(NControlFlowGraph.regId++, sType, lType);
+        write = new NVirtualRegister(block.cfg.regId++, sType, lType);
         block.cfg.registers.add((NVirtualRegister) write);
     }
 
@@ -741,7 +982,7 @@ class NLIRPhiFunction extends NLIRInstruction {
      */
     public NLIRPhiFunction(NBasicBlock block, int id, String sType, String lType) {
         super(block, id);
-        write = new NVirtualRegister(NControlFlowGraph.regId++, sType, lType);
+        write = new NVirtualRegister(block.cfg.regId++, sType, lType);
         block.cfg.registers.add((NVirtualRegister) write);
     }
 
@@ -833,7 +1074,7 @@ class NLIRLoadLocal extends NLIRInstruction {
             write = NPhysicalRegister.regInfo[A0 + local];
             block.cfg.registers.set(A0 + local, NPhysicalRegister.regInfo[A0 + local]);
         } else {
-            write = new NVirtualRegister(NControlFlowGraph.regId++, sType, lType);
+            write = new NVirtualRegister(block.cfg.regId++, sType, lType);
             block.cfg.registers.add((NVirtualRegister) write);
         }
     }
@@ -883,6 +1124,17 @@ class NLIRLoad extends NLIRInstruction {
         this.offset = offset;
         this.offsetFrom = offsetFrom;
         this.register = register;
+        write = register;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void allocatePhysicalRegisters() {
+        NInterval output = block.cfg.intervals.get(write.number()).childAt(id);
+        if (output.vRegId >= 32) {
+            write = register = output.pRegister;
+        }
     }
 
     /**
@@ -2,10 +2,54 @@
 
 package jminusminus;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+import static jminusminus.NPhysicalRegister.*;
+
 /**
- * Implements register allocation using linear scan algorithm.
+ * Implements register allocation using linear scan algorithm. This is the linear scan algorithm
+ * of Wimmer and Mossenbock: intervals are visited in the order of their start positions and each
+ * is given a register that's free for as long as possible. When no register is free, either the
+ * current interval or the intervals holding the register whose next use is furthest away are
+ * split, and the split off parts are spilled to the stack until their next use, where they are
+ * reloaded into a (possibly different) register.
+ *
+ * <p>An interval that is split is stored to its stack slot after each of its definitions, so the
+ * stack slot always holds its current value. Moving a value from one location to another is then
+ * never more than a load from the stack slot, which is inserted in the id gaps left by
+ * NControlFlowGraph.renumberLirInstructions(): before an instruction for a split within a block,
+ * and at the end of the predecessor (or start of the successor) for a split across a control flow
+ * edge.
  */
 public class NLinearRegisterAllocator extends NRegisterAllocator {
+    // An instruction needs at most three registers at once (two inputs and an output), so we
+    // can't do with fewer, even if NPhysicalRegister.MAX_COUNT is set lower.
+    private static final int MIN_COUNT = 3;
+
+    // Number of registers (starting at t0) available for allocation.
+    private int count;
+
+    // Intervals yet to be allocated, ordered by their start positions.
+    private PriorityQueue<NInterval> unhandled;
+
+    // Intervals that have a register and are live at the current position.
+    private ArrayList<NInterval> active;
+
+    // Intervals that have a register but are in a lifetime hole at the current position.
+    private ArrayList<NInterval> inactive;
+
+    // Maps an LIR instruction id to the instruction, for the instructions in the cfg before any
+    // spill code is inserted.
+    private HashMap<Integer, NLIRInstruction> lirAt;
+
+    // Maps a block to the ids of its first and last LIR instructions, before any spill code is
+    // inserted.
+    private HashMap<NBasicBlock, Integer> firstIds;
+    private HashMap<NBasicBlock, Integer> lastIds;
+
     /**
      * Constructs an NLinearRegisterAllocator object.
      *
@@ -20,5 +64,398 @@ public class NLinearRegisterAllocator extends NRegisterAllocator {
      */
     public void allocation() {
         buildIntervals();
+        preprocess();
+        count = Math.max(MAX_COUNT, MIN_COUNT);
+        unhandled = new PriorityQueue<NInterval>();
+        active = new ArrayList<NInterval>();
+        inactive = new ArrayList<NInterval>();
+        lirAt = new HashMap<Integer, NLIRInstruction>();
+        firstIds = new HashMap<NBasicBlock, Integer>();
+        lastIds = new HashMap<NBasicBlock, Integer>();
+        for (NBasicBlock block : cfg.basicBlocks) {
+            for (NLIRInstruction lir : block.lir) {
+                lirAt.put(lir.id, lir);
+            }
+            firstIds.put(block, block.getFirstLIRInstId());
+            lastIds.put(block, block.getLastLIRInstId());
+        }
+        initUnhandled();
+        walkIntervals();
+        insertStores();
+        resolveSplits();
+        resolveDataFlow();
+    }
+
+    // Prepares the virtual register intervals for allocation and adds them to the unhandled
+    // list.
+    private void initUnhandled() {
+        for (int i = 32; i < cfg.intervals.size(); i++) {
+            NInterval interval = cfg.intervals.get(i);
+
+            // A definition that's never used still needs a register to write to.
+            for (int j = 0; j < interval.usageCount(); j++) {
+                int pos = interval.usage(j);
+                if (!interval.isLiveAt(pos)) {
+                    interval.addRange(pos, pos);
+                }
+            }
+            if (interval.rangeCount() == 0) {
+                continue;
+            }
+
+            if (interval.spill && interval.offsetFrom == OffsetFrom.FP) {
+                // A formal parameter (fourth or above) lives on the stack until it's first read.
+                interval.removeUsePosition(interval.firstNRangeStart());
+                interval.pRegister = null;
+                int firstUse = interval.nextUsage(interval.firstNRangeStart());
+                if (firstUse != Integer.MAX_VALUE) {
+                    unhandled.add(interval.splitAt(firstUse));
+                }
+            } else {
+                unhandled.add(interval);
+            }
+        }
+    }
+
+    // Visits the unhandled intervals in the order of their start positions, assigning each a
+    // register or spilling it.
+    private void walkIntervals() {
+        while (!unhandled.isEmpty()) {
+            NInterval current = unhandled.poll();
+            int position = current.firstNRangeStart();
+
+            // Retire the intervals that have ended, and move the rest between active and inactive
+            // depending on whether or not they're live at the current position.
+            for (NInterval interval : new ArrayList<NInterval>(active)) {
+                if (interval.lastNRangeStop() < position) {
+                    active.remove(interval);
+                } else if (!interval.isLiveAt(position)) {
+                    active.remove(interval);
+                    inactive.add(interval);
+                }
+            }
+            for (NInterval interval : new ArrayList<NInterval>(inactive)) {
+                if (interval.lastNRangeStop() < position) {
+                    inactive.remove(interval);
+                } else if (interval.isLiveAt(position)) {
+                    inactive.remove(interval);
+                    active.add(interval);
+                }
+            }
+
+            if (!tryAllocateFreeRegister(current)) {
+                allocateBlockedRegister(current);
+            }
+            if (current.pRegister != null) {
+                active.add(current);
+            }
+        }
+    }
+
+    // Tries to find a register for the current interval that isn't in use by any other
+    // interval at the current position. If the register is only free for a part of the current
+    // interval, then the current interval is split. Returns true if a register was assigned, and
+    // false otherwise.
+    private boolean tryAllocateFreeRegister(NInterval current) {
+        int[] freeUntil = new int[count];
+        for (int r = 0; r < count; r++) {
+            freeUntil[r] = Integer.MAX_VALUE;
+        }
+        for (NInterval interval : active) {
+            freeUntil[indexOf(interval.pRegister)] = 0;
+        }
+        for (NInterval interval : inactive) {
+            int r = indexOf(interval.pRegister);
+            int intersection = interval.nextIntersection(current);
+            if (intersection >= 0 && intersection < freeUntil[r]) {
+                freeUntil[r] = intersection;
+            }
+        }
+
+        int reg = 0;
+        for (int r = 1; r < count; r++) {
+            if (freeUntil[r] > freeUntil[reg]) {
+                reg = r;
+            }
+        }
+        if (freeUntil[reg] <= current.firstNRangeStart()) {
+            return false;
+        }
+        assign(current, reg);
+        if (freeUntil[reg] <= current.lastNRangeStop()) {
+            // The register is free only for the first part of the current interval.
+            splitAndSpill(current, freeUntil[reg]);
+        }
+        return true;
+    }
+
+    // Assigns a register to the current interval by taking it away from the intervals that
+    // hold it and have their next use furthest away, or spills the current interval if its own
+    // first use is further away still.
+    private void allocateBlockedRegister(NInterval current) {
+        int position = current.firstNRangeStart();
+        int[] nextUse = new int[count];
+        for (int r = 0; r < count; r++) {
+            nextUse[r] = Integer.MAX_VALUE;
+        }
+        for (NInterval interval : active) {
+            int r = indexOf(interval.pRegister);
+            nextUse[r] = Math.min(nextUse[r], interval.nextUsage(position));
+        }
+        for (NInterval interval : inactive) {
+            if (interval.nextIntersection(current) >= 0) {
+                int r = indexOf(interval.pRegister);
+                nextUse[r] = Math.min(nextUse[r], interval.nextUsage(position));
+            }
+        }
+
+        int reg = 0;
+        for (int r = 1; r < count; r++) {
+            if (nextUse[r] > nextUse[reg]) {
+                reg = r;
+            }
+        }
+        int firstUse = current.nextUsage(position);
+        if (firstUse > nextUse[reg]) {
+            // All other intervals are used before the current one, so spill the current interval
+            // until its first use.
+            spill(current);
+            if (firstUse != Integer.MAX_VALUE) {
+                unhandled.add(current.splitAt(firstUse));
+            }
+        } else {
+            assign(current, reg);
+            NPhysicalRegister pRegister = current.pRegister;
+            for (NInterval interval : new ArrayList<NInterval>(active)) {
+                if (interval.pRegister == pRegister) {
+                    active.remove(interval);
+                    splitAndSpill(interval, position);
+                }
+            }
+            for (NInterval interval : new ArrayList<NInterval>(inactive)) {
+                if (interval.pRegister == pRegister && interval.nextIntersection(current) >= 0) {
+                    inactive.remove(interval);
+                    splitAndSpill(interval, position);
+                }
+            }
+        }
+    }
+
+    // Splits the given interval at the given position, and spills the part after the split until
+    // its next use, from where on it needs a register again and is added to the unhandled list.
+    private void splitAndSpill(NInterval interval, int position) {
+        NInterval child = position > interval.firstNRangeStart() ?
+                interval.splitAt(position) : interval;
+        spill(child);
+        int use = child.nextUsage(position);
+        if (use != Integer.MAX_VALUE) {
+            if (use > child.firstNRangeStart()) {
+                unhandled.add(child.splitAt(use));
+            } else {
+                child.spill = false;
+                unhandled.add(child);
+            }
+        }
+    }
+
+    // Spills the given interval (ie, the value lives in the stack slot of its parent instead of
+    // in a register for the extent of the interval).
+    private void spill(NInterval interval) {
+        NInterval parent = interval.isChild() ? interval.parent : interval;
+        parent.spill();
+        interval.spill();
+        interval.pRegister = null;
+        if (interval != parent && parent.pRegister != null) {
+            // Only parts of the parent interval that live in memory are marked as spilled.
+            parent.spill = false;
+        }
+    }
+
+    // Assigns the r-th allocatable register to the given interval.
+    private void assign(NInterval interval, int r) {
+        NPhysicalRegister pRegister = regInfo[T0 + r];
+        interval.pRegister = pRegister;
+        interval.spill = false;
+        if (!cfg.pRegisters.contains(pRegister)) {
+            cfg.pRegisters.add(pRegister);
+        }
+    }
+
+    // Returns the index (among the allocatable registers) of the given register.
+    private int indexOf(NPhysicalRegister pRegister) {
+        return pRegister.number() - T0;
+    }
+
+    // Stores every split interval to its stack slot after each of its definitions.
+    private void insertStores() {
+        for (int i = 32; i < cfg.intervals.size(); i++) {
+            NInterval parent = cfg.intervals.get(i);
+            if (parent.children.isEmpty() || parent.offsetFrom != OffsetFrom.SP) {
+                continue;
+            }
+            ArrayList<NInterval> parts = new ArrayList<NInterval>(parent.children);
+            parts.add(0, parent);
+            for (NInterval part : parts) {
+                for (int j = 0; j < part.usageCount(); j++) {
+                    int pos = part.usage(j);
+                    if (part.usageType(j) == InstructionType.write) {
+                        NBasicBlock block = lirAt.get(pos).block;
+                        block.insertLIRInst(new NLIRStore(block, pos + 1, parent.offset,
+                                parent.offsetFrom, part.pRegister));
+                    }
+                }
+            }
+        }
+    }
+
+    // Reloads the value of a split interval into the register of a part that starts within a
+    // basic block (splits at block boundaries are handled by resolveDataFlow()).
+    private void resolveSplits() {
+        for (int i = 32; i < cfg.intervals.size(); i++) {
+            NInterval parent = cfg.intervals.get(i);
+            for (NInterval child : parent.children) {
+                int start = child.firstNRangeStart();
+                if (child.pRegister == null ||
+                        child.usageTypeAt(start) == InstructionType.write) {
+                    continue;
+                }
+                NBasicBlock block = lirAt.get(start).block;
+                if (block.lir.get(0) == lirAt.get(start)) {
+                    continue;
+                }
+                block.insertLIRInst(new NLIRLoad(block, start - 1, parent.offset,
+                        parent.offsetFrom, child.pRegister));
+            }
+        }
+    }
+
+    // Reloads the values of split intervals whose location changes along a control flow edge.
+    // The loads go at the end of the predecessor if it has no other successors, at the start of
+    // the successor if it has no other predecessors, and in a new block on the edge otherwise.
+    // Blocks without LIR instructions have no positions of their own, so only the edges into
+    // blocks with instructions are resolved, each against the locations at the ends of all the
+    // blocks with instructions that reach it through blocks without any. Since the stack slot of
+    // a split interval always holds its current value, a load that's redundant along some of
+    // those paths is harmless.
+    private void resolveDataFlow() {
+        for (NBasicBlock to : new ArrayList<NBasicBlock>(cfg.basicBlocks)) {
+            if (!firstIds.containsKey(to) || firstIds.get(to) == -1) {
+                continue;
+            }
+            for (NBasicBlock from : new ArrayList<NBasicBlock>(to.predecessors)) {
+                ArrayList<Integer> fromIds = lastIdsReaching(from);
+                if (fromIds.isEmpty()) {
+                    continue;
+                }
+                ArrayList<NInterval> spilled = new ArrayList<NInterval>();
+                ArrayList<NPhysicalRegister> registers = new ArrayList<NPhysicalRegister>();
+                BitSet liveIn = to.liveIn;
+                for (int i = liveIn.nextSetBit(32); i >= 0; i = liveIn.nextSetBit(i + 1)) {
+                    NInterval parent = cfg.intervals.get(i);
+                    if (parent.children.isEmpty()) {
+                        continue;
+                    }
+                    NInterval toPart = parent.childAt(firstIds.get(to));
+                    if (toPart.pRegister == null) {
+                        continue;
+                    }
+                    for (int fromId : fromIds) {
+                        if (parent.childAt(fromId).pRegister != toPart.pRegister) {
+                            spilled.add(parent);
+                            registers.add(toPart.pRegister);
+                            break;
+                        }
+                    }
+                }
+                if (!spilled.isEmpty()) {
+                    insertLoads(from, to, spilled, registers);
+                }
+            }
+        }
+    }
+
+    // Returns the ids of the last LIR instructions of the given block, if it has any, or else of
+    // the blocks with instructions that reach it through blocks without any.
+    private ArrayList<Integer> lastIdsReaching(NBasicBlock block) {
+        ArrayList<Integer> ids = new ArrayList<Integer>();
+        ArrayList<NBasicBlock> visited = new ArrayList<NBasicBlock>();
+        ArrayList<NBasicBlock> workList = new ArrayList<NBasicBlock>();
+        workList.add(block);
+        while (!workList.isEmpty()) {
+            NBasicBlock b = workList.remove(workList.size() - 1);
+            if (visited.contains(b) || !lastIds.containsKey(b)) {
+                continue;
+            }
+            visited.add(b);
+            if (lastIds.get(b) != -1) {
+                ids.add(lastIds.get(b));
+            } else {
+                workList.addAll(b.predecessors);
+            }
+        }
+        return ids;
+    }
+
+    // Inserts loads of the given (spilled) intervals into the given registers on the control
+    // flow edge from -> to.
+    private void insertLoads(NBasicBlock from, NBasicBlock to, ArrayList<NInterval> spilled,
+                             ArrayList<NPhysicalRegister> registers) {
+        NBasicBlock block;
+        int index, id;
+        if (from.lir.isEmpty()) {
+            // The predecessor has no instructions, and so no jump we could redirect to a new
+            // block; the loads go at the end of the predecessor if the edge is its only way out,
+            // and at the start of the successor (where they're redundant, but harmless, along
+            // its other incoming edges) otherwise.
+            block = from.successors.size() == 1 ? from : to;
+            index = 0;
+            id = to.lir.get(0).id - 4;
+            for (int i = 0; i < spilled.size(); i++) {
+                NInterval parent = spilled.get(i);
+                block.lir.add(index++, new NLIRLoad(block, id++, parent.offset,
+                        parent.offsetFrom, registers.get(i)));
+            }
+            return;
+        }
+        NLIRInstruction last = from.lir.get(from.lir.size() - 1);
+        if (from.successors.size() == 1) {
+            block = from;
+            if (last instanceof NLIRGoto || last instanceof NLIRSwitch) {
+                index = from.lir.size() - 1;
+                id = last.id - 3;
+            } else {
+                index = from.lir.size();
+                id = last.id + 2;
+            }
+        } else if (to.predecessors.size() == 1) {
+            block = to;
+            index = 0;
+            id = to.lir.isEmpty() ? last.id + 1 : to.lir.get(0).id - 4;
+        } else {
+            // A critical edge, which we split with a new block.
+            int blockId = 0;
+            for (NBasicBlock b : cfg.basicBlocks) {
+                blockId = Math.max(blockId, b.id + 1);
+            }
+            block = new NBasicBlock(cfg, blockId);
+            block.liveUse = new BitSet();
+            block.liveDef = new BitSet();
+            block.liveIn = (BitSet) to.liveIn.clone();
+            block.liveOut = (BitSet) to.liveIn.clone();
+            block.predecessors.add(from);
+            block.successors.add(to);
+            from.successors.set(from.successors.indexOf(to), block);
+            to.predecessors.set(to.predecessors.indexOf(from), block);
+            last.replaceDestination(to, block);
+            cfg.basicBlocks.add(block);
+            index = 0;
+            id = last.id + 1;
+            block.lir.add(new NLIRGoto(block, id + spilled.size(), to));
+        }
+        for (int i = 0; i < spilled.size(); i++) {
+            NInterval parent = spilled.get(i);
+            block.lir.add(index++, new NLIRLoad(block, id++, parent.offset, parent.offsetFrom,
+                    registers.get(i)));
+        }
     }
 }
@@ -11,7 +11,8 @@ import static jminusminus.NPhysicalRegister.*;
 /**
  * Implements a naive register allocation method. Each interval is considered live for the entire
  * cfg. Intervals are assigned physical registers on a first come basis. When we run out of
- * registers, we reuse the ones already assigned and spill.
+ * registers, we reuse the ones already assigned and spill. One register is then kept back as a
+ * scratch register, for when an instruction reads two spilled intervals that share a register.
  */
 public class NNaiveRegisterAllocator extends NRegisterAllocator {
     /**
@@ -31,17 +32,32 @@ public class NNaiveRegisterAllocator extends NRegisterAllocator {
         for (NInterval interval : cfg.intervals) {
             NBasicBlock lastBlock = cfg.basicBlocks.get(cfg.basicBlocks.size() - 1);
             NLIRInstruction lastLir = lastBlock.lir.get(lastBlock.lir.size() - 1);
-            interval.ranges.add(new NRange(0, lastLir.id));
+            interval.addRange(0, lastLir.id);
         }
 
         preprocess();
 
+        // Number of registers (starting at t0) available for allocation; if the intervals don't
+        // all fit, the one after them is the scratch register.
+        int count = Math.max(MAX_COUNT, 2);
+        int needed = 0;
+        for (int i = 32; i < cfg.intervals.size(); i++) {
+            if (cfg.intervals.get(i).pRegister == null) {
+                needed++;
+            }
+        }
+        NPhysicalRegister scratch = null;
+        if (needed > count) {
+            count--;
+            scratch = regInfo[T0 + count];
+        }
+
         // Allocate registers.
         Queue<NInterval> assigned = new LinkedList<NInterval>();
         for (int i = 32, j = 0; i < cfg.intervals.size(); i++) {
             NInterval interval = cfg.intervals.get(i);
             if (interval.pRegister == null) {
-                if (j >= MAX_COUNT) {
+                if (j >= count) {
                     // Pull out (from a queue) a register that's already assigned to another
                     // interval and re-assign it to this interval. But then we have a spill
                     // situation, so create an offset for the spill.
@@ -81,9 +97,11 @@ public class NNaiveRegisterAllocator extends NRegisterAllocator {
                 if (lir.reads.size() == 2) {
                     NInterval input1 = cfg.intervals.get(lir.reads.get(0).number()).childAt(id);
                     NInterval input2 = cfg.intervals.get(lir.reads.get(1).number()).childAt(id);
-                    if (input1.pRegister == input2.pRegister) {
-                        input2.pRegister =
-                                regInfo[T0 + (input2.pRegister.number() + 1) % MAX_COUNT];
+                    if (input1 != input2 && input1.pRegister == input2.pRegister) {
+                        // Both inputs are spilled intervals sharing a register, so the second is
+                        // read (just here) through a new virtual register in the scratch
+                        // register, loaded from the same stack slot.
+                        lir.reads.set(1, scratchCopy(input2, scratch));
                     }
                 }
 
@@ -110,4 +128,26 @@ public class NNaiveRegisterAllocator extends NRegisterAllocator {
             block.lir = newLir;
         }
     }
+
+    // Returns a new virtual register whose interval is a spilled copy of the given one, spanning
+    // the entire cfg like every other, but in the given scratch register.
+    private NVirtualRegister scratchCopy(NInterval interval, NPhysicalRegister scratch) {
+        NVirtualRegister reg = (NVirtualRegister) cfg.registers.get(interval.vRegId);
+        NVirtualRegister copy = new NVirtualRegister(cfg.registers.size(), reg.sType(),
+                reg.lType());
+        cfg.registers.add(copy);
+        NInterval copyInterval = new NInterval(copy.number(), cfg);
+        NBasicBlock lastBlock = cfg.basicBlocks.get(cfg.basicBlocks.size() - 1);
+        copyInterval.addRange(0, lastBlock.lir.get(lastBlock.lir.size() - 1).id);
+        copyInterval.pRegister = scratch;
+        copyInterval.spill = true;
+        copyInterval.offset = interval.offset;
+        copyInterval.offsetFrom = interval.offsetFrom;
+        cfg.intervals.add(copyInterval);
+        cfg.maxIntervals = cfg.intervals.size();
+        if (!cfg.pRegisters.contains(scratch)) {
+            cfg.pRegisters.add(scratch);
+        }
+        return copy;
+    }
 }
@@ -69,6 +69,24 @@ class NVirtualRegister extends NRegister {
         this.lType = lType;
     }
 
+    /**
+     * Returns the type (short name) of value in this register.
+     *
+     * @return the type (short name) of value in this register.
+     */
+    public String sType() {
+        return sType;
+    }
+
+    /**
+     * Returns the type (long name) of value in this register.
+     *
+     * @return the type (long name) of value in this register.
+     */
+    public String lType() {
+        return lType;
+    }
+
     /**
      * Returns a string representation of this virtual register.
      *
@@ -84,9 +102,11 @@ class NVirtualRegister extends NRegister {
  */
 class NPhysicalRegister extends NRegister {
     /**
-     * Maximum number of physical registers used for allocation, starting at T0.
+     * Maximum number of physical registers used for allocation, starting at T0. This is set
+     * (from the command line) before any method is translated, and only read after that, so
+     * methods may be translated concurrently.
      */
-    public static int MAX_COUNT = 8;
+    public static volatile int MAX_COUNT = 8;
 
     // Constants identifying the physical registers. These can be used as indices into the static
     // regInfo array to access the representations of the corresponding registers.
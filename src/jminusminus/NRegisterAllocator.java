@@ -17,6 +17,9 @@ public abstract class NRegisterAllocator {
      */
     protected NControlFlowGraph cfg;
 
+    // Why registers couldn't be allocated for the cfg, or null if they could.
+    private String error;
+
     /**
      * Constructs an NRegisterAllocator object.
      *
@@ -46,7 +49,7 @@ public abstract class NRegisterAllocator {
             int blockEnd = currBlock.lir.get(currBlock.lir.size() - 1).id;
             BitSet liveOut = currBlock.liveOut;
             for (int idx = liveOut.nextSetBit(0); idx >= 0; idx = liveOut.nextSetBit(idx + 1)) {
-                cfg.intervals.get(idx).addOrExtendNRange(new NRange(blockStart, blockEnd));
+                cfg.intervals.get(idx).addOrExtendRange(blockStart, blockEnd);
             }
             for (int j = currBlock.lir.size() - 1; j >= 0; j--) {
                 int currLIRid = currBlock.lir.get(j).id;
@@ -58,8 +61,7 @@ public abstract class NRegisterAllocator {
                 }
                 ArrayList<NRegister> inputs = currBlock.lir.get(j).reads;
                 for (NRegister reg : inputs) {
-                    cfg.intervals.get(reg.number).addOrExtendNRange(new NRange(blockStart,
-                            currLIRid));
+                    cfg.intervals.get(reg.number).addOrExtendRange(blockStart, currLIRid);
                     cfg.intervals.get(reg.number).addUsePosition(currLIRid, InstructionType.read);
                 }
             }
@@ -101,6 +103,25 @@ public abstract class NRegisterAllocator {
      */
     public abstract void allocation();
 
+    /**
+     * Returns the reason registers couldn't be allocated for the cfg, or null if they could.
+     *
+     * @return the reason registers couldn't be allocated, or null.
+     */
+    public String error() {
+        return error;
+    }
+
+    /**
+     * Records that registers couldn't be allocated for the cfg, for the given reason.
+     *
+     * @param message the reason, as a format string.
+     * @param args    arguments referenced by the format specifiers in the message.
+     */
+    protected void reportAllocationError(String message, Object... args) {
+        error = String.format(message, args);
+    }
+
     /**
      * Prints the local and global live sets to standard output.
      *
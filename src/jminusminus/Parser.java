@@ -92,12 +92,12 @@ public class Parser {
     private TypeName qualifiedIdentifier() {
         int line = scanner.token().line();
         mustBe(IDENTIFIER);
-        String qualifiedIdentifier = scanner.previousToken().image();
+        StringBuilder qualifiedIdentifier = new StringBuilder(scanner.previousToken().image());
         while (have(DOT)) {
             mustBe(IDENTIFIER);
-            qualifiedIdentifier += "." + scanner.previousToken().image();
+            qualifiedIdentifier.append('.').append(scanner.previousToken().image());
         }
-        return new TypeName(line, qualifiedIdentifier);
+        return new TypeName(line, qualifiedIdentifier.toString());
     }
 
     /**
@@ -344,6 +344,8 @@ public class Parser {
      *               | RETURN [ expression ] SEMI
      *               | SEMI
      *               | WHILE parExpression statement
+     *               | SWITCH parExpression LCURLY { switchBlockStatementGroup } RCURLY
+     *               | BREAK SEMI
      *               | statementExpression SEMI
      * </pre>
      *
@@ -392,26 +394,16 @@ public class Parser {
             return new JForStatement(line, init, test, update, statement);
         } else if (have(SWITCH)) {
             JExpression test = parExpression();
-            ArrayList<JExpression> switchLabels = new ArrayList<JExpression>();
-            ArrayList<JStatement> block = new ArrayList<JStatement>();
             ArrayList<SwitchStatementGroup> stmtGroup = new ArrayList<SwitchStatementGroup>();
-            if (have(LCURLY)) {
-                while (have(CASE)) {
-                    switchLabels.add(expression());
-                    if (have(COLON)) {
-
-                    }
-                }
-                if (have(DEFAULT)) {
-                    if (have(COLON)) {
-
-                    }
-                }
-                stmtGroup.add(new SwitchStatementGroup(switchLabels, block));
-                if (have(RCURLY)) {
-                }
+            mustBe(LCURLY);
+            while (see(CASE) || see(DEFAULT)) {
+                stmtGroup.add(switchBlockStatementGroup());
             }
+            mustBe(RCURLY);
             return new JSwitchStatement(line, test, stmtGroup);
+        } else if (have(BREAK)) {
+            mustBe(SEMI);
+            return new JBreakStatement(line);
         } else if (have(TRY)) {
             JBlock tryBlock = block();
             ArrayList<JFormalParameter> parameters = new ArrayList<JFormalParameter>();
@@ -450,6 +442,35 @@ public class Parser {
         }
     }
 
+    /**
+     * Parses a group of statements in a switch block and returns it.
+     *
+     * <pre>
+     *   switchBlockStatementGroup ::= switchLabel { switchLabel } { blockStatement }
+     *   switchLabel ::= CASE expression COLON
+     *                 | DEFAULT COLON
+     * </pre>
+     *
+     * @return a switch-statement group.
+     */
+    private SwitchStatementGroup switchBlockStatementGroup() {
+        ArrayList<JExpression> switchLabels = new ArrayList<JExpression>();
+        do {
+            if (have(CASE)) {
+                switchLabels.add(expression());
+            } else {
+                mustBe(DEFAULT);
+                switchLabels.add(null);
+            }
+            mustBe(COLON);
+        } while (see(CASE) || see(DEFAULT));
+        ArrayList<JStatement> block = new ArrayList<JStatement>();
+        while (!see(CASE) && !see(DEFAULT) && !see(RCURLY) && !see(EOF)) {
+            block.add(blockStatement());
+        }
+        return new SwitchStatementGroup(switchLabels, block);
+    }
+
     /**
      * Parses and returns a list of formal parameters.
      *
@@ -0,0 +1,457 @@
+// Copyright 2012- Bill Campbell, Swami Iyer and Bahar Akbal-Delibas
+
+package jminusminus;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A small simulator for the SPIM programs the compiler writes (with -s), which runs them and
+ * counts the instructions, loads (lw) and stores (sw) executed; CompilerBench uses it to compare
+ * the code of the register allocators and of the HIR optimizations. It knows only the
+ * instructions and directives that NEmitter and the SPIM runtime (SPIM.s) use, and the syscalls
+ * for printing an int, a string and a character, and for exiting.
+ */
+class SPIMSimulator {
+    // Names of the registers, by number.
+    private static final String[] REGISTERS = { "zero", "at", "v0", "v1", "a0", "a1", "a2", "a3",
+            "t0", "t1", "t2", "t3", "t4", "t5", "t6", "t7", "s0", "s1", "s2", "s3", "s4", "s5",
+            "s6", "s7", "t8", "t9", "k0", "k1", "gp", "sp", "fp", "ra" };
+
+    // Numbers of the registers used by the syscalls, the stack pointer and the return address.
+    private static final int V0 = 2, A0 = 4, SP = 29, RA = 31;
+
+    // Address of the data segment, and initial value of the stack pointer.
+    private static final int DATA = 0x10000000, STACK = 0x7fff0000;
+
+    // Number of instructions after which a program is stopped.
+    private static final long MAX_STEPS = 100000000L;
+
+    // An instruction, with its operands decoded: a register operand is its number and a value of
+    // 0; an immediate operand or a label is a register of -1 and the value (the address or
+    // instruction index of a label); and a memory operand offset(register) is the register and
+    // the offset.
+    private static class Instruction {
+        // The instruction as written.
+        String text;
+
+        // Its mnemonic.
+        String op;
+
+        // Its operands.
+        int[] registers = new int[3];
+        int[] values = new int[3];
+
+        // Labels in the operands, resolved when the whole program has been read.
+        String[] labels = new String[3];
+    }
+
+    // The instructions of the program.
+    private ArrayList<Instruction> text;
+
+    // Maps the labels to the indices of the instructions and the addresses of the data they
+    // label.
+    private HashMap<String, Integer> labels;
+
+    // Contents of the words and bytes of memory written; the words of .word directives whose
+    // values are labels are resolved when the whole program has been read.
+    private HashMap<Integer, Integer> words;
+    private HashMap<Integer, String> wordLabels;
+    private HashMap<Integer, Byte> bytes;
+
+    // The registers.
+    private int[] registers;
+
+    // What the program printed.
+    private StringBuilder output;
+
+    // Counts of the instructions, loads and stores executed.
+    private long steps, loads, stores;
+
+    // Whether the program ran to its end (rather than being stopped after MAX_STEPS).
+    private boolean finished;
+
+    /**
+     * Constructs a simulator for the SPIM program in the given file.
+     *
+     * @param file the SPIM (.s) file.
+     * @throws IOException if the file can't be read or holds what the simulator doesn't know.
+     */
+    public SPIMSimulator(String file) throws IOException {
+        text = new ArrayList<Instruction>();
+        labels = new HashMap<String, Integer>();
+        words = new HashMap<Integer, Integer>();
+        wordLabels = new HashMap<Integer, String>();
+        bytes = new HashMap<Integer, Byte>();
+        read(Files.readAllLines(Paths.get(file)));
+    }
+
+    /**
+     * Runs the program from the label main until it returns from main, exits, or has executed
+     * MAX_STEPS instructions.
+     *
+     * @throws IOException if the program does what the simulator doesn't know.
+     */
+    public void run() throws IOException {
+        registers = new int[32];
+        registers[SP] = STACK;
+        registers[RA] = -1;
+        output = new StringBuilder();
+        steps = loads = stores = 0;
+        finished = false;
+        Integer main = labels.get("main");
+        if (main == null) {
+            throw new IOException("no main label");
+        }
+        int pc = main;
+        while (pc >= 0 && pc < text.size()) {
+            if (++steps > MAX_STEPS) {
+                return;
+            }
+            Instruction ins = text.get(pc++);
+            int[] r = ins.registers;
+            int[] v = ins.values;
+            switch (ins.op) {
+                case "add":
+                case "addu":
+                case "addi":
+                case "addiu":
+                    set(r[0], value(ins, 1) + value(ins, 2));
+                    break;
+                case "sub":
+                case "subu":
+                    set(r[0], value(ins, 1) - value(ins, 2));
+                    break;
+                case "mul":
+                    set(r[0], value(ins, 1) * value(ins, 2));
+                    break;
+                case "div":
+                    set(r[0], value(ins, 1) / value(ins, 2));
+                    break;
+                case "rem":
+                    set(r[0], value(ins, 1) % value(ins, 2));
+                    break;
+                case "sll":
+                    set(r[0], value(ins, 1) << value(ins, 2));
+                    break;
+                case "li":
+                case "la":
+                case "move":
+                    set(r[0], value(ins, 1));
+                    break;
+                case "lw": {
+                    loads++;
+                    Integer word = words.get(address(ins, 1));
+                    set(r[0], word == null ? 0 : word);
+                    break;
+                }
+                case "sw":
+                    stores++;
+                    words.put(address(ins, 1), registers[r[0]]);
+                    break;
+                case "j":
+                    pc = v[0];
+                    break;
+                case "jal":
+                    registers[RA] = pc;
+                    pc = v[0];
+                    break;
+                case "jr":
+                    pc = registers[r[0]];
+                    break;
+                case "beq":
+                case "bne":
+                case "blt":
+                case "ble":
+                case "bgt":
+                case "bge":
+                    if (taken(ins.op, value(ins, 0), value(ins, 1))) {
+                        pc = v[2];
+                    }
+                    break;
+                case "syscall":
+                    if (!syscall()) {
+                        finished = true;
+                        return;
+                    }
+                    break;
+                default:
+                    throw new IOException("unknown instruction: " + ins.text);
+            }
+        }
+        finished = true;
+    }
+
+    /**
+     * Returns what the program printed.
+     *
+     * @return what the program printed.
+     */
+    public String output() {
+        return output.toString();
+    }
+
+    /**
+     * Returns the number of instructions executed.
+     *
+     * @return the number of instructions executed.
+     */
+    public long steps() {
+        return steps;
+    }
+
+    /**
+     * Returns the number of loads (lw) executed.
+     *
+     * @return the number of loads executed.
+     */
+    public long loads() {
+        return loads;
+    }
+
+    /**
+     * Returns the number of stores (sw) executed.
+     *
+     * @return the number of stores executed.
+     */
+    public long stores() {
+        return stores;
+    }
+
+    /**
+     * Returns true if the program ran to its end, and false if it was stopped after MAX_STEPS
+     * instructions.
+     *
+     * @return true if the program ran to its end, and false otherwise.
+     */
+    public boolean finished() {
+        return finished;
+    }
+
+    // Reads the program from the given lines.
+    private void read(List<String> lines) throws IOException {
+        boolean inText = true;
+        int data = DATA;
+        for (String line : lines) {
+            line = stripComment(line).trim();
+            int colon = labelEnd(line);
+            if (colon > 0) {
+                labels.put(line.substring(0, colon), inText ? text.size() : data);
+                line = line.substring(colon + 1).trim();
+            }
+            if (line.isEmpty() || line.startsWith(".globl")) {
+                continue;
+            } else if (line.equals(".text")) {
+                inText = true;
+            } else if (line.equals(".data")) {
+                inText = false;
+            } else if (line.startsWith(".word")) {
+                for (String value : line.substring(5).split(",")) {
+                    value = value.trim();
+                    if (isNumber(value)) {
+                        words.put(data, Integer.parseInt(value));
+                    } else {
+                        wordLabels.put(data, value);
+                    }
+                    data += 4;
+                }
+            } else if (line.startsWith(".asciiz")) {
+                String s = unescape(line.substring(line.indexOf('"') + 1, line.lastIndexOf('"')));
+                for (int i = 0; i < s.length(); i++) {
+                    bytes.put(data++, (byte) s.charAt(i));
+                }
+                bytes.put(data++, (byte) 0);
+            } else if (line.startsWith(".align")) {
+                int alignment = 1 << Integer.parseInt(line.substring(6).trim());
+                data = (data + alignment - 1) / alignment * alignment;
+            } else if (line.startsWith(".")) {
+                throw new IOException("unknown directive: " + line);
+            } else {
+                text.add(decode(line));
+            }
+        }
+        for (Instruction ins : text) {
+            for (int i = 0; i < 3; i++) {
+                if (ins.labels[i] != null) {
+                    ins.values[i] += resolve(ins.labels[i]);
+                }
+            }
+        }
+        for (int address : wordLabels.keySet()) {
+            words.put(address, resolve(wordLabels.get(address)));
+        }
+    }
+
+    // Decodes the given instruction.
+    private Instruction decode(String line) throws IOException {
+        Instruction ins = new Instruction();
+        ins.text = line;
+        int space = line.indexOf(' ');
+        ins.op = space < 0 ? line : line.substring(0, space);
+        String[] operands = space < 0 ? new String[0] : line.substring(space + 1).split(",");
+        if (operands.length > 3) {
+            throw new IOException("too many operands: " + line);
+        }
+        for (int i = 0; i < operands.length; i++) {
+            String operand = operands[i].trim();
+            int paren = operand.indexOf('(');
+            if (operand.startsWith("$")) {
+                ins.registers[i] = register(operand);
+            } else if (paren >= 0) {
+                // A memory operand offset(register) or label(register).
+                ins.registers[i] = register(operand.substring(paren + 1, operand.length() - 1));
+                decodeValue(ins, i, operand.substring(0, paren));
+            } else {
+                ins.registers[i] = -1;
+                decodeValue(ins, i, operand);
+            }
+        }
+        return ins;
+    }
+
+    // Decodes the given immediate operand, label, or label+offset, as the i-th operand of the
+    // given instruction.
+    private void decodeValue(Instruction ins, int i, String operand) {
+        int plus = operand.lastIndexOf('+');
+        if (isNumber(operand)) {
+            ins.values[i] = Integer.parseInt(operand);
+        } else if (plus > 0 && isNumber(operand.substring(plus + 1))) {
+            ins.labels[i] = operand.substring(0, plus);
+            ins.values[i] = Integer.parseInt(operand.substring(plus + 1));
+        } else {
+            ins.labels[i] = operand;
+        }
+    }
+
+    // Returns the number of the register with the given name ($name or $number).
+    private int register(String name) throws IOException {
+        String s = name.substring(1);
+        if (isNumber(s)) {
+            return Integer.parseInt(s);
+        }
+        for (int i = 0; i < REGISTERS.length; i++) {
+            if (REGISTERS[i].equals(s)) {
+                return i;
+            }
+        }
+        throw new IOException("unknown register: " + name);
+    }
+
+    // Returns the instruction index or address of the given label.
+    private int resolve(String label) throws IOException {
+        Integer value = labels.get(label);
+        if (value == null) {
+            throw new IOException("undefined label: " + label);
+        }
+        return value;
+    }
+
+    // Returns the value of the i-th operand of the given instruction.
+    private int value(Instruction ins, int i) {
+        return ins.registers[i] >= 0 ? registers[ins.registers[i]] : ins.values[i];
+    }
+
+    // Returns the address that the i-th (memory) operand of the given instruction refers to.
+    private int address(Instruction ins, int i) {
+        return ins.values[i] + (ins.registers[i] >= 0 ? registers[ins.registers[i]] : 0);
+    }
+
+    // Sets the given register to the given value; $zero stays 0.
+    private void set(int register, int value) {
+        if (register != 0) {
+            registers[register] = value;
+        }
+    }
+
+    // Returns true if the branch with the given mnemonic is taken for the given operands.
+    private static boolean taken(String op, int x, int y) {
+        switch (op) {
+            case "beq":
+                return x == y;
+            case "bne":
+                return x != y;
+            case "blt":
+                return x < y;
+            case "ble":
+                return x <= y;
+            case "bgt":
+                return x > y;
+            default:
+                return x >= y;
+        }
+    }
+
+    // Carries out the syscall in $v0; returns false if it exits the program, and true otherwise.
+    private boolean syscall() throws IOException {
+        switch (registers[V0]) {
+            case 1:
+                output.append(registers[A0]);
+                return true;
+            case 4:
+                for (int address = registers[A0]; bytes.containsKey(address) &&
+                        bytes.get(address) != 0; address++) {
+                    output.append((char) (bytes.get(address) & 0xff));
+                }
+                return true;
+            case 10:
+                return false;
+            case 11:
+                output.append((char) registers[A0]);
+                return true;
+            default:
+                throw new IOException("unknown syscall: " + registers[V0]);
+        }
+    }
+
+    // Returns the given line without its comment, if any.
+    private static String stripComment(String line) {
+        boolean inString = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"' && (i == 0 || line.charAt(i - 1) != '\\')) {
+                inString = !inString;
+            } else if (c == '#' && !inString) {
+                return line.substring(0, i);
+            }
+        }
+        return line;
+    }
+
+    // Returns the index of the colon ending the label at the start of the given line, or -1 if
+    // it doesn't start with a label.
+    private static int labelEnd(String line) {
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == ':') {
+                return i;
+            } else if (!Character.isLetterOrDigit(c) && c != '_' && c != '.' && c != '$') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    // Returns true if the given string is a (possibly negative) decimal number.
+    private static boolean isNumber(String s) {
+        return s.matches("-?[0-9]+");
+    }
+
+    // Returns the given string literal contents with their escape sequences replaced.
+    private static String unescape(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char d = s.charAt(++i);
+                sb.append(d == 'n' ? '\n' : d == 't' ? '\t' : d == '0' ? '\0' : d);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -2,12 +2,12 @@
 
 package jminusminus;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.LineNumberReader;
-import java.util.Collection;
-import java.util.Hashtable;
+import java.io.Reader;
+import java.util.Arrays;
 
 import static jminusminus.TokenKind.*;
 
@@ -19,8 +19,11 @@ class Scanner {
     // End of file character.
     public final static char EOFCH = CharReader.EOFCH;
 
-    // Keywords in j--.
-    private Hashtable<String, TokenKind> reserved;
+    // Suffixes of number literals.
+    private static final String[] SUFFIXES = {"l", "f", "d"};
+
+    // Keywords in j--, and the identifiers scanned so far.
+    private SymbolTable symbols;
 
     // Source characters.
     private CharReader input;
@@ -37,6 +40,9 @@ class Scanner {
     // Line number of current token.
     private int line;
 
+    // Buffer in which the images of identifiers and literals are built.
+    private StringBuilder buffer;
+
     /**
      * Constructs a Scanner from a file name.
      *
@@ -47,64 +53,65 @@ class Scanner {
         this.input = new CharReader(fileName);
         this.fileName = fileName;
         isInError = false;
-        
+        buffer = new StringBuilder();
+
         // Keywords in j--
-        reserved = new Hashtable<String, TokenKind>();
-        reserved.put(ABSTRACT.image(), ABSTRACT);
-        reserved.put(ASSERT.image(), ASSERT);
-        reserved.put(BOOLEAN.image(), BOOLEAN);
-        reserved.put(BREAK.image(), BREAK);
-        reserved.put(BYTE.image(), BYTE);
-        reserved.put(CASE.image(), CASE);
-        reserved.put(CATCH.image(), CATCH);
-        reserved.put(CHAR.image(), CHAR);
-        reserved.put(CLASS.image(), CLASS);
-        reserved.put(CONST.image(), CONST);
-        reserved.put(CONTINUE.image(), CONTINUE);
-        reserved.put(DEFAULT.image(), DEFAULT);
-        reserved.put(DO.image(), DO);
-        reserved.put(DOUBLE.image(), DOUBLE);
-        reserved.put(ELSE.image(), ELSE);
-        reserved.put(ENUM.image(), ENUM);
-        reserved.put(EXTENDS.image(), EXTENDS);
-        reserved.put(FINAL.image(),FINAL);
-        reserved.put(FINALLY.image(),FINALLY);
-        reserved.put(FLOAT.image(), FLOAT);
-        reserved.put(FOR.image(), FOR);
-        //reserved.put(FALSE.image(), FALSE); Handling false separately since it's not case sensitive.
-        reserved.put(IF.image(), IF);
-        reserved.put(GOTO.image(), GOTO);
-        reserved.put(IMPLEMENTS.image(), IMPLEMENTS);
-        reserved.put(IMPORT.image(), IMPORT);
-        reserved.put(INSTANCEOF.image(), INSTANCEOF);
-        reserved.put(INT.image(), INT);
-        reserved.put(INTERFACE.image(), INTERFACE);
-        reserved.put(LONG.image(), LONG);
-        reserved.put(NATIVE.image(), NATIVE);
-        reserved.put(NEW.image(), NEW);
-        // reserved.put(NULL.image(), NULL); Handling null separately since it's not case sensitive
-        reserved.put(PACKAGE.image(), PACKAGE);
-        reserved.put(PRIVATE.image(), PRIVATE);
-        reserved.put(PROTECTED.image(), PROTECTED);
-        reserved.put(PUBLIC.image(), PUBLIC);
-        reserved.put(RETURN.image(), RETURN);
-        reserved.put(SHORT.image(), SHORT);
-        reserved.put(STATIC.image(), STATIC);
-        reserved.put(STRICTFP.image(), STRICTFP);
-        reserved.put(SUPER.image(), SUPER);
-        reserved.put(SWITCH.image(), SWITCH);
-        reserved.put(THIS.image(), THIS);
+        symbols = new SymbolTable();
+        symbols.put(ABSTRACT.image(), ABSTRACT);
+        symbols.put(ASSERT.image(), ASSERT);
+        symbols.put(BOOLEAN.image(), BOOLEAN);
+        symbols.put(BREAK.image(), BREAK);
+        symbols.put(BYTE.image(), BYTE);
+        symbols.put(CASE.image(), CASE);
+        symbols.put(CATCH.image(), CATCH);
+        symbols.put(CHAR.image(), CHAR);
+        symbols.put(CLASS.image(), CLASS);
+        symbols.put(CONST.image(), CONST);
+        symbols.put(CONTINUE.image(), CONTINUE);
+        symbols.put(DEFAULT.image(), DEFAULT);
+        symbols.put(DO.image(), DO);
+        symbols.put(DOUBLE.image(), DOUBLE);
+        symbols.put(ELSE.image(), ELSE);
+        symbols.put(ENUM.image(), ENUM);
+        symbols.put(EXTENDS.image(), EXTENDS);
+        symbols.put(FINAL.image(),FINAL);
+        symbols.put(FINALLY.image(),FINALLY);
+        symbols.put(FLOAT.image(), FLOAT);
+        symbols.put(FOR.image(), FOR);
+        //symbols.put(FALSE.image(), FALSE); Handling false separately since it's not case sensitive.
+        symbols.put(IF.image(), IF);
+        symbols.put(GOTO.image(), GOTO);
+        symbols.put(IMPLEMENTS.image(), IMPLEMENTS);
+        symbols.put(IMPORT.image(), IMPORT);
+        symbols.put(INSTANCEOF.image(), INSTANCEOF);
+        symbols.put(INT.image(), INT);
+        symbols.put(INTERFACE.image(), INTERFACE);
+        symbols.put(LONG.image(), LONG);
+        symbols.put(NATIVE.image(), NATIVE);
+        symbols.put(NEW.image(), NEW);
+        // symbols.put(NULL.image(), NULL); Handling null separately since it's not case sensitive
+        symbols.put(PACKAGE.image(), PACKAGE);
+        symbols.put(PRIVATE.image(), PRIVATE);
+        symbols.put(PROTECTED.image(), PROTECTED);
+        symbols.put(PUBLIC.image(), PUBLIC);
+        symbols.put(RETURN.image(), RETURN);
+        symbols.put(SHORT.image(), SHORT);
+        symbols.put(STATIC.image(), STATIC);
+        symbols.put(STRICTFP.image(), STRICTFP);
+        symbols.put(SUPER.image(), SUPER);
+        symbols.put(SWITCH.image(), SWITCH);
+        symbols.put(THIS.image(), THIS);
         // Scanners Added
-        reserved.put(TRY.image(), TRY);
-        reserved.put(CATCH.image(),CATCH);
-        reserved.put(FINALLY.image(),FINALLY);
-        // reserved.put(TRUE.image(), TRUE); Handling true separately since it's not case sensitive.
-        reserved.put(UNDERSCORE.image(), UNDERSCORE);
-        reserved.put(UNTIL.image(), UNTIL);
-        reserved.put(VOID.image(), VOID);
-        reserved.put(WHILE.image(), WHILE);
-        reserved.put(THROW.image(), THROW);
-        reserved.put(THROWS.image(), THROWS);
+        symbols.put(TRY.image(), TRY);
+        symbols.put(CATCH.image(),CATCH);
+        symbols.put(FINALLY.image(),FINALLY);
+        // symbols.put(TRUE.image(), TRUE); Handling true separately since it's not case sensitive.
+        symbols.put(UNDERSCORE.image(), UNDERSCORE);
+        symbols.put(UNTIL.image(), UNTIL);
+        symbols.put(VOID.image(), VOID);
+        symbols.put(WHILE.image(), WHILE);
+        symbols.put(THROW.image(), THROW);
+        symbols.put(THROWS.image(), THROWS);
         // Prime the pump.
         nextCh();
     }
@@ -115,11 +122,9 @@ class Scanner {
      * @return the next scanned token.
      */
     public TokenInfo getNextToken() {
-        StringBuffer buffer;
         boolean moreWhiteSpace = true;
         boolean scientificNotation = false;
         boolean floatingPoint = false;
-        String[] suffixes = {"l","f","d"};
         int multilineCount = 0;
         while (moreWhiteSpace) {
             while (isWhitespace(ch)) {
@@ -186,7 +191,7 @@ class Scanner {
                         return new TokenInfo(DOT, line);
                     }
                 } else {
-                    buffer = new StringBuffer();
+                    buffer.setLength(0);
                     buffer.append('.');
                     buffer.append(ch);
                     nextCh();
@@ -420,7 +425,7 @@ class Scanner {
                 nextCh();
                 return new TokenInfo(QUESTION, line);
             case '\'':
-                buffer = new StringBuffer();
+                buffer.setLength(0);
                 buffer.append('\'');
                 nextCh();
                 if (ch == '\\') {
@@ -443,7 +448,7 @@ class Scanner {
                     return new TokenInfo(CHAR_LITERAL, buffer.toString(), line);
                 }
             case '"':
-                buffer = new StringBuffer();
+                buffer.setLength(0);
                 buffer.append("\"");
                 nextCh();
                 while (ch != '"' && ch != '\n' && ch != EOFCH) {
@@ -478,7 +483,7 @@ class Scanner {
             case '9':// Added scanning for number literals not starting with 0 (Tanner Denson)
                 floatingPoint = false;
                 scientificNotation = false;
-                buffer = new StringBuffer();
+                buffer.setLength(0);
                 buffer.append(ch);
                 nextCh();
                 while (isDigit(ch) || ch == '_' || ch == '.' || ch == 'e' || ch == 'E') {
@@ -534,7 +539,7 @@ class Scanner {
                 if(buffer.charAt(buffer.length()-1) == '_') {
                     reportScannerError("Cannot have an '_' at end of literal or before suffix");
                 }
-                for (String suffix : suffixes) {
+                for (String suffix : SUFFIXES) {
                     if (suffix.equalsIgnoreCase(Character.toString(ch))) {
                         switch(suffix) {
                             case "l":
@@ -572,7 +577,7 @@ class Scanner {
              */
 
                 // Cody Dukes & Jarvis Kampe
-                buffer = new StringBuffer();
+                buffer.setLength(0);
                 buffer.append(ch);
                 nextCh();
                 // Hexadecimal
@@ -640,7 +645,7 @@ class Scanner {
                             }
                         }
                     }
-                    for (String suffix : suffixes) {
+                    for (String suffix : SUFFIXES) {
                         if (suffix.equalsIgnoreCase(Character.toString(ch))) {
                             switch(suffix) {
                                 case "l":
@@ -717,7 +722,7 @@ class Scanner {
                             nextCh();
                         }
                     }
-                    for (String suffix : suffixes) {
+                    for (String suffix : SUFFIXES) {
                         if (suffix.equalsIgnoreCase(Character.toString(ch))) {
                             switch(suffix) {
                                 case "l":
@@ -750,29 +755,30 @@ class Scanner {
                 }
             default:
                 if (isIdentifierStart(ch)) {
-                    buffer = new StringBuffer();
+                    buffer.setLength(0);
                     while (isIdentifierPart(ch)) {
                         buffer.append(ch);
                         nextCh();
                     }
-                    String identifier = buffer.toString();
-                    if (reserved.containsKey(identifier)) {
-                        return new TokenInfo(reserved.get(identifier), line);
-                    } else { // Moved false,true,null here instead of in the hashtable since they're not case sensitive to make it easier (Tanner Denson)
-                        if(identifier.toLowerCase().equals("false")) {
-                            return new TokenInfo(FALSE, line);
-                        }
-
-                        if(identifier.toLowerCase().equals("true")) {
-                            return new TokenInfo(TRUE, line);
-                        }
-
-                        if(identifier.toLowerCase().equals("null")) {
-                            return new TokenInfo(NULL, line);
+                    Symbol symbol = symbols.get(buffer);
+                    if (symbol == null) {
+                        // Handling false, true and null here instead of among the keywords since
+                        // they're not case sensitive (Tanner Denson)
+                        String identifier = buffer.toString();
+                        if (identifier.equalsIgnoreCase("false")) {
+                            symbol = symbols.put(identifier, FALSE);
+                        } else if (identifier.equalsIgnoreCase("true")) {
+                            symbol = symbols.put(identifier, TRUE);
+                        } else if (identifier.equalsIgnoreCase("null")) {
+                            symbol = symbols.put(identifier, NULL);
+                        } else {
+                            symbol = symbols.put(identifier, IDENTIFIER);
                         }
-
-                        return new TokenInfo(IDENTIFIER, identifier, line);
                     }
+                    if (symbol.kind == IDENTIFIER) {
+                        return new TokenInfo(IDENTIFIER, symbol.image, line);
+                    }
+                    return new TokenInfo(symbol.kind, line);
                 } else {
                     reportScannerError("Unidentified input token: '%c'", ch);
                     nextCh();
@@ -876,19 +882,33 @@ class Scanner {
 }
 
 /**
- * A buffered character reader, which abstracts out differences between platforms, mapping all new
- * lines to '\n', and also keeps track of line numbers.
+ * A character reader, which reads the whole source file into memory in a few large blocks, and
+ * then hands out its characters one at a time. It abstracts out differences between platforms,
+ * mapping all new lines to '\n', and also keeps track of line numbers, counting them the way
+ * LineNumberReader does.
  */
 class CharReader {
     // Representation of the end of file as a character.
     public final static char EOFCH = (char) -1;
 
-    // The underlying reader records line numbers.
-    private LineNumberReader lineNumberReader;
+    // The underlying reader, until the file has been read.
+    private Reader reader;
 
     // Name of the file that is being read.
     private String fileName;
 
+    // The characters of the file, or null if the file hasn't been read yet.
+    private char[] chars;
+
+    // Number of characters in the file.
+    private int count;
+
+    // Position of the next character.
+    private int pos;
+
+    // Number of line terminators read so far.
+    private int lineNumber;
+
     /**
      * Constructs a CharReader from a file name.
      *
@@ -896,7 +916,7 @@ class CharReader {
      * @throws FileNotFoundException if the file is not found.
      */
     public CharReader(String fileName) throws FileNotFoundException {
-        lineNumberReader = new LineNumberReader(new FileReader(fileName));
+        reader = new FileReader(fileName);
         this.fileName = fileName;
     }
 
@@ -907,7 +927,29 @@ class CharReader {
      * @throws IOException if an I/O error occurs.
      */
     public char nextChar() throws IOException {
-        return (char) lineNumberReader.read();
+        if (chars == null) {
+            read();
+        }
+        if (pos >= count) {
+            // A last line without a terminator counts as a line, once.
+            if (pos == count && count > 0 && chars[count - 1] != '\n' &&
+                    chars[count - 1] != '\r') {
+                lineNumber++;
+            }
+            pos = count + 1;
+            return EOFCH;
+        }
+        char c = chars[pos++];
+        if (c == '\r') {
+            if (pos < count && chars[pos] == '\n') {
+                pos++;
+            }
+            c = '\n';
+        }
+        if (c == '\n') {
+            lineNumber++;
+        }
+        return c;
     }
 
     /**
@@ -916,7 +958,7 @@ class CharReader {
      * @return the current line number in the source file.
      */
     public int line() {
-        return lineNumberReader.getLineNumber() + 1; // LineNumberReader counts lines from 0
+        return lineNumber + 1;
     }
 
     /**
@@ -934,6 +976,147 @@ class CharReader {
      * @throws IOException if an I/O error occurs.
      */
     public void close() throws IOException {
-        lineNumberReader.close();
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+
+    // Reads the whole file into chars. The file's size in bytes is a good first guess at the
+    // number of characters in it; the array grows if the guess is short.
+    private void read() throws IOException {
+        chars = new char[(int) Math.min(new File(fileName).length(), Integer.MAX_VALUE - 8) + 1];
+        count = 0;
+        try {
+            int n;
+            while ((n = reader.read(chars, count, chars.length - count)) >= 0) {
+                count += n;
+                if (count == chars.length) {
+                    chars = Arrays.copyOf(chars, chars.length * 2);
+                }
+            }
+        } finally {
+            close();
+        }
+    }
+}
+
+/**
+ * A table of the keywords of j-- and the identifiers scanned so far, so that each distinct name
+ * is represented by a single string, made the first time the name is scanned. Names are looked
+ * up by their characters, without making a string.
+ */
+class SymbolTable {
+    // The chains of symbols, indexed by hash code; the length is a power of 2.
+    private Symbol[] table;
+
+    // Number of symbols in the table.
+    private int size;
+
+    /**
+     * Constructs an empty symbol table.
+     */
+    public SymbolTable() {
+        table = new Symbol[256];
+        size = 0;
+    }
+
+    /**
+     * Returns the symbol with the specified name, or null if there's none.
+     *
+     * @param name the name.
+     * @return the symbol with the specified name, or null.
+     */
+    public Symbol get(CharSequence name) {
+        int hash = hash(name);
+        for (Symbol symbol = table[hash & (table.length - 1)]; symbol != null;
+                symbol = symbol.next) {
+            if (symbol.hash == hash && symbol.image.contentEquals(name)) {
+                return symbol;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Enters the specified name into the table as a token of the specified kind, replacing the
+     * symbol with the same name (if any), and returns the new symbol.
+     *
+     * @param image the name.
+     * @param kind  the kind of token the name is.
+     * @return the symbol entered.
+     */
+    public Symbol put(String image, TokenKind kind) {
+        Symbol old = get(image);
+        if (old != null) {
+            old.kind = kind;
+            return old;
+        }
+        if (size == table.length / 2) {
+            Symbol[] oldTable = table;
+            table = new Symbol[oldTable.length * 2];
+            for (Symbol chain : oldTable) {
+                while (chain != null) {
+                    Symbol next = chain.next;
+                    int i = chain.hash & (table.length - 1);
+                    chain.next = table[i];
+                    table[i] = chain;
+                    chain = next;
+                }
+            }
+        }
+        Symbol symbol = new Symbol(image, kind, hash(image));
+        int i = symbol.hash & (table.length - 1);
+        symbol.next = table[i];
+        table[i] = symbol;
+        size++;
+        return symbol;
+    }
+
+    // Returns the hash code of the specified name; it's the same as String.hashCode().
+    private static int hash(CharSequence name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++) {
+            hash = 31 * hash + name.charAt(i);
+        }
+        return hash;
+    }
+}
+
+/**
+ * An entry in a symbol table.
+ */
+class Symbol {
+    /**
+     * The name.
+     */
+    public String image;
+
+    /**
+     * The kind of token the name is.
+     */
+    public TokenKind kind;
+
+    /**
+     * Hash code of the name.
+     */
+    public int hash;
+
+    /**
+     * Next symbol in the chain.
+     */
+    public Symbol next;
+
+    /**
+     * Constructs a symbol.
+     *
+     * @param image the name.
+     * @param kind  the kind of token the name is.
+     * @param hash  hash code of the name.
+     */
+    public Symbol(String image, TokenKind kind, int hash) {
+        this.image = image;
+        this.kind = kind;
+        this.hash = hash;
     }
 }
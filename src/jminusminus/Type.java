@@ -7,7 +7,10 @@ import java.lang.reflect.Modifier;
 
 import java.util.Arrays;
 import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A class for representing j-- types. All types are represented underneath (in the classRep
@@ -25,8 +28,17 @@ class Type {
     // The Type's internal (Java) representation.
     private Class<?> classRep;
 
-    // Maps type names to their Type representations.
-    private static Hashtable<String, Type> types = new Hashtable<String, Type>();
+    // The members of classRep (including the inherited ones) indexed for lookup; built on first
+    // use, and dropped when classRep changes.
+    private volatile MemberTable members;
+
+    // The abstract methods of classRep; computed on first use, and dropped when classRep
+    // changes.
+    private volatile ArrayList<Method> abstractMethods;
+
+    // Maps type names to their Type representations. Method bodies may be analyzed in parallel,
+    // so it's a concurrent map.
+    private static ConcurrentHashMap<String, Type> types = new ConcurrentHashMap<String, Type>();
 
     /**
      * The int type.
@@ -128,10 +140,32 @@ class Type {
      * @return a type representation of classRep.
      */
     public static Type typeFor(Class<?> classRep) {
-        if (types.get(descriptorFor(classRep)) == null) {
-            types.put(descriptorFor(classRep), new Type(classRep));
+        String descriptor = descriptorFor(classRep);
+        Type type = types.get(descriptor);
+        if (type == null) {
+            type = new Type(classRep);
+            Type added = types.putIfAbsent(descriptor, type);
+            if (added != null) {
+                // Another thread added one first.
+                type = added;
+            }
+        }
+        return type;
+    }
+
+    /**
+     * Removes from the cache of types those defined by the program being compiled, that is, the
+     * ones whose class representations were loaded from bytes by a ByteClassLoader. Types from
+     * the class path stay cached.
+     */
+    public static void removeUserTypes() {
+        Iterator<Map.Entry<String, Type>> entries = types.entrySet().iterator();
+        while (entries.hasNext()) {
+            Class<?> classRep = entries.next().getValue().classRep;
+            if (classRep != null && classRep.getClassLoader() instanceof ByteClassLoader) {
+                entries.remove();
+            }
         }
-        return types.get(descriptorFor(classRep));
     }
 
     /**
@@ -150,6 +184,8 @@ class Type {
      */
     public void setClassRep(Class<?> classRep) {
         this.classRep = classRep;
+        members = null;
+        abstractMethods = null;
     }
 
     /**
@@ -257,6 +293,16 @@ class Type {
      * @return a list of this class' abstract methods.
      */
     public ArrayList<Method> abstractMethods() {
+        ArrayList<Method> abstractMethods = this.abstractMethods;
+        if (abstractMethods == null) {
+            abstractMethods = findAbstractMethods();
+            this.abstractMethods = abstractMethods;
+        }
+        return new ArrayList<Method>(abstractMethods);
+    }
+
+    // Returns a list of this class' abstract methods, found by walking the class hierarchy.
+    private ArrayList<Method> findAbstractMethods() {
         ArrayList<Method> inheritedAbstractMethods = superClass() == null ? new ArrayList<Method>()
                 : superClass().abstractMethods();
         ArrayList<Method> abstractMethods = new ArrayList<Method>();
@@ -306,10 +352,11 @@ class Type {
      * An assertion that this type matches one of the specified types. If there is no match, an
      * error is reported.
      *
+     * @param context       context in which the match is required.
      * @param line          the line near which the mismatch occurs.
      * @param expectedTypes expected types.
      */
-    public void mustMatchOneOf(int line, Type... expectedTypes) {
+    public void mustMatchOneOf(Context context, int line, Type... expectedTypes) {
         if (this == Type.ANY) {
             return;
         }
@@ -318,7 +365,7 @@ class Type {
                 return;
             }
         }
-        JAST.compilationUnit.reportSemanticError(line,
+        context.compilationUnit().reportSemanticError(line,
                 "Type %s doesn't match any of the expected types %s", this,
                 Arrays.toString(expectedTypes));
     }
@@ -327,13 +374,14 @@ class Type {
      * An assertion that this type matches the specified type. If there is no match, an error is
      * reported.
      *
+     * @param context      context in which the match is required.
      * @param line         the line near which the mismatch occurs.
      * @param expectedType type with which to match.
      */
-    public void mustMatchExpected(int line, Type expectedType) {
+    public void mustMatchExpected(Context context, int line, Type expectedType) {
         if (!matchesExpected(expectedType)) {
-            JAST.compilationUnit.reportSemanticError(line, "Type %s doesn't match type %s", this,
-                    expectedType);
+            context.compilationUnit().reportSemanticError(line, "Type %s doesn't match type %s",
+                    this, expectedType);
         }
     }
 
@@ -432,25 +480,7 @@ class Type {
      * @return a method in this type having the given name and argument types, or null.
      */
     public Method methodFor(String name, Type[] argTypes) {
-        Class[] classes = new Class[argTypes.length];
-        for (int i = 0; i < argTypes.length; i++) {
-            classes[i] = argTypes[i].classRep;
-        }
-        Class cls = classRep;
-
-        // Search this class and all superclasses.
-        while (cls != null) {
-            java.lang.reflect.Method[] methods = cls.getDeclaredMethods();
-            for (java.lang.reflect.Method method : methods) {
-                if (method.getName().equals(name) && Type.argTypesMatch(classes,
-                        method.getParameterTypes())) {
-                    return new Method(method);
-                }
-            }
-            cls = cls.getSuperclass();
-        }
-
-        return null;
+        return members().methods.get(memberKey(name, argTypes));
     }
 
     /**
@@ -460,20 +490,7 @@ class Type {
      * @return a constructor in this type having the given argument types, or null.
      */
     public Constructor constructorFor(Type[] argTypes) {
-        Class[] classes = new Class[argTypes.length];
-        for (int i = 0; i < argTypes.length; i++) {
-            classes[i] = argTypes[i].classRep;
-        }
-
-        // Search only this class (we don't inherit constructors).
-        java.lang.reflect.Constructor[] constructors = classRep.getDeclaredConstructors();
-        for (java.lang.reflect.Constructor constructor : constructors) {
-            if (argTypesMatch(classes, constructor.getParameterTypes())) {
-                return new Constructor(constructor);
-            }
-        }
-
-        return null;
+        return members().constructors.get(memberKey("", argTypes));
     }
 
     /**
@@ -483,17 +500,7 @@ class Type {
      * @return a field in this type having the given name, or null.
      */
     public Field fieldFor(String name) {
-        Class<?> cls = classRep;
-        while (cls != null) {
-            java.lang.reflect.Field[] fields = cls.getDeclaredFields();
-            for (java.lang.reflect.Field field : fields) {
-                if (field.getName().equals(name)) {
-                    return new Field(field);
-                }
-            }
-            cls = cls.getSuperclass();
-        }
-        return null;
+        return members().fields.get(name);
     }
 
     /**
@@ -518,12 +525,13 @@ class Type {
     /**
      * Returns true if the member is accessible from this type, and false otherwise.
      *
-     * @param line   the line in which the access occurs.
-     * @param member the member being accessed.
+     * @param context context in which the access occurs.
+     * @param line    the line in which the access occurs.
+     * @param member  the member being accessed.
      * @return true if the member is accessible from this type, and false otherwise.
      */
-    public boolean checkAccess(int line, Member member) {
-        if (!checkAccess(line, classRep, member.declaringType().classRep)) {
+    public boolean checkAccess(Context context, int line, Member member) {
+        if (!checkAccess(context, line, classRep, member.declaringType().classRep)) {
             return false;
         }
         // The member must be either public, protected, or private.
@@ -542,7 +550,7 @@ class Type {
                     .isJavaAssignableFrom(this)) {
                 return true;
             } else {
-                JAST.compilationUnit.reportSemanticError(line,
+                context.compilationUnit().reportSemanticError(line,
                         "The protected member, " + member.name() + ", is not accessible.");
                 return false;
             }
@@ -552,7 +560,7 @@ class Type {
                     descriptorFor(member.member().getDeclaringClass()))) {
                 return true;
             } else {
-                JAST.compilationUnit.reportSemanticError(line,
+                context.compilationUnit().reportSemanticError(line,
                         "The private member, " + member.name() + ", is not accessible.");
                 return false;
             }
@@ -562,7 +570,7 @@ class Type {
         if (packageName().equals(member.declaringType().packageName())) {
             return true;
         } else {
-            JAST.compilationUnit.reportSemanticError(line, "The member, " + member.name() +
+            context.compilationUnit().reportSemanticError(line, "The member, " + member.name() +
                     ", is not accessible because it's in a different package.");
             return false;
         }
@@ -571,39 +579,43 @@ class Type {
     /**
      * Returns true if the target type is accessible from this type, and false otherwise.
      *
+     * @param context    context in which the access occurs.
      * @param line       line in which the access occurs.
      * @param targetType the type being accessed.
      * @return true if the target type is accessible from this type, and false otherwise.
      */
-    public boolean checkAccess(int line, Type targetType) {
+    public boolean checkAccess(Context context, int line, Type targetType) {
         if (targetType.isPrimitive()) {
             return true;
         }
         if (targetType.isArray()) {
-            return this.checkAccess(line, targetType.componentType());
+            return this.checkAccess(context, line, targetType.componentType());
         }
-        return checkAccess(line, classRep, targetType.classRep);
+        return checkAccess(context, line, classRep, targetType.classRep);
     }
 
     /**
      * Returns true if the referenced type is accessible from the referencing type, and false
      * otherwise.
      *
+     * @param context         context in which the access occurs.
      * @param line            the line in which the access occurs.
      * @param referencingType the type attempting the access.
      * @param type            the type that we want to access.
      * @return true if the referenced type is accessible from the referencing type, and false
      * otherwise.
      */
-    public static boolean checkAccess(int line, Class referencingType, Class type) {
+    public static boolean checkAccess(Context context, int line, Class referencingType,
+                                      Class type) {
         java.lang.Package p1 = referencingType.getPackage();
         java.lang.Package p2 = type.getPackage();
         if (Modifier.isPublic(type.getModifiers()) ||
                 (p1 == null ? "" : p1.getName()).equals((p2 == null ? "" : p2.getName()))) {
             return true;
         } else {
-            JAST.compilationUnit.reportSemanticError(line, "The type, " + type.getCanonicalName() +
-                    ", is not accessible from " + referencingType.getCanonicalName());
+            context.compilationUnit().reportSemanticError(line, "The type, " +
+                    type.getCanonicalName() + ", is not accessible from " +
+                    referencingType.getCanonicalName());
             return false;
         }
     }
@@ -643,6 +655,64 @@ class Type {
         this.classRep = classRep;
     }
 
+    // Returns the member table of this type, building it on first use. The methods and fields of
+    // the class and all its superclasses are entered in that order, and where two have the same
+    // key (or name, for fields) the first one entered is kept, so a lookup finds what a search up
+    // the class hierarchy would have found first. Constructors aren't inherited, so only the
+    // class' own are entered.
+    private MemberTable members() {
+        MemberTable members = this.members;
+        if (members != null) {
+            return members;
+        }
+        members = new MemberTable();
+        for (Class<?> cls = classRep; cls != null; cls = cls.getSuperclass()) {
+            for (java.lang.reflect.Method method : cls.getDeclaredMethods()) {
+                String key = memberKey(method.getName(), method.getParameterTypes());
+                if (!members.methods.containsKey(key)) {
+                    members.methods.put(key, new Method(method));
+                }
+            }
+            for (java.lang.reflect.Field field : cls.getDeclaredFields()) {
+                if (!members.fields.containsKey(field.getName())) {
+                    members.fields.put(field.getName(), new Field(field));
+                }
+            }
+        }
+        if (classRep != null) {
+            for (java.lang.reflect.Constructor<?> constructor :
+                    classRep.getDeclaredConstructors()) {
+                String key = memberKey("", constructor.getParameterTypes());
+                if (!members.constructors.containsKey(key)) {
+                    members.constructors.put(key, new Constructor(constructor));
+                }
+            }
+        }
+        this.members = members;
+        return members;
+    }
+
+    // Returns the key under which a member with the given name and argument (or parameter)
+    // types is entered in a member table: the name followed by the descriptors of the types.
+    // Two members have the same key exactly when argTypesMatch() says their types match.
+    private static String memberKey(String name, Type[] argTypes) {
+        StringBuilder key = new StringBuilder(name).append('(');
+        for (Type argType : argTypes) {
+            key.append(descriptorFor(argType.classRep));
+        }
+        return key.append(')').toString();
+    }
+
+    // Returns the key under which a member with the given name and parameter types is entered in
+    // a member table.
+    private static String memberKey(String name, Class<?>[] parameterTypes) {
+        StringBuilder key = new StringBuilder(name).append('(');
+        for (Class<?> parameterType : parameterTypes) {
+            key.append(descriptorFor(parameterType));
+        }
+        return key.append(')').toString();
+    }
+
     // Returns the JVM descriptor of a type's class representation.
     private static String descriptorFor(Class<?> classRep) {
         return classRep == null ? "V" : classRep == void.class ? "V"
@@ -661,6 +731,38 @@ class Type {
     }
 }
 
+/**
+ * The members of a class, including the methods and fields it inherits, indexed for lookup (see
+ * Type.methodFor(), Type.fieldFor() and Type.constructorFor()). Methods and constructors are keyed
+ * by their signatures, i.e., their names followed by the descriptors of their parameter types, and
+ * fields by their names.
+ */
+class MemberTable {
+    /**
+     * Maps method signatures to methods.
+     */
+    public HashMap<String, Method> methods;
+
+    /**
+     * Maps field names to fields.
+     */
+    public HashMap<String, Field> fields;
+
+    /**
+     * Maps constructor signatures (with empty names) to constructors.
+     */
+    public HashMap<String, Constructor> constructors;
+
+    /**
+     * Constructs an empty member table.
+     */
+    public MemberTable() {
+        methods = new HashMap<String, Method>();
+        fields = new HashMap<String, Field>();
+        constructors = new HashMap<String, Constructor>();
+    }
+}
+
 /**
  * A representation of any reference type that can be denoted as a (possibly qualified) identifier.
  */
@@ -723,18 +825,23 @@ class TypeName extends Type {
      * {@inheritDoc}
      */
     public Type resolve(Context context) {
-        Type resolvedType = context.lookupType(name);
-        if (resolvedType == null) {
-            // Try loading a type with the given fullname.
-            try {
-                resolvedType = typeFor(Class.forName(name));
-                context.addType(line, resolvedType);
-            } catch (Exception e) {
-                JAST.compilationUnit.reportSemanticError(line, "Unable to locate %s", name);
-                resolvedType = Type.ANY;
+        // The type may be added to the compilation unit context, which method bodies being
+        // analyzed in parallel share; so the lookup and the addition are done together.
+        synchronized (context.compilationUnitContext()) {
+            Type resolvedType = context.lookupType(name);
+            if (resolvedType == null) {
+                // Try loading a type with the given fullname.
+                try {
+                    resolvedType = typeFor(Class.forName(name));
+                    context.addType(line, resolvedType);
+                } catch (Exception e) {
+                    context.compilationUnit().reportSemanticError(line, "Unable to locate %s",
+                            name);
+                    resolvedType = Type.ANY;
+                }
             }
+            return resolvedType;
         }
-        return resolvedType;
     }
 }
 
@@ -0,0 +1,28 @@
+// Conditional jumps on a boolean (ifeq and ifne). Expected output: 10, 1 and 101.
+
+import jminusminus.SPIM;
+
+public class Bool {
+    public static int f(boolean big, int a) {
+        int r = 0;
+        if (big) {
+            r = 1;
+        }
+        if (!big) {
+            r = r + 10;
+        }
+        if (big && a > 100) {
+            r = r + 100;
+        }
+        return r;
+    }
+
+    public static void main(String[] args) {
+        SPIM.printInt(f(false, 5));
+        SPIM.printChar('\n');
+        SPIM.printInt(f(true, 5));
+        SPIM.printChar('\n');
+        SPIM.printInt(f(true, 300));
+        SPIM.printChar('\n');
+    }
+}
@@ -0,0 +1,32 @@
+// Reloads of spilled values on the control flow edges around an if_icmpeq inside a loop, with
+// -s linear and few registers (-r 3 to -r 5). Expected output: -127129.
+
+import jminusminus.SPIM;
+
+public class EmptyEdge {
+    public static int m0() {
+        return 1000;
+    }
+
+    public static int m1(int p0, int p1) {
+        int r = p1;
+        r = ((p0 + p1) + (r + r));
+        int i4 = 0;
+        while (3 > i4) {
+            if (!((2 + 128) == r)) {
+                p0 = 128;
+            } else {
+                r = ((p1 + 3) + p0);
+                p0 = (1000 + (r + p0));
+            }
+            p1 = m0();
+            i4 = i4 + 1;
+        }
+        return ((-129 + p1) - (p1 * p0));
+    }
+
+    public static void main(String[] args) {
+        SPIM.printInt(m1(6, 9));
+        SPIM.printChar('\n');
+    }
+}
@@ -0,0 +1,17 @@
+// A call with more arguments than there are argument registers, with -s graph and few
+// registers (-r 3). Expected output: 819.
+
+import jminusminus.SPIM;
+
+public class G4 {
+    public static int sum(int a, int b, int c, int d, int e, int f, int g, int h, int i, int j,
+            int k, int l, int m) {
+        return a + b * 2 + c * 3 + d * 4 + e * 5 + f * 6 + g * 7 + h * 8 + i * 9 + j * 10
+                + k * 11 + l * 12 + m * 13;
+    }
+
+    public static void main(String[] args) {
+        SPIM.printInt(sum(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13));
+        SPIM.printChar('\n');
+    }
+}
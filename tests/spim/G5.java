@@ -0,0 +1,34 @@
+// Calls with many arguments (some of them calls themselves) inside a loop, with -s graph and
+// few registers (-r 3 to -r 5). Expected output: 6971.
+
+import jminusminus.SPIM;
+
+public class G5 {
+    public static int sum(int a, int b, int c, int d, int e, int f, int g, int h, int i, int j,
+            int k, int l, int m) {
+        return a + b * 2 + c * 3 + d * 4 + e * 5 + f * 6 + g * 7 + h * 8 + i * 9 + j * 10
+                + k * 11 + l * 12 + m * 13;
+    }
+
+    public static int nine(int a, int b, int c, int d, int e, int f, int g, int h, int i) {
+        return a - b + c - d + e - f + g - h + i * 100;
+    }
+
+    public static int eight(int a, int b, int c, int d, int e, int f, int g, int h) {
+        return a * h + b * g + c * f + d * e;
+    }
+
+    public static void main(String[] args) {
+        int n = 1;
+        int s = 0;
+        while (3 > n) {
+            s = s + sum(n, n + 1, n + 2, n + 3, n + 4, n + 5, n + 6, n + 7, n + 8, n + 9,
+                    n + 10, n + 11, n + 12);
+            s = s + nine(n, n * 2, n * 3, n * 4, n * 5, n * 6, n * 7, n * 8, n * 9);
+            s = s + eight(sum(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13), n, 3, 4, 5, 6, 7, n);
+            n = n + 1;
+        }
+        SPIM.printInt(s);
+        SPIM.printChar('\n');
+    }
+}
@@ -0,0 +1,28 @@
+// Conditional jumps the peephole optimizer inverts (if_icmpeq, if_icmpne, if_icmple, if_icmpgt),
+// which the SPIM front end must lower as they are. Expected output: 10, 1 and 11.
+
+import jminusminus.SPIM;
+
+public class Peep {
+    public static int f(int a, int b) {
+        int r = 0;
+        if (a == b) {
+        } else {
+            r = 1;
+        }
+        if (a > b) {
+        } else {
+            r = r + 10;
+        }
+        return r;
+    }
+
+    public static void main(String[] args) {
+        SPIM.printInt(f(5, 5));
+        SPIM.printChar('\n');
+        SPIM.printInt(f(7, 5));
+        SPIM.printChar('\n');
+        SPIM.printInt(f(3, 5));
+        SPIM.printChar('\n');
+    }
+}
@@ -0,0 +1,79 @@
+// Loops that swap, rotate and chain values around, whose phi functions are moved on the same
+// edge and read each other's targets. Expected output: 21, 12, 231, 71220 and 12.
+
+import jminusminus.SPIM;
+
+public class Swap {
+    public static int swap(int n) {
+        int a = 1;
+        int b = 2;
+        int i = 0;
+        while (n > i) {
+            int t = a;
+            a = b;
+            b = t;
+            i = i + 1;
+        }
+        return a * 10 + b;
+    }
+
+    public static int rotate(int n) {
+        int a = 1;
+        int b = 2;
+        int c = 3;
+        int i = 0;
+        while (n > i) {
+            int t = a;
+            a = b;
+            b = c;
+            c = t;
+            i = i + 1;
+        }
+        return a * 100 + b * 10 + c;
+    }
+
+    public static int chain(int n) {
+        int a = 0;
+        int b = 0;
+        int c = 1;
+        int i = 0;
+        while (n > i) {
+            a = b;
+            b = c;
+            c = c + a + 1;
+            i = i + 1;
+        }
+        return a * 10000 + b * 100 + c;
+    }
+
+    public static int twice(int n) {
+        int a = 1;
+        int b = 2;
+        int i = 0;
+        while (n > i) {
+            int t = a;
+            a = b;
+            b = t;
+            if (a > b) {
+                t = a;
+                a = b;
+                b = t;
+            }
+            i = i + 1;
+        }
+        return a * 10 + b;
+    }
+
+    public static void main(String[] args) {
+        SPIM.printInt(swap(3));
+        SPIM.printChar('\n');
+        SPIM.printInt(swap(4));
+        SPIM.printChar('\n');
+        SPIM.printInt(rotate(4));
+        SPIM.printChar('\n');
+        SPIM.printInt(chain(5));
+        SPIM.printChar('\n');
+        SPIM.printInt(twice(3));
+        SPIM.printChar('\n');
+    }
+}